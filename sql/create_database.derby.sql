@@ -27,48 +27,117 @@ DROP TABLE HTML;
 DROP TABLE XMLT;
 DROP TABLE XSD;
 DROP TABLE XSLT;
+DROP TABLE CONTENTS;
+DROP TABLE VALIDITY;
+DROP TABLE XML_INFOSET;
+
+-- tabla para los contenidos de todos los documentos, identificados por el hash
+-- SHA-256 (en hexadecimal) de su texto en UTF-8, de modo que cada contenido
+-- distinto se almacena una unica vez; "refs" cuenta los documentos que lo
+-- referencian, "format" indica si se encuentra en texto plano (0, columna
+-- "content") o comprimido con deflate (1, columna "data")
+CREATE TABLE CONTENTS (
+    hash    CHAR(64) NOT NULL,
+    refs    INTEGER  NOT NULL,
+    content LONG VARCHAR,
+    format  SMALLINT NOT NULL DEFAULT 0,
+    data    BLOB,
+
+    PRIMARY KEY(hash)
+);
+
+-- las tablas de documentos identifican cada documento por su UUID en binario
+-- (16 bytes) y referencian su contenido por su hash ("content_hash"),
+-- almacenando ademas el tamaño en bytes del contenido ("size") y la fecha de
+-- creacion del documento ("created_at")
 
 -- tabla para documentos HTML
 CREATE TABLE HTML (
-    uuid    CHAR(36) NOT NULL,
-    content LONG VARCHAR,
+    uuid         CHAR(16) FOR BIT DATA NOT NULL,
+    content_hash CHAR(64)              NOT NULL,
+    size         BIGINT                NOT NULL,
+    created_at   TIMESTAMP             NOT NULL DEFAULT CURRENT_TIMESTAMP,
 
     PRIMARY KEY(uuid)
 );
 
 -- tabla para documentos XML
 CREATE TABLE XMLT (
-    uuid    CHAR(36) NOT NULL,
-    content LONG VARCHAR,
+    uuid         CHAR(16) FOR BIT DATA NOT NULL,
+    content_hash CHAR(64)              NOT NULL,
+    size         BIGINT                NOT NULL,
+    created_at   TIMESTAMP             NOT NULL DEFAULT CURRENT_TIMESTAMP,
 
     PRIMARY KEY(uuid)
 );
 
 -- tabla para documentos XSD
 CREATE TABLE XSD (
-    uuid    CHAR(36) NOT NULL,
-    content LONG VARCHAR,
+    uuid         CHAR(16) FOR BIT DATA NOT NULL,
+    content_hash CHAR(64)              NOT NULL,
+    size         BIGINT                NOT NULL,
+    created_at   TIMESTAMP             NOT NULL DEFAULT CURRENT_TIMESTAMP,
 
     PRIMARY KEY(uuid)
 );
 
 -- tabla para documentos XSLT
 CREATE TABLE XSLT (
-    uuid    CHAR(36) NOT NULL,
-    xsd     CHAR(36) NOT NULL,
-    content LONG VARCHAR,
+    uuid         CHAR(16) FOR BIT DATA NOT NULL,
+    xsd          CHAR(16) FOR BIT DATA NOT NULL,
+    content_hash CHAR(64)              NOT NULL,
+    size         BIGINT                NOT NULL,
+    created_at   TIMESTAMP             NOT NULL DEFAULT CURRENT_TIMESTAMP,
+
+    PRIMARY KEY(uuid)
+);
+
+-- indice para localizar los XSLT asociados a un XSD (e.g. borrados en cascada)
+CREATE INDEX XSLT_XSD ON XSLT (xsd);
+
+-- tabla con los resultados de validar cada XML con cada XSD ("valid" 1 si es
+-- valido, 0 si no lo es), calculados al crear los documentos o al validarlos
+-- por primera vez durante una transformacion
+CREATE TABLE VALIDITY (
+    xml_uuid   CHAR(16) FOR BIT DATA NOT NULL,
+    xsd_uuid   CHAR(16) FOR BIT DATA NOT NULL,
+    valid      SMALLINT              NOT NULL,
+    checked_at TIMESTAMP             NOT NULL DEFAULT CURRENT_TIMESTAMP,
+
+    PRIMARY KEY(xml_uuid, xsd_uuid)
+);
+
+-- indice para eliminar los resultados de un XSD
+CREATE INDEX VALIDITY_XSD ON VALIDITY (xsd_uuid);
+
+-- tabla para la representacion binaria (ya analizada) de los documentos XML
+-- de mayor tamaño, generada la primera vez que se transforman
+CREATE TABLE XML_INFOSET (
+    uuid CHAR(16) FOR BIT DATA NOT NULL,
+    data BLOB                  NOT NULL,
 
     PRIMARY KEY(uuid)
 );
 
--- insercion de tuplas de ejemplo en la tabla de documentos HTML
-INSERT INTO HTML VALUES ('03f5881b-4d92-4990-92a0-d19af3531f8c', '<html>\n<head>\n<title>Contenido 01</title>\n</head>\n<body>\n<h1>Contenido Numero 01</title>\n</body>\n</html>');
-INSERT INTO HTML VALUES ('1b4d6578-f627-4e49-b628-d0a8bc305393', '<html>\n<head>\n<title>Contenido 02</title>\n</head>\n<body>\n<h1>Contenido Numero 02</title>\n</body>\n</html>');
-INSERT INTO HTML VALUES ('e83fdd55-ab11-41cd-9039-30f4b138f0ae', '<html>\n<head>\n<title>Contenido 03</title>\n</head>\n<body>\n<h1>Contenido Numero 03</title>\n</body>\n</html>');
-INSERT INTO HTML VALUES ('c2a5a0c0-a5af-4711-a6da-36fb20c71a24', '<html>\n<head>\n<title>Contenido 04</title>\n</head>\n<body>\n<h1>Contenido Numero 04</title>\n</body>\n</html>');
-INSERT INTO HTML VALUES ('809c1096-388a-4388-9793-b443f374b030', '<html>\n<head>\n<title>Contenido 05</title>\n</head>\n<body>\n<h1>Contenido Numero 05</title>\n</body>\n</html>');
-INSERT INTO HTML VALUES ('06b93643-738a-4043-b1fd-80f2e2598271', '<html>\n<head>\n<title>Contenido 06</title>\n</head>\n<body>\n<h1>Contenido Numero 06</title>\n</body>\n</html>');
-INSERT INTO HTML VALUES ('122e029a-d4d7-45a5-838b-bd4af566b7da', '<html>\n<head>\n<title>Contenido 07</title>\n</head>\n<body>\n<h1>Contenido Numero 07</title>\n</body>\n</html>');
-INSERT INTO HTML VALUES ('d659c600-57ec-4fbb-a031-61db37bfdc91', '<html>\n<head>\n<title>Contenido 08</title>\n</head>\n<body>\n<h1>Contenido Numero 08</title>\n</body>\n</html>');
-INSERT INTO HTML VALUES ('91b63245-1252-4298-ad97-045b357fc8d8', '<html>\n<head>\n<title>Contenido 09</title>\n</head>\n<body>\n<h1>Contenido Numero 09</title>\n</body>\n</html>');
-INSERT INTO HTML VALUES ('7f28c1a0-0145-49b3-be9d-839a8612e186', '<html>\n<head>\n<title>Contenido 10</title>\n</head>\n<body>\n<h1>Contenido Numero 10</title>\n</body>\n</html>');
+-- insercion de tuplas de ejemplo en la tabla de documentos HTML, junto a sus
+-- contenidos
+INSERT INTO CONTENTS (hash, refs, content) VALUES ('1be60166e2bab2ad3f3ecb946a19e37d5b1def7d59da80aeb2bb4c09e62770cc', 1, '<html>\n<head>\n<title>Contenido 01</title>\n</head>\n<body>\n<h1>Contenido Numero 01</title>\n</body>\n</html>');
+INSERT INTO HTML (uuid, content_hash, size) VALUES (X'03f5881b4d92499092a0d19af3531f8c', '1be60166e2bab2ad3f3ecb946a19e37d5b1def7d59da80aeb2bb4c09e62770cc', 111);
+INSERT INTO CONTENTS (hash, refs, content) VALUES ('cc17647551095bfbf1e059e09b9dde393f64cdfe6446daee6d8c614b3604c1de', 1, '<html>\n<head>\n<title>Contenido 02</title>\n</head>\n<body>\n<h1>Contenido Numero 02</title>\n</body>\n</html>');
+INSERT INTO HTML (uuid, content_hash, size) VALUES (X'1b4d6578f6274e49b628d0a8bc305393', 'cc17647551095bfbf1e059e09b9dde393f64cdfe6446daee6d8c614b3604c1de', 111);
+INSERT INTO CONTENTS (hash, refs, content) VALUES ('749b67c1ebdb039d0978dd68516dab92008dfa9945197d578fe110b0a8521f03', 1, '<html>\n<head>\n<title>Contenido 03</title>\n</head>\n<body>\n<h1>Contenido Numero 03</title>\n</body>\n</html>');
+INSERT INTO HTML (uuid, content_hash, size) VALUES (X'e83fdd55ab1141cd903930f4b138f0ae', '749b67c1ebdb039d0978dd68516dab92008dfa9945197d578fe110b0a8521f03', 111);
+INSERT INTO CONTENTS (hash, refs, content) VALUES ('a9c53469a46eb2b6ba9281d0ad1d596e48df8b024f9a194cf4c4c4a2417e40a2', 1, '<html>\n<head>\n<title>Contenido 04</title>\n</head>\n<body>\n<h1>Contenido Numero 04</title>\n</body>\n</html>');
+INSERT INTO HTML (uuid, content_hash, size) VALUES (X'c2a5a0c0a5af4711a6da36fb20c71a24', 'a9c53469a46eb2b6ba9281d0ad1d596e48df8b024f9a194cf4c4c4a2417e40a2', 111);
+INSERT INTO CONTENTS (hash, refs, content) VALUES ('a9243889f6a5660faf5a578d68e26b6a78663c8d5117f7f72904214e3d676af5', 1, '<html>\n<head>\n<title>Contenido 05</title>\n</head>\n<body>\n<h1>Contenido Numero 05</title>\n</body>\n</html>');
+INSERT INTO HTML (uuid, content_hash, size) VALUES (X'809c1096388a43889793b443f374b030', 'a9243889f6a5660faf5a578d68e26b6a78663c8d5117f7f72904214e3d676af5', 111);
+INSERT INTO CONTENTS (hash, refs, content) VALUES ('89d9fc153ff6799a0fbb0c14dd670796c53558ce3489dfc27b79f2e08550207b', 1, '<html>\n<head>\n<title>Contenido 06</title>\n</head>\n<body>\n<h1>Contenido Numero 06</title>\n</body>\n</html>');
+INSERT INTO HTML (uuid, content_hash, size) VALUES (X'06b93643738a4043b1fd80f2e2598271', '89d9fc153ff6799a0fbb0c14dd670796c53558ce3489dfc27b79f2e08550207b', 111);
+INSERT INTO CONTENTS (hash, refs, content) VALUES ('546316fdac4823315ba278b3257d44173d8a5123d0eaa1e9ac0595a29da825c9', 1, '<html>\n<head>\n<title>Contenido 07</title>\n</head>\n<body>\n<h1>Contenido Numero 07</title>\n</body>\n</html>');
+INSERT INTO HTML (uuid, content_hash, size) VALUES (X'122e029ad4d745a5838bbd4af566b7da', '546316fdac4823315ba278b3257d44173d8a5123d0eaa1e9ac0595a29da825c9', 111);
+INSERT INTO CONTENTS (hash, refs, content) VALUES ('d58a838f1a4a2ed2a699e33bae47b8bdf315ffe79be500a44546642f54d02bfe', 1, '<html>\n<head>\n<title>Contenido 08</title>\n</head>\n<body>\n<h1>Contenido Numero 08</title>\n</body>\n</html>');
+INSERT INTO HTML (uuid, content_hash, size) VALUES (X'd659c60057ec4fbba03161db37bfdc91', 'd58a838f1a4a2ed2a699e33bae47b8bdf315ffe79be500a44546642f54d02bfe', 111);
+INSERT INTO CONTENTS (hash, refs, content) VALUES ('f576e668e21ec106f28ba13a82d59a97a870e224e02a7ae17366150d0ef1c776', 1, '<html>\n<head>\n<title>Contenido 09</title>\n</head>\n<body>\n<h1>Contenido Numero 09</title>\n</body>\n</html>');
+INSERT INTO HTML (uuid, content_hash, size) VALUES (X'91b6324512524298ad97045b357fc8d8', 'f576e668e21ec106f28ba13a82d59a97a870e224e02a7ae17366150d0ef1c776', 111);
+INSERT INTO CONTENTS (hash, refs, content) VALUES ('800551e3609162da3f8d2de94d0a970efb3745331951649121187c256301e1e1', 1, '<html>\n<head>\n<title>Contenido 10</title>\n</head>\n<body>\n<h1>Contenido Numero 10</title>\n</body>\n</html>');
+INSERT INTO HTML (uuid, content_hash, size) VALUES (X'7f28c1a0014549b3be9d839a8612e186', '800551e3609162da3f8d2de94d0a970efb3745331951649121187c256301e1e1', 111);
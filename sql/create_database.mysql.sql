@@ -39,48 +39,117 @@ DROP TABLE IF EXISTS HTML;
 DROP TABLE IF EXISTS XMLT;
 DROP TABLE IF EXISTS XSD;
 DROP TABLE IF EXISTS XSLT;
+DROP TABLE IF EXISTS CONTENTS;
+DROP TABLE IF EXISTS VALIDITY;
+DROP TABLE IF EXISTS XML_INFOSET;
+
+-- tabla para los contenidos de todos los documentos, identificados por el hash
+-- SHA-256 (en hexadecimal) de su texto en UTF-8, de modo que cada contenido
+-- distinto se almacena una unica vez; "refs" cuenta los documentos que lo
+-- referencian, "format" indica si se encuentra en texto plano (0, columna
+-- "content") o comprimido con deflate (1, columna "data")
+CREATE TABLE CONTENTS (
+    hash    CHAR(64) NOT NULL,
+    refs    INTEGER  NOT NULL,
+    content TEXT,
+    format  SMALLINT NOT NULL DEFAULT 0,
+    data    LONGBLOB,
+
+    PRIMARY KEY(hash)
+);
+
+-- las tablas de documentos identifican cada documento por su UUID en binario
+-- (16 bytes) y referencian su contenido por su hash ("content_hash"),
+-- almacenando ademas el tamaño en bytes del contenido ("size") y la fecha de
+-- creacion del documento ("created_at")
 
 -- tabla para documentos HTML
 CREATE TABLE HTML (
-    uuid    CHAR(36) NOT NULL,
-    content TEXT,
+    uuid         BINARY(16) NOT NULL,
+    content_hash CHAR(64)   NOT NULL,
+    size         BIGINT     NOT NULL,
+    created_at   TIMESTAMP  NOT NULL DEFAULT CURRENT_TIMESTAMP,
 
     PRIMARY KEY(uuid)
 );
 
 -- tabla para documentos XML
 CREATE TABLE XMLT (
-    uuid    CHAR(36) NOT NULL,
-    content TEXT,
+    uuid         BINARY(16) NOT NULL,
+    content_hash CHAR(64)   NOT NULL,
+    size         BIGINT     NOT NULL,
+    created_at   TIMESTAMP  NOT NULL DEFAULT CURRENT_TIMESTAMP,
 
     PRIMARY KEY(uuid)
 );
 
 -- tabla para documentos XSD
 CREATE TABLE XSD (
-    uuid    CHAR(36) NOT NULL,
-    content TEXT,
+    uuid         BINARY(16) NOT NULL,
+    content_hash CHAR(64)   NOT NULL,
+    size         BIGINT     NOT NULL,
+    created_at   TIMESTAMP  NOT NULL DEFAULT CURRENT_TIMESTAMP,
 
     PRIMARY KEY(uuid)
 );
 
 -- tabla para documentos XSLT
 CREATE TABLE XSLT (
-    uuid    CHAR(36) NOT NULL,
-    xsd     CHAR(36) NOT NULL,
-    content TEXT,
+    uuid         BINARY(16) NOT NULL,
+    xsd          BINARY(16) NOT NULL,
+    content_hash CHAR(64)   NOT NULL,
+    size         BIGINT     NOT NULL,
+    created_at   TIMESTAMP  NOT NULL DEFAULT CURRENT_TIMESTAMP,
+
+    PRIMARY KEY(uuid)
+);
+
+-- indice para localizar los XSLT asociados a un XSD (e.g. borrados en cascada)
+CREATE INDEX XSLT_XSD ON XSLT (xsd);
+
+-- tabla con los resultados de validar cada XML con cada XSD ("valid" 1 si es
+-- valido, 0 si no lo es), calculados al crear los documentos o al validarlos
+-- por primera vez durante una transformacion
+CREATE TABLE VALIDITY (
+    xml_uuid   BINARY(16) NOT NULL,
+    xsd_uuid   BINARY(16) NOT NULL,
+    valid      SMALLINT   NOT NULL,
+    checked_at TIMESTAMP  NOT NULL DEFAULT CURRENT_TIMESTAMP,
+
+    PRIMARY KEY(xml_uuid, xsd_uuid)
+);
+
+-- indice para eliminar los resultados de un XSD
+CREATE INDEX VALIDITY_XSD ON VALIDITY (xsd_uuid);
+
+-- tabla para la representacion binaria (ya analizada) de los documentos XML
+-- de mayor tamaño, generada la primera vez que se transforman
+CREATE TABLE XML_INFOSET (
+    uuid BINARY(16) NOT NULL,
+    data LONGBLOB   NOT NULL,
 
     PRIMARY KEY(uuid)
 );
 
--- insercion de tuplas de ejemplo en la tabla de documentos HTML
-INSERT INTO HTML VALUES ('03f5881b-4d92-4990-92a0-d19af3531f8c', '<html>\n<head>\n<title>Contenido 01</title>\n</head>\n<body>\n<h1>Contenido Numero 01</title>\n</body>\n</html>');
-INSERT INTO HTML VALUES ('1b4d6578-f627-4e49-b628-d0a8bc305393', '<html>\n<head>\n<title>Contenido 02</title>\n</head>\n<body>\n<h1>Contenido Numero 02</title>\n</body>\n</html>');
-INSERT INTO HTML VALUES ('e83fdd55-ab11-41cd-9039-30f4b138f0ae', '<html>\n<head>\n<title>Contenido 03</title>\n</head>\n<body>\n<h1>Contenido Numero 03</title>\n</body>\n</html>');
-INSERT INTO HTML VALUES ('c2a5a0c0-a5af-4711-a6da-36fb20c71a24', '<html>\n<head>\n<title>Contenido 04</title>\n</head>\n<body>\n<h1>Contenido Numero 04</title>\n</body>\n</html>');
-INSERT INTO HTML VALUES ('809c1096-388a-4388-9793-b443f374b030', '<html>\n<head>\n<title>Contenido 05</title>\n</head>\n<body>\n<h1>Contenido Numero 05</title>\n</body>\n</html>');
-INSERT INTO HTML VALUES ('06b93643-738a-4043-b1fd-80f2e2598271', '<html>\n<head>\n<title>Contenido 06</title>\n</head>\n<body>\n<h1>Contenido Numero 06</title>\n</body>\n</html>');
-INSERT INTO HTML VALUES ('122e029a-d4d7-45a5-838b-bd4af566b7da', '<html>\n<head>\n<title>Contenido 07</title>\n</head>\n<body>\n<h1>Contenido Numero 07</title>\n</body>\n</html>');
-INSERT INTO HTML VALUES ('d659c600-57ec-4fbb-a031-61db37bfdc91', '<html>\n<head>\n<title>Contenido 08</title>\n</head>\n<body>\n<h1>Contenido Numero 08</title>\n</body>\n</html>');
-INSERT INTO HTML VALUES ('91b63245-1252-4298-ad97-045b357fc8d8', '<html>\n<head>\n<title>Contenido 09</title>\n</head>\n<body>\n<h1>Contenido Numero 09</title>\n</body>\n</html>');
-INSERT INTO HTML VALUES ('7f28c1a0-0145-49b3-be9d-839a8612e186', '<html>\n<head>\n<title>Contenido 10</title>\n</head>\n<body>\n<h1>Contenido Numero 10</title>\n</body>\n</html>');
+-- insercion de tuplas de ejemplo en la tabla de documentos HTML, junto a sus
+-- contenidos
+INSERT INTO CONTENTS (hash, refs, content) VALUES ('0c96ff9863b1ad067089f047131f5ae99a31b955282f9eced18f9ce5501382d6', 1, '<html>\n<head>\n<title>Contenido 01</title>\n</head>\n<body>\n<h1>Contenido Numero 01</title>\n</body>\n</html>');
+INSERT INTO HTML (uuid, content_hash, size) VALUES (UNHEX(REPLACE('03f5881b-4d92-4990-92a0-d19af3531f8c', '-', '')), '0c96ff9863b1ad067089f047131f5ae99a31b955282f9eced18f9ce5501382d6', 104);
+INSERT INTO CONTENTS (hash, refs, content) VALUES ('1ab688f7c251de783a47b6c58f821b6ad764a640beff8f0d24e4a764d9bff7fd', 1, '<html>\n<head>\n<title>Contenido 02</title>\n</head>\n<body>\n<h1>Contenido Numero 02</title>\n</body>\n</html>');
+INSERT INTO HTML (uuid, content_hash, size) VALUES (UNHEX(REPLACE('1b4d6578-f627-4e49-b628-d0a8bc305393', '-', '')), '1ab688f7c251de783a47b6c58f821b6ad764a640beff8f0d24e4a764d9bff7fd', 104);
+INSERT INTO CONTENTS (hash, refs, content) VALUES ('750a361d045ba7275cb244ca8b7c52aaa159320daf9c0b8ba0de37f86ba3abe1', 1, '<html>\n<head>\n<title>Contenido 03</title>\n</head>\n<body>\n<h1>Contenido Numero 03</title>\n</body>\n</html>');
+INSERT INTO HTML (uuid, content_hash, size) VALUES (UNHEX(REPLACE('e83fdd55-ab11-41cd-9039-30f4b138f0ae', '-', '')), '750a361d045ba7275cb244ca8b7c52aaa159320daf9c0b8ba0de37f86ba3abe1', 104);
+INSERT INTO CONTENTS (hash, refs, content) VALUES ('c14a822bb26356ad5447c1dc2f18a57d04e1507f877d6869604c453f6e7aeedd', 1, '<html>\n<head>\n<title>Contenido 04</title>\n</head>\n<body>\n<h1>Contenido Numero 04</title>\n</body>\n</html>');
+INSERT INTO HTML (uuid, content_hash, size) VALUES (UNHEX(REPLACE('c2a5a0c0-a5af-4711-a6da-36fb20c71a24', '-', '')), 'c14a822bb26356ad5447c1dc2f18a57d04e1507f877d6869604c453f6e7aeedd', 104);
+INSERT INTO CONTENTS (hash, refs, content) VALUES ('35249b5cc82137aa3963a50ea98166f9e24b9c2fca070de85501403c4911b320', 1, '<html>\n<head>\n<title>Contenido 05</title>\n</head>\n<body>\n<h1>Contenido Numero 05</title>\n</body>\n</html>');
+INSERT INTO HTML (uuid, content_hash, size) VALUES (UNHEX(REPLACE('809c1096-388a-4388-9793-b443f374b030', '-', '')), '35249b5cc82137aa3963a50ea98166f9e24b9c2fca070de85501403c4911b320', 104);
+INSERT INTO CONTENTS (hash, refs, content) VALUES ('7d2d32a416134826fe5d996c3c2ac10c4b73918295837ac8d0d635f5e4a0db5a', 1, '<html>\n<head>\n<title>Contenido 06</title>\n</head>\n<body>\n<h1>Contenido Numero 06</title>\n</body>\n</html>');
+INSERT INTO HTML (uuid, content_hash, size) VALUES (UNHEX(REPLACE('06b93643-738a-4043-b1fd-80f2e2598271', '-', '')), '7d2d32a416134826fe5d996c3c2ac10c4b73918295837ac8d0d635f5e4a0db5a', 104);
+INSERT INTO CONTENTS (hash, refs, content) VALUES ('599ccb0a1b74c24882923731ce1832551c3acf2b5c87fcea604cc58e2afcf702', 1, '<html>\n<head>\n<title>Contenido 07</title>\n</head>\n<body>\n<h1>Contenido Numero 07</title>\n</body>\n</html>');
+INSERT INTO HTML (uuid, content_hash, size) VALUES (UNHEX(REPLACE('122e029a-d4d7-45a5-838b-bd4af566b7da', '-', '')), '599ccb0a1b74c24882923731ce1832551c3acf2b5c87fcea604cc58e2afcf702', 104);
+INSERT INTO CONTENTS (hash, refs, content) VALUES ('3de59030afd40667aeed8352d3473f7ca5edfd50f066052dd565a5784585254b', 1, '<html>\n<head>\n<title>Contenido 08</title>\n</head>\n<body>\n<h1>Contenido Numero 08</title>\n</body>\n</html>');
+INSERT INTO HTML (uuid, content_hash, size) VALUES (UNHEX(REPLACE('d659c600-57ec-4fbb-a031-61db37bfdc91', '-', '')), '3de59030afd40667aeed8352d3473f7ca5edfd50f066052dd565a5784585254b', 104);
+INSERT INTO CONTENTS (hash, refs, content) VALUES ('ca68b968ae0c108cb1dcc95760e3fa0209ee5c6ae5be4f48f71b1aa33e573ca7', 1, '<html>\n<head>\n<title>Contenido 09</title>\n</head>\n<body>\n<h1>Contenido Numero 09</title>\n</body>\n</html>');
+INSERT INTO HTML (uuid, content_hash, size) VALUES (UNHEX(REPLACE('91b63245-1252-4298-ad97-045b357fc8d8', '-', '')), 'ca68b968ae0c108cb1dcc95760e3fa0209ee5c6ae5be4f48f71b1aa33e573ca7', 104);
+INSERT INTO CONTENTS (hash, refs, content) VALUES ('22f21cbf555c18f48416fd604cfd2fac0af8488cf108a850dfac52c08a32cfcd', 1, '<html>\n<head>\n<title>Contenido 10</title>\n</head>\n<body>\n<h1>Contenido Numero 10</title>\n</body>\n</html>');
+INSERT INTO HTML (uuid, content_hash, size) VALUES (UNHEX(REPLACE('7f28c1a0-0145-49b3-be9d-839a8612e186', '-', '')), '22f21cbf555c18f48416fd604cfd2fac0af8488cf108a850dfac52c08a32cfcd', 104);
@@ -0,0 +1,28 @@
+-- migrate_compression.mysql.sql
+--
+-- Autores:
+--   Garcia Limon, Jesus        <jglimon@esei.uvigo.es>
+--   Gutierrez Jacome, Alberto  <agjacome@esei.uvigo.es>
+--   Vazquez Fernandez, Pablo   <pvfernandez@esei.uvigo.es>
+--
+-- Añade a las tablas de una base de datos ya existente las columnas necesarias
+-- para el almacenamiento comprimido de los contenidos: "format" (0 para
+-- contenido en texto plano en la columna "content", 1 para contenido
+-- comprimido con deflate en la columna "data") y "data". Los documentos
+-- existentes se mantienen en texto plano, y pueden comprimirse posteriormente
+-- con la herramienta ContentMigration (ver README.md).
+--
+-- Ejemplo de uso:
+-- $ mysql -u dai_user -p HybridServer < sql/migrate_compression.mysql.sql
+
+ALTER TABLE HTML ADD COLUMN format SMALLINT NOT NULL DEFAULT 0;
+ALTER TABLE HTML ADD COLUMN data   LONGBLOB;
+
+ALTER TABLE XMLT ADD COLUMN format SMALLINT NOT NULL DEFAULT 0;
+ALTER TABLE XMLT ADD COLUMN data   LONGBLOB;
+
+ALTER TABLE XSD  ADD COLUMN format SMALLINT NOT NULL DEFAULT 0;
+ALTER TABLE XSD  ADD COLUMN data   LONGBLOB;
+
+ALTER TABLE XSLT ADD COLUMN format SMALLINT NOT NULL DEFAULT 0;
+ALTER TABLE XSLT ADD COLUMN data   LONGBLOB;
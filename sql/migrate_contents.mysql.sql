@@ -0,0 +1,50 @@
+-- migrate_contents.mysql.sql
+--
+-- Autores:
+--   Garcia Limon, Jesus        <jglimon@esei.uvigo.es>
+--   Gutierrez Jacome, Alberto  <agjacome@esei.uvigo.es>
+--   Vazquez Fernandez, Pablo   <pvfernandez@esei.uvigo.es>
+--
+-- Crea en una base de datos ya existente la tabla CONTENTS, en la que se
+-- almacenan los contenidos de todos los documentos identificados por su hash,
+-- y añade a las tablas de documentos la columna "hash" que los referencia.
+-- Debe aplicarse previamente migrate_compression.mysql.sql si la base de datos
+-- no cuenta aun con las columnas "format" y "data".
+--
+-- Tras aplicar este script, los contenidos existentes deben trasladarse a la
+-- nueva tabla mediante la herramienta ContentMigration (ver README.md). Una vez
+-- finalizada la migracion, pueden eliminarse las columnas antiguas con las
+-- sentencias comentadas al final de este script.
+--
+-- Ejemplo de uso:
+-- $ mysql -u dai_user -p HybridServer < sql/migrate_contents.mysql.sql
+
+CREATE TABLE CONTENTS (
+    hash    CHAR(64) NOT NULL,
+    refs    INTEGER  NOT NULL,
+    content TEXT,
+    format  SMALLINT NOT NULL DEFAULT 0,
+    data    LONGBLOB,
+
+    PRIMARY KEY(hash)
+);
+
+ALTER TABLE HTML ADD COLUMN hash CHAR(64);
+ALTER TABLE XMLT ADD COLUMN hash CHAR(64);
+ALTER TABLE XSD  ADD COLUMN hash CHAR(64);
+ALTER TABLE XSLT ADD COLUMN hash CHAR(64);
+
+-- tras ejecutar ContentMigration:
+--
+-- ALTER TABLE HTML DROP COLUMN content;
+-- ALTER TABLE HTML DROP COLUMN format;
+-- ALTER TABLE HTML DROP COLUMN data;
+-- ALTER TABLE XMLT DROP COLUMN content;
+-- ALTER TABLE XMLT DROP COLUMN format;
+-- ALTER TABLE XMLT DROP COLUMN data;
+-- ALTER TABLE XSD  DROP COLUMN content;
+-- ALTER TABLE XSD  DROP COLUMN format;
+-- ALTER TABLE XSD  DROP COLUMN data;
+-- ALTER TABLE XSLT DROP COLUMN content;
+-- ALTER TABLE XSLT DROP COLUMN format;
+-- ALTER TABLE XSLT DROP COLUMN data;
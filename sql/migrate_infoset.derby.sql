@@ -0,0 +1,20 @@
+-- migrate_infoset.derby.sql
+--
+-- Autores:
+--   Garcia Limon, Jesus        <jglimon@esei.uvigo.es>
+--   Gutierrez Jacome, Alberto  <agjacome@esei.uvigo.es>
+--   Vazquez Fernandez, Pablo   <pvfernandez@esei.uvigo.es>
+--
+-- Añade a una base de datos ya existente la tabla en la que se almacena la
+-- representacion binaria (ya analizada) de los documentos XML. La tabla se
+-- crea vacia y se completa a medida que se transforman documentos.
+--
+-- Ejemplo de uso:
+-- ij> run 'sql/migrate_infoset.derby.sql';
+
+CREATE TABLE XML_INFOSET (
+    uuid CHAR(16) FOR BIT DATA NOT NULL,
+    data BLOB                  NOT NULL,
+
+    PRIMARY KEY(uuid)
+);
@@ -0,0 +1,20 @@
+-- migrate_infoset.mysql.sql
+--
+-- Autores:
+--   Garcia Limon, Jesus        <jglimon@esei.uvigo.es>
+--   Gutierrez Jacome, Alberto  <agjacome@esei.uvigo.es>
+--   Vazquez Fernandez, Pablo   <pvfernandez@esei.uvigo.es>
+--
+-- Añade a una base de datos ya existente la tabla en la que se almacena la
+-- representacion binaria (ya analizada) de los documentos XML. La tabla se
+-- crea vacia y se completa a medida que se transforman documentos.
+--
+-- Ejemplo de uso:
+-- $ mysql -u dai_user -p HybridServer < sql/migrate_infoset.mysql.sql
+
+CREATE TABLE XML_INFOSET (
+    uuid BINARY(16) NOT NULL,
+    data LONGBLOB   NOT NULL,
+
+    PRIMARY KEY(uuid)
+);
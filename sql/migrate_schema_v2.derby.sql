@@ -0,0 +1,69 @@
+-- migrate_schema_v2.derby.sql
+--
+-- Autores:
+--   Garcia Limon, Jesus        <jglimon@esei.uvigo.es>
+--   Gutierrez Jacome, Alberto  <agjacome@esei.uvigo.es>
+--   Vazquez Fernandez, Pablo   <pvfernandez@esei.uvigo.es>
+--
+-- Crea, junto a las tablas de documentos de una base de datos ya existente,
+-- sus nuevas versiones (sufijo "_V2"): UUID almacenados en binario (16 bytes),
+-- columna "content_hash" en lugar de "hash", tamaño del contenido ("size"),
+-- fecha de creacion ("created_at") e indice sobre la columna "xsd" de XSLT.
+-- Los documentos deben haberse trasladado previamente al almacen de
+-- contenidos (ver migrate_contents.derby.sql).
+--
+-- Tras aplicar este script, los documentos se copian a las nuevas tablas con
+-- el servidor en marcha mediante la herramienta SchemaMigration, que con la
+-- opcion "--swap" sustituye finalmente las tablas antiguas por las nuevas (ver
+-- README.md). Una vez comprobado el funcionamiento del servidor, pueden
+-- eliminarse las tablas antiguas con las sentencias comentadas al final de
+-- este script.
+--
+-- Ejemplo de uso:
+-- ij> run 'sql/migrate_schema_v2.derby.sql';
+
+CREATE TABLE HTML_V2 (
+    uuid         CHAR(16) FOR BIT DATA NOT NULL,
+    content_hash CHAR(64)              NOT NULL,
+    size         BIGINT                NOT NULL,
+    created_at   TIMESTAMP             NOT NULL DEFAULT CURRENT_TIMESTAMP,
+
+    PRIMARY KEY(uuid)
+);
+
+CREATE TABLE XMLT_V2 (
+    uuid         CHAR(16) FOR BIT DATA NOT NULL,
+    content_hash CHAR(64)              NOT NULL,
+    size         BIGINT                NOT NULL,
+    created_at   TIMESTAMP             NOT NULL DEFAULT CURRENT_TIMESTAMP,
+
+    PRIMARY KEY(uuid)
+);
+
+CREATE TABLE XSD_V2 (
+    uuid         CHAR(16) FOR BIT DATA NOT NULL,
+    content_hash CHAR(64)              NOT NULL,
+    size         BIGINT                NOT NULL,
+    created_at   TIMESTAMP             NOT NULL DEFAULT CURRENT_TIMESTAMP,
+
+    PRIMARY KEY(uuid)
+);
+
+CREATE TABLE XSLT_V2 (
+    uuid         CHAR(16) FOR BIT DATA NOT NULL,
+    xsd          CHAR(16) FOR BIT DATA NOT NULL,
+    content_hash CHAR(64)              NOT NULL,
+    size         BIGINT                NOT NULL,
+    created_at   TIMESTAMP             NOT NULL DEFAULT CURRENT_TIMESTAMP,
+
+    PRIMARY KEY(uuid)
+);
+
+CREATE INDEX XSLT_XSD ON XSLT_V2 (xsd);
+
+-- tras ejecutar SchemaMigration con la opcion "--swap":
+--
+-- DROP TABLE HTML_V1;
+-- DROP TABLE XMLT_V1;
+-- DROP TABLE XSD_V1;
+-- DROP TABLE XSLT_V1;
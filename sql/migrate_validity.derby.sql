@@ -0,0 +1,25 @@
+-- migrate_validity.derby.sql
+--
+-- Autores:
+--   Garcia Limon, Jesus        <jglimon@esei.uvigo.es>
+--   Gutierrez Jacome, Alberto  <agjacome@esei.uvigo.es>
+--   Vazquez Fernandez, Pablo   <pvfernandez@esei.uvigo.es>
+--
+-- Añade a una base de datos ya existente la tabla en la que se almacenan los
+-- resultados de validar cada documento XML con cada documento XSD. La tabla
+-- se crea vacia y se completa a medida que se crean o validan documentos.
+--
+-- Ejemplo de uso:
+-- ij> run 'sql/migrate_validity.derby.sql';
+
+CREATE TABLE VALIDITY (
+    xml_uuid   CHAR(16) FOR BIT DATA NOT NULL,
+    xsd_uuid   CHAR(16) FOR BIT DATA NOT NULL,
+    valid      SMALLINT              NOT NULL,
+    checked_at TIMESTAMP             NOT NULL DEFAULT CURRENT_TIMESTAMP,
+
+    PRIMARY KEY(xml_uuid, xsd_uuid)
+);
+
+-- indice para eliminar los resultados de un XSD
+CREATE INDEX VALIDITY_XSD ON VALIDITY (xsd_uuid);
@@ -0,0 +1,25 @@
+-- migrate_validity.mysql.sql
+--
+-- Autores:
+--   Garcia Limon, Jesus        <jglimon@esei.uvigo.es>
+--   Gutierrez Jacome, Alberto  <agjacome@esei.uvigo.es>
+--   Vazquez Fernandez, Pablo   <pvfernandez@esei.uvigo.es>
+--
+-- Añade a una base de datos ya existente la tabla en la que se almacenan los
+-- resultados de validar cada documento XML con cada documento XSD. La tabla
+-- se crea vacia y se completa a medida que se crean o validan documentos.
+--
+-- Ejemplo de uso:
+-- $ mysql -u dai_user -p HybridServer < sql/migrate_validity.mysql.sql
+
+CREATE TABLE VALIDITY (
+    xml_uuid   BINARY(16) NOT NULL,
+    xsd_uuid   BINARY(16) NOT NULL,
+    valid      SMALLINT   NOT NULL,
+    checked_at TIMESTAMP  NOT NULL DEFAULT CURRENT_TIMESTAMP,
+
+    PRIMARY KEY(xml_uuid, xsd_uuid)
+);
+
+-- indice para eliminar los resultados de un XSD
+CREATE INDEX VALIDITY_XSD ON VALIDITY (xsd_uuid);
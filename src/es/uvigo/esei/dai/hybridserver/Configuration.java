@@ -2,7 +2,10 @@ package es.uvigo.esei.dai.hybridserver;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -32,6 +35,38 @@ public class Configuration
     // instacina del singleton
     private static final Configuration INSTANCE = new Configuration();
 
+    // numero de filas por bloque si no se configura "fetchSize"
+    private static final String DEFAULT_FETCH_SIZE = "100";
+
+    // formato de compresion si no se configura "compression"
+    private static final String DEFAULT_COMPRESSION = "none";
+
+    // motor de almacenamiento si no se configura "storage"
+    private static final String DEFAULT_STORAGE = "sql";
+
+    // directorio de los logs si no se configura "logDirectory"
+    private static final String DEFAULT_LOG_DIRECTORY = "data";
+
+    // tamaño de la cache de documentos si no se configura "cacheSize"
+    // (desactivada)
+    private static final String DEFAULT_CACHE_SIZE = "0";
+
+    // tamaño de la cache de transformaciones si no se configura
+    // "transformCacheSize" (desactivada)
+    private static final String DEFAULT_TRANSFORM_CACHE_SIZE = "0";
+
+    // tiempo maximo de las transformaciones si no se configura
+    // "transformTimeout" (sin limite)
+    private static final String DEFAULT_TRANSFORM_TIMEOUT = "0";
+
+    // tamaño maximo del resultado de las transformaciones si no se
+    // configura "transformOutputLimit" (sin limite)
+    private static final String DEFAULT_TRANSFORM_OUTPUT_LIMIT = "0";
+
+    // tamaño minimo de los XML almacenados en binario si no se
+    // configura "binaryXMLThreshold" (desactivado)
+    private static final String DEFAULT_BINARY_XML_THRESHOLD = "0";
+
     // map que almacena los parametros de configuracion del servidor
     // local
     private final Map<String, String> localConfig;
@@ -40,16 +75,26 @@ public class Configuration
     // todos los servidores remotos
     private final Map<String, Map<String, String>> remoteConfig;
 
+    // lista con las URL de las replicas de solo lectura de la base de
+    // datos
+    private final List<String> replicaConfig;
+
+    // lista con las URL de las bases de datos de cada shard (la
+    // primera es siempre la principal)
+    private final List<String> shardConfig;
+
     /**
-     * Crea una instancia de Configuration, inicializando los dos Maps
-     * de configuracion. Privado, para evitar que los clientes puedan
+     * Crea una instancia de Configuration, inicializando los Maps y la
+     * lista de configuracion. Privado, para evitar que los clientes puedan
      * crear nuevas instancias, y obligarles a utilizar getInstance()
      * para obtener la unica instancia del singleton.
      */
     private Configuration( )
     {
-        localConfig  = new HashMap<>();
-        remoteConfig = new HashMap<>();
+        localConfig   = new HashMap<>();
+        remoteConfig  = new HashMap<>();
+        replicaConfig = new ArrayList<>();
+        shardConfig   = new ArrayList<>();
     }
 
     /**
@@ -122,6 +167,148 @@ public class Configuration
         return localConfig.get("webservice");
     }
 
+    /**
+     * Devuelve el motor de almacenamiento de los documentos locales:
+     * "sql" (base de datos a traves de JDBC), "memory" (en memoria,
+     * sin acceso a base de datos) o "log" (log de segmentos en disco).
+     * 
+     * @return String con el nombre del motor de almacenamiento.
+     */
+    public String getStorage( )
+    {
+        return localConfig.get("storage");
+    }
+
+    /**
+     * Devuelve el directorio en el que se almacenan los logs de
+     * documentos cuando el motor de almacenamiento es "log".
+     * 
+     * @return File con el directorio base de los logs.
+     */
+    public File getLogDirectory( )
+    {
+        return new File(localConfig.get("log_dir"));
+    }
+
+    /**
+     * Devuelve el directorio de los logs de escritura anticipada para
+     * las altas de documentos, o null si no se ha configurado (en cuyo
+     * caso las altas se escriben directamente en la base de datos).
+     * 
+     * @return File con el directorio de los logs, o null.
+     */
+    public File getWALDirectory( )
+    {
+        final String directory = localConfig.get("wal_dir");
+
+        return directory == null ? null : new File(directory);
+    }
+
+    /**
+     * Devuelve el tiempo maximo, en milisegundos, de cada
+     * transformacion XSLT. Si no se ha configurado se devuelve 0, es
+     * decir, sin limite.
+     * 
+     * @return Un long con el tiempo maximo en milisegundos.
+     */
+    public long getTransformTimeout( )
+    {
+        return Long.parseLong(localConfig.get("transform_timeout"));
+    }
+
+    /**
+     * Devuelve el tamaño maximo, en caracteres, del resultado de cada
+     * transformacion XSLT. Si no se ha configurado se devuelve 0, es
+     * decir, sin limite.
+     * 
+     * @return Un long con el tamaño maximo en caracteres.
+     */
+    public long getTransformOutputLimit( )
+    {
+        return Long.parseLong(localConfig.get("transform_output_limit"));
+    }
+
+    /**
+     * Devuelve el directorio en el que se almacenan los XSLT ya
+     * compilados, identificados por el hash de su contenido, para
+     * reutilizarlos tras reiniciar el servidor, o null si no se ha
+     * configurado (en cuyo caso se compilan de nuevo).
+     * 
+     * @return File con el directorio de XSLT compilados, o null.
+     */
+    public File getTemplatesCacheDirectory( )
+    {
+        final String directory = localConfig.get("templates_cache_dir");
+
+        return directory == null ? null : new File(directory);
+    }
+
+    /**
+     * Devuelve el directorio en el que se almacena el indice de
+     * busqueda de texto de los documentos HTML y XML, o null si no se
+     * ha configurado (en cuyo caso se mantiene en memoria y se
+     * reconstruye al iniciar el servidor).
+     * 
+     * @return File con el directorio del indice de busqueda, o null.
+     */
+    public File getSearchIndexDirectory( )
+    {
+        final String directory = localConfig.get("search_index_dir");
+
+        return directory == null ? null : new File(directory);
+    }
+
+    /**
+     * Devuelve el tamaño minimo, en bytes, a partir del cual los
+     * documentos XML se almacenan tambien en forma binaria (ya
+     * analizada) para las transformaciones. Si no se ha configurado se
+     * devuelve 0, es decir, representacion binaria desactivada.
+     * 
+     * @return Un long con el tamaño minimo de los XML en bytes.
+     */
+    public long getBinaryXMLThreshold( )
+    {
+        return Long.parseLong(localConfig.get("binary_xml_threshold"));
+    }
+
+    /**
+     * Devuelve el tamaño maximo, en bytes de contenido, de la cache de
+     * documentos situada delante de la base de datos. Si no se ha
+     * configurado se devuelve 0, es decir, cache desactivada.
+     * 
+     * @return Un long con el tamaño maximo de la cache en bytes.
+     */
+    public long getCacheSize( )
+    {
+        return Long.parseLong(localConfig.get("cache_size"));
+    }
+
+    /**
+     * Devuelve el tamaño maximo, en bytes, de la cache en memoria de
+     * resultados de transformaciones XSLT. Si no se ha configurado se
+     * devuelve 0, es decir, cache desactivada.
+     * 
+     * @return Un long con el tamaño maximo de la cache en bytes.
+     */
+    public long getTransformCacheSize( )
+    {
+        return Long.parseLong(localConfig.get("transform_cache_size"));
+    }
+
+    /**
+     * Devuelve el directorio en el que la cache de transformaciones
+     * almacena los resultados que no caben en memoria, o null si no se
+     * ha configurado (en cuyo caso unicamente se almacenan en memoria).
+     * 
+     * @return File con el directorio de la cache, o null.
+     */
+    public File getTransformCacheDirectory( )
+    {
+        final String directory = localConfig.get("transform_cache_dir");
+
+        return directory == null ? null : new File(directory);
+    }
+
     /**
      * Devuelve una URL para la conexion a la base de datos a traves
      * de JDBC.
@@ -133,6 +320,36 @@ public class Configuration
         return localConfig.get("db_url");
     }
 
+    /**
+     * Devuelve las URL de las replicas de solo lectura de la base de
+     * datos, sobre las que se repartiran las lecturas. Las replicas
+     * utilizan el mismo usuario y password que la base de datos
+     * principal.
+     * 
+     * @return Lista read-only con las URL de conexion a las replicas
+     *         (vacia si no se ha configurado ninguna).
+     */
+    public List<String> getDatabaseReplicaURLs( )
+    {
+        return Collections.unmodifiableList(replicaConfig);
+    }
+
+    /**
+     * Devuelve las URL de las bases de datos entre las que se reparten
+     * los documentos (shards). La primera es siempre la base de datos
+     * principal ({@link #getDatabaseURL()}), seguida de las
+     * configuradas mediante elementos "shard". Todas utilizan el mismo
+     * usuario y password. Su numero y orden no deben variar una vez
+     * existen documentos (ver {@link
+     * es.uvigo.esei.dai.hybridserver.database.dao.ShardedDocumentDAO}).
+     * 
+     * @return Lista read-only con las URL de conexion a los shards.
+     */
+    public List<String> getDatabaseShardURLs( )
+    {
+        return Collections.unmodifiableList(shardConfig);
+    }
+
     /**
      * Devuelve el usuario a utilizar para conectarse a la base de
      * datos.
@@ -157,6 +374,46 @@ public class Configuration
         return localConfig.get("db_pass");
     }
 
+    /**
+     * Devuelve el numero de filas que el driver JDBC debe recuperar
+     * de cada vez en las consultas que recorren tablas completas
+     * (e.g. listados). Si no se ha configurado, se devuelve un valor
+     * por defecto.
+     * 
+     * @return Un int con el numero de filas a recuperar por bloque.
+     */
+    public int getDatabaseFetchSize( )
+    {
+        return Integer.parseInt(localConfig.get("db_fetch"));
+    }
+
+    /**
+     * Devuelve el numero maximo de conexiones en uso simultaneamente
+     * de cada pool de conexiones a la base de datos. Si no se ha
+     * configurado, se devuelve el doble del numero de clientes
+     * concurrentes (las peticiones y las tareas en segundo plano).
+     * 
+     * @return Un int con el numero maximo de conexiones por pool.
+     */
+    public int getDatabaseMaxConnections( )
+    {
+        final String max = localConfig.get("db_max_connections");
+
+        return max == null ? 2 * getNumClients() : Integer.parseInt(max);
+    }
+
+    /**
+     * Devuelve el formato de compresion con el que se almacenaran los
+     * contenidos de los nuevos documentos en la base de datos ("none"
+     * o "deflate").
+     * 
+     * @return String con el nombre del formato de compresion.
+     */
+    public String getDatabaseCompression( )
+    {
+        return localConfig.get("db_compression");
+    }
+
     /**
      * Devuelve un conjunto con todos los nombres de los servidores
      * remotos configurados.
@@ -304,16 +561,61 @@ public class Configuration
         final Element serverPort   = (Element) document.getElementsByTagName("http").item(0);
         final Element webService   = (Element) document.getElementsByTagName("webservice").item(0);
         final Element numClients   = (Element) document.getElementsByTagName("numClients").item(0);
-        final Element databaseURL  = (Element) document.getElementsByTagName("url").item(0);
-        final Element databaseUser = (Element) document.getElementsByTagName("user").item(0);
-        final Element databasePass = (Element) document.getElementsByTagName("password").item(0);
 
         localConfig.put("http", serverPort.getTextContent().trim());
         localConfig.put("webservice", webService.getTextContent().trim());
         localConfig.put("numclients", numClients.getTextContent().trim());
-        localConfig.put("db_url", databaseURL.getTextContent().trim());
-        localConfig.put("db_user", databaseUser.getTextContent().trim());
-        localConfig.put("db_pass", databasePass.getTextContent().trim());
+
+        // parametros opcionales, con valores por defecto (la base de
+        // datos no es necesaria si el almacenamiento es en memoria)
+        localConfig.put("storage", getOptionalValue(document, "storage", DEFAULT_STORAGE));
+        localConfig.put("log_dir", getOptionalValue(document, "logDirectory", DEFAULT_LOG_DIRECTORY));
+        localConfig.put("wal_dir", getOptionalValue(document, "walDirectory", null));
+        localConfig.put("cache_size", getOptionalValue(document, "cacheSize", DEFAULT_CACHE_SIZE));
+        localConfig.put("transform_cache_size", getOptionalValue(document, "transformCacheSize", DEFAULT_TRANSFORM_CACHE_SIZE));
+        localConfig.put("transform_cache_dir", getOptionalValue(document, "transformCacheDirectory", null));
+        localConfig.put("transform_timeout", getOptionalValue(document, "transformTimeout", DEFAULT_TRANSFORM_TIMEOUT));
+        localConfig.put("transform_output_limit", getOptionalValue(document, "transformOutputLimit", DEFAULT_TRANSFORM_OUTPUT_LIMIT));
+        localConfig.put("templates_cache_dir", getOptionalValue(document, "templatesCacheDirectory", null));
+        localConfig.put("search_index_dir", getOptionalValue(document, "searchIndexDirectory", null));
+        localConfig.put("binary_xml_threshold", getOptionalValue(document, "binaryXMLThreshold", DEFAULT_BINARY_XML_THRESHOLD));
+        localConfig.put("db_url", getOptionalValue(document, "url", null));
+        localConfig.put("db_user", getOptionalValue(document, "user", null));
+        localConfig.put("db_pass", getOptionalValue(document, "password", null));
+        localConfig.put("db_fetch", getOptionalValue(document, "fetchSize", DEFAULT_FETCH_SIZE));
+        localConfig.put("db_compression", getOptionalValue(document, "compression", DEFAULT_COMPRESSION));
+        localConfig.put("db_max_connections", getOptionalValue(document, "maxConnections", null));
+
+        final NodeList replicaList = document.getElementsByTagName("replica");
+        for (int i = 0; i < replicaList.getLength(); ++i)
+            replicaConfig.add(replicaList.item(i).getTextContent().trim());
+
+        shardConfig.add(localConfig.get("db_url"));
+        final NodeList shardList = document.getElementsByTagName("shard");
+        for (int i = 0; i < shardList.getLength(); ++i)
+            shardConfig.add(shardList.item(i).getTextContent().trim());
+    }
+
+    /**
+     * Obtiene el valor de un elemento opcional del documento XML de
+     * configuracion, o el valor por defecto recibido si dicho elemento
+     * no ha sido configurado.
+     * 
+     * @param document
+     *        Documento XML desde el que obtener el parametro.
+     * @param tagName
+     *        Nombre del elemento opcional.
+     * @param defaultValue
+     *        Valor a devolver si el elemento no existe.
+     * 
+     * @return String con el valor del elemento o el valor por
+     *         defecto.
+     */
+    private static String getOptionalValue(final Document document, final String tagName, final String defaultValue)
+    {
+        final Element element = (Element) document.getElementsByTagName(tagName).item(0);
+
+        return element == null ? defaultValue : element.getTextContent().trim();
     }
 
     /**
@@ -6,6 +6,7 @@ import javax.xml.parsers.ParserConfigurationException;
 
 import org.xml.sax.SAXException;
 
+import es.uvigo.esei.dai.hybridserver.controller.SearchIndexer;
 import es.uvigo.esei.dai.hybridserver.server.HTTPServer;
 import es.uvigo.esei.dai.hybridserver.server.WebServicesServer;
 
@@ -52,6 +53,10 @@ public class Launcher
             System.exit(-3);
         }
 
+        // completa en segundo plano el indice de busqueda con los
+        // documentos que falten
+        SearchIndexer.reconcile();
+
         // inicia servidores
         try {
 
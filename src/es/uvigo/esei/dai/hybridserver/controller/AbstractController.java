@@ -1,9 +1,12 @@
 package es.uvigo.esei.dai.hybridserver.controller;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
 import java.sql.SQLException;
 import java.util.Collections;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -11,6 +14,7 @@ import java.util.Map.Entry;
 import es.uvigo.esei.dai.hybridserver.controller.service.DocumentService;
 import es.uvigo.esei.dai.hybridserver.controller.utils.WSUtils;
 import es.uvigo.esei.dai.hybridserver.database.dao.DocumentDAO;
+import es.uvigo.esei.dai.hybridserver.database.dao.HashedContent;
 import es.uvigo.esei.dai.hybridserver.database.entity.AbstractDocument;
 import es.uvigo.esei.dai.hybridserver.exception.BadRequestException;
 import es.uvigo.esei.dai.hybridserver.exception.DocumentNotFoundException;
@@ -37,6 +41,10 @@ abstract class AbstractController<D extends AbstractDocument> implements Documen
     // DAO con el que se comunicara este controlador
     protected DocumentDAO<D> dao;
 
+    // UUID buscados recientemente sin encontrarse (compartida por
+    // todos los controladores del mismo tipo)
+    protected NegativeLookupCache missing;
+
     /**
      * Construye una nueva instancia de la clase abstracta, que se
      * encargara de obtener el DAO correcto llamando para ello al
@@ -49,7 +57,8 @@ abstract class AbstractController<D extends AbstractDocument> implements Documen
      */
     public AbstractController( ) throws ServerErrorException
     {
-        this.dao = getDAO();
+        this.dao     = getDAO();
+        this.missing = getNegativeLookupCache();
     }
 
     /**
@@ -70,21 +79,71 @@ abstract class AbstractController<D extends AbstractDocument> implements Documen
      * @see DocumentController#get(String, String[ ])
      */
     @Override
-    public String get(final String uuid, final String... extra)
+    public Reader get(final String uuid, final String... extra)
         throws DocumentNotFoundException, BadRequestException, ServerErrorException
     {
+        // buscado recientemente sin exito, ni local ni remotamente
+        if (missing.isMissing(uuid))
+            throw new DocumentNotFoundException(uuid);
+
         try {
 
-            final D document;
+            final Reader content = dao.openContent(uuid);
+            if (content != null)
+                return content;
 
-            if (!dao.exists(uuid)) {
-                document = getRemote(uuid);
-                dao.create(document);
-            } else {
-                document = dao.get(uuid);
-            }
+            final D document = getRemote(uuid);
+            dao.create(document);
+            missing.forget(uuid);
+            index(uuid);
+
+            return document.openContent();
+
+        } catch (final SQLException sqe) {
+            throw new ServerErrorException("Database Error", sqe);
+        } catch (final IOException ioe) {
+            throw new ServerErrorException(ioe);
+        }
+    }
+
+    /**
+     * @see DocumentController#getHash(String)
+     */
+    @Override
+    public String getHash(final String uuid) throws ServerErrorException
+    {
+        try {
 
-            return document.getContent();
+            return dao.getHash(uuid);
+
+        } catch (final SQLException sqe) {
+            throw new ServerErrorException("Database Error", sqe);
+        }
+    }
+
+    /**
+     * @see DocumentController#getHash(String, Closeable)
+     */
+    @Override
+    public String getHash(final String uuid, final Closeable content)
+        throws ServerErrorException
+    {
+        if (content instanceof HashedContent)
+            return ((HashedContent) content).getHash();
+
+        return getHash(uuid);
+    }
+
+    /**
+     * @see DocumentController#getEncoded(String, String)
+     */
+    @Override
+    public InputStream getEncoded(final String uuid, final String encoding)
+        throws ServerErrorException
+    {
+        try {
+
+            return dao.openEncodedContent(uuid, encoding);
 
         } catch (final SQLException sqe) {
             throw new ServerErrorException("Database Error", sqe);
@@ -102,6 +161,8 @@ abstract class AbstractController<D extends AbstractDocument> implements Documen
 
             final D document = documentFactory(content, extra);
             dao.create(document);
+            missing.forget(document.getUUID());
+            index(document.getUUID());
 
             return document.getUUID();
 
@@ -120,6 +181,12 @@ abstract class AbstractController<D extends AbstractDocument> implements Documen
         try {
 
             dao.delete(uuid);
+
+            // solo tras eliminarlo localmente: si no existia o ha fallado
+            // el borrado, el documento debe seguir en el indice
+            if (getSearchType() != null)
+                SearchIndexer.forget(getSearchType(), uuid);
+
             deleteRemote(uuid);
 
         } catch (final SQLException sqe) {
@@ -140,6 +207,27 @@ abstract class AbstractController<D extends AbstractDocument> implements Documen
      */
     protected abstract DocumentDAO<D> getDAO( ) throws ServerErrorException;
 
+    /**
+     * Obtiene la cache de UUID no encontrados asociada al tipo de
+     * documento con el que el controlador concreto trabajara.
+     * 
+     * @return NegativeLookupCache del tipo de documento correcto.
+     */
+    protected abstract NegativeLookupCache getNegativeLookupCache( );
+
+    /**
+     * Obtiene el tipo de documento con el que se indexan en el indice
+     * de busqueda (ver {@link SearchIndexer}) los documentos del
+     * controlador concreto. Por defecto los documentos no se indexan.
+     * 
+     * @return String con el tipo de documento, o null si los
+     *         documentos no se indexan.
+     */
+    protected String getSearchType( )
+    {
+        return null;
+    }
+
     /**
      * Construye una nueva instancia del tipo de documento concreto,
      * puesto que es imposible construir una instancia a traves de un
@@ -253,12 +341,7 @@ abstract class AbstractController<D extends AbstractDocument> implements Documen
     {
         try {
 
-            final List<String> list = new LinkedList<>();
-
-            for (final D document : dao.list())
-                list.add(document.getUUID());
-
-            listing.put("Local Server", list);
+            listing.put("Local Server", dao.listUUIDs());
 
         } catch (final SQLException sqe) {
             throw new ServerErrorException("Database Error", sqe);
@@ -290,10 +373,24 @@ abstract class AbstractController<D extends AbstractDocument> implements Documen
         }
     }
 
+    /**
+     * Solicita la indexacion de un documento recien almacenado, si los
+     * documentos del controlador concreto se indexan.
+     * 
+     * @param uuid
+     *        El identificador UUID del documento.
+     */
+    protected void index(final String uuid)
+    {
+        if (getSearchType() != null)
+            SearchIndexer.index(getSearchType(), uuid);
+    }
+
     /**
      * Obtiene un documento remoto a través de un identificador
      * proporcionado. Recorre todos los servidores remotos
-     * configurados buscando dicho documento.
+     * configurados buscando dicho documento. Si todos ellos responden
+     * y ninguno lo contiene, se registra el UUID como no encontrado.
      * 
      * @param uuid
      *        El identificador UUID del documento a recuperar.
@@ -311,6 +408,7 @@ abstract class AbstractController<D extends AbstractDocument> implements Documen
         final Map<String, DocumentService> services =
             WSUtils.getDocumentServices();
 
+        boolean complete = true;
         for (final DocumentService service : services.values()) {
             try {
 
@@ -325,10 +423,15 @@ abstract class AbstractController<D extends AbstractDocument> implements Documen
                 // algun motivo se lanza, se deja que continue con el
                 // siguiente servidor del listado
             } catch (final ServerErrorException see) {
+                complete = false;
                 System.err.println("Remote server error: " + see.getMessage());
             }
         }
 
+        // si algun servidor no respondio, el documento podria existir
+        if (complete)
+            missing.markMissing(uuid);
+
         throw new DocumentNotFoundException(uuid);
     }
 
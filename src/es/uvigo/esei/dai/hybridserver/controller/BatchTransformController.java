@@ -0,0 +1,49 @@
+package es.uvigo.esei.dai.hybridserver.controller;
+
+import java.util.List;
+
+import es.uvigo.esei.dai.hybridserver.exception.BadRequestException;
+import es.uvigo.esei.dai.hybridserver.exception.DocumentNotFoundException;
+import es.uvigo.esei.dai.hybridserver.exception.ServerErrorException;
+
+/**
+ * Interfaz a implementar por los controladores que permiten
+ * transformar un conjunto de documentos con un mismo XSLT en una
+ * unica peticion.
+ * 
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public interface BatchTransformController extends DocumentController
+{
+
+    /**
+     * Transforma un conjunto de documentos con el XSLT identificado por
+     * el UUID recibido. El XSLT se obtiene y compila una unica vez, y
+     * los documentos se validan y transforman en paralelo, pudiendo
+     * leerse los resultados a medida que finalizan.
+     * 
+     * @param xslt
+     *        Identificador UUID del documento XSLT.
+     * @param uuids
+     *        Listado de identificadores UUID de los documentos a
+     *        transformar, o null para transformar todos los documentos
+     *        locales.
+     * 
+     * @return {@link BatchTransformation} con los resultados de las
+     *         transformaciones, que debe cerrarse una vez consumido.
+     * 
+     * @throws BadRequestException
+     *         Si el XSLT no es valido.
+     * @throws DocumentNotFoundException
+     *         Si no se encuentra el XSLT.
+     * @throws ServerErrorException
+     *         Si se produce algun tipo de error por parte del
+     *         servidor (eg: acceso a datos) mientras se intenta
+     *         recuperar el XSLT o el listado de documentos.
+     */
+    public BatchTransformation transformAll(final String xslt, final List<String> uuids)
+        throws BadRequestException, DocumentNotFoundException, ServerErrorException;
+
+}
@@ -0,0 +1,462 @@
+package es.uvigo.esei.dai.hybridserver.controller;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+import es.uvigo.esei.dai.hybridserver.exception.BadRequestException;
+import es.uvigo.esei.dai.hybridserver.exception.DocumentNotFoundException;
+import es.uvigo.esei.dai.hybridserver.exception.ServerErrorException;
+
+/**
+ * Resultado de una transformacion por lotes (ver
+ * {@link BatchTransformController}), o de una consulta XPath sobre
+ * varios documentos (ver {@link XPathController}), leido como un documento
+ * "multipart/mixed" con una parte por documento transformado, en el
+ * orden en que finalizan sus transformaciones.
+ *
+ * Las transformaciones se reparten entre los hilos de un
+ * {@link ForkJoinPool}, compartido por todos los lotes y con tantos
+ * hilos como procesadores, y sus resultados se almacenan en una cola
+ * a medida que finalizan, de la que se leen (y envian al cliente)
+ * mientras continua el resto. Cada lote dispone de un numero limitado
+ * de resultados en curso o pendientes de leer; los documentos que no
+ * caben esperan en el propio lote, sin ocupar hilos, a que el cliente
+ * lea los anteriores. Mientras una transformacion espera (e.g. a los
+ * hilos de {@link TransformExecutor}), el pool puede activar otro hilo
+ * en su lugar.
+ *
+ * Cerrar el resultado antes de leerlo por completo descarta los
+ * documentos en espera e interrumpe las transformaciones en curso. Si
+ * alguna falla de forma inesperada (e.g. con un {@link Error}), la
+ * lectura del resultado falla en lugar de esperar indefinidamente.
+ *
+ * Cada parte incluye el UUID del documento en la cabecera "Content-ID"
+ * y, en la cabecera "Status", el codigo HTTP que habria obtenido su
+ * transformacion individual; si es un error, el cuerpo de la parte
+ * contiene su descripcion.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public class BatchTransformation extends Reader
+{
+
+    private static final String CRLF = "\r\n";
+
+    // hilos en los que se realizan las transformaciones de todos los
+    // lotes, uno por procesador
+    private static final ForkJoinPool POOL =
+        new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    // numero maximo de resultados en curso o pendientes de enviar de
+    // cada lote, por procesador
+    private static final int PENDING_PER_THREAD = 2;
+
+    // tiempo maximo de cada espera de la lectura (milisegundos), tras el
+    // que se comprueba si el lote se ha cerrado o ha fallado
+    private static final long POLL_TIMEOUT = 100;
+
+    private final String                mime;
+    private final List<String>          uuids;
+    private final String                boundary;
+    private final Transformation        transformation;
+    private final BlockingQueue<String> parts;
+
+    // documentos a la espera de que se lean resultados anteriores, hilos
+    // que estan transformando documentos del lote y numero de documentos
+    // que aun pueden comenzar (protegidos por el cerrojo de "waiting")
+    private final Deque<Integer> waiting;
+    private final Set<Thread>    running;
+    private int                  permits;
+
+    private volatile boolean   cancelled = false;
+    private volatile Throwable failure   = null;
+
+    private int    remaining; // partes aun no leidas (-1 tras el final)
+    private String current;   // parte en lectura
+    private int    position;  // posicion en la parte en lectura
+
+    /**
+     * Comienza la transformacion por lotes de los documentos
+     * recibidos.
+     *
+     * @param uuids
+     *        Identificadores UUID de los documentos a transformar (los
+     *        repetidos se transforman una unica vez).
+     * @param transformation
+     *        Transformacion a aplicar a cada documento.
+     * @param mime
+     *        Tipo MIME del resultado de cada transformacion.
+     */
+    BatchTransformation(final List<String> uuids, final Transformation transformation,
+        final String mime)
+    {
+        this.mime           = mime;
+        this.uuids          = new ArrayList<>(new LinkedHashSet<>(uuids));
+        this.boundary       = "batch-" + UUID.randomUUID();
+        this.transformation = transformation;
+        this.parts          = new LinkedBlockingQueue<>();
+        this.waiting        = new ArrayDeque<>();
+        this.running        = new HashSet<>();
+        this.permits        = POOL.getParallelism() * PENDING_PER_THREAD;
+        this.remaining      = this.uuids.size();
+        this.current        = "";
+        this.position       = 0;
+
+        if (remaining > 0)
+            POOL.execute(new Split(0, remaining, false));
+    }
+
+    /**
+     * Devuelve el tipo MIME del resultado, incluyendo el separador de
+     * las partes.
+     *
+     * @return String con el tipo MIME del resultado.
+     */
+    public String getMIMEType( )
+    {
+        return "multipart/mixed; boundary=" + boundary;
+    }
+
+    /**
+     * Devuelve el numero de documentos del lote.
+     *
+     * @return Numero de documentos a transformar.
+     */
+    public int size( )
+    {
+        return uuids.size();
+    }
+
+    /**
+     * Lee el resultado, esperando si es necesario a que finalice la
+     * siguiente transformacion.
+     *
+     * @see Reader#read(char[ ], int, int)
+     */
+    @Override
+    public int read(final char[ ] buffer, final int offset, final int length)
+        throws IOException
+    {
+        checkOpen();
+        if (length == 0)
+            return 0;
+
+        while (position == current.length()) {
+            if (remaining < 0)
+                return -1;
+
+            // tras la ultima parte se envia el separador final
+            current   = remaining == 0 ? "--" + boundary + "--" + CRLF : next();
+            position  = 0;
+            --remaining;
+        }
+
+        final int read = Math.min(length, current.length() - position);
+        current.getChars(position, position + read, buffer, offset);
+        position += read;
+
+        return read;
+    }
+
+    /**
+     * Cancela las transformaciones pendientes, interrumpiendo las que
+     * esten en curso.
+     *
+     * @see Reader#close()
+     */
+    @Override
+    public void close( )
+    {
+        cancel();
+        parts.clear();
+    }
+
+    /**
+     * Espera a la siguiente parte del resultado, comprobando
+     * periodicamente si el lote se ha cerrado o ha fallado, y permite
+     * comenzar la transformacion de otro documento.
+     */
+    private String next( )
+        throws IOException
+    {
+        try {
+            String part;
+            while ((part = parts.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS)) == null)
+                checkOpen();
+
+            release();
+            return part;
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Comprueba que el lote no haya fallado ni se haya cerrado.
+     */
+    private void checkOpen( )
+        throws IOException
+    {
+        if (failure != null)
+            throw new IOException("Batch transformation failed", failure);
+        if (cancelled)
+            throw new IOException("Batch transformation closed");
+    }
+
+    /**
+     * Descarta los documentos en espera e interrumpe las
+     * transformaciones en curso.
+     */
+    private void cancel( )
+    {
+        synchronized (waiting) {
+            cancelled = true;
+            waiting.clear();
+
+            for (final Thread thread : running)
+                thread.interrupt();
+        }
+    }
+
+    /**
+     * Comienza la transformacion de un documento si el lote no ha
+     * alcanzado su numero maximo de resultados pendientes (o si ya se le
+     * ha cedido un hueco al sacarlo de la espera), o la deja en espera en
+     * caso contrario.
+     */
+    private void start(final int index, final boolean permitted)
+    {
+        synchronized (waiting) {
+            if (cancelled)
+                return;
+
+            if (!permitted) {
+                if (permits == 0) {
+                    waiting.add(index);
+                    return;
+                }
+
+                --permits;
+            }
+        }
+
+        final String part = run(uuids.get(index));
+        if (part != null && !cancelled)
+            parts.add(part);
+    }
+
+    /**
+     * Tras leer una parte, cede su hueco al siguiente documento en
+     * espera, si lo hay.
+     */
+    private void release( )
+    {
+        final Integer next;
+        synchronized (waiting) {
+            next = waiting.poll();
+            if (next == null) {
+                ++permits;
+                return;
+            }
+        }
+
+        POOL.execute(new Split(next, next + 1, true));
+    }
+
+    /**
+     * Transforma un documento en el hilo actual, que queda registrado
+     * para que {@link #close()} pueda interrumpirlo, e indica al pool
+     * que puede bloquearse para que active otro hilo mientras tanto.
+     *
+     * @return String con la parte del resultado, o null si se ha
+     *         cancelado el lote.
+     */
+    private String run(final String uuid)
+    {
+        final Thread thread = Thread.currentThread();
+        synchronized (waiting) {
+            if (cancelled)
+                return null;
+
+            running.add(thread);
+        }
+
+        try {
+
+            final Blocker blocker = new Blocker(uuid);
+            ForkJoinPool.managedBlock(blocker);
+
+            return blocker.part;
+
+        } catch (final InterruptedException ie) {
+            return null;
+        } finally {
+            synchronized (waiting) {
+                running.remove(thread);
+            }
+
+            // el hilo pertenece al pool compartido: una vez fuera del
+            // lote, se descarta la interrupcion que pudo causar close()
+            Thread.interrupted();
+        }
+    }
+
+    /**
+     * Transforma un documento y construye su parte del resultado.
+     */
+    private String transform(final String uuid)
+    {
+        String status;
+        String type = "text/plain;charset=UTF-8";
+        String body;
+
+        try {
+            body   = transformation.transform(uuid);
+            status = "200 OK";
+            type   = mime;
+        } catch (final BadRequestException bre) {
+            status = "400 Bad Request";
+            body   = "Invalid request: " + bre.getMessage();
+        } catch (final DocumentNotFoundException dnfe) {
+            status = "404 Not Found";
+            body   = "Document not found: " + dnfe.getUUID();
+        } catch (final ServerErrorException | RuntimeException e) {
+            status = "500 Internal Server Error";
+            body   = "Server error: " + e.getMessage();
+        }
+
+        return "--" + boundary + CRLF
+            + "Content-ID: <" + uuid + ">" + CRLF
+            + "Content-Type: " + type + CRLF
+            + "Status: " + status + CRLF
+            + CRLF
+            + body + CRLF;
+    }
+
+    /**
+     * Transformacion a aplicar a cada documento del lote.
+     */
+    interface Transformation
+    {
+
+        /**
+         * Transforma un documento.
+         *
+         * @param uuid
+         *        Identificador UUID del documento.
+         *
+         * @return String con el resultado de la transformacion.
+         *
+         * @throws BadRequestException
+         *         Si la transformacion no puede realizarse (e.g. el
+         *         documento no es valido).
+         * @throws DocumentNotFoundException
+         *         Si no se encuentra el documento.
+         * @throws ServerErrorException
+         *         Si se produce algun error por parte del servidor.
+         */
+        public String transform(final String uuid)
+            throws BadRequestException, DocumentNotFoundException, ServerErrorException;
+
+    }
+
+    /**
+     * Bloqueo gestionado por el pool durante el que se transforma un
+     * documento (ver {@link ForkJoinPool#managedBlock}).
+     */
+    private final class Blocker implements ForkJoinPool.ManagedBlocker
+    {
+
+        private final String uuid;
+        private String       part = null;
+
+        private Blocker(final String uuid)
+        {
+            this.uuid = uuid;
+        }
+
+        @Override
+        public boolean block( )
+        {
+            part = transform(uuid);
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable( )
+        {
+            return part != null;
+        }
+
+    }
+
+    /**
+     * Tarea que transforma un rango de los documentos del lote,
+     * dividiendolo por la mitad hasta llegar a documentos individuales.
+     * Si falla de forma inesperada, cancela el lote y registra el error
+     * para que lo reciba la lectura del resultado.
+     */
+    private final class Split extends RecursiveAction
+    {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int     from;
+        private final int     to;
+        private final boolean permitted;
+
+        private Split(final int from, final int to, final boolean permitted)
+        {
+            this.from      = from;
+            this.to        = to;
+            this.permitted = permitted;
+        }
+
+        @Override
+        protected void compute( )
+        {
+            if (cancelled)
+                return;
+
+            try {
+
+                if (to - from == 1) {
+                    start(from, permitted);
+                    return;
+                }
+
+                final int middle = (from + to) >>> 1;
+                invokeAll(
+                    new Split(from, middle, false),
+                    new Split(middle, to, false)
+                );
+
+            } catch (final Throwable t) {
+                if (failure == null)
+                    failure = t;
+
+                BatchTransformation.this.cancel();
+                throw t;
+            }
+        }
+
+    }
+
+}
@@ -1,5 +1,8 @@
 package es.uvigo.esei.dai.hybridserver.controller;
 
+import java.io.Closeable;
+import java.io.InputStream;
+import java.io.Reader;
 import java.util.List;
 import java.util.Map;
 
@@ -60,7 +63,9 @@ public interface DocumentController
      *        Parametros a ser utilizados por los controladores
      *        concretos si asi lo desean o necesitan.
      * 
-     * @return String con el contenido del documento solicitado.
+     * @return Reader sobre el contenido del documento solicitado. Se
+     *         lee directamente del origen de datos siempre que sea
+     *         posible, por lo que debe cerrarse una vez consumido.
      * 
      * @throws DocumentNotFoundException
      *         Si no se encuentra el documento solicitado.
@@ -72,9 +77,75 @@ public interface DocumentController
      *         servidor (eg: acceso a datos) mientras se intenta
      *         recuperar el contenido del documento.
      */
-    public String get(final String uuid, final String ... extra)
+    public Reader get(final String uuid, final String ... extra)
         throws DocumentNotFoundException, BadRequestException, ServerErrorException;
 
+    /**
+     * Obtiene el hash que identifica el contenido de un documento
+     * local, que puede utilizarse como "ETag" en las respuestas HTTP.
+     * 
+     * @param uuid
+     *        Identificador UUID del documento.
+     * 
+     * @return String con el hash del contenido del documento, o null
+     *         si el documento no se encuentra almacenado localmente.
+     * 
+     * @throws ServerErrorException
+     *         Si se produce algun tipo de error por parte del
+     *         servidor (eg: acceso a datos) mientras se intenta
+     *         recuperar el hash del documento.
+     */
+    public String getHash(final String uuid) throws ServerErrorException;
+
+    /**
+     * Obtiene el hash que identifica el contenido de un documento
+     * local del que ya se ha abierto su contenido (a traves de
+     * {@link #get(String, String[ ])} o
+     * {@link #getEncoded(String, String)}). Si el propio stream de
+     * contenido conoce el hash, se evita volver a consultarlo.
+     * 
+     * @param uuid
+     *        Identificador UUID del documento.
+     * @param content
+     *        Stream abierto con el contenido del documento.
+     * 
+     * @return String con el hash del contenido del documento, o null
+     *         si el documento no se encuentra almacenado localmente.
+     * 
+     * @throws ServerErrorException
+     *         Si se produce algun tipo de error por parte del
+     *         servidor (eg: acceso a datos) mientras se intenta
+     *         recuperar el hash del documento.
+     */
+    public String getHash(final String uuid, final Closeable content)
+        throws ServerErrorException;
+
+    /**
+     * Obtiene el contenido de un documento local tal y como se
+     * encuentra almacenado, siempre que lo este en la codificacion
+     * recibida (e.g. "deflate"), evitando asi tener que decodificarlo
+     * para enviarlo a un cliente que acepte dicha codificacion.
+     * 
+     * @param uuid
+     *        Identificador UUID del documento del que se desea
+     *        obtener el contenido.
+     * @param encoding
+     *        Codificacion aceptada para el contenido.
+     * 
+     * @return InputStream sobre el contenido codificado del
+     *         documento, que debe cerrarse una vez consumido, o null
+     *         si el documento no esta disponible localmente en dicha
+     *         codificacion (en cuyo caso debe utilizarse
+     *         {@link #get(String, String[ ])}).
+     * 
+     * @throws ServerErrorException
+     *         Si se produce algun tipo de error por parte del
+     *         servidor (eg: acceso a datos) mientras se intenta
+     *         recuperar el contenido del documento.
+     */
+    public InputStream getEncoded(final String uuid, final String encoding)
+        throws ServerErrorException;
+
     /**
      * Crea un nuevo documento dado su contenido. Dependiendo del
      * controlador concreto, es posible que ademas del contenido
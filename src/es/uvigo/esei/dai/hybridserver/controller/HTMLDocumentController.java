@@ -61,6 +61,24 @@ class HTMLDocumentController extends AbstractController<HTMLDocument> implements
         return (DocumentDAO<HTMLDocument>) DAOFactory.getDAO("html");
     }
 
+    /**
+     * @see AbstractController#getSearchType()
+     */
+    @Override
+    protected String getSearchType( )
+    {
+        return "html";
+    }
+
+    /**
+     * @see AbstractController#getNegativeLookupCache()
+     */
+    @Override
+    protected NegativeLookupCache getNegativeLookupCache( )
+    {
+        return NegativeLookupCache.forType("html");
+    }
+
     /**
      * @see AbstractController#listRemote(DocumentService)
      */
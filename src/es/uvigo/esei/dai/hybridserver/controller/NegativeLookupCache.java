@@ -0,0 +1,159 @@
+package es.uvigo.esei.dai.hybridserver.controller;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache de los identificadores UUID que se han buscado recientemente
+ * sin encontrarse ni en el servidor local ni en ninguno de los
+ * servidores remotos. Mientras una entrada no caduque, las peticiones
+ * de ese UUID se rechazan directamente, sin acceder a datos ni
+ * solicitar de nuevo los listados remotos. Existe una unica cache por
+ * tipo de documento, compartida por todos los controladores.
+ *
+ * Las altas locales y los documentos obtenidos de servidores remotos
+ * eliminan su entrada; los documentos creados en otros servidores se
+ * encontraran, como muy tarde, cuando caduque.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+final class NegativeLookupCache
+{
+
+    // tiempo durante el que se recuerda un UUID no encontrado
+    private static final long TTL = TimeUnit.SECONDS.toNanos(30);
+
+    // numero maximo de UUID recordados por tipo de documento
+    private static final int MAX_ENTRIES = 10000;
+
+    // instancias unicas, por tipo de documento
+    private static final Map<String, NegativeLookupCache> caches;
+
+    // inicializa el map y lo hace read-only
+    static {
+        final Map<String, NegativeLookupCache> cMap = new HashMap<>(4);
+        cMap.put("html" , new NegativeLookupCache());
+        cMap.put("xml"  , new NegativeLookupCache());
+        cMap.put("xsd"  , new NegativeLookupCache());
+        cMap.put("xslt" , new NegativeLookupCache());
+
+        caches = Collections.unmodifiableMap(cMap);
+    }
+
+    // UUID no encontrados, junto al instante (System.nanoTime) en el
+    // que caduca cada uno
+    private final ConcurrentMap<String, Long> missing = new ConcurrentHashMap<>();
+
+    private NegativeLookupCache( )
+    {
+    }
+
+    /**
+     * Devuelve la cache asociada a un tipo de documento.
+     *
+     * @param type
+     *        Tipo de documento ("html", "xml", "xsd" o "xslt").
+     *
+     * @return Cache de UUID no encontrados para el tipo.
+     */
+    static NegativeLookupCache forType(final String type)
+    {
+        return caches.get(type);
+    }
+
+    /**
+     * Comprueba si un UUID se ha buscado recientemente sin
+     * encontrarse.
+     *
+     * @param uuid
+     *        String con el identificador UUID.
+     *
+     * @return True si el UUID no se encontro y su entrada aun no ha
+     *         caducado, False en caso contrario.
+     */
+    boolean isMissing(final String uuid)
+    {
+        if (uuid == null || missing.isEmpty())
+            return false;
+
+        final String key    = toKey(uuid);
+        final Long   expiry = missing.get(key);
+
+        if (expiry == null)
+            return false;
+
+        if (expiry - System.nanoTime() > 0)
+            return true;
+
+        missing.remove(key, expiry);
+        return false;
+    }
+
+    /**
+     * Registra un UUID que no se ha encontrado ni localmente ni en
+     * ningun servidor remoto.
+     *
+     * @param uuid
+     *        String con el identificador UUID.
+     */
+    void markMissing(final String uuid)
+    {
+        if (uuid == null)
+            return;
+
+        final long now = System.nanoTime();
+
+        if (missing.size() >= MAX_ENTRIES) {
+            purge(now);
+
+            // todas vigentes (e.g. un barrido de UUID aleatorios): se
+            // descartan para no crecer sin limite
+            if (missing.size() >= MAX_ENTRIES)
+                missing.clear();
+        }
+
+        missing.put(toKey(uuid), now + TTL);
+    }
+
+    /**
+     * Elimina un UUID de la cache, tras crearse o replicarse el
+     * documento localmente.
+     *
+     * @param uuid
+     *        String con el identificador UUID.
+     */
+    void forget(final String uuid)
+    {
+        if (uuid != null && !missing.isEmpty())
+            missing.remove(toKey(uuid));
+    }
+
+    /**
+     * Elimina todas las entradas caducadas.
+     */
+    private void purge(final long now)
+    {
+        final Iterator<Long> expiries = missing.values().iterator();
+        while (expiries.hasNext()) {
+            if (expiries.next() - now <= 0)
+                expiries.remove();
+        }
+    }
+
+    /**
+     * Normaliza un UUID para utilizarlo como clave, de modo que sus
+     * distintas formas de escritura compartan entrada.
+     */
+    private static String toKey(final String uuid)
+    {
+        return uuid.toLowerCase();
+    }
+
+}
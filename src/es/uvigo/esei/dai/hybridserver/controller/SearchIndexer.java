@@ -0,0 +1,601 @@
+package es.uvigo.esei.dai.hybridserver.controller;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import es.uvigo.esei.dai.hybridserver.Configuration;
+import es.uvigo.esei.dai.hybridserver.controller.service.DocumentService;
+import es.uvigo.esei.dai.hybridserver.controller.utils.TextIndex;
+import es.uvigo.esei.dai.hybridserver.controller.utils.WSUtils;
+import es.uvigo.esei.dai.hybridserver.controller.utils.XMLUtils;
+import es.uvigo.esei.dai.hybridserver.database.DAOFactory;
+import es.uvigo.esei.dai.hybridserver.database.dao.DocumentDAO;
+import es.uvigo.esei.dai.hybridserver.exception.ServerErrorException;
+
+/**
+ * Mantiene el indice de busqueda de texto ({@link TextIndex}) de los
+ * documentos HTML y XML locales, y realiza las busquedas en el, y
+ * opcionalmente en los servidores remotos.
+ *
+ * Cada documento se indexa con la clave "tipo/uuid" (e.g. "html/"
+ * seguido de su UUID, en minusculas), a partir del texto de su
+ * contenido: sin etiquetas ni scripts en el caso de los HTML, y el
+ * texto y los valores de los atributos en el caso de los XML. Los documentos se indexan al
+ * crearse (o recuperarse de un servidor remoto) y se eliminan del
+ * indice al eliminarse, en un unico hilo, por lo que pueden tardar un
+ * instante en aparecer en las busquedas. Las actualizaciones
+ * pendientes se agrupan por documento, de modo que solo se aplica la
+ * ultima (e.g. un alta seguida de un borrado unicamente elimina el
+ * documento), y quienes las solicitan nunca esperan al indice.
+ *
+ * Al iniciar el servidor ({@link #reconcile}) se comparan los
+ * documentos existentes con los del indice, indexando los que falten
+ * (e.g. si no llegaron a almacenarse, o el indice se mantiene en
+ * memoria) y eliminando los que ya no existan.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public final class SearchIndexer
+{
+
+    // nombre con el que se identifica el servidor local en los
+    // resultados (igual que en los listados)
+    public static final String LOCAL_SERVER = "Local Server";
+
+    // numero de resultados si no se indica, y numero maximo
+    public static final int DEFAULT_LIMIT = 20;
+    public static final int MAX_LIMIT     = 1000;
+
+    // tipos de documento indexados
+    private static final List<String> TYPES = Arrays.asList("html", "xml");
+
+    // hilo (unico) en el que se indexan los documentos; su cola solo
+    // contiene la tarea que aplica las actualizaciones pendientes y las
+    // comparaciones con los documentos existentes
+    private static final ThreadPoolExecutor INDEXER = new ThreadPoolExecutor(
+        1, 1, 0L, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(final Runnable runnable)
+            {
+                final Thread thread = new Thread(runnable, "search-indexer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }
+    );
+
+    // ultima actualizacion pendiente de cada documento, por su clave:
+    // true para indexarlo y false para eliminarlo del indice, y si ya
+    // se ha solicitado aplicarlas (protegidos por el cerrojo del map)
+    private static final Map<String, Boolean> PENDING = new LinkedHashMap<>();
+    private static boolean draining = false;
+
+    // elementos HTML cuyo contenido no es texto
+    private static final Set<String> SKIPPED =
+        new HashSet<>(Arrays.asList("script", "style"));
+
+    // entidades HTML de letras acentuadas (e.g. "&aacute;"), que se
+    // indexan como la letra sin acento
+    private static final Pattern ACCENTED =
+        Pattern.compile("([a-zA-Z])(acute|grave|circ|tilde|uml|cedil|ring|slash)");
+
+    private SearchIndexer( )
+    {
+    }
+
+    /**
+     * Indice de busqueda, que se carga al utilizarse por primera vez.
+     */
+    private static final class Holder
+    {
+
+        private static final TextIndex INDEX =
+            new TextIndex(Configuration.getInstance().getSearchIndexDirectory());
+
+    }
+
+    /**
+     * Solicita en segundo plano la comparacion de los documentos
+     * existentes con los del indice, indexando los que falten y
+     * eliminando del indice los que ya no existan.
+     */
+    public static void reconcile( )
+    {
+        submit(new Runnable()
+        {
+            @Override
+            public void run( )
+            {
+                final TextIndex index = Holder.INDEX;
+                final Set<String> stale = index.keys();
+
+                for (final String type : TYPES) {
+                    try {
+
+                        for (final String uuid : DAOFactory.getDAO(type).listUUIDs()) {
+                            final String key = key(type, uuid);
+                            if (!stale.remove(key))
+                                add(key);
+                        }
+
+                    } catch (final SQLException | ServerErrorException e) {
+                        System.err.println("Cannot rebuild search index: " + e.getMessage());
+                        return;
+                    }
+                }
+
+                for (final String key : stale)
+                    index.remove(key);
+            }
+        });
+    }
+
+    /**
+     * Solicita la indexacion en segundo plano de un documento recien
+     * creado.
+     *
+     * @param type
+     *        String con el tipo de documento ("html" o "xml").
+     * @param uuid
+     *        String con el identificador UUID del documento.
+     */
+    static void index(final String type, final String uuid)
+    {
+        update(key(type, uuid), true);
+    }
+
+    /**
+     * Elimina un documento del indice (e.g. al eliminarlo).
+     *
+     * @param type
+     *        String con el tipo de documento ("html" o "xml").
+     * @param uuid
+     *        String con el identificador UUID del documento.
+     */
+    public static void forget(final String type, final String uuid)
+    {
+        update(key(type, uuid), false);
+    }
+
+    /**
+     * Busca documentos locales por su texto (ver {@link
+     * TextIndex#search}).
+     *
+     * @param query
+     *        String con el texto a buscar.
+     * @param limit
+     *        Numero maximo de documentos, o 0 para el numero por
+     *        defecto.
+     *
+     * @return List con los documentos encontrados, de mayor a menor
+     *         relevancia, como "tipo/uuid".
+     */
+    public static List<String> search(final String query, final int limit)
+    {
+        return Holder.INDEX.search(query, limit(limit));
+    }
+
+    /**
+     * Busca documentos por su texto en el servidor local y en todos
+     * los servidores remotos configurados.
+     *
+     * @param query
+     *        String con el texto a buscar.
+     * @param limit
+     *        Numero maximo de documentos de cada servidor, o 0 para el
+     *        numero por defecto.
+     *
+     * @return Map con los documentos encontrados en cada servidor
+     *         (ver {@link #search}), empezando por el local. Los
+     *         servidores que no responden (o no permiten busquedas)
+     *         no tienen resultados.
+     */
+    public static Map<String, List<String>> searchAll(final String query, final int limit)
+    {
+        final Map<String, List<String>> results = new LinkedHashMap<>();
+        results.put(LOCAL_SERVER, search(query, limit));
+
+        final Map<String, DocumentService> services = WSUtils.getDocumentServices();
+        for (final Entry<String, DocumentService> server : services.entrySet()) {
+            try {
+                results.put(server.getKey(), Arrays.asList(
+                    server.getValue().searchDocuments(query, limit(limit))
+                ));
+            } catch (final ServerErrorException | RuntimeException e) {
+                System.err.println("Remote search error: " + e.getMessage());
+                results.put(server.getKey(), Collections.<String>emptyList());
+            }
+        }
+
+        return results;
+    }
+
+
+    /**
+     * Construye la clave de un documento en el indice, con su UUID en
+     * forma canonica, de modo que no dependa de las mayusculas y
+     * minusculas con las que se haya solicitado.
+     */
+    private static String key(final String type, final String uuid)
+    {
+        try {
+            return type + "/" + UUID.fromString(uuid);
+        } catch (final IllegalArgumentException iae) {
+            return type + "/" + uuid;
+        }
+    }
+
+    /**
+     * Registra la ultima actualizacion de un documento, sustituyendo a
+     * la anterior si aun no se ha aplicado, y solicita aplicarlas si no
+     * se ha hecho ya.
+     */
+    private static void update(final String key, final boolean add)
+    {
+        synchronized (PENDING) {
+            // se mueve al final, tras las solicitadas antes que ella
+            PENDING.remove(key);
+            PENDING.put(key, add);
+
+            if (draining)
+                return;
+
+            draining = true;
+        }
+
+        submit(new Runnable()
+        {
+            @Override
+            public void run( )
+            {
+                drain();
+            }
+        });
+    }
+
+    /**
+     * Aplica, en el hilo del indice, las actualizaciones pendientes
+     * hasta que no quede ninguna.
+     */
+    private static void drain( )
+    {
+        while (true) {
+            final String  key;
+            final boolean add;
+
+            synchronized (PENDING) {
+                final Iterator<Map.Entry<String, Boolean>> pending = PENDING.entrySet().iterator();
+                if (!pending.hasNext()) {
+                    draining = false;
+                    return;
+                }
+
+                final Map.Entry<String, Boolean> next = pending.next();
+                key = next.getKey();
+                add = next.getValue();
+                pending.remove();
+            }
+
+            try {
+                if (add)
+                    add(key);
+                else
+                    Holder.INDEX.remove(key);
+            } catch (final RuntimeException re) {
+                System.err.println("Search index error: " + re.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Ejecuta una tarea en el hilo del indice, almacenando los
+     * cambios cuando no quedan mas tareas pendientes.
+     */
+    private static void submit(final Runnable task)
+    {
+        INDEXER.execute(new Runnable()
+        {
+            @Override
+            public void run( )
+            {
+                try {
+                    task.run();
+                } catch (final RuntimeException re) {
+                    System.err.println("Search index error: " + re.getMessage());
+                }
+
+                if (INDEXER.getQueue().isEmpty())
+                    Holder.INDEX.flush();
+            }
+        });
+    }
+
+    private static int limit(final int limit)
+    {
+        return limit <= 0 ? DEFAULT_LIMIT : Math.min(limit, MAX_LIMIT);
+    }
+
+    /**
+     * Indexa un documento, dada su clave, leyendo su contenido. Si el
+     * documento ya no existe no se hace nada.
+     */
+    private static void add(final String key)
+    {
+        final String type = key.substring(0, key.indexOf('/'));
+        final String uuid = key.substring(key.indexOf('/') + 1);
+
+        try {
+
+            final DocumentDAO<?> dao = DAOFactory.getDAO(type);
+
+            TextIndex.Terms terms = null;
+            if ("xml".equals(type)) {
+                try (final Reader content = dao.openContent(uuid)) {
+                    if (content == null)
+                        return;
+
+                    terms = extractXML(content);
+                } catch (final SAXException se) {
+                    // no es un XML bien formado, se indexa como HTML
+                    terms = null;
+                }
+            }
+
+            if (terms == null) {
+                try (final Reader content = dao.openContent(uuid)) {
+                    if (content == null)
+                        return;
+
+                    terms = extractHTML(content);
+                }
+            }
+
+            Holder.INDEX.add(key, terms);
+
+        } catch (final SQLException | ServerErrorException | IOException e) {
+            System.err.println("Cannot index document " + uuid + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Obtiene los terminos del texto y los valores de los atributos de
+     * un documento XML. Las entidades externas no se resuelven.
+     */
+    private static TextIndex.Terms extractXML(final Reader content)
+        throws SAXException, IOException
+    {
+        final TextIndex.Terms terms = new TextIndex.Terms();
+
+        final DefaultHandler handler = new DefaultHandler()
+        {
+            @Override
+            public void startElement(final String uri, final String localName,
+                                     final String qName, final Attributes attributes)
+            {
+                terms.end();
+                for (int i = 0; i < attributes.getLength(); ++i) {
+                    terms.add(attributes.getValue(i));
+                    terms.end();
+                }
+            }
+
+            @Override
+            public void endElement(final String uri, final String localName, final String qName)
+            {
+                terms.end();
+            }
+
+            @Override
+            public void characters(final char[ ] ch, final int start, final int length)
+            {
+                terms.add(ch, start, length);
+            }
+
+            @Override
+            public InputSource resolveEntity(final String publicId, final String systemId)
+            {
+                return new InputSource(new StringReader(""));
+            }
+        };
+
+        final XMLReader reader = XMLUtils.newXMLReader();
+        reader.setContentHandler(handler);
+        reader.setEntityResolver(handler);
+        reader.setErrorHandler(handler);
+        reader.parse(new InputSource(content));
+
+        terms.end();
+        return terms;
+    }
+
+    /**
+     * Obtiene los terminos del texto de un documento HTML, sin
+     * etiquetas, comentarios ni el contenido de scripts y estilos, y
+     * con las entidades mas comunes decodificadas.
+     */
+    private static TextIndex.Terms extractHTML(final Reader content)
+        throws IOException
+    {
+        final TextIndex.Terms terms = new TextIndex.Terms();
+        final PushbackReader reader = new PushbackReader(new BufferedReader(content), 2);
+
+        int c;
+        while ((c = reader.read()) != -1) {
+            if (c == '<') {
+                terms.end();
+
+                final String name = readTag(reader);
+                if (SKIPPED.contains(name))
+                    skipUntil(reader, "</" + name);
+            } else if (c == '&') {
+                terms.add(readEntity(reader));
+            } else {
+                terms.add((char) c);
+            }
+        }
+
+        terms.end();
+        return terms;
+    }
+
+    /**
+     * Lee una etiqueta HTML, tras el caracter "<", hasta su final
+     * (ignorando el contenido de los atributos entre comillas, y de
+     * los comentarios completos). Si el caracter "<" no inicia una
+     * etiqueta (e.g. "a < b") no se lee nada mas.
+     *
+     * @return Nombre del elemento, en minusculas, o "" si no es una
+     *         etiqueta de inicio (e.g. de cierre o un comentario).
+     */
+    private static String readTag(final PushbackReader reader) throws IOException
+    {
+        final StringBuilder name = new StringBuilder();
+
+        int c = reader.read();
+        if (c == '!') {
+            final int d = reader.read();
+            final int e = reader.read();
+            if (d == '-' && e == '-') {
+                skipUntil(reader, "-->");
+                return "";
+            }
+
+            if (e != -1) reader.unread(e);
+            if (d != -1) reader.unread(d);
+        } else if (c != '/' && c != '?' && !Character.isLetter(c)) {
+            if (c != -1) reader.unread(c);
+            return "";
+        }
+
+        boolean inName = Character.isLetter(c);
+        char quote = 0;
+        while (c != -1 && (c != '>' || quote != 0)) {
+            if (quote != 0) {
+                if (c == quote)
+                    quote = 0;
+            } else if (c == '"' || c == '\'') {
+                quote = (char) c;
+            }
+
+            if (inName) {
+                if (Character.isLetterOrDigit(c))
+                    name.append((char) c);
+                else
+                    inName = false;
+            }
+
+            c = reader.read();
+        }
+
+        return name.toString().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Avanza hasta el final de la primera aparicion de un texto, en
+     * minusculas (sin distinguir mayusculas y minusculas en el
+     * documento), o hasta el final del documento. Tras un fallo se
+     * conserva la parte ya reconocida que sigue siendo valida (al estilo
+     * de Knuth-Morris-Pratt), de modo que e.g. "--->" cierra un
+     * comentario.
+     */
+    private static void skipUntil(final PushbackReader reader, final String end) throws IOException
+    {
+        // longitud del mayor prefijo de "end" que es tambien sufijo de
+        // cada uno de sus prefijos
+        final int[ ] fallback = new int[end.length()];
+        for (int i = 1, k = 0; i < end.length(); ++i) {
+            while (k > 0 && end.charAt(i) != end.charAt(k))
+                k = fallback[k - 1];
+            if (end.charAt(i) == end.charAt(k))
+                ++k;
+            fallback[i] = k;
+        }
+
+        int matched = 0;
+        int c;
+        while (matched < end.length() && (c = reader.read()) != -1) {
+            final int lower = Character.toLowerCase(c);
+            while (matched > 0 && lower != end.charAt(matched))
+                matched = fallback[matched - 1];
+            if (lower == end.charAt(matched))
+                ++matched;
+        }
+    }
+
+    /**
+     * Lee una entidad HTML, tras el caracter "&", devolviendo el texto
+     * al que equivale: el caracter de las entidades numericas, la
+     * letra sin acento de las letras acentuadas y un separador en el
+     * resto de casos. Si no es una entidad se devuelve tal cual, tras
+     * un separador.
+     */
+    private static String readEntity(final PushbackReader reader) throws IOException
+    {
+        final StringBuilder entity = new StringBuilder();
+
+        int c = reader.read();
+        while (c != -1 && c != ';' && entity.length() < 32
+            && (Character.isLetterOrDigit(c) || (c == '#' && entity.length() == 0))) {
+            entity.append((char) c);
+            c = reader.read();
+        }
+
+        if (c != ';') {
+            // no es una entidad: se procesa de nuevo el ultimo caracter
+            if (c != -1)
+                reader.unread(c);
+            return " " + entity;
+        }
+
+        final String name = entity.toString();
+        try {
+            if (name.startsWith("#x") || name.startsWith("#X"))
+                return new String(Character.toChars(Integer.parseInt(name.substring(2), 16)));
+            if (name.startsWith("#"))
+                return new String(Character.toChars(Integer.parseInt(name.substring(1))));
+        } catch (final IllegalArgumentException iae) {
+            return " ";
+        }
+
+        final Matcher accented = ACCENTED.matcher(name);
+        if (accented.matches())
+            return accented.group(1);
+        if (name.equals("szlig"))
+            return "ss";
+
+        return " ";
+    }
+
+}
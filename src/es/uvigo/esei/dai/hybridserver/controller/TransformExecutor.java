@@ -0,0 +1,144 @@
+package es.uvigo.esei.dai.hybridserver.controller;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import es.uvigo.esei.dai.hybridserver.Configuration;
+import es.uvigo.esei.dai.hybridserver.controller.utils.LimitedWriter;
+import es.uvigo.esei.dai.hybridserver.exception.BadRequestException;
+import es.uvigo.esei.dai.hybridserver.exception.ServerErrorException;
+
+/**
+ * Ejecuta las transformaciones XSLT en hilos dedicados, tantos como
+ * procesadores, en lugar de en los hilos que atienden las peticiones
+ * HTTP. Asi, las transformaciones costosas compiten unicamente entre
+ * ellas, y no impiden atender el resto de peticiones.
+ *
+ * Cada transformacion dispone de un tiempo maximo ("transformTimeout",
+ * contado desde que se solicita) y escribe su resultado en un
+ * {@link LimitedWriter} con un tamaño maximo
+ * ("transformOutputLimit"). Al superar el tiempo maximo se responde
+ * inmediatamente con un error y se cancela la transformacion, que se
+ * interrumpe en su siguiente escritura (o no llega a comenzar, si aun
+ * esta en cola). Las solicitudes que no caben en la cola se rechazan.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+final class TransformExecutor
+{
+
+    // numero maximo de transformaciones en espera
+    private static final int MAX_PENDING = 100;
+
+    // hilos en los que se realizan las transformaciones
+    private static final ExecutorService TRANSFORMERS;
+
+    static {
+        final int threads = Runtime.getRuntime().availableProcessors();
+
+        TRANSFORMERS = new ThreadPoolExecutor(
+            threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(MAX_PENDING),
+            new ThreadFactory()
+            {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable runnable)
+                {
+                    final Thread thread = new Thread(
+                        runnable, "transformer-" + count.incrementAndGet()
+                    );
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }
+        );
+    }
+
+    private TransformExecutor( )
+    {
+    }
+
+    /**
+     * Crea el {@link LimitedWriter} en el que una transformacion debe
+     * escribir su resultado, con el tamaño maximo configurado.
+     *
+     * @return LimitedWriter para el resultado de la transformacion.
+     */
+    static LimitedWriter newOutput( )
+    {
+        return new LimitedWriter(Configuration.getInstance().getTransformOutputLimit());
+    }
+
+    /**
+     * Ejecuta una transformacion en los hilos dedicados y espera a su
+     * resultado, como maximo el tiempo configurado.
+     *
+     * @param transformation
+     *        Transformacion a ejecutar, que devuelve su resultado.
+     * @param output
+     *        LimitedWriter en el que la transformacion escribe su
+     *        resultado (ver {@link #newOutput()}).
+     *
+     * @return String con el resultado de la transformacion.
+     *
+     * @throws BadRequestException
+     *         Si la transformacion la lanza (e.g. XML invalido).
+     * @throws ServerErrorException
+     *         Si la transformacion la lanza o falla, supera el tiempo
+     *         maximo o el tamaño maximo de su resultado, o no puede
+     *         ejecutarse por haber demasiadas en espera.
+     */
+    static String execute(final Callable<String> transformation, final LimitedWriter output)
+        throws BadRequestException, ServerErrorException
+    {
+        final long timeout = Configuration.getInstance().getTransformTimeout();
+
+        final Future<String> result;
+        try {
+            result = TRANSFORMERS.submit(transformation);
+        } catch (final RejectedExecutionException ree) {
+            throw new ServerErrorException("Too many pending transformations");
+        }
+
+        try {
+
+            return timeout > 0 ? result.get(timeout, TimeUnit.MILLISECONDS) : result.get();
+
+        } catch (final TimeoutException te) {
+            output.cancel();
+            result.cancel(true);
+            throw new ServerErrorException("Transformation timed out after " + timeout + " ms");
+        } catch (final InterruptedException ie) {
+            output.cancel();
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ServerErrorException("Transformation interrupted");
+        } catch (final ExecutionException ee) {
+            if (output.isExceeded())
+                throw new ServerErrorException("Transformation output too large");
+
+            final Throwable cause = ee.getCause();
+            if (cause instanceof BadRequestException)
+                throw (BadRequestException) cause;
+            if (cause instanceof ServerErrorException)
+                throw (ServerErrorException) cause;
+
+            // e.g. StackOverflowError por una recursion demasiado profunda
+            throw new ServerErrorException("Transformation Error", cause);
+        }
+    }
+
+}
@@ -0,0 +1,271 @@
+package es.uvigo.esei.dai.hybridserver.controller;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.SQLException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Validator;
+
+import org.xml.sax.SAXException;
+
+import es.uvigo.esei.dai.hybridserver.controller.utils.SchemaCache;
+import es.uvigo.esei.dai.hybridserver.database.DAOFactory;
+import es.uvigo.esei.dai.hybridserver.database.dao.DocumentDAO;
+import es.uvigo.esei.dai.hybridserver.database.dao.ValidityDAO;
+import es.uvigo.esei.dai.hybridserver.database.entity.XMLDocument;
+import es.uvigo.esei.dai.hybridserver.database.entity.XSDDocument;
+import es.uvigo.esei.dai.hybridserver.database.entity.XSLTDocument;
+import es.uvigo.esei.dai.hybridserver.exception.ServerErrorException;
+
+/**
+ * Calcula y almacena los resultados de validar documentos XML con
+ * documentos XSD (ver {@link ValidityDAO}), de modo que las
+ * transformaciones no necesiten validar de nuevo un par ya conocido.
+ *
+ * Unicamente se validan los XSD asociados a algun XSLT, puesto que solo
+ * ellos intervienen en las transformaciones: al crear un XML se valida
+ * en segundo plano con los XSD de los XSLT existentes, y al crear un
+ * XSLT se validan con su XSD los XML existentes, en ambos casos hasta
+ * un numero maximo de pares por documento. Las validaciones se
+ * realizan en un unico hilo con una cola limitada, descartandose las
+ * solicitudes que no caben en ella: los pares no calculados se validan
+ * (y almacenan) igualmente la primera vez que se transforman. Los
+ * resultados de documentos eliminados durante la validacion se
+ * descartan.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public final class ValidityChecker
+{
+
+    // numero maximo de pares validados al crear un documento
+    private static final int MAX_PAIRS = 1000;
+
+    // numero maximo de documentos pendientes de validar
+    private static final int MAX_PENDING = 1000;
+
+    // hilo (unico) en el que se realizan las validaciones
+    private static final ExecutorService CHECKER = new ThreadPoolExecutor(
+        1, 1, 0L, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>(MAX_PENDING),
+        new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(final Runnable runnable)
+            {
+                final Thread thread = new Thread(runnable, "validity-checker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        },
+        new ThreadPoolExecutor.DiscardPolicy()
+    );
+
+    private ValidityChecker( )
+    {
+    }
+
+    /**
+     * Solicita la validacion en segundo plano de un documento XML
+     * recien creado con los XSD asociados a los XSLT existentes.
+     *
+     * @param uuid
+     *        String con el identificador UUID del documento XML.
+     */
+    static void checkXML(final String uuid)
+    {
+        CHECKER.execute(new Runnable()
+        {
+            @Override
+            @SuppressWarnings("unchecked")
+            public void run( )
+            {
+                try {
+
+                    final DocumentDAO<XMLDocument> xmlDAO =
+                        (DocumentDAO<XMLDocument>) DAOFactory.getDAO("xml");
+                    final DocumentDAO<XSDDocument> xsdDAO =
+                        (DocumentDAO<XSDDocument>) DAOFactory.getDAO("xsd");
+                    final DocumentDAO<XSLTDocument> xsltDAO =
+                        (DocumentDAO<XSLTDocument>) DAOFactory.getDAO("xslt");
+
+                    final XMLDocument xml = xmlDAO.findLazy(uuid);
+                    if (xml == null)
+                        return;
+
+                    // XSD distintos asociados a algun XSLT
+                    final Set<String> xsds = new LinkedHashSet<>();
+                    for (final String xslt : xsltDAO.listUUIDs()) {
+                        if (xsds.size() >= MAX_PAIRS)
+                            break;
+
+                        final XSLTDocument document = xsltDAO.findLazy(xslt);
+                        if (document != null)
+                            xsds.add(UUID.fromString(document.getXSD()).toString());
+                    }
+
+                    for (final String xsd : xsds)
+                        check(xmlDAO, xml, xsdDAO, xsdDAO.findLazy(xsd));
+
+                } catch (final SQLException | ServerErrorException e) {
+                    System.err.println("Validity check failed: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Solicita la validacion en segundo plano de los XML existentes con
+     * el documento XSD de un XSLT recien creado (si no los validaron ya
+     * otros XSLT con el mismo XSD).
+     *
+     * @param uuid
+     *        String con el identificador UUID del documento XSD.
+     */
+    static void checkXSD(final String uuid)
+    {
+        CHECKER.execute(new Runnable()
+        {
+            @Override
+            @SuppressWarnings("unchecked")
+            public void run( )
+            {
+                try {
+
+                    final DocumentDAO<XMLDocument> xmlDAO =
+                        (DocumentDAO<XMLDocument>) DAOFactory.getDAO("xml");
+                    final DocumentDAO<XSDDocument> xsdDAO =
+                        (DocumentDAO<XSDDocument>) DAOFactory.getDAO("xsd");
+
+                    final XSDDocument xsd = xsdDAO.findLazy(uuid);
+                    if (xsd == null)
+                        return;
+
+                    int pairs = 0;
+                    for (final String xml : xmlDAO.listUUIDs()) {
+                        if (pairs++ >= MAX_PAIRS)
+                            break;
+
+                        check(xmlDAO, xmlDAO.findLazy(xml), xsdDAO, xsd);
+                    }
+
+                } catch (final SQLException | ServerErrorException e) {
+                    System.err.println("Validity check failed: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Almacena el resultado de una validacion realizada durante una
+     * transformacion. Los errores se ignoran, puesto que el resultado
+     * puede volver a calcularse.
+     *
+     * @param xml
+     *        String con el identificador UUID del documento XML.
+     * @param xsd
+     *        String con el identificador UUID del documento XSD.
+     * @param valid
+     *        Si el XML es valido o no.
+     */
+    static void record(final String xml, final String xsd, final boolean valid)
+    {
+        try {
+            DAOFactory.getValidityDAO().save(xml, xsd, valid);
+        } catch (final SQLException sqe) {
+            System.err.println("Cannot record validity: " + sqe.getMessage());
+        }
+    }
+
+    /**
+     * Elimina los resultados de validacion de un documento XML (e.g.
+     * al eliminarlo).
+     *
+     * @param uuid
+     *        String con el identificador UUID del documento XML.
+     */
+    public static void forgetXML(final String uuid)
+    {
+        try {
+            DAOFactory.getValidityDAO().deleteXML(uuid);
+        } catch (final SQLException sqe) {
+            System.err.println("Cannot delete validity results: " + sqe.getMessage());
+        }
+    }
+
+    /**
+     * Elimina los resultados de validacion de un documento XSD (e.g.
+     * al eliminarlo).
+     *
+     * @param uuid
+     *        String con el identificador UUID del documento XSD.
+     */
+    public static void forgetXSD(final String uuid)
+    {
+        try {
+            DAOFactory.getValidityDAO().deleteXSD(uuid);
+        } catch (final SQLException sqe) {
+            System.err.println("Cannot delete validity results: " + sqe.getMessage());
+        }
+    }
+
+    /**
+     * Valida un documento XML con un XSD, si el resultado aun no se
+     * conoce, y lo almacena. Si el XSD no es un esquema valido no se
+     * almacena nada. Si alguno de los documentos se ha eliminado
+     * durante la validacion, el resultado se descarta: se comprueba
+     * tras almacenarlo, puesto que los documentos se eliminan antes que
+     * sus resultados (ver {@link #forgetXML} y {@link #forgetXSD}).
+     */
+    private static void check(final DocumentDAO<XMLDocument> xmlDAO, final XMLDocument xml,
+                              final DocumentDAO<XSDDocument> xsdDAO, final XSDDocument xsd)
+        throws SQLException
+    {
+        if (xml == null || xsd == null)
+            return;
+
+        final ValidityDAO validity = DAOFactory.getValidityDAO();
+        if (validity.find(xml.getUUID(), xsd.getUUID()) != null)
+            return;
+
+        final Validator validator;
+        try (final Reader xsdContent = xsd.openContent()) {
+            validator = SchemaCache.getValidator(
+                xsd.getUUID(),
+                xsd.getContentHash(),
+                new StreamSource(xsdContent)
+            );
+        } catch (final SAXException | IOException e) {
+            return;
+        }
+
+        boolean valid;
+        try (final Reader xmlContent = xml.openContent()) {
+            validator.validate(new StreamSource(xmlContent));
+            valid = true;
+        } catch (final SAXException se) {
+            valid = false;
+        } catch (final IOException ioe) {
+            return;
+        }
+
+        validity.save(xml.getUUID(), xsd.getUUID(), valid);
+
+        if (!xmlDAO.exists(xml.getUUID()))
+            validity.deleteXML(xml.getUUID());
+        if (!xsdDAO.exists(xsd.getUUID()))
+            validity.deleteXSD(xsd.getUUID());
+    }
+
+}
@@ -1,25 +1,40 @@
 package es.uvigo.esei.dai.hybridserver.controller;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.Reader;
 import java.io.StringReader;
-import java.io.StringWriter;
 import java.io.Writer;
 import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
+import javax.xml.transform.Templates;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.xpath.XPathExpressionException;
 
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 
+import es.uvigo.esei.dai.hybridserver.Configuration;
 import es.uvigo.esei.dai.hybridserver.controller.service.DocumentService;
+import es.uvigo.esei.dai.hybridserver.controller.utils.BinaryXML;
+import es.uvigo.esei.dai.hybridserver.controller.utils.LimitedWriter;
+import es.uvigo.esei.dai.hybridserver.controller.utils.SchemaCache;
+import es.uvigo.esei.dai.hybridserver.controller.utils.TemplatesCache;
+import es.uvigo.esei.dai.hybridserver.controller.utils.TransformCache;
 import es.uvigo.esei.dai.hybridserver.controller.utils.WSUtils;
 import es.uvigo.esei.dai.hybridserver.controller.utils.XMLUtils;
+import es.uvigo.esei.dai.hybridserver.controller.utils.XPathQuery;
 import es.uvigo.esei.dai.hybridserver.database.DAOFactory;
 import es.uvigo.esei.dai.hybridserver.database.dao.DocumentDAO;
+import es.uvigo.esei.dai.hybridserver.database.dao.ValidityDAO;
 import es.uvigo.esei.dai.hybridserver.database.entity.XMLDocument;
 import es.uvigo.esei.dai.hybridserver.database.entity.XSDDocument;
 import es.uvigo.esei.dai.hybridserver.database.entity.XSLTDocument;
@@ -34,11 +49,16 @@ import es.uvigo.esei.dai.hybridserver.exception.ServerErrorException;
  * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
  * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
  */
-class XMLDocumentController extends AbstractController<XMLDocument> implements DocumentController
+class XMLDocumentController extends AbstractController<XMLDocument> implements BatchTransformController, XPathController
 {
 
     private final DocumentDAO<XSDDocument>  xsdDAO;
     private final DocumentDAO<XSLTDocument> xsltDAO;
+    private final ValidityDAO               validity;
+
+    // UUID de XSD y XSLT buscados recientemente sin encontrarse
+    private static final NegativeLookupCache MISSING_XSD  = NegativeLookupCache.forType("xsd");
+    private static final NegativeLookupCache MISSING_XSLT = NegativeLookupCache.forType("xslt");
 
     /**
      * Construye una nueva instacia del controlador concreto y del
@@ -54,6 +74,7 @@ class XMLDocumentController extends AbstractController<XMLDocument> implements D
         super();
         xsdDAO  = (DocumentDAO<XSDDocument>)  DAOFactory.getDAO("xsd");
         xsltDAO = (DocumentDAO<XSLTDocument>) DAOFactory.getDAO("xslt");
+        validity = DAOFactory.getValidityDAO();
     }
 
     /**
@@ -71,51 +92,176 @@ class XMLDocumentController extends AbstractController<XMLDocument> implements D
      * @see AbstractController#get(String, String[ ])
      */
     @Override
-    public String get(final String uuid, final String... extra)
+    public Reader get(final String uuid, final String... extra)
         throws BadRequestException, DocumentNotFoundException, ServerErrorException
     {
         final String xslt = extra[0];
         if (extra.length == 0 || xslt == null)
             return super.get(uuid, extra);
 
-        final XMLDocument  document;
-        final XSLTDocument transformer;
-        final XSDDocument  schema;
+        // buscados recientemente sin exito, ni local ni remotamente
+        if (missing.isMissing(uuid))
+            throw new DocumentNotFoundException(uuid);
+        if (MISSING_XSLT.isMissing(xslt))
+            throw new DocumentNotFoundException(xslt);
+
+        // resultado de una transformacion anterior del mismo par
+        final TransformCache results = TransformCache.getInstance();
+        if (results != null) {
+            final String output = results.get(uuid, xslt);
+            if (output != null)
+                return new StringReader(output);
+        }
 
-        try {
+        final long generation = results == null ? 0 : results.getGeneration();
 
-            if (!dao.exists(uuid)) {
-                document = getRemote(uuid);
-                dao.create(document);
-            } else
-                document = dao.get(uuid);
+        final XSLTDocument transformer = findXSLT(xslt);
 
+        return new StringReader(
+            transform(uuid, transformer, getTemplates(transformer), results, generation)
+        );
+    }
 
-            if (!xsltDAO.exists(xslt)) {
-                transformer = getRemoteXSLT(xslt);
-                xsltDAO.create(transformer);
-            } else
-                transformer = xsltDAO.get(xslt);
+    /**
+     * Transforma un conjunto de documentos XML con un mismo XSLT,
+     * obteniendo y compilando este ultimo una unica vez. Cada documento
+     * se valida y transforma igual que en {@link #get(String,
+     * String[ ])}, reutilizando los resultados ya almacenados en la
+     * cache de transformaciones.
+     * 
+     * @see BatchTransformController#transformAll(String, List)
+     */
+    @Override
+    public BatchTransformation transformAll(final String xslt, final List<String> uuids)
+        throws BadRequestException, DocumentNotFoundException, ServerErrorException
+    {
+        if (MISSING_XSLT.isMissing(xslt))
+            throw new DocumentNotFoundException(xslt);
 
+        final XSLTDocument transformer = findXSLT(xslt);
+        final Templates    templates   = getTemplates(transformer);
+
+        List<String> documents = uuids;
+        if (documents == null) {
             try {
-                final String xsd = transformer.getXSD();
+                documents = dao.listUUIDs();
+            } catch (final SQLException sqe) {
+                throw new ServerErrorException("Database Error", sqe);
+            }
+        }
 
-                if (!xsdDAO.exists(xsd)) {
-                    schema = getRemoteXSD(xsd);
-                    xsdDAO.create(schema);
-                } else
-                    schema = xsdDAO.get(xsd);
+        final TransformCache results = TransformCache.getInstance();
+
+        return new BatchTransformation(documents, new BatchTransformation.Transformation()
+        {
+            @Override
+            public String transform(final String uuid)
+                throws BadRequestException, DocumentNotFoundException, ServerErrorException
+            {
+                if (missing.isMissing(uuid))
+                    throw new DocumentNotFoundException(uuid);
+
+                if (results != null) {
+                    final String output = results.get(uuid, xslt);
+                    if (output != null)
+                        return output;
+                }
+
+                final long generation = results == null ? 0 : results.getGeneration();
 
-            } catch (final DocumentNotFoundException dnfe) {
-                throw new BadRequestException("XSD not found", dnfe);
+                return XMLDocumentController.this.transform(
+                    uuid, transformer, templates, results, generation
+                );
             }
+        }, getMIMEType());
+    }
 
-        } catch (final SQLException sqe) {
-            throw new ServerErrorException("Database Error", sqe);
+    /**
+     * Evalua la expresion XPath en los hilos dedicados a
+     * transformaciones, con el tiempo y tamaño de resultado maximos
+     * configurados (ver {@link TransformExecutor}). Las rutas simples
+     * se evaluan durante la lectura del documento (ver
+     * {@link XPathQuery}), y si existe su representacion binaria se
+     * lee esta en lugar del texto.
+     * 
+     * @see XPathController#query(String, String, int)
+     */
+    @Override
+    public Reader query(final String uuid, final String xpath, final int limit)
+        throws BadRequestException, DocumentNotFoundException, ServerErrorException
+    {
+        return new StringReader(evaluate(uuid, compileXPath(xpath), limit));
+    }
+
+    /**
+     * Evalua la expresion XPath sobre cada documento igual que
+     * {@link #query(String, String, int)}, compilandola una unica vez.
+     * 
+     * @see XPathController#queryAll(String, List, int)
+     */
+    @Override
+    public BatchTransformation queryAll(final String xpath, final List<String> uuids, final int limit)
+        throws BadRequestException, ServerErrorException
+    {
+        final XPathQuery query = compileXPath(xpath);
+
+        List<String> documents = uuids;
+        if (documents == null) {
+            try {
+                documents = dao.listUUIDs();
+            } catch (final SQLException sqe) {
+                throw new ServerErrorException("Database Error", sqe);
+            }
         }
 
-        validate(document, schema);
-        return transform(document, transformer);
+        return new BatchTransformation(documents, new BatchTransformation.Transformation()
+        {
+            @Override
+            public String transform(final String uuid)
+                throws BadRequestException, DocumentNotFoundException, ServerErrorException
+            {
+                return evaluate(uuid, query, limit);
+            }
+        }, getMIMEType());
+    }
+
+    /**
+     * Ademas de crear el documento XML, solicita en segundo plano su
+     * validacion con los XSD existentes (ver {@link ValidityChecker}).
+     * 
+     * @see AbstractController#create(String, String[ ])
+     */
+    @Override
+    public String create(final String content, final String... extra)
+        throws DocumentNotFoundException, ServerErrorException
+    {
+        final String uuid = super.create(content, extra);
+        ValidityChecker.checkXML(uuid);
+
+        return uuid;
+    }
+
+    /**
+     * Elimina el documento XML y descarta los resultados de sus
+     * transformaciones y validaciones, asi como su representacion
+     * binaria.
+     * 
+     * @see AbstractController#delete(String)
+     */
+    @Override
+    public void delete(final String uuid)
+        throws DocumentNotFoundException, ServerErrorException
+    {
+        try {
+            super.delete(uuid);
+        } finally {
+            final TransformCache results = TransformCache.getInstance();
+            if (results != null)
+                results.invalidateXML(uuid);
+
+            ValidityChecker.forgetXML(uuid);
+            forgetInfoset(uuid);
+        }
     }
 
     /**
@@ -148,6 +294,24 @@ class XMLDocumentController extends AbstractController<XMLDocument> implements D
         return (DocumentDAO<XMLDocument>) DAOFactory.getDAO("xml");
     }
 
+    /**
+     * @see AbstractController#getSearchType()
+     */
+    @Override
+    protected String getSearchType( )
+    {
+        return "xml";
+    }
+
+    /**
+     * @see AbstractController#getNegativeLookupCache()
+     */
+    @Override
+    protected NegativeLookupCache getNegativeLookupCache( )
+    {
+        return NegativeLookupCache.forType("xml");
+    }
+
     /**
      * @see AbstractController#listRemote(DocumentService)
      */
@@ -178,6 +342,246 @@ class XMLDocumentController extends AbstractController<XMLDocument> implements D
         service.deleteXMLDocument(uuid);
     }
 
+    /**
+     * Busca un documento XSLT, localmente o en los servidores remotos
+     * (almacenandolo entonces localmente). Su contenido unicamente se
+     * lee si no se encuentra ya compilado.
+     * 
+     * @param uuid
+     *        Identificador UUID del documento XSLT.
+     * 
+     * @return Documento XSLT asociado al UUID recibido.
+     * 
+     * @throws DocumentNotFoundException
+     *         Si el documento XSLT no existe.
+     * @throws ServerErrorException
+     *         Si se produce algun error de acceso a datos.
+     */
+    private XSLTDocument findXSLT(final String uuid)
+        throws DocumentNotFoundException, ServerErrorException
+    {
+        try {
+
+            XSLTDocument transformer = xsltDAO.findLazy(uuid);
+            if (transformer == null) {
+                transformer = getRemoteXSLT(uuid);
+                xsltDAO.create(transformer);
+                MISSING_XSLT.forget(uuid);
+            }
+
+            return transformer;
+
+        } catch (final SQLException sqe) {
+            throw new ServerErrorException("Database Error", sqe);
+        }
+    }
+
+    /**
+     * Busca un documento XML, localmente o en los servidores remotos
+     * (almacenandolo entonces localmente), sin leer su contenido.
+     * 
+     * @param uuid
+     *        Identificador UUID del documento XML.
+     * 
+     * @return Documento XML asociado al UUID recibido.
+     * 
+     * @throws DocumentNotFoundException
+     *         Si el documento XML no existe.
+     * @throws SQLException
+     *         Si se produce algun error de acceso a datos.
+     */
+    private XMLDocument findXML(final String uuid)
+        throws DocumentNotFoundException, SQLException
+    {
+        if (missing.isMissing(uuid))
+            throw new DocumentNotFoundException(uuid);
+
+        XMLDocument document = dao.findLazy(uuid);
+        if (document == null) {
+            document = getRemote(uuid);
+            dao.create(document);
+            missing.forget(uuid);
+            index(uuid);
+        }
+
+        return document;
+    }
+
+    /**
+     * Compila una expresion XPath (ver {@link XPathQuery}).
+     * 
+     * @param xpath
+     *        String con la expresion XPath.
+     * 
+     * @return XPathQuery con la expresion compilada.
+     * 
+     * @throws BadRequestException
+     *         Si la expresion no es valida.
+     */
+    private static XPathQuery compileXPath(final String xpath)
+        throws BadRequestException
+    {
+        try {
+            return XPathQuery.compile(xpath);
+        } catch (final XPathExpressionException xpee) {
+            throw new BadRequestException("Invalid XPath", xpee);
+        }
+    }
+
+    /**
+     * Evalua una expresion XPath ya compilada sobre un documento XML,
+     * en los hilos dedicados a transformaciones.
+     * 
+     * @param uuid
+     *        Identificador UUID del documento XML.
+     * @param query
+     *        Expresion XPath compilada.
+     * @param limit
+     *        Numero maximo de nodos a devolver, o 0 para no limitarlo.
+     * 
+     * @return String con los nodos encontrados.
+     * 
+     * @throws BadRequestException
+     *         Si el documento no esta bien formado.
+     * @throws DocumentNotFoundException
+     *         Si el documento XML no existe.
+     * @throws ServerErrorException
+     *         Si se produce algun error de acceso a datos o durante la
+     *         evaluacion, o si se superan sus limites.
+     */
+    private String evaluate(final String uuid, final XPathQuery query, final int limit)
+        throws BadRequestException, DocumentNotFoundException, ServerErrorException
+    {
+        final XMLDocument document;
+        try {
+            document = findXML(uuid);
+        } catch (final SQLException sqe) {
+            throw new ServerErrorException("Database Error", sqe);
+        }
+
+        final long threshold = Configuration.getInstance().getBinaryXMLThreshold();
+        final boolean binary = threshold > 0 && document.getSize() >= threshold;
+
+        final LimitedWriter output = TransformExecutor.newOutput();
+
+        return TransformExecutor.execute(new Callable<String>()
+        {
+            @Override
+            public String call( ) throws BadRequestException, ServerErrorException
+            {
+                final byte[ ] infoset = binary ? findInfoset(uuid) : null;
+
+                try (final Reader xmlContent = infoset == null ? document.openContent() : null) {
+
+                    if (infoset != null) {
+                        query.evaluate(
+                            BinaryXML.newReader(),
+                            new InputSource(new ByteArrayInputStream(infoset)),
+                            limit,
+                            output
+                        );
+                    } else {
+                        query.evaluate(
+                            XMLUtils.newXMLReader(),
+                            new InputSource(xmlContent),
+                            limit,
+                            output
+                        );
+                    }
+
+                    return output.toString();
+
+                } catch (final SAXException se) {
+                    throw new BadRequestException("Invalid XML");
+                } catch (final TransformerException | XPathExpressionException e) {
+                    throw new ServerErrorException("XPath Error", e);
+                } catch (final IOException ioe) {
+                    throw new ServerErrorException(ioe);
+                }
+            }
+        }, output);
+    }
+
+    /**
+     * Valida un documento XML con el XSD asociado a un XSLT y lo
+     * transforma con este ultimo, almacenando el resultado en la cache
+     * de transformaciones. El XML y el XSD se buscan localmente o en
+     * los servidores remotos, y el XSD unicamente si no se conoce ya el
+     * resultado de la validacion.
+     * 
+     * @param uuid
+     *        Identificador UUID del documento XML.
+     * @param transformer
+     *        Documento XSLT con el que transformar el XML.
+     * @param templates
+     *        Templates compilados del XSLT.
+     * @param results
+     *        Cache de transformaciones, o null si esta desactivada.
+     * @param generation
+     *        Generacion de la cache de transformaciones obtenida antes
+     *        de comenzar (ver {@link TransformCache#getGeneration()}).
+     * 
+     * @return String conteniendo el resultado de la transformacion.
+     * 
+     * @throws BadRequestException
+     *         Si el XML no es valido, o el XSD no existe o no es
+     *         valido.
+     * @throws DocumentNotFoundException
+     *         Si el documento XML no existe.
+     * @throws ServerErrorException
+     *         Si se produce algun error de acceso a datos, o durante la
+     *         transformacion.
+     */
+    private String transform(final String uuid, final XSLTDocument transformer,
+        final Templates templates, final TransformCache results, final long generation)
+        throws BadRequestException, DocumentNotFoundException, ServerErrorException
+    {
+        XMLDocument document;
+        XSDDocument schema;
+        Boolean     valid;
+
+        try {
+
+            // resultado de una validacion anterior del mismo par: si es
+            // invalido se rechaza directamente, y si es valido no
+            // es necesario el XSD
+            valid = validity.find(uuid, transformer.getXSD());
+            if (Boolean.FALSE.equals(valid))
+                throw new BadRequestException("Invalid XML");
+
+            document = findXML(uuid);
+
+            schema = null;
+            if (valid == null) {
+                try {
+                    final String xsd = transformer.getXSD();
+                    if (MISSING_XSD.isMissing(xsd))
+                        throw new DocumentNotFoundException(xsd);
+
+                    schema = xsdDAO.find(xsd);
+                    if (schema == null) {
+                        schema = getRemoteXSD(xsd);
+                        xsdDAO.create(schema);
+                        MISSING_XSD.forget(xsd);
+                    }
+
+                } catch (final DocumentNotFoundException dnfe) {
+                    throw new BadRequestException("XSD not found", dnfe);
+                }
+            }
+
+        } catch (final SQLException sqe) {
+            throw new ServerErrorException("Database Error", sqe);
+        }
+
+        final String output = transform(document, schema, templates);
+
+        if (results != null)
+            results.put(uuid, transformer.getUUID(), transformer.getXSD(), output, generation);
+
+        return output;
+    }
+
     /**
      * Obtiene un XSD remoto a traves del UUID que lo identifica.
      * Busca en todos los servidores remotos configurados en el
@@ -199,6 +603,7 @@ class XMLDocumentController extends AbstractController<XMLDocument> implements D
         final Map<String, DocumentService> services =
             WSUtils.getDocumentServices();
 
+        boolean complete = true;
         for (final DocumentService service : services.values()) {
             try {
 
@@ -218,10 +623,14 @@ class XMLDocumentController extends AbstractController<XMLDocument> implements D
                 // algun motivo se lanza, se deja que continue con el
                 // siguiente servidor del listado
             } catch (final ServerErrorException see) {
+                complete = false;
                 System.err.println("Remote server error: " + see.getMessage());
             }
         }
 
+        if (complete)
+            MISSING_XSD.markMissing(uuid);
+
         throw new DocumentNotFoundException(uuid);
     }
 
@@ -246,6 +655,7 @@ class XMLDocumentController extends AbstractController<XMLDocument> implements D
         final Map<String, DocumentService> services =
             WSUtils.getDocumentServices();
 
+        boolean complete = true;
         for (final DocumentService service : services.values()) {
             try {
 
@@ -266,78 +676,235 @@ class XMLDocumentController extends AbstractController<XMLDocument> implements D
                 // algun motivo se lanza, se deja que continue con el
                 // siguiente servidor del listado
             } catch (final ServerErrorException see) {
+                complete = false;
                 System.err.println("Remote server error: " + see.getMessage());
             }
         }
 
+        if (complete)
+            MISSING_XSLT.markMissing(uuid);
+
         throw new DocumentNotFoundException(uuid);
     }
 
     /**
-     * Valida un documento XML con un documento XSD. Si la validacion
-     * es correcta no devolvera nada, si es incorrecta se lanzara una
-     * excepcion BadRequestException.
+     * Valida un documento XML con un documento XSD y lo transforma con
+     * un XSLT ya compilado, en los hilos dedicados a transformaciones y
+     * con el tiempo y tamaño de resultado maximos configurados (ver
+     * {@link TransformExecutor}).
      * 
      * @param xml
-     *        Documento XML a valida.
+     *        Documento XML a validar y transformar.
      * @param xsd
-     *        Documento XSD que servira como validador.
+     *        Documento XSD que servira como validador, o null para no
+     *        validar.
+     * @param templates
+     *        Templates compilados del XSLT que servira como
+     *        transformador.
+     * 
+     * @return String conteniendo el resultado de la transformacion.
      * 
      * @throws BadRequestException
      *         Si la validacion ha resultado incorrecta.
      * @throws ServerErrorException
-     *         Si se produce algun error por parte del servidor
-     *         durante la validacion.
+     *         Si se produce algun error por parte del servidor durante
+     *         la validacion o la transformacion del documento XML, o
+     *         si se superan sus limites.
      */
-    private void validate(final XMLDocument xml, final XSDDocument xsd)
+    private String transform(final XMLDocument xml, final XSDDocument xsd, final Templates templates)
         throws BadRequestException, ServerErrorException
     {
-        try {
+        final LimitedWriter output = TransformExecutor.newOutput();
+
+        return TransformExecutor.execute(new Callable<String>()
+        {
+            @Override
+            public String call( ) throws BadRequestException, ServerErrorException
+            {
+                transform(xml, xsd, templates, output);
+                return output.toString();
+            }
+        }, output);
+    }
 
-            XMLUtils.validate(
-                new StreamSource(new StringReader(xml.getContent())),
-                new StreamSource(new StringReader(xsd.getContent()))
-            );
+    /**
+     * Valida un documento XML con un documento XSD y lo transforma con
+     * un XSLT ya compilado, en una unica lectura del XML, escribiendo
+     * el resultado de la transformacion en el Writer recibido. Si no se recibe
+     * un XSD (porque ya se sabe que el XML es valido), unicamente se
+     * transforma. El documento XSD unicamente se lee si no se
+     * encuentra ya compilado, y el resultado de la validacion se
+     * almacena para las siguientes peticiones.
+     * 
+     * @param xml
+     *        Documento XML a validar y transformar.
+     * @param xsd
+     *        Documento XSD que servira como validador, o null para no
+     *        validar.
+     * @param templates
+     *        Templates compilados del XSLT que servira como
+     *        transformador.
+     * @param output
+     *        Writer en el que escribir el resultado de la
+     *        transformacion.
+     * 
+     * @throws BadRequestException
+     *         Si la validacion ha resultado incorrecta.
+     * @throws ServerErrorException
+     *         Si se produce algun error por parte del servidor durante
+     *         la validacion o la transformacion del documento XML.
+     */
+    private void transform(final XMLDocument xml, final XSDDocument xsd,
+        final Templates templates, final Writer output)
+        throws BadRequestException, ServerErrorException
+    {
+        Schema schema = null;
+
+        if (xsd != null) {
+            try (final Reader xsdContent = xsd.openContent()) {
+                schema = SchemaCache.getSchema(
+                    xsd.getUUID(),
+                    xsd.getContentHash(),
+                    new StreamSource(xsdContent)
+                );
+            } catch (final SAXException se) {
+                throw new BadRequestException("Invalid XSD");
+            } catch (final IOException ioe) {
+                throw new ServerErrorException(ioe);
+            }
+        }
+
+        // representacion binaria del XML, si es lo bastante grande: si
+        // ya existe se reproduce en lugar de leer el texto, y si no se
+        // genera durante esta misma lectura
+        final long threshold = Configuration.getInstance().getBinaryXMLThreshold();
+        final boolean binary = threshold > 0 && xml.getSize() >= threshold;
+        final byte[ ] infoset = binary ? findInfoset(xml.getUUID()) : null;
+
+        try (final Reader xmlContent = infoset == null ? xml.openContent() : null) {
+
+            final XMLReader reader;
+            final InputSource input;
+            BinaryXML.Recorder recorder = null;
+
+            if (infoset != null) {
+                reader = BinaryXML.newReader();
+                input  = new InputSource(new ByteArrayInputStream(infoset));
+            } else if (binary) {
+                reader = recorder = BinaryXML.newRecorder(XMLUtils.newXMLReader());
+                input  = new InputSource(xmlContent);
+            } else {
+                reader = XMLUtils.newXMLReader();
+                input  = new InputSource(xmlContent);
+            }
+
+            if (schema == null) {
+                XMLUtils.transform(reader, input, templates, new StreamResult(output));
+            } else {
+                XMLUtils.validateAndTransform(
+                    reader,
+                    input,
+                    schema,
+                    templates,
+                    new StreamResult(output)
+                );
+
+                ValidityChecker.record(xml.getUUID(), xsd.getUUID(), true);
+            }
+
+            if (recorder != null)
+                saveInfoset(xml.getUUID(), recorder.toByteArray());
+
+        } catch (final SAXException se) {
+            if (xsd == null)
+                throw new ServerErrorException("Transformation Error", se);
 
-        } catch (final SAXException e) {
+            ValidityChecker.record(xml.getUUID(), xsd.getUUID(), false);
             throw new BadRequestException("Invalid XML");
+        } catch (final TransformerException te) {
+            throw new ServerErrorException("Transformation Error", te);
         } catch (final IOException ioe) {
             throw new ServerErrorException(ioe);
         }
     }
 
     /**
-     * Transforma un documento XML con un documento XSLT devolviendo
-     * el resultado de la transformacion como un String.
+     * Devuelve la representacion binaria de un documento XML, o null
+     * si no existe o no es posible obtenerla (en cuyo caso se lee el
+     * documento original).
+     */
+    private static byte[ ] findInfoset(final String uuid)
+    {
+        try {
+            return DAOFactory.getInfosetDAO().find(uuid);
+        } catch (final SQLException sqe) {
+            System.err.println("Cannot read binary XML: " + sqe.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Almacena la representacion binaria de un documento XML. Los
+     * errores se ignoran, puesto que puede volver a generarse.
+     */
+    private static void saveInfoset(final String uuid, final byte[ ] infoset)
+    {
+        if (infoset == null)
+            return;
+
+        try {
+            DAOFactory.getInfosetDAO().save(uuid, infoset);
+        } catch (final SQLException sqe) {
+            System.err.println("Cannot store binary XML: " + sqe.getMessage());
+        }
+    }
+
+    /**
+     * Elimina la representacion binaria de un documento XML (e.g. al
+     * eliminarlo), si existe.
+     */
+    private static void forgetInfoset(final String uuid)
+    {
+        try {
+            DAOFactory.getInfosetDAO().delete(uuid);
+        } catch (final SQLException sqe) {
+            System.err.println("Cannot delete binary XML: " + sqe.getMessage());
+        }
+    }
+
+    /**
+     * Devuelve el XSLT compilado de un documento XSLT, leyendo y
+     * compilando su contenido unicamente si no se encuentra en cache.
      * 
-     * @param xml
-     *        Documento XML a transformar.
      * @param xslt
-     *        Documento XSLT que servira como transformador.
+     *        Documento XSLT.
      * 
-     * @return String conteniendo el resultado de la transformacion.
+     * @return Templates compilados del XSLT.
      * 
      * @throws ServerErrorException
-     *         Si se produce algun error durante la transformacion del
-     *         documento XML.
+     *         Si se produce algun error leyendo o compilando el XSLT.
      */
-    private String transform(final XMLDocument xml, final XSLTDocument xslt)
+    private Templates getTemplates(final XSLTDocument xslt)
         throws ServerErrorException
     {
-        try {
+        final Templates cached =
+            TemplatesCache.getTemplates(xslt.getUUID(), xslt.getContentHash());
 
-            final Writer outputWriter = new StringWriter();
+        if (cached != null)
+            return cached;
 
-            XMLUtils.transform(
-                new StreamSource(new StringReader(xml.getContent())),
-                new StreamSource(new StringReader(xslt.getContent())),
-                new StreamResult(outputWriter)
-            );
+        try (final Reader xsltContent = xslt.openContent()) {
 
-            return outputWriter.toString();
+            return TemplatesCache.compile(
+                xslt.getUUID(),
+                xslt.getContentHash(),
+                new StreamSource(xsltContent)
+            );
 
         } catch (final TransformerException te) {
             throw new ServerErrorException("Transformation Error", te);
+        } catch (final IOException ioe) {
+            throw new ServerErrorException(ioe);
         }
     }
 
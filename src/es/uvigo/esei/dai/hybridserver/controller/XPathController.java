@@ -0,0 +1,72 @@
+package es.uvigo.esei.dai.hybridserver.controller;
+
+import java.io.Reader;
+import java.util.List;
+
+import es.uvigo.esei.dai.hybridserver.exception.BadRequestException;
+import es.uvigo.esei.dai.hybridserver.exception.DocumentNotFoundException;
+import es.uvigo.esei.dai.hybridserver.exception.ServerErrorException;
+
+/**
+ * Interfaz a implementar por los controladores que permiten evaluar
+ * expresiones XPath sobre sus documentos, obteniendo unicamente los
+ * nodos encontrados en lugar de los documentos completos.
+ * 
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public interface XPathController extends DocumentController
+{
+
+    /**
+     * Evalua una expresion XPath sobre un documento.
+     * 
+     * @param uuid
+     *        Identificador UUID del documento.
+     * @param xpath
+     *        String con la expresion XPath.
+     * @param limit
+     *        Numero maximo de nodos a devolver, o 0 para no limitarlo.
+     * 
+     * @return Reader sobre los nodos encontrados.
+     * 
+     * @throws BadRequestException
+     *         Si la expresion o el documento no son validos.
+     * @throws DocumentNotFoundException
+     *         Si no se encuentra el documento.
+     * @throws ServerErrorException
+     *         Si se produce algun tipo de error por parte del
+     *         servidor (eg: acceso a datos) durante la evaluacion.
+     */
+    public Reader query(final String uuid, final String xpath, final int limit)
+        throws BadRequestException, DocumentNotFoundException, ServerErrorException;
+
+    /**
+     * Evalua una expresion XPath sobre un conjunto de documentos, en
+     * paralelo, pudiendo leerse los resultados de cada documento a
+     * medida que finalizan.
+     * 
+     * @param xpath
+     *        String con la expresion XPath.
+     * @param uuids
+     *        Listado de identificadores UUID de los documentos, o null
+     *        para evaluarla sobre todos los documentos locales.
+     * @param limit
+     *        Numero maximo de nodos a devolver por documento, o 0 para
+     *        no limitarlo.
+     * 
+     * @return {@link BatchTransformation} con los resultados de cada
+     *         documento, que debe cerrarse una vez consumido.
+     * 
+     * @throws BadRequestException
+     *         Si la expresion no es valida.
+     * @throws ServerErrorException
+     *         Si se produce algun tipo de error por parte del
+     *         servidor (eg: acceso a datos) mientras se intenta
+     *         recuperar el listado de documentos.
+     */
+    public BatchTransformation queryAll(final String xpath, final List<String> uuids, final int limit)
+        throws BadRequestException, ServerErrorException;
+
+}
@@ -4,6 +4,9 @@ import java.util.Arrays;
 import java.util.List;
 
 import es.uvigo.esei.dai.hybridserver.controller.service.DocumentService;
+import es.uvigo.esei.dai.hybridserver.controller.utils.SchemaCache;
+import es.uvigo.esei.dai.hybridserver.controller.utils.TemplatesCache;
+import es.uvigo.esei.dai.hybridserver.controller.utils.TransformCache;
 import es.uvigo.esei.dai.hybridserver.database.DAOFactory;
 import es.uvigo.esei.dai.hybridserver.database.dao.DocumentDAO;
 import es.uvigo.esei.dai.hybridserver.database.entity.XSDDocument;
@@ -42,6 +45,32 @@ class XSDDocumentController extends AbstractController<XSDDocument> implements D
         return "text/xml;charset=UTF-8";
     }
 
+    /**
+     * Elimina el documento XSD y descarta su esquema compilado de la
+     * cache de validacion y sus resultados de validacion, asi como los
+     * XSLT compilados y los resultados de transformaciones de sus XSLT
+     * (puesto que se eliminan los XSLT asociados al XSD).
+     * 
+     * @see AbstractController#delete(String)
+     */
+    @Override
+    public void delete(final String uuid)
+        throws DocumentNotFoundException, ServerErrorException
+    {
+        try {
+            super.delete(uuid);
+        } finally {
+            SchemaCache.invalidate(uuid);
+            TemplatesCache.invalidateAll();
+
+            final TransformCache results = TransformCache.getInstance();
+            if (results != null)
+                results.invalidateXSD(uuid);
+
+            ValidityChecker.forgetXSD(uuid);
+        }
+    }
+
     /**
      * @see AbstractController#documentFactory(String, String[ ])
      */
@@ -61,6 +90,15 @@ class XSDDocumentController extends AbstractController<XSDDocument> implements D
         return (DocumentDAO<XSDDocument>) DAOFactory.getDAO("xsd");
     }
 
+    /**
+     * @see AbstractController#getNegativeLookupCache()
+     */
+    @Override
+    protected NegativeLookupCache getNegativeLookupCache( )
+    {
+        return NegativeLookupCache.forType("xsd");
+    }
+
     /**
      * @see AbstractController#listRemote(DocumentService)
      */
@@ -6,6 +6,8 @@ import java.util.List;
 import java.util.Map;
 
 import es.uvigo.esei.dai.hybridserver.controller.service.DocumentService;
+import es.uvigo.esei.dai.hybridserver.controller.utils.TemplatesCache;
+import es.uvigo.esei.dai.hybridserver.controller.utils.TransformCache;
 import es.uvigo.esei.dai.hybridserver.controller.utils.WSUtils;
 import es.uvigo.esei.dai.hybridserver.database.DAOFactory;
 import es.uvigo.esei.dai.hybridserver.database.dao.DocumentDAO;
@@ -41,6 +43,44 @@ class XSLTDocumentController extends AbstractController<XSLTDocument> implements
         xsdDAO = (DocumentDAO<XSDDocument>) DAOFactory.getDAO("xsd");
     }
 
+    /**
+     * Ademas de crear el documento XSLT, solicita en segundo plano la
+     * validacion de los XML existentes con su XSD (ver
+     * {@link ValidityChecker}).
+     * 
+     * @see AbstractController#create(String, String[ ])
+     */
+    @Override
+    public String create(final String content, final String... extra)
+        throws DocumentNotFoundException, ServerErrorException
+    {
+        final String uuid = super.create(content, extra);
+        ValidityChecker.checkXSD(extra[0]);
+
+        return uuid;
+    }
+
+    /**
+     * Elimina el documento XSLT y descarta tanto su version compilada
+     * como los resultados de sus transformaciones.
+     * 
+     * @see AbstractController#delete(String)
+     */
+    @Override
+    public void delete(final String uuid)
+        throws DocumentNotFoundException, ServerErrorException
+    {
+        try {
+            super.delete(uuid);
+        } finally {
+            TemplatesCache.invalidate(uuid);
+
+            final TransformCache results = TransformCache.getInstance();
+            if (results != null)
+                results.invalidateXSLT(uuid);
+        }
+    }
+
     /**
      * Ademas de construir el documento XSLT, valida que se reciba un
      * identificador de documento XSD valido (existente) para el
@@ -74,6 +114,15 @@ class XSLTDocumentController extends AbstractController<XSLTDocument> implements
         return (DocumentDAO<XSLTDocument>) DAOFactory.getDAO("xslt");
     }
 
+    /**
+     * @see AbstractController#getNegativeLookupCache()
+     */
+    @Override
+    protected NegativeLookupCache getNegativeLookupCache( )
+    {
+        return NegativeLookupCache.forType("xslt");
+    }
+
     /**
      * @see DocumentController#getMIMEType()
      */
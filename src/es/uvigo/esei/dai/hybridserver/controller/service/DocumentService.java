@@ -273,4 +273,25 @@ public interface DocumentService
     public void deleteXSLTDocument(final String uuid)
         throws DocumentNotFoundException, ServerErrorException;
 
+    /**
+     * Busca documentos HTML y XML por su texto en el servidor donde se
+     * invoca (sin consultar a su vez a otros servidores).
+     * 
+     * @param query
+     *        String con el texto a buscar.
+     * @param limit
+     *        Numero maximo de documentos a devolver, o 0 para el
+     *        numero por defecto del servidor.
+     * 
+     * @return Array de String con los documentos encontrados, de mayor
+     *         a menor relevancia, con el formato "tipo/uuid" (e.g.
+     *         "html/" seguido del UUID de un documento HTML).
+     * 
+     * @throws ServerErrorException
+     *         Si se produce un error durante la busqueda.
+     */
+    @WebMethod
+    public String[ ] searchDocuments(final String query, final int limit)
+        throws ServerErrorException;
+
 }
@@ -1,14 +1,17 @@
 package es.uvigo.esei.dai.hybridserver.controller.service;
 
 import java.sql.SQLException;
-import java.util.LinkedList;
 import java.util.List;
 
 import javax.jws.WebService;
 
+import es.uvigo.esei.dai.hybridserver.controller.SearchIndexer;
+import es.uvigo.esei.dai.hybridserver.controller.ValidityChecker;
+import es.uvigo.esei.dai.hybridserver.controller.utils.SchemaCache;
+import es.uvigo.esei.dai.hybridserver.controller.utils.TemplatesCache;
+import es.uvigo.esei.dai.hybridserver.controller.utils.TransformCache;
 import es.uvigo.esei.dai.hybridserver.database.DAOFactory;
 import es.uvigo.esei.dai.hybridserver.database.dao.DocumentDAO;
-import es.uvigo.esei.dai.hybridserver.database.entity.AbstractDocument;
 import es.uvigo.esei.dai.hybridserver.database.entity.XSLTDocument;
 import es.uvigo.esei.dai.hybridserver.exception.DocumentNotFoundException;
 import es.uvigo.esei.dai.hybridserver.exception.ServerErrorException;
@@ -128,7 +131,11 @@ public class DocumentServiceImpl implements DocumentService
     public void deleteHTMLDocument(final String uuid)
         throws DocumentNotFoundException, ServerErrorException
     {
-        deleteDocument(uuid, DAOFactory.getDAO("html"));
+        try {
+            deleteDocument(uuid, DAOFactory.getDAO("html"));
+        } finally {
+            SearchIndexer.forget("html", uuid);
+        }
     }
 
     /**
@@ -138,7 +145,22 @@ public class DocumentServiceImpl implements DocumentService
     public void deleteXMLDocument(final String uuid)
         throws DocumentNotFoundException, ServerErrorException
     {
-        deleteDocument(uuid, DAOFactory.getDAO("xml"));
+        try {
+            deleteDocument(uuid, DAOFactory.getDAO("xml"));
+        } finally {
+            final TransformCache results = TransformCache.getInstance();
+            if (results != null)
+                results.invalidateXML(uuid);
+
+            ValidityChecker.forgetXML(uuid);
+            SearchIndexer.forget("xml", uuid);
+
+            try {
+                DAOFactory.getInfosetDAO().delete(uuid);
+            } catch (final SQLException sqe) {
+                System.err.println("Cannot delete binary XML: " + sqe.getMessage());
+            }
+        }
     }
 
     /**
@@ -148,7 +170,18 @@ public class DocumentServiceImpl implements DocumentService
     public void deleteXSDDocument(final String uuid)
         throws DocumentNotFoundException, ServerErrorException
     {
-        deleteDocument(uuid, DAOFactory.getDAO("xsd"));
+        try {
+            deleteDocument(uuid, DAOFactory.getDAO("xsd"));
+        } finally {
+            SchemaCache.invalidate(uuid);
+            TemplatesCache.invalidateAll();
+
+            final TransformCache results = TransformCache.getInstance();
+            if (results != null)
+                results.invalidateXSD(uuid);
+
+            ValidityChecker.forgetXSD(uuid);
+        }
     }
 
     /**
@@ -158,7 +191,27 @@ public class DocumentServiceImpl implements DocumentService
     public void deleteXSLTDocument(final String uuid)
         throws DocumentNotFoundException, ServerErrorException
     {
-        deleteDocument(uuid, DAOFactory.getDAO("xslt"));
+        try {
+            deleteDocument(uuid, DAOFactory.getDAO("xslt"));
+        } finally {
+            TemplatesCache.invalidate(uuid);
+
+            final TransformCache results = TransformCache.getInstance();
+            if (results != null)
+                results.invalidateXSLT(uuid);
+        }
+    }
+
+    /**
+     * @see DocumentService#searchDocuments(String, int)
+     */
+    @Override
+    public String[ ] searchDocuments(final String query, final int limit)
+        throws ServerErrorException
+    {
+        final List<String> results = SearchIndexer.search(query, limit);
+
+        return results.toArray(new String[results.size()]);
     }
 
 
@@ -182,11 +235,7 @@ public class DocumentServiceImpl implements DocumentService
     {
         try {
 
-            final List<String> uuidList = new LinkedList<>();
-            for (final AbstractDocument doc : dao.list())
-                uuidList.add(doc.getUUID());
-
-            return uuidList;
+            return dao.listUUIDs();
 
         } catch (final SQLException sqe) {
             throw new ServerErrorException("Database error", sqe);
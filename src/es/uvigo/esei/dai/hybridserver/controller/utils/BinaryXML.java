@@ -0,0 +1,644 @@
+package es.uvigo.esei.dai.hybridserver.controller.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Representacion binaria, ya analizada, de documentos XML: una
+ * secuencia de los eventos SAX del documento (elementos, atributos,
+ * texto, espacios de nombres, instrucciones de procesamiento y
+ * comentarios) en la que los nombres y URI se almacenan una unica vez
+ * y se referencian despues por su indice. Reproducir los eventos no
+ * requiere analizar lexicamente el texto, por lo que resulta mucho mas
+ * rapido que volver a leer el documento original.
+ *
+ * La representacion se genera mediante un {@link Recorder}, que se
+ * intercala entre el parser y el resto de la cadena durante una
+ * lectura normal del documento, y se reproduce mediante el
+ * {@link XMLReader} devuelto por {@link #newReader()}, utilizable en
+ * cualquier lugar que admita un XMLReader (e.g. un SAXSource).
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public class BinaryXML
+{
+
+    // cabecera y version del formato
+    private static final int  MAGIC   = 0x48534258;
+    private static final byte VERSION = 1;
+
+    // codigos de evento
+    private static final byte END_DOCUMENT           = 0;
+    private static final byte START_ELEMENT          = 1;
+    private static final byte END_ELEMENT            = 2;
+    private static final byte CHARACTERS             = 3;
+    private static final byte IGNORABLE_WHITESPACE   = 4;
+    private static final byte START_PREFIX_MAPPING   = 5;
+    private static final byte END_PREFIX_MAPPING     = 6;
+    private static final byte PROCESSING_INSTRUCTION = 7;
+    private static final byte COMMENT                = 8;
+
+    // features y propiedades SAX soportadas
+    private static final String NAMESPACES         = "http://xml.org/sax/features/namespaces";
+    private static final String NAMESPACE_PREFIXES = "http://xml.org/sax/features/namespace-prefixes";
+    private static final String LEXICAL_HANDLER    = "http://xml.org/sax/properties/lexical-handler";
+
+    /**
+     * Crea un nuevo {@link Recorder} que registra los eventos del
+     * XMLReader recibido a medida que se leen.
+     *
+     * @param parent
+     *        XMLReader (con soporte de espacios de nombres) que lee el
+     *        documento original.
+     *
+     * @return Recorder a utilizar como XMLReader en lugar del
+     *         recibido.
+     */
+    public static Recorder newRecorder(final XMLReader parent)
+    {
+        return new Recorder(parent);
+    }
+
+    /**
+     * Crea un nuevo {@link XMLReader} que reproduce la representacion
+     * binaria de un documento, que debe proporcionarse como byte
+     * stream del InputSource a leer.
+     *
+     * @return XMLReader de la representacion binaria.
+     */
+    public static XMLReader newReader( )
+    {
+        return new Replayer();
+    }
+
+    /**
+     * Filtro SAX que, ademas de transmitir todos los eventos, los
+     * registra en la representacion binaria del documento.
+     */
+    public static final class Recorder extends XMLFilterImpl implements LexicalHandler
+    {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream      out   = new DataOutputStream(bytes);
+
+        // indice de cada nombre ya escrito
+        private final Map<String, Integer> names = new HashMap<>();
+
+        private LexicalHandler lexical;
+        private boolean        complete = false;
+
+        private Recorder(final XMLReader parent)
+        {
+            super(parent);
+
+            try {
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+            } catch (final IOException ioe) {
+                throw new IllegalStateException(ioe);
+            }
+        }
+
+        /**
+         * Devuelve la representacion binaria del documento leido.
+         *
+         * @return Array con la representacion binaria, o null si el
+         *         documento no se ha leido por completo.
+         */
+        public byte[ ] toByteArray( )
+        {
+            return complete ? bytes.toByteArray() : null;
+        }
+
+        @Override
+        public Object getProperty(final String name)
+            throws SAXNotRecognizedException, SAXNotSupportedException
+        {
+            if (LEXICAL_HANDLER.equals(name))
+                return lexical;
+
+            return super.getProperty(name);
+        }
+
+        @Override
+        public void setProperty(final String name, final Object value)
+            throws SAXNotRecognizedException, SAXNotSupportedException
+        {
+            if (!LEXICAL_HANDLER.equals(name)) {
+                super.setProperty(name, value);
+                return;
+            }
+
+            // los eventos lexicos tambien pasan por el filtro, para
+            // registrar los comentarios
+            lexical = (LexicalHandler) value;
+            try {
+                super.setProperty(name, this);
+            } catch (final SAXNotRecognizedException | SAXNotSupportedException e) {
+                // el parser no los proporciona, no habra comentarios
+            }
+        }
+
+        @Override
+        public void parse(final InputSource input) throws SAXException, IOException
+        {
+            // los comentarios se registran aunque nadie los solicite
+            if (lexical == null) {
+                try {
+                    getParent().setProperty(LEXICAL_HANDLER, this);
+                } catch (final SAXNotRecognizedException | SAXNotSupportedException e) {
+                    // el parser no los proporciona, no habra comentarios
+                }
+            }
+
+            super.parse(input);
+        }
+
+        @Override
+        public void endDocument( ) throws SAXException
+        {
+            write(END_DOCUMENT);
+            complete = true;
+
+            super.endDocument();
+        }
+
+        @Override
+        public void startElement(final String uri, final String localName, final String qName,
+            final Attributes atts) throws SAXException
+        {
+            try {
+                out.writeByte(START_ELEMENT);
+                writeName(uri);
+                writeName(localName);
+                writeName(qName);
+
+                writeLength(atts.getLength());
+                for (int i = 0; i < atts.getLength(); i++) {
+                    writeName(atts.getURI(i));
+                    writeName(atts.getLocalName(i));
+                    writeName(atts.getQName(i));
+                    writeName(atts.getType(i));
+                    writeText(atts.getValue(i));
+                }
+            } catch (final IOException ioe) {
+                throw new SAXException(ioe);
+            }
+
+            super.startElement(uri, localName, qName, atts);
+        }
+
+        @Override
+        public void endElement(final String uri, final String localName, final String qName)
+            throws SAXException
+        {
+            try {
+                out.writeByte(END_ELEMENT);
+                writeName(uri);
+                writeName(localName);
+                writeName(qName);
+            } catch (final IOException ioe) {
+                throw new SAXException(ioe);
+            }
+
+            super.endElement(uri, localName, qName);
+        }
+
+        @Override
+        public void characters(final char[ ] ch, final int start, final int length)
+            throws SAXException
+        {
+            write(CHARACTERS, new String(ch, start, length));
+            super.characters(ch, start, length);
+        }
+
+        @Override
+        public void ignorableWhitespace(final char[ ] ch, final int start, final int length)
+            throws SAXException
+        {
+            write(IGNORABLE_WHITESPACE, new String(ch, start, length));
+            super.ignorableWhitespace(ch, start, length);
+        }
+
+        @Override
+        public void startPrefixMapping(final String prefix, final String uri)
+            throws SAXException
+        {
+            try {
+                out.writeByte(START_PREFIX_MAPPING);
+                writeName(prefix);
+                writeName(uri);
+            } catch (final IOException ioe) {
+                throw new SAXException(ioe);
+            }
+
+            super.startPrefixMapping(prefix, uri);
+        }
+
+        @Override
+        public void endPrefixMapping(final String prefix) throws SAXException
+        {
+            try {
+                out.writeByte(END_PREFIX_MAPPING);
+                writeName(prefix);
+            } catch (final IOException ioe) {
+                throw new SAXException(ioe);
+            }
+
+            super.endPrefixMapping(prefix);
+        }
+
+        @Override
+        public void processingInstruction(final String target, final String data)
+            throws SAXException
+        {
+            try {
+                out.writeByte(PROCESSING_INSTRUCTION);
+                writeName(target);
+                writeText(data);
+            } catch (final IOException ioe) {
+                throw new SAXException(ioe);
+            }
+
+            super.processingInstruction(target, data);
+        }
+
+        @Override
+        public void comment(final char[ ] ch, final int start, final int length)
+            throws SAXException
+        {
+            write(COMMENT, new String(ch, start, length));
+
+            if (lexical != null)
+                lexical.comment(ch, start, length);
+        }
+
+        @Override
+        public void startDTD(final String name, final String publicId, final String systemId)
+            throws SAXException
+        {
+            if (lexical != null)
+                lexical.startDTD(name, publicId, systemId);
+        }
+
+        @Override
+        public void endDTD( ) throws SAXException
+        {
+            if (lexical != null)
+                lexical.endDTD();
+        }
+
+        @Override
+        public void startEntity(final String name) throws SAXException
+        {
+            if (lexical != null)
+                lexical.startEntity(name);
+        }
+
+        @Override
+        public void endEntity(final String name) throws SAXException
+        {
+            if (lexical != null)
+                lexical.endEntity(name);
+        }
+
+        @Override
+        public void startCDATA( ) throws SAXException
+        {
+            if (lexical != null)
+                lexical.startCDATA();
+        }
+
+        @Override
+        public void endCDATA( ) throws SAXException
+        {
+            if (lexical != null)
+                lexical.endCDATA();
+        }
+
+        private void write(final byte event) throws SAXException
+        {
+            try {
+                out.writeByte(event);
+            } catch (final IOException ioe) {
+                throw new SAXException(ioe);
+            }
+        }
+
+        private void write(final byte event, final String text) throws SAXException
+        {
+            try {
+                out.writeByte(event);
+                writeText(text);
+            } catch (final IOException ioe) {
+                throw new SAXException(ioe);
+            }
+        }
+
+        /**
+         * Escribe un nombre: su indice (mas uno) si ya se ha escrito,
+         * o cero seguido del propio nombre si es la primera vez.
+         */
+        private void writeName(final String name) throws IOException
+        {
+            final String  value = name == null ? "" : name;
+            final Integer index = names.get(value);
+
+            if (index != null) {
+                writeLength(index + 1);
+            } else {
+                writeLength(0);
+                writeText(value);
+                names.put(value, names.size());
+            }
+        }
+
+        private void writeText(final String text) throws IOException
+        {
+            final byte[ ] utf8 = (text == null ? "" : text).getBytes(StandardCharsets.UTF_8);
+
+            writeLength(utf8.length);
+            out.write(utf8);
+        }
+
+        /**
+         * Escribe un entero no negativo en 7 bits por byte.
+         */
+        private void writeLength(final int value) throws IOException
+        {
+            int remaining = value;
+            while ((remaining & ~0x7F) != 0) {
+                out.writeByte((remaining & 0x7F) | 0x80);
+                remaining >>>= 7;
+            }
+
+            out.writeByte(remaining);
+        }
+
+    }
+
+    /**
+     * XMLReader que reproduce los eventos de la representacion binaria
+     * de un documento.
+     */
+    private static final class Replayer implements XMLReader
+    {
+
+        private ContentHandler content;
+        private DTDHandler     dtd;
+        private EntityResolver entities;
+        private ErrorHandler   errors;
+        private LexicalHandler lexical;
+
+        @Override
+        public boolean getFeature(final String name)
+            throws SAXNotRecognizedException, SAXNotSupportedException
+        {
+            if (NAMESPACES.equals(name))
+                return true;
+            if (NAMESPACE_PREFIXES.equals(name))
+                return false;
+
+            throw new SAXNotRecognizedException(name);
+        }
+
+        @Override
+        public void setFeature(final String name, final boolean value)
+            throws SAXNotRecognizedException, SAXNotSupportedException
+        {
+            if (getFeature(name) != value)
+                throw new SAXNotSupportedException(name);
+        }
+
+        @Override
+        public Object getProperty(final String name)
+            throws SAXNotRecognizedException, SAXNotSupportedException
+        {
+            if (LEXICAL_HANDLER.equals(name))
+                return lexical;
+
+            throw new SAXNotRecognizedException(name);
+        }
+
+        @Override
+        public void setProperty(final String name, final Object value)
+            throws SAXNotRecognizedException, SAXNotSupportedException
+        {
+            if (!LEXICAL_HANDLER.equals(name))
+                throw new SAXNotRecognizedException(name);
+
+            lexical = (LexicalHandler) value;
+        }
+
+        @Override
+        public void setEntityResolver(final EntityResolver resolver)
+        {
+            entities = resolver;
+        }
+
+        @Override
+        public EntityResolver getEntityResolver( )
+        {
+            return entities;
+        }
+
+        @Override
+        public void setDTDHandler(final DTDHandler handler)
+        {
+            dtd = handler;
+        }
+
+        @Override
+        public DTDHandler getDTDHandler( )
+        {
+            return dtd;
+        }
+
+        @Override
+        public void setContentHandler(final ContentHandler handler)
+        {
+            content = handler;
+        }
+
+        @Override
+        public ContentHandler getContentHandler( )
+        {
+            return content;
+        }
+
+        @Override
+        public void setErrorHandler(final ErrorHandler handler)
+        {
+            errors = handler;
+        }
+
+        @Override
+        public ErrorHandler getErrorHandler( )
+        {
+            return errors;
+        }
+
+        @Override
+        public void parse(final String systemId) throws IOException, SAXException
+        {
+            throw new SAXException("Binary XML can only be read from a byte stream");
+        }
+
+        @Override
+        public void parse(final InputSource input) throws IOException, SAXException
+        {
+            final InputStream stream = input.getByteStream();
+            if (stream == null)
+                throw new SAXException("Binary XML can only be read from a byte stream");
+
+            final DataInputStream in      = new DataInputStream(stream);
+            final ContentHandler  handler = content == null ? new DefaultHandler() : content;
+            final List<String>    names   = new ArrayList<>();
+
+            if (in.readInt() != MAGIC || in.readByte() != VERSION)
+                throw new SAXException("Unknown binary XML format");
+
+            handler.startDocument();
+
+            try {
+
+                byte event;
+                while ((event = in.readByte()) != END_DOCUMENT) {
+                    switch (event) {
+
+                        case START_ELEMENT: {
+                            final String uri       = readName(in, names);
+                            final String localName = readName(in, names);
+                            final String qName     = readName(in, names);
+
+                            final AttributesImpl atts  = new AttributesImpl();
+                            final int            count = readLength(in);
+                            for (int i = 0; i < count; i++) {
+                                atts.addAttribute(
+                                    readName(in, names),
+                                    readName(in, names),
+                                    readName(in, names),
+                                    readName(in, names),
+                                    readText(in)
+                                );
+                            }
+
+                            handler.startElement(uri, localName, qName, atts);
+                            break;
+                        }
+
+                        case END_ELEMENT:
+                            handler.endElement(readName(in, names), readName(in, names), readName(in, names));
+                            break;
+
+                        case CHARACTERS: {
+                            final char[ ] text = readText(in).toCharArray();
+                            handler.characters(text, 0, text.length);
+                            break;
+                        }
+
+                        case IGNORABLE_WHITESPACE: {
+                            final char[ ] text = readText(in).toCharArray();
+                            handler.ignorableWhitespace(text, 0, text.length);
+                            break;
+                        }
+
+                        case START_PREFIX_MAPPING:
+                            handler.startPrefixMapping(readName(in, names), readName(in, names));
+                            break;
+
+                        case END_PREFIX_MAPPING:
+                            handler.endPrefixMapping(readName(in, names));
+                            break;
+
+                        case PROCESSING_INSTRUCTION:
+                            handler.processingInstruction(readName(in, names), readText(in));
+                            break;
+
+                        case COMMENT: {
+                            final char[ ] text = readText(in).toCharArray();
+                            if (lexical != null)
+                                lexical.comment(text, 0, text.length);
+                            break;
+                        }
+
+                        default:
+                            throw new SAXException("Corrupted binary XML (event " + event + ")");
+                    }
+                }
+
+            } catch (final EOFException eofe) {
+                throw new SAXException("Truncated binary XML", eofe);
+            }
+
+            handler.endDocument();
+        }
+
+        private static String readName(final DataInputStream in, final List<String> names)
+            throws IOException, SAXException
+        {
+            final int index = readLength(in);
+            if (index == 0) {
+                final String name = readText(in);
+                names.add(name);
+                return name;
+            }
+
+            if (index > names.size())
+                throw new SAXException("Corrupted binary XML (name " + index + ")");
+
+            return names.get(index - 1);
+        }
+
+        private static String readText(final DataInputStream in) throws IOException
+        {
+            final byte[ ] utf8 = new byte[readLength(in)];
+            in.readFully(utf8);
+
+            return new String(utf8, StandardCharsets.UTF_8);
+        }
+
+        private static int readLength(final DataInputStream in) throws IOException
+        {
+            int value = 0;
+            int shift = 0;
+
+            byte b;
+            do {
+                b = in.readByte();
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            return value;
+        }
+
+    }
+
+}
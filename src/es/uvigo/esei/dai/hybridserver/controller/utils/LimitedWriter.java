@@ -0,0 +1,103 @@
+package es.uvigo.esei.dai.hybridserver.controller.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writer en memoria con un tamaño maximo, que ademas puede cancelarse
+ * desde otro hilo. Superar el tamaño maximo, o escribir tras la
+ * cancelacion, produce una IOException, que interrumpe a quien este
+ * escribiendo (e.g. una transformacion XSLT cuyo resultado crece sin
+ * limite o que ha superado su tiempo maximo).
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public class LimitedWriter extends Writer
+{
+
+    private final StringBuilder buffer = new StringBuilder();
+    private final long          limit;
+
+    private volatile boolean exceeded  = false;
+    private volatile boolean cancelled = false;
+
+    /**
+     * Crea un nuevo LimitedWriter con el tamaño maximo recibido.
+     *
+     * @param limit
+     *        Numero maximo de caracteres a escribir, o 0 para no
+     *        limitarlo.
+     */
+    public LimitedWriter(final long limit)
+    {
+        this.limit = limit;
+    }
+
+    /**
+     * @see Writer#write(char[ ], int, int)
+     */
+    @Override
+    public void write(final char[ ] chars, final int offset, final int length)
+        throws IOException
+    {
+        if (cancelled)
+            throw new IOException("Output cancelled");
+
+        if (limit > 0 && buffer.length() + (long) length > limit) {
+            exceeded = true;
+            throw new IOException("Output limit of " + limit + " characters exceeded");
+        }
+
+        buffer.append(chars, offset, length);
+    }
+
+    /**
+     * @see Writer#flush()
+     */
+    @Override
+    public void flush( )
+    {
+    }
+
+    /**
+     * @see Writer#close()
+     */
+    @Override
+    public void close( )
+    {
+    }
+
+    /**
+     * Cancela la escritura: cualquier escritura posterior producira
+     * una IOException.
+     */
+    public void cancel( )
+    {
+        cancelled = true;
+    }
+
+    /**
+     * Indica si se ha intentado superar el tamaño maximo.
+     *
+     * @return True si se ha superado el tamaño maximo, False en caso
+     *         contrario.
+     */
+    public boolean isExceeded( )
+    {
+        return exceeded;
+    }
+
+    /**
+     * Devuelve el contenido escrito.
+     *
+     * @return String con el contenido escrito.
+     */
+    @Override
+    public String toString( )
+    {
+        return buffer.toString();
+    }
+
+}
@@ -0,0 +1,182 @@
+package es.uvigo.esei.dai.hybridserver.controller.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.Source;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Cache de esquemas XSD ya compilados ({@link Schema}), identificados
+ * por el UUID de su documento XSD. Compilar un esquema suele ser mas
+ * costoso que la propia validacion, por lo que cada XSD se compila una
+ * unica vez y se reutiliza en todas las validaciones posteriores.
+ *
+ * Los objetos Schema pueden compartirse entre hilos, pero no asi los
+ * {@link Validator} que se obtienen de ellos, por lo que cada esquema
+ * mantiene un Validator propio para cada hilo (o, si se utiliza el
+ * esquema directamente, debe crearse un Validator o ValidatorHandler
+ * para cada uso). La cache almacena un
+ * numero limitado de esquemas, expulsando los usados hace mas tiempo,
+ * y debe invalidarse al eliminar un XSD.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public class SchemaCache
+{
+
+    // numero maximo de esquemas compilados en cache
+    private static final int MAX_ENTRIES = 64;
+
+    // esquemas compilados, en orden de uso
+    private static final Map<String, CompiledSchema> schemas =
+        new LinkedHashMap<String, CompiledSchema>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, CompiledSchema> eldest)
+            {
+                return size() > MAX_ENTRIES;
+            }
+        };
+
+    /**
+     * Devuelve el esquema compilado del XSD identificado por el UUID
+     * recibido, compilandolo unicamente si no se encuentra ya en cache
+     * (o si su contenido ha cambiado). El Schema devuelto puede
+     * compartirse entre hilos.
+     *
+     * @param uuid
+     *        Identificador UUID del documento XSD.
+     * @param hash
+     *        Hash del contenido del XSD, o null si se desconoce. Si se
+     *        proporciona, se utiliza para descartar esquemas
+     *        compilados a partir de otro contenido.
+     * @param xsd
+     *        Source con el contenido del XSD, que unicamente se lee
+     *        si es necesario compilarlo.
+     *
+     * @return Schema compilado del XSD.
+     *
+     * @throws SAXException
+     *         Si el XSD no es un esquema valido.
+     */
+    public static Schema getSchema(final String uuid, final String hash, final Source xsd)
+        throws SAXException
+    {
+        return lookup(uuid, hash, xsd).schema;
+    }
+
+    /**
+     * Devuelve un {@link Validator} para el XSD identificado por el
+     * UUID recibido, compilandolo unicamente si no se encuentra ya en
+     * cache (o si su contenido ha cambiado). El Validator devuelto
+     * pertenece al hilo actual y no debe compartirse con otros.
+     *
+     * @param uuid
+     *        Identificador UUID del documento XSD.
+     * @param hash
+     *        Hash del contenido del XSD, o null si se desconoce. Si se
+     *        proporciona, se utiliza para descartar esquemas
+     *        compilados a partir de otro contenido.
+     * @param xsd
+     *        Source con el contenido del XSD, que unicamente se lee
+     *        si es necesario compilarlo.
+     *
+     * @return Validator del esquema para el hilo actual.
+     *
+     * @throws SAXException
+     *         Si el XSD no es un esquema valido.
+     */
+    public static Validator getValidator(final String uuid, final String hash, final Source xsd)
+        throws SAXException
+    {
+        final Validator validator = lookup(uuid, hash, xsd).validators.get();
+        validator.reset();
+
+        return validator;
+    }
+
+    /**
+     * Elimina de la cache el esquema compilado de un XSD (e.g. al
+     * eliminar el documento).
+     *
+     * @param uuid
+     *        Identificador UUID del documento XSD.
+     */
+    public static void invalidate(final String uuid)
+    {
+        if (uuid == null)
+            return;
+
+        synchronized (schemas) {
+            schemas.remove(uuid.toLowerCase());
+        }
+    }
+
+    /**
+     * Busca un esquema en cache, compilandolo y almacenandolo si no se
+     * encuentra o si su contenido ha cambiado.
+     */
+    private static CompiledSchema lookup(final String uuid, final String hash, final Source xsd)
+        throws SAXException
+    {
+        final String key = uuid.toLowerCase();
+
+        CompiledSchema entry;
+        synchronized (schemas) {
+            entry = schemas.get(key);
+        }
+
+        if (entry == null || (hash != null && entry.hash != null && !hash.equals(entry.hash))) {
+            // la compilacion se realiza fuera del cerrojo; si dos hilos
+            // compilan a la vez el mismo esquema, prevalece el ultimo
+            final SchemaFactory factory =
+                SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+
+            entry = new CompiledSchema(hash, factory.newSchema(xsd));
+
+            synchronized (schemas) {
+                schemas.put(key, entry);
+            }
+        }
+
+        return entry;
+    }
+
+    /**
+     * Esquema compilado, junto al hash del contenido a partir del que
+     * se compilo y los Validator de cada hilo.
+     */
+    private static final class CompiledSchema
+    {
+
+        private final String                 hash;
+        private final Schema                 schema;
+        private final ThreadLocal<Validator> validators;
+
+        private CompiledSchema(final String hash, final Schema schema)
+        {
+            this.hash       = hash;
+            this.schema     = schema;
+            this.validators = new ThreadLocal<Validator>()
+            {
+                @Override
+                protected Validator initialValue( )
+                {
+                    return schema.newValidator();
+                }
+            };
+        }
+
+    }
+
+}
@@ -0,0 +1,519 @@
+package es.uvigo.esei.dai.hybridserver.controller.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+
+import es.uvigo.esei.dai.hybridserver.Configuration;
+
+/**
+ * Cache de hojas de estilo XSLT ya compiladas ({@link Templates}),
+ * identificadas por el UUID de su documento XSLT. Cada XSLT se analiza
+ * y compila una unica vez, obteniendose para cada transformacion un
+ * {@link Transformer} nuevo (de coste despreciable) a partir de los
+ * Templates en cache.
+ *
+ * Los objetos Templates pueden compartirse entre hilos, mientras que
+ * los Transformer no, por lo que estos ultimos nunca se reutilizan.
+ * Puesto que el contenido del XSLT solo es necesario para compilarlo,
+ * la consulta ({@link #getTemplates}) y la compilacion
+ * ({@link #compile}) se realizan por separado.
+ *
+ * La cache almacena un numero limitado de XSLT, expulsando los usados
+ * hace mas tiempo, y debe invalidarse al eliminar un XSLT (o un XSD,
+ * que elimina los XSLT asociados). Ademas, mantiene estadisticas de
+ * uso, incluido el tiempo de compilacion ahorrado.
+ *
+ * Si se configura "templatesCacheDirectory", los XSLT compilados se
+ * almacenan ademas en ese directorio, identificados por el hash de su
+ * contenido, y tras reiniciar el servidor se cargan desde el en lugar
+ * de volver a compilarse (ni leerse). Se almacenan serializados, lo
+ * que en el caso del compilador XSLTC incluido en el JDK equivale al
+ * bytecode de los translets generados; los procesadores cuyos
+ * Templates no son serializables simplemente no se almacenan. Al
+ * cargarlos unicamente se admiten las clases que componen los
+ * Templates, y los ficheros que no pueden cargarse se eliminan y el
+ * XSLT se compila de nuevo.
+ *
+ * Dado que cargar un XSLT compilado equivale a ejecutar su bytecode,
+ * el directorio debe ser de confianza: solo el usuario del servidor
+ * debe poder escribir en el. Por ello se crea accesible unicamente por
+ * su propietario y, si no pertenece al usuario del servidor o (en
+ * sistemas POSIX) el grupo u otros usuarios tienen algun permiso sobre
+ * el, no se utiliza.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public class TemplatesCache
+{
+
+    // numero maximo de XSLT compilados en cache
+    private static final int MAX_ENTRIES = 64;
+
+    // extension de los XSLT compilados almacenados en disco
+    private static final String STORED_SUFFIX = ".templates";
+
+    // clases (ademas de la propia de los Templates) admitidas al
+    // cargar un XSLT compilado desde disco
+    private static final Set<String> STORED_CLASSES = new HashSet<>(Arrays.asList(
+        "[[B", "[B", "java.util.Properties", "java.util.Hashtable"
+    ));
+
+    // estadisticas de uso
+    private static final AtomicLong hits        = new AtomicLong();
+    private static final AtomicLong misses      = new AtomicLong();
+    private static final AtomicLong evictions   = new AtomicLong();
+    private static final AtomicLong compileTime = new AtomicLong();
+    private static final AtomicLong savedTime   = new AtomicLong();
+    private static final AtomicLong loads       = new AtomicLong();
+
+    // XSLT compilados, en orden de uso
+    private static final Map<String, CompiledTemplates> templates =
+        new LinkedHashMap<String, CompiledTemplates>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, CompiledTemplates> eldest)
+            {
+                if (size() <= MAX_ENTRIES)
+                    return false;
+
+                evictions.incrementAndGet();
+                return true;
+            }
+        };
+
+    /**
+     * Devuelve el XSLT compilado identificado por el UUID recibido, si
+     * se encuentra en cache.
+     *
+     * @param uuid
+     *        Identificador UUID del documento XSLT.
+     * @param hash
+     *        Hash del contenido del XSLT, o null si se desconoce. Si se
+     *        proporciona, se utiliza para descartar XSLT compilados a
+     *        partir de otro contenido.
+     *
+     * @return Templates del XSLT, o null si no se encuentra en cache
+     *         ni en disco (en cuyo caso debe compilarse mediante
+     *         {@link #compile}).
+     */
+    public static Templates getTemplates(final String uuid, final String hash)
+    {
+        final CompiledTemplates entry;
+        synchronized (templates) {
+            entry = templates.get(uuid.toLowerCase());
+        }
+
+        if (entry == null || (hash != null && entry.hash != null && !hash.equals(entry.hash))) {
+            final Templates stored = load(hash);
+            if (stored == null)
+                return null;
+
+            synchronized (templates) {
+                templates.put(uuid.toLowerCase(), new CompiledTemplates(hash, stored, 0));
+            }
+
+            loads.incrementAndGet();
+            return stored;
+        }
+
+        hits.incrementAndGet();
+        savedTime.addAndGet(entry.compileTime);
+
+        return entry.templates;
+    }
+
+    /**
+     * Compila un XSLT y lo almacena en cache asociado a su UUID (y en
+     * disco, si se ha configurado y se conoce el hash de su contenido).
+     *
+     * @param uuid
+     *        Identificador UUID del documento XSLT.
+     * @param hash
+     *        Hash del contenido del XSLT, o null si se desconoce.
+     * @param xslt
+     *        Source con el contenido del XSLT.
+     *
+     * @return Templates del XSLT.
+     *
+     * @throws TransformerConfigurationException
+     *         Si el XSLT no es una hoja de estilo valida.
+     */
+    public static Templates compile(final String uuid, final String hash, final Source xslt)
+        throws TransformerConfigurationException
+    {
+        misses.incrementAndGet();
+
+        // la compilacion se realiza fuera del cerrojo; si dos hilos
+        // compilan a la vez el mismo XSLT, prevalece el ultimo
+        final long start = System.nanoTime();
+        final TransformerFactory factory = TransformerFactory.newInstance();
+        final Templates compiled = factory.newTemplates(xslt);
+        final long elapsed = System.nanoTime() - start;
+
+        compileTime.addAndGet(elapsed);
+
+        synchronized (templates) {
+            templates.put(uuid.toLowerCase(), new CompiledTemplates(hash, compiled, elapsed));
+        }
+
+        store(hash, compiled);
+
+        return compiled;
+    }
+
+    /**
+     * Elimina de la cache el XSLT compilado de un documento (e.g. al
+     * eliminarlo).
+     *
+     * @param uuid
+     *        Identificador UUID del documento XSLT.
+     */
+    public static void invalidate(final String uuid)
+    {
+        if (uuid == null)
+            return;
+
+        synchronized (templates) {
+            templates.remove(uuid.toLowerCase());
+        }
+    }
+
+    /**
+     * Elimina de la cache todos los XSLT compilados (e.g. al eliminar
+     * un XSD, puesto que se eliminan con el sus XSLT asociados).
+     */
+    public static void invalidateAll( )
+    {
+        synchronized (templates) {
+            templates.clear();
+        }
+    }
+
+    /**
+     * Devuelve el numero de transformaciones que reutilizaron un XSLT
+     * ya compilado.
+     *
+     * @return Numero de aciertos de la cache.
+     */
+    public static long getHits( )
+    {
+        return hits.get();
+    }
+
+    /**
+     * Devuelve el numero de transformaciones que necesitaron compilar
+     * el XSLT.
+     *
+     * @return Numero de fallos de la cache.
+     */
+    public static long getMisses( )
+    {
+        return misses.get();
+    }
+
+    /**
+     * Devuelve el numero de XSLT compilados expulsados de la cache por
+     * falta de espacio.
+     *
+     * @return Numero de expulsiones.
+     */
+    public static long getEvictions( )
+    {
+        return evictions.get();
+    }
+
+    /**
+     * Devuelve el numero de XSLT compilados cargados desde disco, en
+     * lugar de compilarse.
+     *
+     * @return Numero de XSLT cargados desde disco.
+     */
+    public static long getLoads( )
+    {
+        return loads.get();
+    }
+
+    /**
+     * Devuelve el tiempo total dedicado a compilar XSLT.
+     *
+     * @return Tiempo de compilacion, en milisegundos.
+     */
+    public static long getCompileTime( )
+    {
+        return TimeUnit.NANOSECONDS.toMillis(compileTime.get());
+    }
+
+    /**
+     * Devuelve el tiempo de compilacion ahorrado gracias a la cache,
+     * estimado como la suma, para cada acierto, del tiempo que costo
+     * compilar el XSLT reutilizado.
+     *
+     * @return Tiempo de compilacion ahorrado, en milisegundos.
+     */
+    public static long getSavedTime( )
+    {
+        return TimeUnit.NANOSECONDS.toMillis(savedTime.get());
+    }
+
+    /**
+     * Devuelve un resumen de las estadisticas de uso de la cache.
+     *
+     * @return String con las estadisticas de la cache.
+     */
+    public static String getStatistics( )
+    {
+        return "hits=" + getHits() + ", misses=" + getMisses()
+            + ", evictions=" + getEvictions() + ", loads=" + getLoads()
+            + ", compileMillis="
+            + getCompileTime() + ", savedMillis=" + getSavedTime();
+    }
+
+    /**
+     * Carga desde disco el XSLT compilado a partir del contenido con
+     * el hash recibido, si existe.
+     */
+    private static Templates load(final String hash)
+    {
+        final File file = storedFile(hash);
+        if (file == null || !file.isFile())
+            return null;
+
+        try (final ObjectInputStream input = new StoredTemplatesInputStream(new FileInputStream(file))) {
+
+            return (Templates) input.readObject();
+
+        } catch (final IOException | ClassNotFoundException | RuntimeException e) {
+            System.err.println("Cannot load compiled XSLT " + file + ": " + e.getMessage());
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Almacena en disco un XSLT compilado, identificado por el hash de
+     * su contenido, si es posible. Se escribe en un fichero temporal
+     * que despues se renombra, de modo que nunca se carguen ficheros a
+     * medio escribir.
+     */
+    private static void store(final String hash, final Templates compiled)
+    {
+        final File file = storedFile(hash);
+        if (file == null || file.isFile() || !(compiled instanceof Serializable))
+            return;
+
+        File temporary = null;
+        try {
+
+            temporary = File.createTempFile(hash, ".tmp", file.getParentFile());
+
+            try (final ObjectOutputStream output = new ObjectOutputStream(new FileOutputStream(temporary))) {
+                output.writeObject(compiled);
+            }
+
+            Files.move(
+                temporary.toPath(),
+                file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE
+            );
+
+        } catch (final IOException | RuntimeException e) {
+            System.err.println("Cannot store compiled XSLT " + file + ": " + e.getMessage());
+            if (temporary != null)
+                temporary.delete();
+        }
+    }
+
+    /**
+     * Devuelve el fichero en el que se almacena el XSLT compilado a
+     * partir del contenido con el hash recibido, o null si no se ha
+     * configurado el directorio o no se conoce el hash.
+     */
+    private static File storedFile(final String hash)
+    {
+        final File directory = StoredTemplates.DIRECTORY;
+
+        // el hash se utiliza como nombre de fichero, por lo que debe
+        // ser hexadecimal
+        if (directory == null || hash == null || !hash.matches("[0-9a-fA-F]+"))
+            return null;
+
+        return new File(directory, hash.toLowerCase() + STORED_SUFFIX);
+    }
+
+    /**
+     * Directorio de XSLT compilados, obtenido de la configuracion (y
+     * creado, accesible unicamente por su propietario, si no existe) la
+     * primera vez que se necesita. Si no es de confianza no se utiliza.
+     */
+    private static final class StoredTemplates
+    {
+
+        // permisos del directorio: unicamente su propietario
+        private static final Set<PosixFilePermission> OWNER_ONLY = EnumSet.of(
+            PosixFilePermission.OWNER_READ,
+            PosixFilePermission.OWNER_WRITE,
+            PosixFilePermission.OWNER_EXECUTE
+        );
+
+        private static final File DIRECTORY = prepare(
+            Configuration.getInstance().getTemplatesCacheDirectory()
+        );
+
+        private static File prepare(final File directory)
+        {
+            if (directory == null)
+                return null;
+
+            final Path path = directory.toPath();
+            try {
+
+                if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+                    try {
+                        Files.createDirectories(path, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+                    } catch (final UnsupportedOperationException uoe) {
+                        // sistema de ficheros sin permisos POSIX
+                        Files.createDirectories(path);
+                    }
+                }
+
+                if (!isTrusted(path)) {
+                    System.err.println(
+                        "Compiled XSLT directory " + directory + " must be a directory owned and "
+                        + "only accessible by the server user, ignoring it"
+                    );
+                    return null;
+                }
+
+            } catch (final IOException | RuntimeException e) {
+                System.err.println("Cannot create compiled XSLT directory " + directory + ": " + e.getMessage());
+                return null;
+            }
+
+            return directory;
+        }
+
+        /**
+         * Comprueba que el directorio no sea un enlace, que pertenezca
+         * al usuario del servidor y que (si el sistema de ficheros lo
+         * permite) el resto de usuarios no tengan ningun permiso.
+         */
+        private static boolean isTrusted(final Path path)
+            throws IOException
+        {
+            if (!Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS))
+                return false;
+
+            final String user  = System.getProperty("user.name");
+            final String owner = Files.getOwner(path, LinkOption.NOFOLLOW_LINKS).getName();
+            if (!owner.equals(user) && !owner.endsWith("\\" + user))
+                return false;
+
+            try {
+                final PosixFileAttributes attributes = Files.readAttributes(
+                    path, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS
+                );
+
+                return OWNER_ONLY.containsAll(attributes.permissions());
+            } catch (final UnsupportedOperationException uoe) {
+                // sin permisos POSIX (e.g. Windows) basta con el propietario
+                return true;
+            }
+        }
+
+    }
+
+    /**
+     * ObjectInputStream que unicamente admite las clases de los
+     * Templates almacenados, rechazando cualquier otra.
+     */
+    private static final class StoredTemplatesInputStream extends ObjectInputStream
+    {
+
+        private boolean first = true;
+
+        private StoredTemplatesInputStream(final InputStream input) throws IOException
+        {
+            super(input);
+        }
+
+        @Override
+        protected Class<?> resolveClass(final ObjectStreamClass description)
+            throws IOException, ClassNotFoundException
+        {
+            if (first) {
+                // el objeto raiz debe ser unos Templates
+                first = false;
+
+                final Class<?> type = Class.forName(
+                    description.getName(), false, Templates.class.getClassLoader()
+                );
+
+                if (!Templates.class.isAssignableFrom(type) || !Serializable.class.isAssignableFrom(type))
+                    throw new InvalidClassException(description.getName(), "not a Templates class");
+
+                return type;
+            }
+
+            if (!STORED_CLASSES.contains(description.getName()))
+                throw new InvalidClassException(description.getName(), "unexpected class");
+
+            return super.resolveClass(description);
+        }
+
+    }
+
+    /**
+     * XSLT compilado, junto al hash del contenido a partir del que se
+     * compilo y el tiempo que costo compilarlo.
+     */
+    private static final class CompiledTemplates
+    {
+
+        private final String    hash;
+        private final Templates templates;
+        private final long      compileTime;
+
+        private CompiledTemplates(final String hash, final Templates templates, final long compileTime)
+        {
+            this.hash        = hash;
+            this.templates   = templates;
+            this.compileTime = compileTime;
+        }
+
+    }
+
+}
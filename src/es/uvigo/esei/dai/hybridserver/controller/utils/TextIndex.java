@@ -0,0 +1,1241 @@
+package es.uvigo.esei.dai.hybridserver.controller.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Indice invertido de texto: asocia cada termino (palabra normalizada,
+ * ver {@link Terms}) a los documentos que lo contienen, permitiendo
+ * buscar documentos por su texto sin leer su contenido. Los documentos
+ * se identifican por una clave arbitraria y los resultados se ordenan
+ * por relevancia (BM25).
+ *
+ * Los documentos nuevos se acumulan en memoria y periodicamente
+ * ({@link #flush}) se convierten en segmentos inmutables, en los que
+ * cada termino tiene su lista de documentos y frecuencias en arrays de
+ * enteros. Eliminar un documento unicamente lo marca como eliminado en
+ * su segmento, y cuando el numero de segmentos crece los mas pequeños
+ * se fusionan en uno, descartando los documentos eliminados.
+ *
+ * Si se indica un directorio, cada segmento se almacena en el en un
+ * fichero compacto (enteros de longitud variable y documentos
+ * codificados como diferencias) junto a sus eliminaciones, y se cargan
+ * al crear el indice. Los ficheros que no pueden cargarse se eliminan,
+ * por lo que el indice debe poder reconstruirse a partir de los
+ * documentos, al igual que los que no se hayan almacenado aun.
+ *
+ * Las busquedas pueden realizarse en paralelo, mientras que las
+ * modificaciones se realizan de una en una.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public class TextIndex
+{
+
+    // cabecera y version de los ficheros de segmento y eliminaciones
+    private static final int MAGIC   = 0x48534958;
+    private static final int VERSION = 1;
+
+    // extensiones de los ficheros de segmento y eliminaciones
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String DELETES_SUFFIX = ".del";
+
+    // numero de documentos en memoria a partir del cual se crea un
+    // segmento sin esperar a flush()
+    private static final int MAX_BUFFERED = 10000;
+
+    // numero maximo de segmentos, y numero de segmentos que se
+    // fusionan al superarlo
+    private static final int MAX_SEGMENTS = 8;
+    private static final int MERGE_FACTOR = 4;
+
+    // parametros de la funcion de relevancia BM25
+    private static final float K1 = 1.2f;
+    private static final float B  = 0.75f;
+
+    // directorio de los segmentos, o null si se mantienen en memoria
+    private final File directory;
+
+    // segmentos, en orden de creacion, y documentos aun en memoria
+    private final List<Segment> segments = new ArrayList<>();
+    private Buffer buffer = new Buffer();
+
+    // posicion de cada documento no eliminado
+    private final Map<String, Location> locations = new HashMap<>();
+
+    // suma de las longitudes de los documentos no eliminados
+    private long totalLength = 0;
+
+    // numero del proximo segmento a crear
+    private int nextSegment = 0;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Crea un indice, cargando los segmentos almacenados en el
+     * directorio recibido (que se crea si no existe).
+     *
+     * @param directory
+     *        File con el directorio de los segmentos, o null para
+     *        mantener el indice unicamente en memoria.
+     */
+    public TextIndex(final File directory)
+    {
+        this.directory = directory;
+
+        if (directory != null)
+            load();
+    }
+
+    /**
+     * Añade un documento al indice, reemplazando el anterior con la
+     * misma clave si existe.
+     *
+     * @param key
+     *        String con la clave del documento.
+     * @param terms
+     *        Terms con los terminos del documento.
+     */
+    public void add(final String key, final Terms terms)
+    {
+        lock.writeLock().lock();
+        try {
+
+            delete(key);
+
+            final int doc = buffer.add(key, terms);
+            locations.put(key, new Location(buffer, doc));
+            totalLength += terms.length;
+
+            if (buffer.size() >= MAX_BUFFERED)
+                flush();
+
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Elimina un documento del indice.
+     *
+     * @param key
+     *        String con la clave del documento.
+     *
+     * @return True si el documento se encontraba en el indice, False
+     *         en caso contrario.
+     */
+    public boolean remove(final String key)
+    {
+        lock.writeLock().lock();
+        try {
+            return delete(key);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Comprueba si un documento se encuentra en el indice.
+     *
+     * @param key
+     *        String con la clave del documento.
+     *
+     * @return True si el documento se encuentra en el indice, False
+     *         en caso contrario.
+     */
+    public boolean contains(final String key)
+    {
+        lock.readLock().lock();
+        try {
+            return locations.containsKey(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Devuelve las claves de todos los documentos del indice.
+     *
+     * @return Set con las claves de los documentos.
+     */
+    public Set<String> keys( )
+    {
+        lock.readLock().lock();
+        try {
+            return new HashSet<>(locations.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Devuelve el numero de documentos del indice.
+     *
+     * @return Numero de documentos.
+     */
+    public int size( )
+    {
+        lock.readLock().lock();
+        try {
+            return locations.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Busca los documentos que contienen alguno de los terminos de una
+     * consulta, ordenados por relevancia: los documentos con mas
+     * terminos de la consulta, o en los que estos son mas frecuentes o
+     * menos comunes en el resto de documentos, se devuelven primero.
+     *
+     * @param query
+     *        String con el texto de la consulta.
+     * @param limit
+     *        Numero maximo de documentos a devolver.
+     *
+     * @return List con las claves de los documentos encontrados.
+     */
+    public List<String> search(final String query, final int limit)
+    {
+        final Terms terms = new Terms();
+        terms.add(query);
+        terms.end();
+
+        if (terms.counts.isEmpty() || limit <= 0)
+            return Collections.emptyList();
+
+        lock.readLock().lock();
+        try {
+
+            final int count = locations.size();
+            if (count == 0)
+                return Collections.emptyList();
+
+            final List<Part> parts = new ArrayList<Part>(segments);
+            parts.add(buffer);
+
+            // frecuencia de cada termino en el conjunto de documentos,
+            // sin los eliminados, al igual que el numero de documentos
+            // (de lo contrario el peso de los terminos comunes podria
+            // ser negativo)
+            final Map<String, Float> weights = new HashMap<>();
+            for (final String term : terms.counts.keySet()) {
+                int frequency = 0;
+                for (final Part part : parts)
+                    frequency += part.frequency(term);
+
+                if (frequency > 0) {
+                    weights.put(term, (float) Math.log(
+                        1 + (count - frequency + 0.5) / (frequency + 0.5)
+                    ));
+                }
+            }
+
+            final float average = (float) totalLength / count;
+
+            final PriorityQueue<Hit> hits = new PriorityQueue<>(limit + 1);
+            for (final Part part : parts) {
+                final float[ ] scores = new float[part.size()];
+                for (final Map.Entry<String, Float> weight : weights.entrySet())
+                    part.score(weight.getKey(), weight.getValue(), average, scores);
+
+                for (int doc = 0; doc < scores.length; ++doc) {
+                    if (scores[doc] > 0 && !part.deleted.get(doc)) {
+                        hits.add(new Hit(part.key(doc), scores[doc]));
+                        if (hits.size() > limit)
+                            hits.poll();
+                    }
+                }
+            }
+
+            final String[ ] keys = new String[hits.size()];
+            for (int i = keys.length - 1; i >= 0; --i)
+                keys[i] = hits.poll().key;
+
+            return Arrays.asList(keys);
+
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Convierte los documentos en memoria en un segmento y almacena
+     * las eliminaciones pendientes, fusionando los segmentos mas
+     * pequeños si se supera el numero maximo. Los errores al almacenar
+     * los ficheros se registran y se ignoran (el segmento se mantiene
+     * en memoria).
+     */
+    public void flush( )
+    {
+        lock.writeLock().lock();
+        try {
+
+            if (buffer.size() > 0) {
+                final Segment segment = buffer.toSegment(nextSegment++);
+                segments.add(segment);
+                relocate(segment);
+                buffer = new Buffer();
+
+                store(segment);
+            }
+
+            if (segments.size() > MAX_SEGMENTS)
+                merge();
+
+            for (final Segment segment : segments)
+                if (segment.dirty)
+                    storeDeletes(segment);
+
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Marca como eliminado un documento, si se encuentra en el indice.
+     */
+    private boolean delete(final String key)
+    {
+        final Location location = locations.remove(key);
+        if (location == null)
+            return false;
+
+        location.part.deleted.set(location.doc);
+        location.part.dirty = true;
+        totalLength -= location.part.length(location.doc);
+
+        return true;
+    }
+
+    /**
+     * Actualiza la posicion de los documentos no eliminados de un
+     * segmento recien creado.
+     */
+    private void relocate(final Segment segment)
+    {
+        for (int doc = 0; doc < segment.size(); ++doc)
+            if (!segment.deleted.get(doc))
+                locations.put(segment.keys[doc], new Location(segment, doc));
+    }
+
+    /**
+     * Fusiona los segmentos con menos documentos en uno nuevo, sin los
+     * documentos eliminados, y elimina sus ficheros.
+     */
+    private void merge( )
+    {
+        final List<Segment> smallest = new ArrayList<>(segments);
+        Collections.sort(smallest, new Comparator<Segment>()
+        {
+            @Override
+            public int compare(final Segment a, final Segment b)
+            {
+                return Integer.compare(a.live(), b.live());
+            }
+        });
+
+        final List<Segment> merged = new ArrayList<>(smallest.subList(0, MERGE_FACTOR));
+        Collections.sort(merged, new Comparator<Segment>()
+        {
+            @Override
+            public int compare(final Segment a, final Segment b)
+            {
+                return Integer.compare(a.number, b.number);
+            }
+        });
+
+        final Segment segment = Segment.merge(nextSegment++, merged);
+
+        segments.removeAll(merged);
+        segments.add(segment);
+        relocate(segment);
+
+        store(segment);
+        for (final Segment old : merged)
+            discard(old.number);
+    }
+
+    /**
+     * Carga los segmentos del directorio del indice, eliminando los
+     * ficheros que no pueden cargarse.
+     */
+    private void load( )
+    {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            System.err.println("Cannot create search index directory: " + directory);
+            return;
+        }
+
+        final List<Integer> numbers = new ArrayList<>();
+        for (final File file : directory.listFiles()) {
+            final String name = file.getName();
+            if (name.endsWith(".tmp")) {
+                file.delete();
+            } else if (name.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    numbers.add(Integer.valueOf(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                } catch (final NumberFormatException nfe) {
+                    // no es un segmento del indice
+                }
+            }
+        }
+        Collections.sort(numbers);
+
+        for (final int number : numbers) {
+            nextSegment = number + 1;
+
+            final Segment segment;
+            try {
+                segment = Segment.read(number, file(number, SEGMENT_SUFFIX));
+                readDeletes(segment);
+            } catch (final IOException | RuntimeException e) {
+                System.err.println("Cannot load search index segment " + number + ": " + e.getMessage());
+                discard(number);
+                continue;
+            }
+
+            segments.add(segment);
+
+            // un documento repetido (e.g. tras interrumpirse una
+            // fusion) se mantiene unicamente en el segmento mas nuevo
+            for (int doc = 0; doc < segment.size(); ++doc) {
+                if (segment.deleted.get(doc))
+                    continue;
+
+                delete(segment.keys[doc]);
+                locations.put(segment.keys[doc], new Location(segment, doc));
+                totalLength += segment.lengths[doc];
+            }
+        }
+    }
+
+    /**
+     * Almacena un segmento en su fichero, junto a sus eliminaciones.
+     */
+    private void store(final Segment segment)
+    {
+        if (directory == null)
+            return;
+
+        final File file = file(segment.number, SEGMENT_SUFFIX);
+
+        File temporary = null;
+        try {
+
+            temporary = File.createTempFile("segment" + segment.number, ".tmp", directory);
+
+            try (final Output output = new Output(temporary)) {
+                segment.write(output.data);
+                output.finish();
+            }
+
+            Files.move(
+                temporary.toPath(),
+                file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE
+            );
+
+        } catch (final IOException | RuntimeException e) {
+            System.err.println("Cannot store search index segment " + file + ": " + e.getMessage());
+            if (temporary != null)
+                temporary.delete();
+        }
+
+        storeDeletes(segment);
+    }
+
+    /**
+     * Almacena las eliminaciones de un segmento, si tiene alguna.
+     */
+    private void storeDeletes(final Segment segment)
+    {
+        segment.dirty = false;
+
+        if (directory == null || segment.deleted.isEmpty())
+            return;
+
+        final File file = file(segment.number, DELETES_SUFFIX);
+
+        File temporary = null;
+        try {
+
+            temporary = File.createTempFile("segment" + segment.number, ".tmp", directory);
+
+            try (final Output output = new Output(temporary)) {
+                final long[ ] words = segment.deleted.toLongArray();
+                writeVInt(output.data, words.length);
+                for (final long word : words)
+                    output.data.writeLong(word);
+                output.finish();
+            }
+
+            Files.move(
+                temporary.toPath(),
+                file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE
+            );
+
+        } catch (final IOException | RuntimeException e) {
+            System.err.println("Cannot store search index deletions " + file + ": " + e.getMessage());
+            segment.dirty = true;
+            if (temporary != null)
+                temporary.delete();
+        }
+    }
+
+    /**
+     * Carga las eliminaciones de un segmento, si tiene alguna.
+     */
+    private void readDeletes(final Segment segment) throws IOException
+    {
+        final File file = file(segment.number, DELETES_SUFFIX);
+        if (!file.isFile())
+            return;
+
+        try (final Input input = new Input(file)) {
+            final long[ ] words = new long[input.count()];
+            for (int i = 0; i < words.length; ++i)
+                words[i] = input.data.readLong();
+            input.verify();
+
+            segment.deleted.or(BitSet.valueOf(words));
+        }
+    }
+
+    /**
+     * Elimina los ficheros de un segmento.
+     */
+    private void discard(final int number)
+    {
+        if (directory == null)
+            return;
+
+        file(number, SEGMENT_SUFFIX).delete();
+        file(number, DELETES_SUFFIX).delete();
+    }
+
+    private File file(final int number, final String suffix)
+    {
+        return new File(directory, number + suffix);
+    }
+
+    /**
+     * Escribe un entero no negativo con 7 bits por byte (los valores
+     * pequeños, como las diferencias entre documentos consecutivos,
+     * ocupan un unico byte).
+     */
+    private static void writeVInt(final DataOutputStream output, int value) throws IOException
+    {
+        while ((value & ~0x7F) != 0) {
+            output.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte(value);
+    }
+
+    /**
+     * Lee un entero escrito con {@link #writeVInt}.
+     */
+    private static int readVInt(final DataInputStream input) throws IOException
+    {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final byte b = input.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+
+        throw new IOException("Malformed integer");
+    }
+
+
+    /**
+     * Terminos de un texto: secuencias de letras y digitos, en
+     * minusculas y sin acentos ni diacriticos (e.g. "Canción" y
+     * "cancion" son el mismo termino), junto al numero de veces que
+     * aparecen. Las secuencias de un unico caracter o demasiado largas
+     * se descartan. El texto puede añadirse por partes, separadas con
+     * {@link #end}.
+     */
+    public static final class Terms
+    {
+
+        // longitudes minima y maxima de los terminos
+        private static final int MIN_LENGTH = 2;
+        private static final int MAX_LENGTH = 64;
+
+        // marcas diacriticas tras descomponer los caracteres
+        private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+        // veces que aparece cada termino
+        private final Map<String, int[ ]> counts = new HashMap<>();
+
+        // numero total de terminos
+        private int length = 0;
+
+        // termino en curso
+        private final StringBuilder token = new StringBuilder();
+        private boolean ascii    = true;
+        private boolean overflow = false;
+
+        /**
+         * Añade un caracter del texto.
+         *
+         * @param c
+         *        Caracter a añadir.
+         */
+        public void add(final char c)
+        {
+            if (!Character.isLetterOrDigit(c)) {
+                end();
+            } else if (token.length() < MAX_LENGTH) {
+                token.append(c);
+                ascii &= c < 0x80;
+            } else {
+                overflow = true;
+            }
+        }
+
+        /**
+         * Añade un fragmento del texto.
+         *
+         * @param chars
+         *        Array de caracteres con el fragmento.
+         * @param start
+         *        Posicion del primer caracter del fragmento.
+         * @param count
+         *        Numero de caracteres del fragmento.
+         */
+        public void add(final char[ ] chars, final int start, final int count)
+        {
+            for (int i = start; i < start + count; ++i)
+                add(chars[i]);
+        }
+
+        /**
+         * Añade un fragmento del texto.
+         *
+         * @param text
+         *        CharSequence con el fragmento.
+         */
+        public void add(final CharSequence text)
+        {
+            for (int i = 0; i < text.length(); ++i)
+                add(text.charAt(i));
+        }
+
+        /**
+         * Finaliza el termino en curso, de modo que el siguiente
+         * caracter comience uno nuevo (e.g. entre dos elementos).
+         */
+        public void end( )
+        {
+            if (token.length() >= MIN_LENGTH && !overflow) {
+                String term = token.toString();
+                if (!ascii)
+                    term = MARKS.matcher(Normalizer.normalize(term, Normalizer.Form.NFD)).replaceAll("");
+                term = term.toLowerCase(Locale.ROOT);
+
+                final int[ ] count = counts.get(term);
+                if (count == null)
+                    counts.put(term, new int[ ] { 1 });
+                else
+                    count[0]++;
+
+                length++;
+            }
+
+            token.setLength(0);
+            ascii    = true;
+            overflow = false;
+        }
+
+        /**
+         * Devuelve el numero de terminos distintos del texto.
+         *
+         * @return Numero de terminos distintos.
+         */
+        public int size( )
+        {
+            return counts.size();
+        }
+
+    }
+
+    /**
+     * Conjunto de documentos del indice, identificados por su posicion
+     * en el mismo.
+     */
+    private static abstract class Part
+    {
+
+        // documentos eliminados, y si aun no se han almacenado
+        protected final BitSet deleted = new BitSet();
+        protected boolean dirty = false;
+
+        protected abstract int size( );
+
+        protected abstract String key(final int doc);
+
+        protected abstract int length(final int doc);
+
+        // numero de documentos no eliminados que contienen un termino
+        protected abstract int frequency(final String term);
+
+        // suma a cada documento que contiene un termino su relevancia
+        protected abstract void score(final String term, final float weight,
+                                      final float average, final float[ ] scores);
+
+        protected final float score(final int frequency, final int length,
+                                    final float weight, final float average)
+        {
+            return weight * frequency * (K1 + 1)
+                / (frequency + K1 * (1 - B + B * length / average));
+        }
+
+    }
+
+    /**
+     * Documentos añadidos desde el ultimo segmento, con la lista de
+     * documentos de cada termino en un array ampliable.
+     */
+    private static final class Buffer extends Part
+    {
+
+        private final List<String> keys    = new ArrayList<>();
+        private final IntList      lengths = new IntList();
+
+        // pares (documento, frecuencia) de cada termino
+        private final Map<String, IntList> postings = new HashMap<>();
+
+        private int add(final String key, final Terms terms)
+        {
+            final int doc = keys.size();
+
+            keys.add(key);
+            lengths.add(terms.length);
+
+            for (final Map.Entry<String, int[ ]> term : terms.counts.entrySet()) {
+                IntList list = postings.get(term.getKey());
+                if (list == null) {
+                    list = new IntList();
+                    postings.put(term.getKey(), list);
+                }
+
+                list.add(doc);
+                list.add(term.getValue()[0]);
+            }
+
+            return doc;
+        }
+
+        @Override
+        protected int size( )
+        {
+            return keys.size();
+        }
+
+        @Override
+        protected String key(final int doc)
+        {
+            return keys.get(doc);
+        }
+
+        @Override
+        protected int length(final int doc)
+        {
+            return lengths.values[doc];
+        }
+
+        @Override
+        protected int frequency(final String term)
+        {
+            final IntList list = postings.get(term);
+            if (list == null)
+                return 0;
+            if (deleted.isEmpty())
+                return list.size / 2;
+
+            int frequency = 0;
+            for (int i = 0; i < list.size; i += 2)
+                if (!deleted.get(list.values[i]))
+                    ++frequency;
+
+            return frequency;
+        }
+
+        @Override
+        protected void score(final String term, final float weight,
+                             final float average, final float[ ] scores)
+        {
+            final IntList list = postings.get(term);
+            if (list == null)
+                return;
+
+            for (int i = 0; i < list.size; i += 2) {
+                final int doc = list.values[i];
+                scores[doc] += score(list.values[i + 1], lengths.values[doc], weight, average);
+            }
+        }
+
+        /**
+         * Crea un segmento con los documentos, en el mismo orden.
+         */
+        private Segment toSegment(final int number)
+        {
+            final String[ ] terms = postings.keySet().toArray(new String[postings.size()]);
+            Arrays.sort(terms);
+
+            int total = 0;
+            for (final IntList list : postings.values())
+                total += list.size / 2;
+
+            final Segment segment = new Segment(
+                number,
+                keys.toArray(new String[keys.size()]),
+                Arrays.copyOf(lengths.values, lengths.size),
+                terms, total
+            );
+
+            int position = 0;
+            for (int t = 0; t < terms.length; ++t) {
+                segment.starts[t] = position;
+
+                final IntList list = postings.get(terms[t]);
+                for (int i = 0; i < list.size; i += 2) {
+                    segment.docs[position]    = list.values[i];
+                    segment.counts[position] = list.values[i + 1];
+                    position++;
+                }
+            }
+            segment.starts[terms.length] = position;
+            segment.deleted.or(deleted);
+
+            return segment;
+        }
+
+    }
+
+    /**
+     * Segmento inmutable del indice. Los terminos se encuentran
+     * ordenados, y los documentos y frecuencias de todos ellos en dos
+     * unicos arrays, a partir de la posicion de cada termino.
+     */
+    private static final class Segment extends Part
+    {
+
+        private final int       number;
+        private final String[ ] keys;
+        private final int[ ]    lengths;
+        private final String[ ] terms;
+        private final int[ ]    starts;
+        private final int[ ]    docs;
+        private final int[ ]    counts;
+
+        private Segment(final int number, final String[ ] keys, final int[ ] lengths,
+                        final String[ ] terms, final int postings)
+        {
+            this.number  = number;
+            this.keys    = keys;
+            this.lengths = lengths;
+            this.terms   = terms;
+            this.starts  = new int[terms.length + 1];
+            this.docs    = new int[postings];
+            this.counts  = new int[postings];
+        }
+
+        @Override
+        protected int size( )
+        {
+            return keys.length;
+        }
+
+        @Override
+        protected String key(final int doc)
+        {
+            return keys[doc];
+        }
+
+        @Override
+        protected int length(final int doc)
+        {
+            return lengths[doc];
+        }
+
+        @Override
+        protected int frequency(final String term)
+        {
+            final int t = Arrays.binarySearch(terms, term);
+            if (t < 0)
+                return 0;
+            if (deleted.isEmpty())
+                return starts[t + 1] - starts[t];
+
+            int frequency = 0;
+            for (int i = starts[t]; i < starts[t + 1]; ++i)
+                if (!deleted.get(docs[i]))
+                    ++frequency;
+
+            return frequency;
+        }
+
+        @Override
+        protected void score(final String term, final float weight,
+                             final float average, final float[ ] scores)
+        {
+            final int t = Arrays.binarySearch(terms, term);
+            if (t < 0)
+                return;
+
+            for (int i = starts[t]; i < starts[t + 1]; ++i)
+                scores[docs[i]] += score(counts[i], lengths[docs[i]], weight, average);
+        }
+
+        private int live( )
+        {
+            return keys.length - deleted.cardinality();
+        }
+
+        /**
+         * Escribe el segmento: documentos (clave y longitud) y, para
+         * cada termino, sus documentos como diferencias respecto al
+         * anterior junto a sus frecuencias.
+         */
+        private void write(final DataOutputStream output) throws IOException
+        {
+            writeVInt(output, keys.length);
+            for (int doc = 0; doc < keys.length; ++doc) {
+                output.writeUTF(keys[doc]);
+                writeVInt(output, lengths[doc]);
+            }
+
+            writeVInt(output, terms.length);
+            for (int t = 0; t < terms.length; ++t) {
+                output.writeUTF(terms[t]);
+                writeVInt(output, starts[t + 1] - starts[t]);
+
+                int previous = 0;
+                for (int i = starts[t]; i < starts[t + 1]; ++i) {
+                    writeVInt(output, docs[i] - previous);
+                    writeVInt(output, counts[i]);
+                    previous = docs[i];
+                }
+            }
+        }
+
+        /**
+         * Lee un segmento escrito con {@link #write}.
+         */
+        private static Segment read(final int number, final File file) throws IOException
+        {
+            try (final Input input = new Input(file)) {
+                final DataInputStream data = input.data;
+
+                final String[ ] keys    = new String[input.count()];
+                final int[ ]    lengths = new int[keys.length];
+                for (int doc = 0; doc < keys.length; ++doc) {
+                    keys[doc]    = data.readUTF();
+                    lengths[doc] = readVInt(data);
+                }
+
+                final String[ ] terms    = new String[input.count()];
+                final IntList   docs     = new IntList();
+                final IntList   counts   = new IntList();
+                final int[ ]    starts   = new int[terms.length + 1];
+                for (int t = 0; t < terms.length; ++t) {
+                    terms[t]  = data.readUTF();
+                    starts[t] = docs.size;
+
+                    final int frequency = readVInt(data);
+                    int doc = 0;
+                    for (int i = 0; i < frequency; ++i) {
+                        doc += readVInt(data);
+                        if (doc >= keys.length)
+                            throw new IOException("Malformed segment");
+
+                        docs.add(doc);
+                        counts.add(readVInt(data));
+                    }
+                }
+                starts[terms.length] = docs.size;
+                input.verify();
+
+                final Segment segment = new Segment(number, keys, lengths, terms, docs.size);
+                System.arraycopy(starts, 0, segment.starts, 0, starts.length);
+                System.arraycopy(docs.values, 0, segment.docs, 0, docs.size);
+                System.arraycopy(counts.values, 0, segment.counts, 0, counts.size);
+
+                return segment;
+            }
+        }
+
+        /**
+         * Fusiona varios segmentos en uno nuevo, sin los documentos
+         * eliminados, manteniendo el orden de los documentos.
+         */
+        private static Segment merge(final int number, final List<Segment> sources)
+        {
+            final List<String> keys    = new ArrayList<>();
+            final IntList      lengths = new IntList();
+            final Set<String>  terms   = new TreeSet<>();
+
+            // nueva posicion de cada documento (-1 si esta eliminado)
+            final int[ ][ ] positions = new int[sources.size()][ ];
+            for (int s = 0; s < sources.size(); ++s) {
+                final Segment source = sources.get(s);
+
+                positions[s] = new int[source.size()];
+                for (int doc = 0; doc < source.size(); ++doc) {
+                    if (source.deleted.get(doc)) {
+                        positions[s][doc] = -1;
+                    } else {
+                        positions[s][doc] = keys.size();
+                        keys.add(source.keys[doc]);
+                        lengths.add(source.lengths[doc]);
+                    }
+                }
+
+                terms.addAll(Arrays.asList(source.terms));
+            }
+
+            final IntList docs   = new IntList();
+            final IntList counts = new IntList();
+            final List<String> live = new ArrayList<>(terms.size());
+            final IntList starts = new IntList();
+
+            for (final String term : terms) {
+                final int start = docs.size;
+
+                for (int s = 0; s < sources.size(); ++s) {
+                    final Segment source = sources.get(s);
+
+                    final int t = Arrays.binarySearch(source.terms, term);
+                    if (t < 0)
+                        continue;
+
+                    for (int i = source.starts[t]; i < source.starts[t + 1]; ++i) {
+                        final int doc = positions[s][source.docs[i]];
+                        if (doc >= 0) {
+                            docs.add(doc);
+                            counts.add(source.counts[i]);
+                        }
+                    }
+                }
+
+                // los terminos que solo aparecian en documentos
+                // eliminados se descartan
+                if (docs.size > start) {
+                    live.add(term);
+                    starts.add(start);
+                }
+            }
+
+            final Segment segment = new Segment(
+                number,
+                keys.toArray(new String[keys.size()]),
+                Arrays.copyOf(lengths.values, lengths.size),
+                live.toArray(new String[live.size()]),
+                docs.size
+            );
+
+            System.arraycopy(starts.values, 0, segment.starts, 0, starts.size);
+            segment.starts[live.size()] = docs.size;
+            System.arraycopy(docs.values, 0, segment.docs, 0, docs.size);
+            System.arraycopy(counts.values, 0, segment.counts, 0, counts.size);
+
+            return segment;
+        }
+
+    }
+
+    /**
+     * Fichero abierto para escritura, con la cabecera ya escrita y
+     * calculando la suma de comprobacion del contenido, que se escribe
+     * al final con {@link #finish}.
+     */
+    private static final class Output implements AutoCloseable
+    {
+
+        private final CheckedOutputStream checked;
+        private final DataOutputStream    data;
+
+        private Output(final File file) throws IOException
+        {
+            checked = new CheckedOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)),
+                new CRC32()
+            );
+            data = new DataOutputStream(checked);
+
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+        }
+
+        private void finish( ) throws IOException
+        {
+            data.writeLong(checked.getChecksum().getValue());
+            data.flush();
+        }
+
+        @Override
+        public void close( ) throws IOException
+        {
+            data.close();
+        }
+
+    }
+
+    /**
+     * Fichero abierto para lectura, comprobando su cabecera y, al
+     * finalizar, su suma de comprobacion.
+     */
+    private static final class Input implements AutoCloseable
+    {
+
+        private final long               size;
+        private final CheckedInputStream checked;
+        private final DataInputStream    data;
+
+        private Input(final File file) throws IOException
+        {
+            size    = file.length();
+            checked = new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(file)),
+                new CRC32()
+            );
+            data = new DataInputStream(checked);
+
+            try {
+                if (data.readInt() != MAGIC || data.readInt() != VERSION)
+                    throw new IOException("Unknown file format");
+            } catch (final IOException ioe) {
+                data.close();
+                throw ioe;
+            }
+        }
+
+        // numero de elementos a continuacion, que no puede superar el
+        // tamaño del fichero (evitando reservar arrays enormes si esta
+        // dañado)
+        private int count( ) throws IOException
+        {
+            final int count = readVInt(data);
+            if (count < 0 || count > size)
+                throw new IOException("Malformed file");
+
+            return count;
+        }
+
+        private void verify( ) throws IOException
+        {
+            final long expected = checked.getChecksum().getValue();
+            if (data.readLong() != expected)
+                throw new IOException("Checksum mismatch");
+        }
+
+        @Override
+        public void close( ) throws IOException
+        {
+            data.close();
+        }
+
+    }
+
+    /**
+     * Posicion de un documento en el indice.
+     */
+    private static final class Location
+    {
+
+        private final Part part;
+        private final int  doc;
+
+        private Location(final Part part, final int doc)
+        {
+            this.part = part;
+            this.doc  = doc;
+        }
+
+    }
+
+    /**
+     * Documento encontrado en una busqueda, ordenados de menor a mayor
+     * relevancia (o, si es la misma, por su clave).
+     */
+    private static final class Hit implements Comparable<Hit>
+    {
+
+        private final String key;
+        private final float  score;
+
+        private Hit(final String key, final float score)
+        {
+            this.key   = key;
+            this.score = score;
+        }
+
+        @Override
+        public int compareTo(final Hit other)
+        {
+            final int compare = Float.compare(score, other.score);
+            return compare != 0 ? compare : other.key.compareTo(key);
+        }
+
+    }
+
+    /**
+     * Array de enteros ampliable.
+     */
+    private static final class IntList
+    {
+
+        private int[ ] values = new int[4];
+        private int    size   = 0;
+
+        private void add(final int value)
+        {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+
+            values[size++] = value;
+        }
+
+    }
+
+}
@@ -0,0 +1,696 @@
+package es.uvigo.esei.dai.hybridserver.controller.utils;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import es.uvigo.esei.dai.hybridserver.Configuration;
+
+/**
+ * Cache de los resultados de transformar un documento XML con un
+ * documento XSLT. Puesto que los documentos no se modifican una vez
+ * almacenados, el resultado de cada par (XML, XSLT) es siempre el
+ * mismo, por lo que se reutiliza sin volver a validar ni transformar.
+ *
+ * Los resultados se almacenan en memoria, limitada en bytes, y
+ * opcionalmente en disco, donde se vuelcan los resultados expulsados
+ * de memoria o que no se admiten en ella. La admision en memoria tiene
+ * en cuenta la frecuencia de uso (estimada mediante un sketch de
+ * contadores con envejecimiento periodico): cuando no hay espacio, un
+ * resultado solo se admite si se ha solicitado mas veces que todos los
+ * que tendria que expulsar, de modo que los documentos mas solicitados
+ * no se ven desplazados por accesos puntuales.
+ *
+ * Al eliminar un XML, un XSLT o un XSD (que elimina sus XSLT) deben
+ * invalidarse los resultados en los que interviene.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public class TransformCache
+{
+
+    // relacion entre el tamaño maximo en disco y en memoria
+    private static final int DISK_RATIO = 4;
+
+    // numero de filas del sketch de frecuencias
+    private static final int SKETCH_DEPTH = 4;
+
+    // valor maximo de cada contador del sketch
+    private static final int MAX_FREQUENCY = 15;
+
+    // multiplicadores para obtener el indice de cada fila del sketch
+    private static final int[ ] SKETCH_SEEDS = {
+        0x9E3779B1, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F
+    };
+
+    // prefijo y extension de los ficheros de resultados en disco; al
+    // arrancar solo se eliminan los ficheros con este formato exacto, ya
+    // que el directorio puede contener otros ficheros
+    private static final String SPILL_PREFIX = "transform-";
+    private static final String SPILL_SUFFIX = ".out";
+    private static final String SPILL_FORMAT = "transform-[0-9]+\\.out";
+
+    // instancia unica, creada a partir de la configuracion
+    private static TransformCache instance;
+    private static boolean        initialized;
+
+    private final long capacity;
+    private final long diskCapacity;
+    private final File directory;
+
+    // resultados en memoria y en disco, en orden de uso
+    private final Map<Key, Result> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Key, Spill>  disk   = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long memorySize;
+    private long diskSize;
+
+    // se incrementa con cada invalidacion, para descartar resultados
+    // calculados a partir de documentos eliminados mientras tanto
+    private long generation;
+
+    // sketch de frecuencias de acceso
+    private final int[ ][ ] sketch;
+    private final int     sketchMask;
+    private final int     sketchSampleSize;
+    private int           sketchAdditions;
+
+    private final AtomicLong spillSequence = new AtomicLong();
+
+    // estadisticas de uso
+    private final AtomicLong hits       = new AtomicLong();
+    private final AtomicLong diskHits   = new AtomicLong();
+    private final AtomicLong misses     = new AtomicLong();
+    private final AtomicLong evictions  = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+
+    /**
+     * Construye una nueva cache de transformaciones.
+     *
+     * @param capacity
+     *        Tamaño maximo, en bytes, de los resultados en memoria.
+     * @param directory
+     *        Directorio en el que almacenar los resultados que no se
+     *        mantienen en memoria, o null para no utilizar disco. Los
+     *        ficheros de resultados que contenga se eliminan.
+     */
+    public TransformCache(final long capacity, final File directory)
+    {
+        this.capacity     = capacity;
+        this.diskCapacity = capacity * DISK_RATIO;
+        this.directory    = prepare(directory);
+
+        // un contador por cada 4 KB de capacidad, entre 256 y 65536
+        final long entries = Math.min(Math.max(capacity >> 12, 256), 1 << 16);
+        final int  width   = Integer.highestOneBit((int) entries - 1) << 1;
+
+        this.sketch           = new int[SKETCH_DEPTH][width];
+        this.sketchMask       = width - 1;
+        this.sketchSampleSize = width * 10;
+    }
+
+    /**
+     * Devuelve la cache de transformaciones del servidor, creandola a
+     * partir de la configuracion la primera vez que se solicita.
+     *
+     * @return Cache de transformaciones, o null si esta desactivada.
+     */
+    public static synchronized TransformCache getInstance( )
+    {
+        if (!initialized) {
+            final Configuration config = Configuration.getInstance();
+
+            if (config.getTransformCacheSize() > 0)
+                instance = new TransformCache(
+                    config.getTransformCacheSize(),
+                    config.getTransformCacheDirectory()
+                );
+
+            initialized = true;
+        }
+
+        return instance;
+    }
+
+    /**
+     * Busca el resultado de transformar un XML con un XSLT, primero en
+     * memoria y despues en disco. Los resultados encontrados en disco
+     * pasan a memoria si se admiten en ella.
+     *
+     * @param xml
+     *        Identificador UUID del documento XML.
+     * @param xslt
+     *        Identificador UUID del documento XSLT.
+     *
+     * @return String con el resultado de la transformacion, o null si
+     *         no se encuentra en cache.
+     */
+    public String get(final String xml, final String xslt)
+    {
+        final Key   key = new Key(xml, xslt);
+        final Spill spill;
+        final long  current;
+
+        synchronized (this) {
+            increment(key);
+
+            final Result result = memory.get(key);
+            if (result != null) {
+                hits.incrementAndGet();
+                return result.output;
+            }
+
+            spill   = disk.get(key);
+            current = generation;
+        }
+
+        if (spill == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        final String output;
+        try {
+            output = new String(Files.readAllBytes(spill.file.toPath()), StandardCharsets.UTF_8);
+        } catch (final IOException ioe) {
+            // eliminado (e.g. invalidado) mientras tanto
+            misses.incrementAndGet();
+            return null;
+        }
+
+        diskHits.incrementAndGet();
+        put(key, spill.xsd, output, current);
+
+        return output;
+    }
+
+    /**
+     * Devuelve la generacion actual de la cache, que debe obtenerse
+     * antes de leer los documentos a transformar y proporcionarse al
+     * almacenar el resultado.
+     *
+     * @return Generacion actual de la cache.
+     */
+    public synchronized long getGeneration( )
+    {
+        return generation;
+    }
+
+    /**
+     * Almacena el resultado de transformar un XML con un XSLT. Si desde
+     * la generacion indicada se ha invalidado algun resultado, se
+     * descarta, puesto que podria proceder de documentos eliminados.
+     *
+     * @param xml
+     *        Identificador UUID del documento XML.
+     * @param xslt
+     *        Identificador UUID del documento XSLT.
+     * @param xsd
+     *        Identificador UUID del documento XSD asociado al XSLT.
+     * @param output
+     *        String con el resultado de la transformacion.
+     * @param generation
+     *        Generacion de la cache previa a la transformacion (ver
+     *        {@link #getGeneration()}).
+     */
+    public void put(final String xml, final String xslt, final String xsd, final String output,
+        final long generation)
+    {
+        put(new Key(xml, xslt), xsd == null ? null : xsd.toLowerCase(), output, generation);
+    }
+
+    /**
+     * Invalida todos los resultados de un documento XML.
+     *
+     * @param uuid
+     *        Identificador UUID del documento XML.
+     */
+    public void invalidateXML(final String uuid)
+    {
+        invalidate(uuid, null, null);
+    }
+
+    /**
+     * Invalida todos los resultados de un documento XSLT.
+     *
+     * @param uuid
+     *        Identificador UUID del documento XSLT.
+     */
+    public void invalidateXSLT(final String uuid)
+    {
+        invalidate(null, uuid, null);
+    }
+
+    /**
+     * Invalida todos los resultados de los documentos XSLT asociados a
+     * un documento XSD.
+     *
+     * @param uuid
+     *        Identificador UUID del documento XSD.
+     */
+    public void invalidateXSD(final String uuid)
+    {
+        invalidate(null, null, uuid);
+    }
+
+    /**
+     * Devuelve el numero de resultados encontrados en memoria.
+     *
+     * @return Numero de aciertos en memoria.
+     */
+    public long getHits( )
+    {
+        return hits.get();
+    }
+
+    /**
+     * Devuelve el numero de resultados encontrados en disco.
+     *
+     * @return Numero de aciertos en disco.
+     */
+    public long getDiskHits( )
+    {
+        return diskHits.get();
+    }
+
+    /**
+     * Devuelve el numero de resultados no encontrados en cache.
+     *
+     * @return Numero de fallos de la cache.
+     */
+    public long getMisses( )
+    {
+        return misses.get();
+    }
+
+    /**
+     * Devuelve el numero de resultados expulsados de memoria por falta
+     * de espacio.
+     *
+     * @return Numero de expulsiones.
+     */
+    public long getEvictions( )
+    {
+        return evictions.get();
+    }
+
+    /**
+     * Devuelve el numero de resultados no admitidos en memoria por
+     * haberse solicitado menos veces que los que tendrian que
+     * expulsarse.
+     *
+     * @return Numero de rechazos.
+     */
+    public long getRejections( )
+    {
+        return rejections.get();
+    }
+
+    /**
+     * Devuelve el tamaño actual, en bytes, de los resultados en
+     * memoria.
+     *
+     * @return Bytes ocupados en memoria.
+     */
+    public synchronized long getSize( )
+    {
+        return memorySize;
+    }
+
+    /**
+     * Devuelve el tamaño actual, en bytes, de los resultados en disco.
+     *
+     * @return Bytes ocupados en disco.
+     */
+    public synchronized long getDiskSize( )
+    {
+        return diskSize;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString( )
+    {
+        return "hits=" + getHits() + ", diskHits=" + getDiskHits()
+            + ", misses=" + getMisses() + ", evictions=" + getEvictions()
+            + ", rejections=" + getRejections() + ", bytes=" + getSize()
+            + ", diskBytes=" + getDiskSize();
+    }
+
+    /**
+     * Almacena un resultado en memoria si se admite, o en disco en
+     * caso contrario, y escribe en disco los resultados expulsados.
+     */
+    private void put(final Key key, final String xsd, final String output, final long generation)
+    {
+        final List<Pending> pending = new ArrayList<>();
+
+        synchronized (this) {
+            if (generation != this.generation)
+                return;
+
+            admit(key, new Result(xsd, output), pending);
+        }
+
+        spill(pending);
+    }
+
+    /**
+     * Admite un resultado en memoria, expulsando los usados hace mas
+     * tiempo si es necesario, siempre que se haya solicitado mas veces
+     * que todos ellos. Los resultados expulsados, o el propio resultado
+     * si no se admite, se añaden a la lista de pendientes de escribir
+     * en disco. Debe invocarse con el cerrojo de la cache.
+     */
+    private void admit(final Key key, final Result result, final List<Pending> pending)
+    {
+        final Result previous = memory.remove(key);
+        if (previous != null)
+            memorySize -= previous.bytes;
+
+        if (result.bytes > capacity) {
+            rejections.incrementAndGet();
+            toDisk(key, result, pending);
+            return;
+        }
+
+        final int frequency = frequency(key);
+
+        final List<Map.Entry<Key, Result>> victims = new ArrayList<>();
+        final Iterator<Map.Entry<Key, Result>> eldest = memory.entrySet().iterator();
+
+        long freed = 0;
+        while (memorySize - freed + result.bytes > capacity && eldest.hasNext()) {
+            final Map.Entry<Key, Result> victim = eldest.next();
+
+            if (frequency(victim.getKey()) >= frequency) {
+                rejections.incrementAndGet();
+                toDisk(key, result, pending);
+                return;
+            }
+
+            victims.add(victim);
+            freed += victim.getValue().bytes;
+        }
+
+        for (final Map.Entry<Key, Result> victim : victims) {
+            memory.remove(victim.getKey());
+            memorySize -= victim.getValue().bytes;
+            evictions.incrementAndGet();
+
+            toDisk(victim.getKey(), victim.getValue(), pending);
+        }
+
+        memory.put(key, result);
+        memorySize += result.bytes;
+    }
+
+    /**
+     * Añade un resultado a la lista de pendientes de escribir en disco,
+     * si se utiliza disco y no se encuentra ya en el. Debe invocarse
+     * con el cerrojo de la cache.
+     */
+    private void toDisk(final Key key, final Result result, final List<Pending> pending)
+    {
+        if (directory == null || disk.containsKey(key) || result.bytes > diskCapacity)
+            return;
+
+        final File file = new File(directory, SPILL_PREFIX + spillSequence.incrementAndGet() + SPILL_SUFFIX);
+        pending.add(new Pending(key, result, file, generation));
+    }
+
+    /**
+     * Escribe en disco los resultados pendientes, fuera del cerrojo de
+     * la cache, y los registra si no se han invalidado mientras tanto.
+     */
+    private void spill(final List<Pending> pending)
+    {
+        for (final Pending spill : pending) {
+            final long bytes;
+            try {
+                bytes = Files.write(
+                    spill.file.toPath(),
+                    spill.result.output.getBytes(StandardCharsets.UTF_8)
+                ).toFile().length();
+            } catch (final IOException ioe) {
+                System.err.println("Cannot spill transformation: " + ioe.getMessage());
+                spill.file.delete();
+                continue;
+            }
+
+            final List<File> obsolete = new ArrayList<>();
+
+            synchronized (this) {
+                if (spill.generation != generation || disk.containsKey(spill.key)) {
+                    obsolete.add(spill.file);
+                } else {
+                    disk.put(spill.key, new Spill(spill.result.xsd, spill.file, bytes));
+                    diskSize += bytes;
+
+                    final Iterator<Spill> eldest = disk.values().iterator();
+                    while (diskSize > diskCapacity && eldest.hasNext()) {
+                        final Spill victim = eldest.next();
+                        eldest.remove();
+                        diskSize -= victim.bytes;
+                        obsolete.add(victim.file);
+                    }
+                }
+            }
+
+            for (final File file : obsolete)
+                file.delete();
+        }
+    }
+
+    /**
+     * Elimina de memoria y disco los resultados del XML, del XSLT o de
+     * los XSLT asociados al XSD recibidos (aquellos no nulos).
+     */
+    private void invalidate(final String xml, final String xslt, final String xsd)
+    {
+        final String xmlKey  = xml  == null ? null : xml.toLowerCase();
+        final String xsltKey = xslt == null ? null : xslt.toLowerCase();
+        final String xsdKey  = xsd  == null ? null : xsd.toLowerCase();
+
+        final List<File> obsolete = new ArrayList<>();
+
+        synchronized (this) {
+            ++generation;
+
+            final Iterator<Map.Entry<Key, Result>> results = memory.entrySet().iterator();
+            while (results.hasNext()) {
+                final Map.Entry<Key, Result> entry = results.next();
+                if (entry.getKey().matches(xmlKey, xsltKey) || matches(entry.getValue().xsd, xsdKey)) {
+                    memorySize -= entry.getValue().bytes;
+                    results.remove();
+                }
+            }
+
+            final Iterator<Map.Entry<Key, Spill>> spills = disk.entrySet().iterator();
+            while (spills.hasNext()) {
+                final Map.Entry<Key, Spill> entry = spills.next();
+                if (entry.getKey().matches(xmlKey, xsltKey) || matches(entry.getValue().xsd, xsdKey)) {
+                    diskSize -= entry.getValue().bytes;
+                    obsolete.add(entry.getValue().file);
+                    spills.remove();
+                }
+            }
+        }
+
+        for (final File file : obsolete)
+            file.delete();
+    }
+
+    /**
+     * Incrementa la frecuencia estimada de un resultado, reduciendo a
+     * la mitad todos los contadores periodicamente para que las
+     * frecuencias antiguas pierdan peso. Debe invocarse con el cerrojo
+     * de la cache.
+     */
+    private void increment(final Key key)
+    {
+        for (int row = 0; row < SKETCH_DEPTH; ++row) {
+            final int index = index(key, row);
+            if (sketch[row][index] < MAX_FREQUENCY)
+                ++sketch[row][index];
+        }
+
+        if (++sketchAdditions >= sketchSampleSize) {
+            for (final int[ ] counters : sketch)
+                for (int i = 0; i < counters.length; ++i)
+                    counters[i] >>>= 1;
+
+            sketchAdditions /= 2;
+        }
+    }
+
+    /**
+     * Devuelve la frecuencia estimada de un resultado. Debe invocarse
+     * con el cerrojo de la cache.
+     */
+    private int frequency(final Key key)
+    {
+        int frequency = MAX_FREQUENCY;
+        for (int row = 0; row < SKETCH_DEPTH; ++row)
+            frequency = Math.min(frequency, sketch[row][index(key, row)]);
+
+        return frequency;
+    }
+
+    /**
+     * Devuelve el indice de un resultado en una fila del sketch.
+     */
+    private int index(final Key key, final int row)
+    {
+        int hash = key.hashCode() * SKETCH_SEEDS[row];
+        hash ^= hash >>> 16;
+
+        return hash & sketchMask;
+    }
+
+    private static boolean matches(final String uuid, final String key)
+    {
+        return key != null && key.equals(uuid);
+    }
+
+    /**
+     * Crea, si no existe, el directorio de la cache en disco y elimina
+     * los resultados que contenga de ejecuciones anteriores (unicamente
+     * los ficheros creados por la propia cache).
+     */
+    private static File prepare(final File directory)
+    {
+        if (directory == null)
+            return null;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            System.err.println("Cannot create transformation cache directory " + directory);
+            return null;
+        }
+
+        final File[ ] stale = directory.listFiles(new FileFilter()
+        {
+            @Override
+            public boolean accept(final File file)
+            {
+                return file.isFile() && file.getName().matches(SPILL_FORMAT);
+            }
+        });
+
+        if (stale != null)
+            for (final File file : stale)
+                file.delete();
+
+        return directory;
+    }
+
+    /**
+     * Par (XML, XSLT) que identifica un resultado.
+     */
+    private static final class Key
+    {
+
+        private final String xml;
+        private final String xslt;
+
+        private Key(final String xml, final String xslt)
+        {
+            this.xml  = xml.toLowerCase();
+            this.xslt = xslt.toLowerCase();
+        }
+
+        private boolean matches(final String xml, final String xslt)
+        {
+            return this.xml.equals(xml) || this.xslt.equals(xslt);
+        }
+
+        @Override
+        public boolean equals(final Object object)
+        {
+            if (!(object instanceof Key))
+                return false;
+
+            final Key other = (Key) object;
+            return xml.equals(other.xml) && xslt.equals(other.xslt);
+        }
+
+        @Override
+        public int hashCode( )
+        {
+            return 31 * xml.hashCode() + xslt.hashCode();
+        }
+
+    }
+
+    /**
+     * Resultado en memoria, junto al XSD asociado a su XSLT.
+     */
+    private static final class Result
+    {
+
+        private final String xsd;
+        private final String output;
+        private final long   bytes;
+
+        private Result(final String xsd, final String output)
+        {
+            this.xsd    = xsd;
+            this.output = output;
+            this.bytes  = 2L * output.length();
+        }
+
+    }
+
+    /**
+     * Resultado en disco, junto al XSD asociado a su XSLT.
+     */
+    private static final class Spill
+    {
+
+        private final String xsd;
+        private final File   file;
+        private final long   bytes;
+
+        private Spill(final String xsd, final File file, final long bytes)
+        {
+            this.xsd   = xsd;
+            this.file  = file;
+            this.bytes = bytes;
+        }
+
+    }
+
+    /**
+     * Resultado pendiente de escribir en disco.
+     */
+    private static final class Pending
+    {
+
+        private final Key    key;
+        private final Result result;
+        private final File   file;
+        private final long   generation;
+
+        private Pending(final Key key, final Result result, final File file, final long generation)
+        {
+            this.key        = key;
+            this.result     = result;
+            this.file       = file;
+            this.generation = generation;
+        }
+
+    }
+
+}
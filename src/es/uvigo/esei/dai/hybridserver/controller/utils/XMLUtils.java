@@ -3,15 +3,28 @@ package es.uvigo.esei.dai.hybridserver.controller.utils;
 import java.io.IOException;
 
 import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.ValidatorHandler;
 
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
 
 /**
  * Clase de utilidades para el trabajo con documentos XML.
@@ -23,6 +36,9 @@ import org.xml.sax.SAXException;
 public class XMLUtils
 {
 
+    // propiedad SAX para recibir eventos lexicos (e.g. comentarios)
+    private static final String LEXICAL_HANDLER = "http://xml.org/sax/properties/lexical-handler";
+
     /**
      * Valida que un documento XML sea correcto con respecto a un XSD,
      * ambos dos recibidos como objetos {@link Source}. Si es invalido
@@ -51,6 +67,34 @@ public class XMLUtils
         schema.newValidator().validate(xml);
     }
 
+    /**
+     * Valida que un documento XML sea correcto con respecto a un XSD,
+     * del mismo modo que {@link #validate(Source, Source)}, pero
+     * reutilizando el esquema ya compilado del XSD si se encuentra en
+     * cache (ver {@link SchemaCache}).
+     * 
+     * @param xml
+     *        Source asociado al documento XML a validar.
+     * @param xsdUUID
+     *        Identificador UUID del documento XSD.
+     * @param xsdHash
+     *        Hash del contenido del XSD, o null si se desconoce.
+     * @param xsd
+     *        Source asociado al documento XSD, que unicamente se lee
+     *        si no se encuentra compilado en cache.
+     * 
+     * @throws IOException
+     *         Si se produce algun error de Entrada/Salida durante la
+     *         validacion.
+     * @throws SAXException
+     *         Si el documento no se ha validado correctamente.
+     */
+    public static void validate(final Source xml, final String xsdUUID, final String xsdHash, final Source xsd)
+        throws IOException, SAXException
+    {
+        SchemaCache.getValidator(xsdUUID, xsdHash, xsd).validate(xml);
+    }
+
     /**
      * Transforma un documento XML a traves de otro documento XSLT
      * ambos recibidos como objetos {@link Source}. La transformacion
@@ -79,4 +123,194 @@ public class XMLUtils
         transformer.transform(xml, res);
     }
 
+    /**
+     * Valida un documento XML con respecto a un XSD y lo transforma a
+     * traves de un XSLT en una unica lectura del documento: los
+     * eventos SAX del XML atraviesan primero el validador del esquema
+     * y a continuacion el transformador, que escribe el resultado en
+     * el {@link Result} recibido a medida que se genera. Si el
+     * documento es invalido, el resultado puede haberse escrito
+     * parcialmente.
+     * 
+     * @param xml
+     *        InputSource asociado al documento XML a transformar.
+     * @param xsd
+     *        Schema compilado del XSD que servira para validar al XML
+     *        (ver {@link SchemaCache}).
+     * @param xslt
+     *        Templates compilados del XSLT que servira para
+     *        transformar al XML (ver {@link TemplatesCache}).
+     * @param res
+     *        Result donde almacenar el resultado de la
+     *        transformacion.
+     * 
+     * @throws IOException
+     *         Si se produce algun error de Entrada/Salida durante la
+     *         lectura del documento.
+     * @throws SAXException
+     *         Si el documento no esta bien formado o no se ha validado
+     *         correctamente.
+     * @throws TransformerException
+     *         Si se produce algun tipo de error durante la
+     *         transformacion del documento XML.
+     */
+    public static void validateAndTransform(final InputSource xml, final Schema xsd,
+        final Templates xslt, final Result res)
+        throws IOException, SAXException, TransformerException
+    {
+        validateAndTransform(newXMLReader(), xml, xsd, xslt, res);
+    }
+
+    /**
+     * Valida y transforma un documento XML en una unica lectura, del
+     * mismo modo que {@link #validateAndTransform(InputSource, Schema,
+     * Templates, Result)}, pero leyendolo a traves del XMLReader
+     * recibido (e.g. el de su representacion binaria, ver
+     * {@link BinaryXML}).
+     * 
+     * @param reader
+     *        XMLReader, con soporte de espacios de nombres, con el que
+     *        leer el documento XML.
+     * @param xml
+     *        InputSource asociado al documento XML a transformar.
+     * @param xsd
+     *        Schema compilado del XSD que servira para validar al XML.
+     * @param xslt
+     *        Templates compilados del XSLT que servira para
+     *        transformar al XML.
+     * @param res
+     *        Result donde almacenar el resultado de la
+     *        transformacion.
+     * 
+     * @throws IOException
+     *         Si se produce algun error de Entrada/Salida durante la
+     *         lectura del documento.
+     * @throws SAXException
+     *         Si el documento no esta bien formado o no se ha validado
+     *         correctamente.
+     * @throws TransformerException
+     *         Si se produce algun tipo de error durante la
+     *         transformacion del documento XML.
+     */
+    public static void validateAndTransform(final XMLReader reader, final InputSource xml,
+        final Schema xsd, final Templates xslt, final Result res)
+        throws IOException, SAXException, TransformerException
+    {
+        final TransformerFactory factory = TransformerFactory.newInstance();
+        if (!factory.getFeature(SAXTransformerFactory.FEATURE))
+            throw new TransformerException("SAX transformations not supported");
+
+        final TransformerHandler transformer =
+            ((SAXTransformerFactory) factory).newTransformerHandler(xslt);
+        transformer.setResult(res);
+
+        final ValidationErrors errors = new ValidationErrors();
+
+        final ValidatorHandler validator = xsd.newValidatorHandler();
+        validator.setErrorHandler(errors);
+        validator.setContentHandler(transformer);
+
+        reader.setErrorHandler(errors);
+        reader.setContentHandler(validator);
+
+        // los comentarios no intervienen en la validacion, por lo que
+        // pasan directamente al transformador
+        try {
+            reader.setProperty(LEXICAL_HANDLER, transformer);
+        } catch (final SAXNotRecognizedException | SAXNotSupportedException e) {
+            // el XMLReader no los proporciona
+        }
+
+        try {
+            reader.parse(xml);
+        } catch (final SAXException se) {
+            // los errores de lectura y validacion pasan por el
+            // ErrorHandler, el resto proceden del transformador
+            if (errors.invalid)
+                throw se;
+
+            throw new TransformerException(se.getException() == null ? se : se.getException());
+        }
+    }
+
+    /**
+     * Transforma, sin validarlo, un documento XML leido a traves del
+     * XMLReader recibido con un XSLT ya compilado.
+     * 
+     * @param reader
+     *        XMLReader, con soporte de espacios de nombres, con el que
+     *        leer el documento XML.
+     * @param xml
+     *        InputSource asociado al documento XML a transformar.
+     * @param xslt
+     *        Templates compilados del XSLT que servira para
+     *        transformar al XML.
+     * @param res
+     *        Result donde almacenar el resultado de la
+     *        transformacion.
+     * 
+     * @throws TransformerException
+     *         Si se produce algun tipo de error durante la lectura o
+     *         la transformacion del documento XML.
+     */
+    public static void transform(final XMLReader reader, final InputSource xml,
+        final Templates xslt, final Result res)
+        throws TransformerException
+    {
+        xslt.newTransformer().transform(new SAXSource(reader, xml), res);
+    }
+
+    /**
+     * Crea un nuevo XMLReader para documentos XML en texto, con soporte
+     * de espacios de nombres.
+     * 
+     * @return XMLReader de documentos XML.
+     * 
+     * @throws SAXException
+     *         Si no es posible crear el XMLReader.
+     */
+    public static XMLReader newXMLReader( ) throws SAXException
+    {
+        try {
+
+            final SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+
+            return factory.newSAXParser().getXMLReader();
+
+        } catch (final ParserConfigurationException pce) {
+            throw new SAXException(pce);
+        }
+    }
+
+    /**
+     * ErrorHandler que registra si se ha producido algun error de
+     * lectura o validacion del documento, y lo propaga.
+     */
+    private static final class ValidationErrors implements ErrorHandler
+    {
+
+        private boolean invalid = false;
+
+        @Override
+        public void warning(final SAXParseException exception)
+        {
+        }
+
+        @Override
+        public void error(final SAXParseException exception) throws SAXException
+        {
+            invalid = true;
+            throw exception;
+        }
+
+        @Override
+        public void fatalError(final SAXParseException exception) throws SAXException
+        {
+            invalid = true;
+            throw exception;
+        }
+
+    }
+
 }
@@ -0,0 +1,655 @@
+package es.uvigo.esei.dai.hybridserver.controller.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+import javax.xml.xpath.XPathFactoryConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.DefaultHandler2;
+import org.xml.sax.helpers.NamespaceSupport;
+
+/**
+ * Expresion XPath ya compilada, evaluable sobre documentos XML leidos a
+ * traves de un {@link XMLReader}. Las expresiones se compilan una unica
+ * vez y se mantienen en una cache de tamaño limitado, expulsando las
+ * usadas hace mas tiempo.
+ *
+ * Los {@link XPathExpression} no pueden compartirse entre hilos, por lo
+ * que cada expresion mantiene un conjunto de instancias compiladas que
+ * se toman y devuelven en cada evaluacion, compilandose nuevas solo si
+ * todas estan en uso.
+ *
+ * Las rutas absolutas simples, formadas unicamente por nombres de
+ * elementos sin prefijo y terminadas opcionalmente en un atributo o en
+ * "text()" (e.g. "/catalog/book/title"), se evaluan durante la propia
+ * lectura del documento, sin construir su arbol DOM, y la lectura se
+ * detiene en cuanto se alcanza el numero maximo de resultados. El
+ * resto de expresiones se evaluan sobre el arbol DOM del documento.
+ *
+ * El resultado se escribe como un elemento "results" con un elemento
+ * "result" por nodo encontrado: los elementos se incluyen completos, y
+ * del resto de nodos (y de los resultados que no son nodos, e.g.
+ * "count(//a)") unicamente su valor textual.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public class XPathQuery
+{
+
+    // numero maximo de expresiones compiladas en cache
+    private static final int MAX_ENTRIES = 256;
+
+    // numero maximo de instancias compiladas de cada expresion
+    private static final int MAX_INSTANCES = Runtime.getRuntime().availableProcessors();
+
+    // rutas absolutas simples, evaluables durante la lectura
+    private static final String  NAME        = "[A-Za-z_][A-Za-z0-9_.-]*";
+    private static final Pattern SIMPLE_PATH = Pattern.compile(
+        "((?:/" + NAME + ")+)(?:/@(" + NAME + ")|/(text\\(\\)))?"
+    );
+
+    private static final String LEXICAL_HANDLER = "http://xml.org/sax/properties/lexical-handler";
+
+    // estadisticas de uso
+    private static final AtomicLong hits   = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    // expresiones compiladas, en orden de uso
+    private static final Map<String, XPathQuery> queries =
+        new LinkedHashMap<String, XPathQuery>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, XPathQuery> eldest)
+            {
+                return size() > MAX_ENTRIES;
+            }
+        };
+
+    private final String                 expression;
+    private final Queue<XPathExpression> instances = new ConcurrentLinkedQueue<>();
+
+    // pasos de la ruta, y atributo o "text()" final, si es una ruta
+    // absoluta simple (o null en caso contrario)
+    private final String[ ] steps;
+    private final String    attribute;
+    private final boolean   text;
+
+    private XPathQuery(final String expression) throws XPathExpressionException
+    {
+        this.expression = expression;
+
+        // se compila ya una instancia, comprobando asi la expresion
+        instances.add(newExpression());
+
+        final Matcher matcher = SIMPLE_PATH.matcher(expression.trim());
+        if (matcher.matches()) {
+            steps     = matcher.group(1).substring(1).split("/");
+            attribute = matcher.group(2);
+            text      = matcher.group(3) != null;
+        } else {
+            steps     = null;
+            attribute = null;
+            text      = false;
+        }
+    }
+
+    /**
+     * Devuelve la expresion XPath compilada para el texto recibido,
+     * compilandola unicamente si no se encuentra ya en cache.
+     *
+     * @param expression
+     *        String con la expresion XPath.
+     *
+     * @return XPathQuery con la expresion compilada.
+     *
+     * @throws XPathExpressionException
+     *         Si la expresion no es valida.
+     */
+    public static XPathQuery compile(final String expression)
+        throws XPathExpressionException
+    {
+        XPathQuery query;
+        synchronized (queries) {
+            query = queries.get(expression);
+        }
+
+        if (query != null) {
+            hits.incrementAndGet();
+            return query;
+        }
+
+        // la compilacion se realiza fuera del cerrojo; si dos hilos
+        // compilan a la vez la misma expresion, prevalece la ultima
+        misses.incrementAndGet();
+        query = new XPathQuery(expression);
+
+        synchronized (queries) {
+            queries.put(expression, query);
+        }
+
+        return query;
+    }
+
+    /**
+     * Indica si la expresion se evalua durante la lectura del
+     * documento, sin construir su arbol DOM.
+     *
+     * @return True si la expresion es una ruta absoluta simple, False
+     *         en caso contrario.
+     */
+    public boolean isStreaming( )
+    {
+        return steps != null;
+    }
+
+    /**
+     * Evalua la expresion sobre un documento XML, escribiendo los
+     * resultados en el Writer recibido.
+     *
+     * @param reader
+     *        XMLReader, con soporte de espacios de nombres, con el que
+     *        leer el documento XML.
+     * @param xml
+     *        InputSource asociado al documento XML.
+     * @param limit
+     *        Numero maximo de resultados, o 0 para no limitarlo.
+     * @param output
+     *        Writer en el que escribir los resultados.
+     *
+     * @return Numero de resultados escritos.
+     *
+     * @throws IOException
+     *         Si se produce algun error de Entrada/Salida durante la
+     *         lectura del documento o la escritura de los resultados.
+     * @throws SAXException
+     *         Si el documento no esta bien formado.
+     * @throws TransformerException
+     *         Si se produce algun error construyendo el arbol del
+     *         documento o escribiendo los nodos encontrados.
+     * @throws XPathExpressionException
+     *         Si se produce algun error durante la evaluacion.
+     */
+    public int evaluate(final XMLReader reader, final InputSource xml, final int limit,
+        final Writer output)
+        throws IOException, SAXException, TransformerException, XPathExpressionException
+    {
+        output.write("<results>");
+
+        final int count = steps != null
+            ? evaluateStreaming(reader, xml, limit, output)
+            : evaluateDOM(reader, xml, limit, output);
+
+        output.write("</results>");
+
+        return count;
+    }
+
+    /**
+     * Devuelve el numero de expresiones que se encontraban ya
+     * compiladas.
+     *
+     * @return Numero de aciertos de la cache.
+     */
+    public static long getHits( )
+    {
+        return hits.get();
+    }
+
+    /**
+     * Devuelve el numero de expresiones que fue necesario compilar.
+     *
+     * @return Numero de fallos de la cache.
+     */
+    public static long getMisses( )
+    {
+        return misses.get();
+    }
+
+    /**
+     * Devuelve un resumen de las estadisticas de uso de la cache de
+     * expresiones compiladas.
+     *
+     * @return String con las estadisticas de la cache.
+     */
+    public static String getStatistics( )
+    {
+        return "hits=" + getHits() + ", misses=" + getMisses();
+    }
+
+    /**
+     * Evalua la expresion durante la lectura del documento.
+     */
+    private int evaluateStreaming(final XMLReader reader, final InputSource xml,
+        final int limit, final Writer output)
+        throws IOException, SAXException
+    {
+        final PathMatcher matcher = new PathMatcher(limit, output);
+
+        reader.setContentHandler(matcher);
+        try {
+            reader.setProperty(LEXICAL_HANDLER, matcher);
+        } catch (final SAXNotRecognizedException | SAXNotSupportedException e) {
+            // el XMLReader no proporciona comentarios
+        }
+
+        try {
+            reader.parse(xml);
+        } catch (final SAXException se) {
+            if (se != matcher.stop)
+                throw se;
+        }
+
+        return matcher.count;
+    }
+
+    /**
+     * Evalua la expresion sobre el arbol DOM del documento.
+     */
+    private int evaluateDOM(final XMLReader reader, final InputSource xml,
+        final int limit, final Writer output)
+        throws IOException, SAXException, TransformerException, XPathExpressionException
+    {
+        final TransformerHandler builder = newIdentity();
+        final DOMResult tree = new DOMResult();
+        builder.setResult(tree);
+
+        reader.setContentHandler(builder);
+        try {
+            reader.setProperty(LEXICAL_HANDLER, builder);
+        } catch (final SAXNotRecognizedException | SAXNotSupportedException e) {
+            // el XMLReader no proporciona comentarios
+        }
+
+        reader.parse(xml);
+
+        final Document document = (Document) tree.getNode();
+
+        XPathExpression compiled = instances.poll();
+        if (compiled == null)
+            compiled = newExpression();
+
+        try {
+
+            NodeList nodes;
+            try {
+                nodes = (NodeList) compiled.evaluate(document, XPathConstants.NODESET);
+            } catch (final XPathExpressionException xpee) {
+                // el resultado no es un conjunto de nodos (e.g. un
+                // numero o un String)
+                nodes = null;
+            }
+
+            if (nodes == null) {
+                writeResult(compiled.evaluate(document), output);
+                return 1;
+            }
+
+            final Transformer serializer = newIdentity().getTransformer();
+            serializer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+
+            int count = 0;
+            for (; count < nodes.getLength() && (limit <= 0 || count < limit); ++count) {
+                final Node node = nodes.item(count);
+
+                if (node instanceof Element || node instanceof Document) {
+                    output.write("<result>");
+                    serializer.transform(new DOMSource(node), new StreamResult(output));
+                    output.write("</result>");
+                } else {
+                    writeResult(node.getTextContent(), output);
+                }
+            }
+
+            return count;
+
+        } finally {
+            if (instances.size() < MAX_INSTANCES)
+                instances.offer(compiled);
+        }
+    }
+
+    /**
+     * Compila una nueva instancia de la expresion, sin funciones de
+     * extension.
+     */
+    private XPathExpression newExpression( ) throws XPathExpressionException
+    {
+        final XPathFactory factory = XPathFactory.newInstance();
+        try {
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        } catch (final XPathFactoryConfigurationException xpfce) {
+            // procesador sin soporte de procesamiento seguro
+        }
+
+        final XPath xpath = factory.newXPath();
+        return xpath.compile(expression);
+    }
+
+    /**
+     * Crea un TransformerHandler identidad.
+     */
+    private static TransformerHandler newIdentity( )
+        throws TransformerConfigurationException
+    {
+        final TransformerFactory factory = TransformerFactory.newInstance();
+        if (!factory.getFeature(SAXTransformerFactory.FEATURE))
+            throw new TransformerConfigurationException("SAX transformations not supported");
+
+        return ((SAXTransformerFactory) factory).newTransformerHandler();
+    }
+
+    /**
+     * Escribe un resultado textual, escapando los caracteres
+     * reservados.
+     */
+    private static void writeResult(final String value, final Writer output)
+        throws IOException
+    {
+        output.write("<result>");
+
+        for (int i = 0; i < value.length(); ++i) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '&': output.write("&amp;"); break;
+                case '<': output.write("&lt;");  break;
+                case '>': output.write("&gt;");  break;
+                default:  output.write(c);
+            }
+        }
+
+        output.write("</result>");
+    }
+
+    /**
+     * ContentHandler que evalua una ruta absoluta simple durante la
+     * lectura del documento, escribiendo cada nodo encontrado a medida
+     * que se completa y deteniendo la lectura al alcanzar el numero
+     * maximo de resultados.
+     */
+    private final class PathMatcher extends DefaultHandler2
+    {
+
+        // excepcion con la que se detiene la lectura
+        private final SAXException stop = new SAXException("XPath result limit reached");
+
+        private final int              limit;
+        private final Writer           output;
+        private final NamespaceSupport namespaces = new NamespaceSupport();
+
+        private int     count   = 0;     // resultados escritos
+        private int     depth   = 0;     // elementos abiertos
+        private int     matched = 0;     // pasos de la ruta encontrados
+        private boolean context = false; // contexto de espacios de nombres ya creado
+
+        // elemento en escritura, y su profundidad
+        private TransformerHandler capture      = null;
+        private int                captureDepth = 0;
+        private List<String>       capturePrefixes;
+
+        // texto del nodo de texto en lectura
+        private final StringBuilder characters = new StringBuilder();
+
+        private PathMatcher(final int limit, final Writer output)
+        {
+            this.limit  = limit;
+            this.output = output;
+        }
+
+        @Override
+        public void startPrefixMapping(final String prefix, final String uri)
+            throws SAXException
+        {
+            if (!context) {
+                namespaces.pushContext();
+                context = true;
+            }
+            namespaces.declarePrefix(prefix, uri);
+
+            if (capture != null)
+                capture.startPrefixMapping(prefix, uri);
+        }
+
+        @Override
+        public void endPrefixMapping(final String prefix) throws SAXException
+        {
+            if (capture != null)
+                capture.endPrefixMapping(prefix);
+        }
+
+        @Override
+        public void startElement(final String uri, final String localName, final String qName,
+            final Attributes attributes)
+            throws SAXException
+        {
+            if (!context)
+                namespaces.pushContext();
+            context = false;
+
+            flushText();
+            ++depth;
+
+            if (capture != null) {
+                capture.startElement(uri, localName, qName, attributes);
+                return;
+            }
+
+            if (matched != depth - 1 || depth > steps.length
+                || !uri.isEmpty() || !localName.equals(steps[depth - 1]))
+                return;
+
+            matched = depth;
+            if (matched < steps.length)
+                return;
+
+            if (attribute != null) {
+                final String value = attributes.getValue("", attribute);
+                if (value != null)
+                    result(value);
+            } else if (!text) {
+                startCapture();
+                capture.startElement(uri, localName, qName, attributes);
+            }
+        }
+
+        @Override
+        public void endElement(final String uri, final String localName, final String qName)
+            throws SAXException
+        {
+            flushText();
+
+            if (capture != null) {
+                capture.endElement(uri, localName, qName);
+                if (depth == captureDepth)
+                    endCapture();
+            }
+
+            if (matched == depth)
+                --matched;
+
+            --depth;
+            namespaces.popContext();
+        }
+
+        @Override
+        public void characters(final char[ ] ch, final int start, final int length)
+            throws SAXException
+        {
+            if (capture != null)
+                capture.characters(ch, start, length);
+            else if (inText())
+                characters.append(ch, start, length);
+        }
+
+        @Override
+        public void ignorableWhitespace(final char[ ] ch, final int start, final int length)
+            throws SAXException
+        {
+            characters(ch, start, length);
+        }
+
+        @Override
+        public void processingInstruction(final String target, final String data)
+            throws SAXException
+        {
+            flushText();
+
+            if (capture != null)
+                capture.processingInstruction(target, data);
+        }
+
+        @Override
+        public void comment(final char[ ] ch, final int start, final int length)
+            throws SAXException
+        {
+            flushText();
+
+            if (capture != null)
+                capture.comment(ch, start, length);
+        }
+
+        /**
+         * Indica si se esta leyendo texto hijo directo del ultimo
+         * elemento de la ruta, en una ruta terminada en "text()".
+         */
+        private boolean inText( )
+        {
+            return text && matched == steps.length && depth == matched;
+        }
+
+        /**
+         * Escribe como resultado el nodo de texto leido hasta ahora, si
+         * existe.
+         */
+        private void flushText( ) throws SAXException
+        {
+            if (characters.length() == 0)
+                return;
+
+            final String value = characters.toString();
+            characters.setLength(0);
+
+            result(value);
+        }
+
+        /**
+         * Escribe un resultado textual.
+         */
+        private void result(final String value) throws SAXException
+        {
+            try {
+                writeResult(value, output);
+            } catch (final IOException ioe) {
+                throw new SAXException(ioe);
+            }
+
+            found();
+        }
+
+        /**
+         * Comienza la escritura del elemento encontrado, declarando los
+         * espacios de nombres en uso.
+         */
+        private void startCapture( ) throws SAXException
+        {
+            try {
+                output.write("<result>");
+
+                capture = newIdentity();
+                capture.getTransformer().setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+                capture.setResult(new StreamResult(output));
+            } catch (final IOException | TransformerConfigurationException e) {
+                throw new SAXException(e);
+            }
+
+            captureDepth    = depth;
+            capturePrefixes = new ArrayList<>();
+
+            capture.startDocument();
+
+            final Enumeration<?> prefixes = namespaces.getPrefixes();
+            while (prefixes.hasMoreElements()) {
+                final String prefix = (String) prefixes.nextElement();
+                if (!"xml".equals(prefix))
+                    capturePrefixes.add(prefix);
+            }
+
+            if (namespaces.getURI("") != null && !namespaces.getURI("").isEmpty())
+                capturePrefixes.add("");
+
+            for (final String prefix : capturePrefixes)
+                capture.startPrefixMapping(prefix, namespaces.getURI(prefix));
+        }
+
+        /**
+         * Finaliza la escritura del elemento encontrado.
+         */
+        private void endCapture( ) throws SAXException
+        {
+            for (final String prefix : capturePrefixes)
+                capture.endPrefixMapping(prefix);
+
+            capture.endDocument();
+            capture = null;
+
+            try {
+                output.write("</result>");
+            } catch (final IOException ioe) {
+                throw new SAXException(ioe);
+            }
+
+            found();
+        }
+
+        /**
+         * Contabiliza un resultado, deteniendo la lectura si se ha
+         * alcanzado el maximo.
+         */
+        private void found( ) throws SAXException
+        {
+            if (++count == limit)
+                throw stop;
+        }
+
+    }
+
+}
@@ -3,13 +3,41 @@ package es.uvigo.esei.dai.hybridserver.database;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import es.uvigo.esei.dai.hybridserver.Configuration;
 
 /**
- * Clase estatica que sirve como factoria de Conexiones a la base de
- * datos configurada en el sistema.
- * 
+ * Clase estatica que sirve como factoria (y pool) de Conexiones a la
+ * base de datos configurada en el sistema. Las conexiones devueltas
+ * son reutilizadas entre peticiones, manteniendo cada una de ellas su
+ * propia cache de sentencias preparadas. El numero de conexiones de
+ * cada pool esta limitado (ver
+ * {@link Configuration#getDatabaseMaxConnections()}), y las conexiones
+ * libres durante un tiempo se comprueban antes de reutilizarse.
+ *
+ * Ademas de la base de datos principal pueden configurarse replicas
+ * de solo lectura, cada una con su propio pool. Las lecturas se
+ * reparten entre las replicas disponibles (eligiendo la que menos
+ * conexiones tenga en uso), mientras que las escrituras se realizan
+ * siempre sobre la principal. Un hilo en segundo plano comprueba
+ * periodicamente el estado de las replicas; si ninguna esta
+ * disponible, las lecturas se realizan tambien sobre la principal.
+ *
+ * Los documentos pueden repartirse ademas entre varias bases de datos
+ * independientes (shards), cada una con su propio pool. El shard 0 es
+ * la base de datos principal, y es el unico que admite replicas.
+ *
  * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
  * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
  * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
@@ -17,25 +45,423 @@ import es.uvigo.esei.dai.hybridserver.Configuration;
 public class ConnectionFactory
 {
 
+    // numero maximo de sentencias preparadas en cache por conexion
+    private static final int STATEMENT_CACHE_SIZE = 32;
+
+    // periodo de comprobacion del estado de las replicas, y tiempo
+    // maximo de espera de cada comprobacion (segundos)
+    private static final long HEALTH_CHECK_PERIOD  = 5;
+    private static final int  HEALTH_CHECK_TIMEOUT = 2;
+
+    // tiempo maximo de espera de una conexion si el pool esta lleno
+    // (segundos)
+    private static final long ACQUIRE_TIMEOUT = 30;
+
+    // tiempo que una conexion puede permanecer libre sin comprobarse
+    // antes de reutilizarla (milisegundos), y tiempo maximo de espera
+    // de la comprobacion (segundos)
+    private static final long VALIDATE_AFTER   = 1000;
+    private static final int  VALIDATE_TIMEOUT = 2;
+
+    // pools de la base de datos de cada shard (el 0 es la principal)
+    private static final List<Pool> shards;
+
+    // pools de las replicas de solo lectura
+    private static final List<Pool> replicas;
+
+    // contador para repartir las lecturas entre replicas igual de
+    // cargadas
+    private static final AtomicInteger next = new AtomicInteger();
+
+    // hilos cuyas lecturas deben realizarse sobre la base de datos
+    // principal (ver setPrimaryReads)
+    private static final ThreadLocal<Boolean> primaryReads = new ThreadLocal<>();
+
+    // inicializa los pools de los shards y de las replicas y, si hay
+    // alguna replica, programa la comprobacion periodica de su estado
+    static {
+        final List<Pool> sList = new ArrayList<>();
+        for (final String url : Configuration.getInstance().getDatabaseShardURLs())
+            sList.add(new Pool(url, false));
+
+        shards = Collections.unmodifiableList(sList);
+
+        final List<Pool> rList = new ArrayList<>();
+        for (final String url : Configuration.getInstance().getDatabaseReplicaURLs())
+            rList.add(new Pool(url, true));
+
+        replicas = Collections.unmodifiableList(rList);
+
+        if (!replicas.isEmpty()) {
+            final ScheduledExecutorService checker =
+                Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+                {
+                    @Override
+                    public Thread newThread(final Runnable runnable)
+                    {
+                        final Thread thread = new Thread(runnable, "replica-health-check");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+            checker.scheduleWithFixedDelay(new Runnable()
+            {
+                @Override
+                public void run( )
+                {
+                    for (final Pool replica : replicas)
+                        replica.check();
+                }
+            }, HEALTH_CHECK_PERIOD, HEALTH_CHECK_PERIOD, TimeUnit.SECONDS);
+        }
+    }
+
     /**
-     * Crea y devuelve una conexion a la base de datos segun los
+     * Devuelve una conexion a la base de datos principal segun los
      * parametros configurados en el sistema (via fichero de
-     * configuracion).
-     * 
-     * @return {@link Connection} representando una nueva conexion a
+     * configuracion). Si existe alguna conexion libre en el pool se
+     * reutiliza, en caso contrario se crea una nueva. La conexion debe
+     * cerrarse (ie: devolverse al pool) una vez se termine de trabajar
+     * con ella.
+     *
+     * @return {@link PooledConnection} representando una conexion a
      *         la base de datos.
-     * 
+     *
+     * @throws SQLException
+     *         Si se produce algun error de acceso o conexion a la
+     *         base de datos.
+     */
+    public static final PooledConnection getConnection( ) throws SQLException
+    {
+        return getConnection(0);
+    }
+
+    /**
+     * Devuelve una conexion a la base de datos de un shard concreto,
+     * del mismo modo que {@link #getConnection()}.
+     *
+     * @param shard
+     *        Indice del shard, entre 0 y {@link #getShardCount()}
+     *        (excluido).
+     *
+     * @return {@link PooledConnection} representando una conexion a
+     *         la base de datos del shard.
+     *
+     * @throws SQLException
+     *         Si se produce algun error de acceso o conexion a la
+     *         base de datos.
+     */
+    public static final PooledConnection getConnection(final int shard) throws SQLException
+    {
+        return shards.get(shard).acquire();
+    }
+
+    /**
+     * Devuelve el numero de bases de datos (shards) configuradas.
+     *
+     * @return Numero de shards, al menos 1.
+     */
+    public static int getShardCount( )
+    {
+        return shards.size();
+    }
+
+    /**
+     * Devuelve una conexion para realizar unicamente lecturas. Se
+     * obtiene de la replica disponible con menos conexiones en uso o,
+     * si no hay replicas configuradas o ninguna esta disponible, de
+     * la base de datos principal (ver
+     * {@link PooledConnection#isReplica()}).
+     *
+     * @return {@link PooledConnection} representando una conexion de
+     *         solo lectura a la base de datos.
+     *
+     * @throws SQLException
+     *         Si se produce algun error de acceso o conexion a la
+     *         base de datos.
+     */
+    public static final PooledConnection getReadConnection( ) throws SQLException
+    {
+        return getReadConnection(0);
+    }
+
+    /**
+     * Establece si las conexiones de lectura que obtenga el hilo
+     * actual deben ser siempre de la base de datos principal (e.g.
+     * para leer un documento recien modificado, que una replica
+     * retrasada podria devolver aun en su version anterior).
+     *
+     * @param primary
+     *        Si las lecturas del hilo deben realizarse sobre la base
+     *        de datos principal.
+     *
+     * @return El valor anterior, que debe restaurarse al terminar.
+     */
+    public static boolean setPrimaryReads(final boolean primary)
+    {
+        final boolean previous = Boolean.TRUE.equals(primaryReads.get());
+
+        if (primary) primaryReads.set(Boolean.TRUE);
+        else         primaryReads.remove();
+
+        return previous;
+    }
+
+    /**
+     * Devuelve una conexion para realizar unicamente lecturas sobre un
+     * shard concreto. Puesto que solo el shard 0 cuenta con replicas,
+     * para el resto (o si el hilo actual debe leer de la base de datos
+     * principal, ver {@link #setPrimaryReads(boolean)}) equivale a
+     * {@link #getConnection(int)}.
+     *
+     * @param shard
+     *        Indice del shard.
+     *
+     * @return {@link PooledConnection} representando una conexion de
+     *         solo lectura a la base de datos del shard.
+     *
      * @throws SQLException
      *         Si se produce algun error de acceso o conexion a la
      *         base de datos.
      */
-    public static final Connection getConnection( ) throws SQLException
+    public static final PooledConnection getReadConnection(final int shard) throws SQLException
     {
-        final String dbUrl  = Configuration.getInstance().getDatabaseURL();
-        final String dbUser = Configuration.getInstance().getDatabaseUser();
-        final String dbPass = Configuration.getInstance().getDatabasePassword();
+        if (shard != 0 || Boolean.TRUE.equals(primaryReads.get()))
+            return getConnection(shard);
+
+        final int count = replicas.size();
+        final int start = count == 0 ? 0 : (next.getAndIncrement() & Integer.MAX_VALUE) % count;
+
+        Pool selected = null;
+        for (int i = 0; i < count; ++i) {
+            final Pool replica = replicas.get((start + i) % count);
+
+            if (replica.healthy && (selected == null || replica.active.get() < selected.active.get()))
+                selected = replica;
+        }
+
+        if (selected != null) {
+            try {
+                return selected.acquire();
+            } catch (final SQLException sqe) {
+                failed(selected, sqe);
+            }
+        }
+
+        return getConnection(0);
+    }
+
+    /**
+     * Notifica que se ha producido un error trabajando con una
+     * conexion. Si se trata de una replica, deja de utilizarse hasta
+     * que la siguiente comprobacion periodica la de por disponible.
+     *
+     * @param pooled
+     *        Conexion con la que se ha producido el error.
+     * @param cause
+     *        Error producido.
+     */
+    public static void failed(final PooledConnection pooled, final SQLException cause)
+    {
+        if (pooled.isReplica())
+            failed(pooled.getPool(), cause);
+    }
+
+    /**
+     * Marca una replica como no disponible.
+     */
+    private static void failed(final Pool replica, final SQLException cause)
+    {
+        if (replica.healthy)
+            System.err.println("Replica " + replica.url + " unavailable: " + cause.getMessage());
+
+        replica.healthy = false;
+    }
+
+    /**
+     * Pool de conexiones a una base de datos concreta (la de un shard
+     * o una replica de la principal).
+     */
+    static final class Pool
+    {
+
+        private final String  url;
+        private final boolean replica;
+
+        // conexiones libres a la espera de ser reutilizadas
+        private final Deque<PooledConnection> idle =
+            new ConcurrentLinkedDeque<>();
+
+        // numero de conexiones libres actualmente en el pool, y numero
+        // de conexiones actualmente en uso
+        private final AtomicInteger idleCount = new AtomicInteger();
+        private final AtomicInteger active    = new AtomicInteger();
+
+        // conexiones que aun pueden estar en uso simultaneamente
+        private final Semaphore permits;
+
+        // solo para replicas: si puede utilizarse o no
+        private volatile boolean healthy = true;
+
+        private Pool(final String url, final boolean replica)
+        {
+            this.url     = url;
+            this.replica = replica;
+            this.permits = new Semaphore(
+                Configuration.getInstance().getDatabaseMaxConnections(), true
+            );
+        }
+
+        /**
+         * Devuelve si el pool es el de una replica de solo lectura.
+         *
+         * @return True si es una replica, False si es la base de datos
+         *         principal.
+         */
+        boolean isReplica( )
+        {
+            return replica;
+        }
+
+        /**
+         * Obtiene una conexion del pool, reutilizando una libre si
+         * existe (y sigue siendo valida) o creando una nueva en caso
+         * contrario. Si el pool ya tiene el numero maximo de
+         * conexiones en uso, espera a que se libere alguna.
+         */
+        private PooledConnection acquire( ) throws SQLException
+        {
+            try {
+                if (!permits.tryAcquire(ACQUIRE_TIMEOUT, TimeUnit.SECONDS))
+                    throw new SQLException("Connection pool exhausted: " + url);
+            } catch (final InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted waiting for a connection", ie);
+            }
+
+            try {
+
+                PooledConnection pooled;
+                while ((pooled = idle.pollFirst()) != null) {
+                    idleCount.decrementAndGet();
+
+                    if (isValid(pooled))
+                        break;
+
+                    pooled.destroy();
+                }
+
+                if (pooled == null)
+                    pooled = new PooledConnection(this, newConnection(), STATEMENT_CACHE_SIZE);
+
+                pooled.borrow();
+                active.incrementAndGet();
+                return pooled;
+
+            } catch (final SQLException | RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        /**
+         * Comprueba, si lleva un tiempo libre, que una conexion sigue
+         * siendo valida (e.g. que la base de datos no se ha reiniciado
+         * desde que se utilizo por ultima vez).
+         */
+        private boolean isValid(final PooledConnection pooled)
+        {
+            if (System.currentTimeMillis() - pooled.getIdleSince() < VALIDATE_AFTER)
+                return true;
+
+            try {
+                return pooled.getConnection().isValid(VALIDATE_TIMEOUT);
+            } catch (final SQLException sqe) {
+                return false;
+            }
+        }
+
+        /**
+         * Devuelve una conexion al pool. Si la conexion ya no es
+         * reutilizable, o el pool ya contiene tantas conexiones libres
+         * como clientes concurrentes soporta el servidor, la conexion
+         * se cierra definitivamente.
+         *
+         * @param pooled
+         *        Conexion a devolver al pool.
+         */
+        void release(final PooledConnection pooled)
+        {
+            active.decrementAndGet();
+
+            final int     maxIdle  = Configuration.getInstance().getNumClients();
+            final boolean reusable = pooled.isReusable();
+
+            if (reusable && idleCount.incrementAndGet() <= maxIdle) {
+                pooled.setIdleSince(System.currentTimeMillis());
+                idle.offerFirst(pooled);
+            } else {
+                if (reusable) idleCount.decrementAndGet();
+                pooled.destroy();
+            }
+
+            permits.release();
+        }
+
+        /**
+         * Comprueba si la base de datos responde, marcandola como
+         * disponible o no segun el resultado. La comprobacion utiliza
+         * una conexion propia, fuera del pool, para no esperar a que
+         * se libere alguna si todas estan en uso.
+         */
+        private void check( )
+        {
+            try (final Connection connection = newConnection()) {
+
+                if (!connection.isValid(HEALTH_CHECK_TIMEOUT))
+                    throw new SQLException("Connection is not valid");
+
+                if (!healthy)
+                    System.err.println("Replica " + url + " available again");
+
+                healthy = true;
+
+            } catch (final SQLException sqe) {
+                failed(this, sqe);
+                discardIdle();
+            }
+        }
+
+        /**
+         * Cierra todas las conexiones libres del pool (e.g. tras
+         * detectar que la base de datos no responde).
+         */
+        private void discardIdle( )
+        {
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                idleCount.decrementAndGet();
+                pooled.destroy();
+            }
+        }
+
+        /**
+         * Crea una nueva conexion real a la base de datos del pool,
+         * con el usuario y password configurados en el sistema.
+         */
+        private Connection newConnection( ) throws SQLException
+        {
+            final String dbUser = Configuration.getInstance().getDatabaseUser();
+            final String dbPass = Configuration.getInstance().getDatabasePassword();
+
+            final Connection connection = DriverManager.getConnection(url, dbUser, dbPass);
+            if (replica)
+                connection.setReadOnly(true);
+
+            return connection;
+        }
 
-        return DriverManager.getConnection(dbUrl, dbUser, dbPass);
     }
 
 }
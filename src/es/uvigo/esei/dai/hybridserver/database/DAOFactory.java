@@ -1,19 +1,55 @@
 package es.uvigo.esei.dai.hybridserver.database;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
+import es.uvigo.esei.dai.hybridserver.Configuration;
+import es.uvigo.esei.dai.hybridserver.database.dao.CachedDocumentDAO;
 import es.uvigo.esei.dai.hybridserver.database.dao.DocumentDAO;
+import es.uvigo.esei.dai.hybridserver.database.dao.HTMLDocumentLogDAO;
+import es.uvigo.esei.dai.hybridserver.database.dao.HTMLDocumentMemoryDAO;
 import es.uvigo.esei.dai.hybridserver.database.dao.HTMLDocumentSQLDAO;
+import es.uvigo.esei.dai.hybridserver.database.dao.HTMLDocumentWALDAO;
+import es.uvigo.esei.dai.hybridserver.database.dao.ShardedDocumentDAO;
+import es.uvigo.esei.dai.hybridserver.database.dao.InfosetDAO;
+import es.uvigo.esei.dai.hybridserver.database.dao.InfosetMemoryDAO;
+import es.uvigo.esei.dai.hybridserver.database.dao.InfosetSQLDAO;
+import es.uvigo.esei.dai.hybridserver.database.dao.ValidityDAO;
+import es.uvigo.esei.dai.hybridserver.database.dao.ValidityMemoryDAO;
+import es.uvigo.esei.dai.hybridserver.database.dao.ValiditySQLDAO;
+import es.uvigo.esei.dai.hybridserver.database.dao.XMLDocumentLogDAO;
+import es.uvigo.esei.dai.hybridserver.database.dao.XMLDocumentMemoryDAO;
 import es.uvigo.esei.dai.hybridserver.database.dao.XMLDocumentSQLDAO;
+import es.uvigo.esei.dai.hybridserver.database.dao.XMLDocumentWALDAO;
+import es.uvigo.esei.dai.hybridserver.database.dao.XSDDocumentLogDAO;
+import es.uvigo.esei.dai.hybridserver.database.dao.XSDDocumentMemoryDAO;
 import es.uvigo.esei.dai.hybridserver.database.dao.XSDDocumentSQLDAO;
+import es.uvigo.esei.dai.hybridserver.database.dao.XSDDocumentWALDAO;
+import es.uvigo.esei.dai.hybridserver.database.dao.XSLTDocumentLogDAO;
+import es.uvigo.esei.dai.hybridserver.database.dao.XSLTDocumentMemoryDAO;
 import es.uvigo.esei.dai.hybridserver.database.dao.XSLTDocumentSQLDAO;
+import es.uvigo.esei.dai.hybridserver.database.dao.XSLTDocumentWALDAO;
+import es.uvigo.esei.dai.hybridserver.database.entity.HTMLDocument;
+import es.uvigo.esei.dai.hybridserver.database.entity.XMLDocument;
+import es.uvigo.esei.dai.hybridserver.database.entity.XSDDocument;
+import es.uvigo.esei.dai.hybridserver.database.entity.XSLTDocument;
 import es.uvigo.esei.dai.hybridserver.exception.ServerErrorException;
 
 /**
  * Clase estatica que sirve como factoria de DAO segun la entidad
- * proporcionada.
+ * proporcionada y el motor de almacenamiento configurado ("sql",
+ * "memory" o "log"). Con almacenamiento "sql" y varios shards
+ * configurados, los DAO devueltos reparten los documentos entre ellos
+ * (ver {@link ShardedDocumentDAO}), de forma transparente para los
+ * controladores. Si se ha configurado una cache de documentos, los DAO
+ * que acceden a base de datos se sirven detras de ella (ver
+ * {@link CachedDocumentDAO}).
  * 
  * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
  * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
@@ -37,6 +73,49 @@ public class DAOFactory
         daos = Collections.unmodifiableMap(dMap);
     }
 
+    // map con las instancias unicas de los dao en memoria, que deben
+    // ser compartidas puesto que son ellas las que contienen los datos
+    private static final Map<String, DocumentDAO<?>> memoryDaos;
+
+    // inicializa el map de dao en memoria y lo hace read-only
+    static {
+        final XSLTDocumentMemoryDAO xsltDAO = new XSLTDocumentMemoryDAO();
+
+        final Map<String, DocumentDAO<?>> mMap = new HashMap<>(4);
+        mMap.put("html" , new HTMLDocumentMemoryDAO());
+        mMap.put("xml"  , new XMLDocumentMemoryDAO());
+        mMap.put("xsd"  , new XSDDocumentMemoryDAO(xsltDAO));
+        mMap.put("xslt" , xsltDAO);
+
+        memoryDaos = Collections.unmodifiableMap(mMap);
+    }
+
+    // instancia unica del dao en memoria de resultados de validacion,
+    // utilizado con almacenamiento "memory" o "log"
+    private static final ValidityDAO memoryValidityDao = new ValidityMemoryDAO();
+
+    // instancia unica del dao en memoria de representaciones binarias
+    // de XML, utilizado con almacenamiento "memory" o "log"
+    private static final InfosetDAO memoryInfosetDao = new InfosetMemoryDAO();
+
+    // map con las instancias unicas de los dao sobre log de segmentos,
+    // creadas la primera vez que se solicitan (abren ficheros en disco)
+    private static Map<String, DocumentDAO<?>> logDaos;
+
+    // map con las instancias unicas de los dao con log de escritura
+    // anticipada (sobre los dao sql), creadas la primera vez que se
+    // solicitan
+    private static Map<String, DocumentDAO<?>> walDaos;
+
+    // map con las instancias unicas de los dao repartidos entre varios
+    // shards, creadas la primera vez que se solicitan
+    private static Map<String, DocumentDAO<?>> shardedDaos;
+
+    // map con las instancias unicas de los dao con cache (sobre los
+    // dao sql o con log de escritura anticipada), creadas la primera
+    // vez que se solicitan
+    private static Map<String, DocumentDAO<?>> cachedDaos;
+
     /**
      * Devuelve una instancia de {@link DocumentDAO} asociada al tipo
      * de documento concreto segun la entidad recibida.
@@ -61,15 +140,281 @@ public class DAOFactory
         if (!daos.containsKey(entity))
             throw new ServerErrorException(entity + " DAO not found");
 
+        if ("memory".equals(Configuration.getInstance().getStorage()))
+            return memoryDaos.get(entity);
+
+        if ("log".equals(Configuration.getInstance().getStorage()))
+            return getLogDAOs().get(entity);
+
+        if (Configuration.getInstance().getCacheSize() > 0)
+            return getCachedDAOs().get(entity);
+
+        return getDatabaseDAO(entity);
+    }
+
+    /**
+     * Devuelve las estadisticas de uso (ver
+     * {@link CachedDocumentDAO#toString()}) de la cache de cada tipo de
+     * documento, si se utiliza.
+     * 
+     * @return Map con las estadisticas de cada entidad, ordenado por
+     *         entidad, o vacio si no se utiliza cache.
+     * 
+     * @throws ServerErrorException
+     *         Si se produce algun error creando los DAO.
+     */
+    public static Map<String, String> getCacheStatistics( )
+        throws ServerErrorException
+    {
+        final Map<String, String> statistics = new TreeMap<>();
+
+        final Configuration config = Configuration.getInstance();
+        if ("memory".equals(config.getStorage()) || "log".equals(config.getStorage())
+            || config.getCacheSize() <= 0)
+            return statistics;
+
+        for (final Map.Entry<String, DocumentDAO<?>> dao : getCachedDAOs().entrySet())
+            statistics.put(dao.getKey(), dao.getValue().toString());
+
+        return statistics;
+    }
+
+    /**
+     * Devuelve una instancia de {@link ValidityDAO}, para almacenar y
+     * consultar los resultados de validar documentos XML con XSD, de
+     * acuerdo al motor de almacenamiento configurado. Con
+     * almacenamiento "log" los resultados se mantienen en memoria,
+     * puesto que pueden volver a calcularse en cualquier momento.
+     * 
+     * @return Instancia de ValidityDAO.
+     */
+    public static ValidityDAO getValidityDAO( )
+    {
+        final String storage = Configuration.getInstance().getStorage();
+
+        if ("memory".equals(storage) || "log".equals(storage))
+            return memoryValidityDao;
+
+        return new ValiditySQLDAO();
+    }
+
+    /**
+     * Devuelve una instancia de {@link InfosetDAO}, para almacenar y
+     * consultar las representaciones binarias de los documentos XML,
+     * de acuerdo al motor de almacenamiento configurado. Con
+     * almacenamiento "log" se mantienen en memoria, puesto que pueden
+     * volver a generarse en cualquier momento.
+     * 
+     * @return Instancia de InfosetDAO.
+     */
+    public static InfosetDAO getInfosetDAO( )
+    {
+        final String storage = Configuration.getInstance().getStorage();
+
+        if ("memory".equals(storage) || "log".equals(storage))
+            return memoryInfosetDao;
+
+        return new InfosetSQLDAO();
+    }
+
+    /**
+     * Devuelve un DAO sobre base de datos para la entidad recibida,
+     * con log de escritura anticipada si se ha configurado.
+     * 
+     * @param entity
+     *        String representando la entidad de la que se desea
+     *        obtener un DAO.
+     * 
+     * @return Instancia de DocumentDAO sobre base de datos.
+     * 
+     * @throws ServerErrorException
+     *         Si se produce algun error abriendo los logs.
+     */
+    private static DocumentDAO<?> getDatabaseDAO(final String entity)
+        throws ServerErrorException
+    {
+        if (Configuration.getInstance().getWALDirectory() != null)
+            return getWALDAOs().get(entity);
+
+        return getSQLDAO(entity);
+    }
+
+    /**
+     * Devuelve un DAO de SQL para la entidad recibida: si hay varios
+     * shards configurados, el DAO (unico) que reparte los documentos
+     * entre ellos; en caso contrario, una nueva instancia del DAO de
+     * SQL concreto.
+     * 
+     * @param entity
+     *        String representando la entidad de la que se desea
+     *        obtener un DAO.
+     * 
+     * @return Instancia de DocumentDAO de SQL para la entidad.
+     */
+    private static DocumentDAO<?> getSQLDAO(final String entity)
+    {
+        if (ConnectionFactory.getShardCount() > 1)
+            return getShardedDAOs().get(entity);
+
+        return newSQLDAO(entity, 0);
+    }
+
+    /**
+     * Crea una nueva instancia del DAO de SQL concreto de la entidad
+     * recibida, sobre el shard indicado.
+     * 
+     * @param entity
+     *        String representando la entidad.
+     * @param shard
+     *        Indice de la base de datos del DAO.
+     * 
+     * @return Nueva instancia del DAO de SQL concreto.
+     */
+    private static DocumentDAO<?> newSQLDAO(final String entity, final int shard)
+    {
         try {
 
-            return daos.get(entity).newInstance();
+            return daos.get(entity).getConstructor(int.class).newInstance(shard);
 
-        } catch (InstantiationException | IllegalAccessException e) {
+        } catch (ReflectiveOperationException e) {
             System.err.print(entity + " DAO cannot be instantiated");
             System.err.println("Please, check your code.");
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Devuelve el map con las instancias unicas de los DAO repartidos
+     * entre todos los shards configurados, creandolas la primera vez
+     * que se invoca.
+     * 
+     * @return Map read-only con los DAO repartidos para cada entidad.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static synchronized Map<String, DocumentDAO<?>> getShardedDAOs( )
+    {
+        if (shardedDaos != null)
+            return shardedDaos;
+
+        final Map<String, DocumentDAO<?>> sMap = new HashMap<>(4);
+        for (final String entity : daos.keySet()) {
+            final List shards = new ArrayList<>(ConnectionFactory.getShardCount());
+            for (int shard = 0; shard < ConnectionFactory.getShardCount(); ++shard)
+                shards.add(newSQLDAO(entity, shard));
+
+            sMap.put(entity, new ShardedDocumentDAO(shards));
+        }
+
+        shardedDaos = Collections.unmodifiableMap(sMap);
+        return shardedDaos;
+    }
+
+    /**
+     * Devuelve el map con las instancias unicas de los DAO con cache,
+     * creandolas la primera vez que se invoca. Los borrados de XSD
+     * invalidan la cache de XSLT, puesto que se realizan en cascada.
+     * 
+     * @return Map read-only con los DAO con cache para cada entidad.
+     * 
+     * @throws ServerErrorException
+     *         Si se produce algun error abriendo los logs.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static synchronized Map<String, DocumentDAO<?>> getCachedDAOs( )
+        throws ServerErrorException
+    {
+        if (cachedDaos != null)
+            return cachedDaos;
+
+        // se reparte la capacidad configurada entre los cuatro tipos
+        final long capacity = Configuration.getInstance().getCacheSize() / 4;
+
+        final CachedDocumentDAO xsltDAO =
+            new CachedDocumentDAO(getDatabaseDAO("xslt"), capacity);
+
+        final Map<String, DocumentDAO<?>> cMap = new HashMap<>(4);
+        cMap.put("html" , new CachedDocumentDAO(getDatabaseDAO("html"), capacity));
+        cMap.put("xml"  , new CachedDocumentDAO(getDatabaseDAO("xml"), capacity));
+        cMap.put("xsd"  , new CachedDocumentDAO(getDatabaseDAO("xsd"), capacity, xsltDAO));
+        cMap.put("xslt" , xsltDAO);
+
+        cachedDaos = Collections.unmodifiableMap(cMap);
+        return cachedDaos;
+    }
+
+    /**
+     * Devuelve el map con las instancias unicas de los DAO sobre log
+     * de segmentos, abriendo los logs del directorio configurado la
+     * primera vez que se invoca.
+     * 
+     * @return Map read-only con los DAO sobre log para cada entidad.
+     * 
+     * @throws ServerErrorException
+     *         Si se produce algun error abriendo los logs.
+     */
+    private static synchronized Map<String, DocumentDAO<?>> getLogDAOs( )
+        throws ServerErrorException
+    {
+        if (logDaos != null)
+            return logDaos;
+
+        final File directory = Configuration.getInstance().getLogDirectory();
+
+        try {
+
+            final XSLTDocumentLogDAO xsltDAO = new XSLTDocumentLogDAO(directory);
+
+            final Map<String, DocumentDAO<?>> lMap = new HashMap<>(4);
+            lMap.put("html" , new HTMLDocumentLogDAO(directory));
+            lMap.put("xml"  , new XMLDocumentLogDAO(directory));
+            lMap.put("xsd"  , new XSDDocumentLogDAO(directory, xsltDAO));
+            lMap.put("xslt" , xsltDAO);
+
+            logDaos = Collections.unmodifiableMap(lMap);
+            return logDaos;
+
+        } catch (final IOException ioe) {
+            throw new ServerErrorException("Cannot open document logs at " + directory, ioe);
+        }
+    }
+
+    /**
+     * Devuelve el map con las instancias unicas de los DAO con log de
+     * escritura anticipada, abriendo (y reproduciendo) los logs del
+     * directorio configurado la primera vez que se invoca.
+     * 
+     * @return Map read-only con los DAO con WAL para cada entidad.
+     * 
+     * @throws ServerErrorException
+     *         Si se produce algun error abriendo los logs.
+     */
+    @SuppressWarnings("unchecked")
+    private static synchronized Map<String, DocumentDAO<?>> getWALDAOs( )
+        throws ServerErrorException
+    {
+        if (walDaos != null)
+            return walDaos;
+
+        final File directory = Configuration.getInstance().getWALDirectory();
+
+        try {
+
+            final XSLTDocumentWALDAO xsltDAO = new XSLTDocumentWALDAO(
+                directory, (DocumentDAO<XSLTDocument>) getSQLDAO("xslt")
+            );
+
+            final Map<String, DocumentDAO<?>> wMap = new HashMap<>(4);
+            wMap.put("html" , new HTMLDocumentWALDAO(directory, (DocumentDAO<HTMLDocument>) getSQLDAO("html")));
+            wMap.put("xml"  , new XMLDocumentWALDAO(directory, (DocumentDAO<XMLDocument>) getSQLDAO("xml")));
+            wMap.put("xsd"  , new XSDDocumentWALDAO(directory, (DocumentDAO<XSDDocument>) getSQLDAO("xsd"), xsltDAO));
+            wMap.put("xslt" , xsltDAO);
+
+            walDaos = Collections.unmodifiableMap(wMap);
+            return walDaos;
+
+        } catch (final IOException ioe) {
+            throw new ServerErrorException("Cannot open WAL at " + directory, ioe);
+        }
+    }
+
 }
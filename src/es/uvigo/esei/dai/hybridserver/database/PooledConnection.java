@@ -0,0 +1,280 @@
+package es.uvigo.esei.dai.hybridserver.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Clase que encapsula una conexion a la base de datos gestionada por
+ * el pool de {@link ConnectionFactory}. Mantiene una cache LRU de
+ * sentencias preparadas indexada por su SQL, de modo que las
+ * sentencias se preparan (parsean y planifican) una unica vez por
+ * conexion y se reutilizan en las siguientes peticiones.
+ *
+ * Al cerrar la instancia la conexion no se cierra, sino que se
+ * devuelve al pool junto con todas sus sentencias preparadas. Las
+ * sentencias obtenidas a traves de
+ * {@link #prepareStatement(String)} pertenecen a la conexion y no
+ * deben ser cerradas por los clientes.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public class PooledConnection implements AutoCloseable
+{
+
+    private final ConnectionFactory.Pool         pool;       // pool de origen
+    private final Connection                     connection; // conexion real
+    private final Map<String, PreparedStatement> statements; // cache LRU
+
+    // si la conexion esta prestada (y aun no se ha devuelto al pool)
+    private final AtomicBoolean borrowed = new AtomicBoolean();
+
+    // instante en el que la conexion se devolvio al pool por ultima vez
+    private volatile long idleSince;
+
+    /**
+     * Crea una nueva conexion del pool, encapsulando la conexion real
+     * recibida y con una cache de sentencias preparadas del tamaño
+     * indicado.
+     *
+     * @param pool
+     *        Pool al que pertenece la conexion.
+     * @param connection
+     *        Conexion real a la base de datos.
+     * @param cacheSize
+     *        Numero maximo de sentencias preparadas que se
+     *        mantendran abiertas para esta conexion.
+     */
+    PooledConnection(final ConnectionFactory.Pool pool, final Connection connection, final int cacheSize)
+    {
+        this.pool       = pool;
+        this.connection = connection;
+        this.statements = new LinkedHashMap<String, PreparedStatement>(cacheSize, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                final Map.Entry<String, PreparedStatement> eldest)
+            {
+                if (size() <= cacheSize) return false;
+
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Devuelve una sentencia preparada para el SQL recibido. Si la
+     * sentencia ya habia sido preparada previamente en esta conexion
+     * se reutiliza la existente, en caso contrario se prepara y se
+     * almacena en la cache.
+     *
+     * @param sql
+     *        String con la sentencia SQL a preparar.
+     *
+     * @return {@link PreparedStatement} asociado al SQL recibido, sin
+     *         parametros establecidos.
+     *
+     * @throws SQLException
+     *         Si se produce algun error durante la preparacion de la
+     *         sentencia.
+     */
+    public PreparedStatement prepareStatement(final String sql)
+        throws SQLException
+    {
+        PreparedStatement statement = statements.get(sql);
+
+        if (statement == null || statement.isClosed()) {
+            statement = connection.prepareStatement(sql);
+            statements.put(sql, statement);
+        } else {
+            statement.clearParameters();
+        }
+
+        return statement;
+    }
+
+    /**
+     * Devuelve la conexion real encapsulada por esta instancia, para
+     * aquellas operaciones que no esten cubiertas por la cache de
+     * sentencias. No debe cerrarse directamente.
+     *
+     * @return {@link Connection} real a la base de datos.
+     */
+    public Connection getConnection( )
+    {
+        return connection;
+    }
+
+    /**
+     * Devuelve si la conexion pertenece a una replica de solo lectura
+     * (ver {@link ConnectionFactory#getReadConnection()}), cuyos datos
+     * pueden ir por detras de los de la base de datos principal.
+     *
+     * @return True si la conexion es a una replica, False si es a la
+     *         base de datos principal.
+     */
+    public boolean isReplica( )
+    {
+        return pool.isReplica();
+    }
+
+    /**
+     * Inicia una transaccion en la conexion, desactivando el modo
+     * "autocommit" hasta que se invoque {@link #commit()} o
+     * {@link #rollback()}.
+     *
+     * @throws SQLException
+     *         Si se produce algun error al iniciar la transaccion.
+     */
+    public void begin( ) throws SQLException
+    {
+        connection.setAutoCommit(false);
+    }
+
+    /**
+     * Confirma la transaccion en curso y restablece el modo
+     * "autocommit" de la conexion.
+     *
+     * @throws SQLException
+     *         Si se produce algun error al confirmar la transaccion.
+     */
+    public void commit( ) throws SQLException
+    {
+        try {
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Deshace la transaccion en curso y restablece el modo
+     * "autocommit" de la conexion.
+     *
+     * @throws SQLException
+     *         Si se produce algun error al deshacer la transaccion.
+     */
+    public void rollback( ) throws SQLException
+    {
+        try {
+            connection.rollback();
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Devuelve la conexion al pool del que fue obtenida, manteniendo
+     * abiertas todas sus sentencias preparadas. Si la conexion ya se
+     * habia devuelto, no hace nada.
+     *
+     * @see java.lang.AutoCloseable#close()
+     */
+    @Override
+    public void close( )
+    {
+        if (borrowed.compareAndSet(true, false))
+            pool.release(this);
+    }
+
+    /**
+     * Marca la conexion como prestada por el pool, de modo que el
+     * siguiente {@link #close()} la devuelva.
+     */
+    void borrow( )
+    {
+        borrowed.set(true);
+    }
+
+    /**
+     * Devuelve el pool al que pertenece la conexion.
+     *
+     * @return Pool de la conexion.
+     */
+    ConnectionFactory.Pool getPool( )
+    {
+        return pool;
+    }
+
+    /**
+     * Devuelve el instante (en milisegundos) en el que la conexion se
+     * devolvio al pool por ultima vez.
+     *
+     * @return Instante de la ultima devolucion al pool.
+     */
+    long getIdleSince( )
+    {
+        return idleSince;
+    }
+
+    /**
+     * Establece el instante (en milisegundos) en el que la conexion se
+     * devuelve al pool.
+     *
+     * @param idleSince
+     *        Instante de la devolucion al pool.
+     */
+    void setIdleSince(final long idleSince)
+    {
+        this.idleSince = idleSince;
+    }
+
+    /**
+     * Comprueba si la conexion real sigue abierta y puede ser
+     * reutilizada por el pool.
+     *
+     * @return True si la conexion puede volver al pool, False en caso
+     *         contrario.
+     */
+    boolean isReusable( )
+    {
+        try {
+            return !connection.isClosed() && connection.getAutoCommit();
+        } catch (final SQLException sqe) {
+            return false;
+        }
+    }
+
+    /**
+     * Cierra definitivamente la conexion real y todas las sentencias
+     * preparadas que mantenga en cache.
+     */
+    void destroy( )
+    {
+        for (final PreparedStatement statement : statements.values())
+            closeQuietly(statement);
+        statements.clear();
+
+        try {
+            connection.close();
+        } catch (final SQLException sqe) {
+            System.err.println("Error closing connection: " + sqe.getMessage());
+        }
+    }
+
+    /**
+     * Cierra una sentencia preparada ignorando cualquier error que se
+     * produzca durante el cierre.
+     *
+     * @param statement
+     *        Sentencia a cerrar.
+     */
+    private static void closeQuietly(final PreparedStatement statement)
+    {
+        try {
+            statement.close();
+        } catch (final SQLException sqe) {
+            // la sentencia se descarta de todos modos, no hay nada
+            // mas que hacer con ella
+        }
+    }
+
+}
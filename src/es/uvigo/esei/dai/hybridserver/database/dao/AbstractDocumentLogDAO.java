@@ -0,0 +1,365 @@
+package es.uvigo.esei.dai.hybridserver.database.dao;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import es.uvigo.esei.dai.hybridserver.database.entity.AbstractDocument;
+import es.uvigo.esei.dai.hybridserver.database.entity.ContentLoader;
+import es.uvigo.esei.dai.hybridserver.exception.DocumentNotFoundException;
+
+/**
+ * Clase abstracta con metodos basicos para todos los DAO almacenados
+ * en un log de segmentos en disco (ver {@link SegmentLog}). Cada tipo
+ * de documento utiliza su propio log, en un subdirectorio del
+ * directorio configurado. Las lecturas se realizan directamente sobre
+ * la proyeccion en memoria de los segmentos, sin ningun acceso a base
+ * de datos.
+ *
+ * Al igual que los DAO en memoria, los datos residen en cada
+ * instancia, por lo que deben ser compartidos por todos los clientes
+ * (ver DAOFactory).
+ *
+ * @param <D>
+ *        Documento al que estara asociado el DAO concreto. Debe,
+ *        obligatoriamente, heredar de {@link AbstractDocument}.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+abstract class AbstractDocumentLogDAO<D extends AbstractDocument> implements DocumentDAO<D>
+{
+
+    // log de segmentos con los documentos de este tipo
+    private final SegmentLog log;
+
+    /**
+     * Construye una nueva instancia del DAO, abriendo (o creando) el
+     * log almacenado en el directorio recibido.
+     *
+     * @param directory
+     *        Directorio del log de este tipo de documentos.
+     *
+     * @throws IOException
+     *         Si se produce algun error abriendo el log.
+     */
+    protected AbstractDocumentLogDAO(final File directory) throws IOException
+    {
+        log = new SegmentLog(directory);
+    }
+
+    /**
+     * @see DocumentDAO#exists(String)
+     */
+    @Override
+    public boolean exists(final String uuid) throws SQLException
+    {
+        return lookup(uuid) != null;
+    }
+
+    /**
+     * @see DocumentDAO#list()
+     */
+    @Override
+    public List<D> list( ) throws SQLException
+    {
+        final List<D> list = new ArrayList<>();
+
+        for (final UUID key : log.keys()) {
+            final D document = find(key.toString());
+            if (document != null) list.add(document);
+        }
+
+        return list;
+    }
+
+    /**
+     * @see DocumentDAO#listUUIDs()
+     */
+    @Override
+    public List<String> listUUIDs( ) throws SQLException
+    {
+        final List<String> list = new ArrayList<>();
+
+        for (final UUID key : log.keys())
+            list.add(key.toString());
+
+        return list;
+    }
+
+    /**
+     * @see DocumentDAO#get(String)
+     */
+    @Override
+    public D get(final String uuid) throws DocumentNotFoundException,
+        SQLException
+    {
+        final D document = find(uuid);
+
+        if (document == null)
+            throw new DocumentNotFoundException(uuid);
+
+        return document;
+    }
+
+    /**
+     * @see DocumentDAO#find(String)
+     */
+    @Override
+    public D find(final String uuid) throws SQLException
+    {
+        final SegmentLog.Location location = lookup(uuid);
+        if (location == null)
+            return null;
+
+        try {
+
+            final ByteBuffer content = location.readContent();
+            final int        size    = content.remaining();
+            final String     text    = ContentStore.CHARSET.decode(content).toString();
+
+            // el log no registra la fecha de creacion de los documentos
+            final D document = documentFactory(uuid, location.getMetadata(), text);
+            document.setMetadata(size, location.getHash(), null);
+
+            return document;
+
+        } catch (final IOException ioe) {
+            throw new SQLException("Error while reading document " + uuid, ioe);
+        }
+    }
+
+    /**
+     * @see DocumentDAO#findLazy(String)
+     */
+    @Override
+    public D findLazy(final String uuid) throws SQLException
+    {
+        final SegmentLog.Location location = lookup(uuid);
+        if (location == null)
+            return null;
+
+        return lazyDocumentFactory(uuid, location.getMetadata(), new ContentLoader()
+        {
+            @Override
+            public Reader open( ) throws IOException
+            {
+                try {
+
+                    final Reader content = openContent(uuid);
+                    if (content == null)
+                        throw new IOException("Document " + uuid + " no longer exists");
+
+                    return content;
+
+                } catch (final SQLException sqe) {
+                    throw new IOException(sqe);
+                }
+            }
+        });
+    }
+
+    /**
+     * @see DocumentDAO#getHash(String)
+     */
+    @Override
+    public String getHash(final String uuid) throws SQLException
+    {
+        final SegmentLog.Location location = lookup(uuid);
+
+        return location == null ? null : location.getHash();
+    }
+
+    /**
+     * Devuelve un stream de caracteres que decodifica el contenido
+     * directamente desde la vista del segmento, sin copiarlo.
+     *
+     * @see DocumentDAO#openContent(String)
+     */
+    @Override
+    public Reader openContent(final String uuid) throws SQLException
+    {
+        final SegmentLog.Location location = lookup(uuid);
+        if (location == null)
+            return null;
+
+        try {
+
+            return new InputStreamReader(
+                new BufferInputStream(location.readContent()),
+                ContentStore.CHARSET
+            );
+
+        } catch (final IOException ioe) {
+            throw new SQLException("Error while reading document " + uuid, ioe);
+        }
+    }
+
+    /**
+     * Los contenidos del log no se almacenan codificados, por lo que
+     * siempre devuelve null.
+     *
+     * @see DocumentDAO#openEncodedContent(String, String)
+     */
+    @Override
+    public InputStream openEncodedContent(final String uuid, final String encoding)
+        throws SQLException
+    {
+        return null;
+    }
+
+    /**
+     * @see DocumentDAO#create(AbstractDocument)
+     */
+    @Override
+    public void create(final D document) throws SQLException
+    {
+        final UUID key = toKey(document.getUUID());
+        if (key == null)
+            throw new SQLException("Invalid document UUID: " + document.getUUID());
+
+        try (final Reader content = document.openContent()) {
+
+            final byte[ ] bytes = ContentStore.readBytes(content);
+
+            if (!log.insert(key, getMetadata(document), bytes))
+                throw new SQLException("Document " + key + " already exists");
+
+        } catch (final IOException ioe) {
+            throw new SQLException("Error while writing document " + key, ioe);
+        }
+    }
+
+    /**
+     * @see DocumentDAO#update(AbstractDocument)
+     */
+    @Override
+    public void update(final D document)
+        throws DocumentNotFoundException, SQLException
+    {
+        final UUID key = toKey(document.getUUID());
+        if (key == null)
+            throw new DocumentNotFoundException(document.getUUID());
+
+        try (final Reader content = document.openContent()) {
+
+            final byte[ ] bytes = ContentStore.readBytes(content);
+
+            if (!log.replace(key, getMetadata(document), bytes))
+                throw new DocumentNotFoundException(document.getUUID());
+
+        } catch (final IOException ioe) {
+            throw new SQLException("Error while writing document " + key, ioe);
+        }
+    }
+
+    /**
+     * @see DocumentDAO#delete(String)
+     */
+    @Override
+    public void delete(final String uuid)
+        throws DocumentNotFoundException, SQLException
+    {
+        final UUID key = toKey(uuid);
+
+        try {
+
+            if (key == null || !log.remove(key))
+                throw new DocumentNotFoundException(uuid);
+
+        } catch (final IOException ioe) {
+            throw new SQLException("Error while deleting document " + uuid, ioe);
+        }
+    }
+
+    /**
+     * Devuelve los metadatos del documento que deben almacenarse junto
+     * a su contenido, es decir, todos sus campos excepto el UUID y el
+     * contenido. Por defecto ninguno.
+     *
+     * @param document
+     *        Documento del que obtener los metadatos.
+     *
+     * @return String con los metadatos del documento.
+     */
+    protected String getMetadata(final D document)
+    {
+        return "";
+    }
+
+    /**
+     * Construye una nueva instancia del tipo de documento concreto a
+     * partir de los datos almacenados en el log.
+     *
+     * @param uuid
+     *        Identificador UUID del documento.
+     * @param metadata
+     *        Metadatos del documento (ver {@link #getMetadata}).
+     * @param content
+     *        Contenido del documento.
+     *
+     * @return Documento del tipo correcto segun cada DAO concreto.
+     */
+    protected abstract D documentFactory(final String uuid, final String metadata, final String content);
+
+    /**
+     * Construye una nueva instancia "lazy" del tipo de documento
+     * concreto a partir de los metadatos almacenados en el log.
+     *
+     * @param uuid
+     *        Identificador UUID del documento.
+     * @param metadata
+     *        Metadatos del documento (ver {@link #getMetadata}).
+     * @param loader
+     *        ContentLoader desde el que el documento obtendra su
+     *        contenido cuando sea necesario.
+     *
+     * @return Documento "lazy" del tipo correcto segun cada DAO
+     *         concreto.
+     */
+    protected abstract D lazyDocumentFactory(final String uuid, final String metadata, final ContentLoader loader);
+
+    /**
+     * Busca la ultima version vigente de un documento en el log.
+     *
+     * @param uuid
+     *        String con el identificador UUID.
+     *
+     * @return Posicion del documento en el log, o null si no existe o
+     *         el identificador no es un UUID valido.
+     */
+    private SegmentLog.Location lookup(final String uuid)
+    {
+        final UUID key = toKey(uuid);
+
+        return key == null ? null : log.get(key);
+    }
+
+    /**
+     * Convierte un identificador UUID en su representacion binaria,
+     * utilizada como clave de los documentos en el log.
+     *
+     * @param uuid
+     *        String con el identificador UUID.
+     *
+     * @return {@link UUID} con el identificador, o null si el String
+     *         recibido no es un UUID valido.
+     */
+    private static UUID toKey(final String uuid)
+    {
+        try {
+            return uuid == null ? null : UUID.fromString(uuid);
+        } catch (final IllegalArgumentException iae) {
+            return null;
+        }
+    }
+
+}
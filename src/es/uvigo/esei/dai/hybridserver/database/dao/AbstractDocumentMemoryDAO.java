@@ -0,0 +1,272 @@
+package es.uvigo.esei.dai.hybridserver.database.dao;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import es.uvigo.esei.dai.hybridserver.database.entity.AbstractDocument;
+import es.uvigo.esei.dai.hybridserver.exception.DocumentNotFoundException;
+
+/**
+ * Clase abstracta con metodos basicos para todos los DAO en memoria.
+ * Los documentos se almacenan en un {@link ConcurrentHashMap} indexado
+ * por su identificador UUID (cuyas claves se comparan por los dos
+ * long que lo componen, en lugar de por su representacion textual),
+ * sin ningun tipo de acceso a base de datos. Los datos se pierden al
+ * detener el servidor.
+ *
+ * Puesto que los datos residen en cada instancia, los DAO en memoria
+ * deben ser compartidos por todos los clientes (ver DAOFactory).
+ *
+ * @param <D>
+ *        Documento al que estara asociado el DAO en memoria concreto.
+ *        Debe, obligatoriamente, heredar de {@link AbstractDocument}.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+abstract class AbstractDocumentMemoryDAO<D extends AbstractDocument> implements DocumentDAO<D>
+{
+
+    // documentos almacenados, junto al hash de su contenido
+    private final ConcurrentMap<UUID, Entry<D>> documents =
+        new ConcurrentHashMap<>();
+
+    /**
+     * @see DocumentDAO#exists(String)
+     */
+    @Override
+    public boolean exists(final String uuid) throws SQLException
+    {
+        final UUID key = toKey(uuid);
+
+        return key != null && documents.containsKey(key);
+    }
+
+    /**
+     * @see DocumentDAO#list()
+     */
+    @Override
+    public List<D> list( ) throws SQLException
+    {
+        final List<D> list = new ArrayList<>(documents.size());
+
+        for (final Entry<D> entry : documents.values())
+            list.add(entry.document);
+
+        return list;
+    }
+
+    /**
+     * @see DocumentDAO#listUUIDs()
+     */
+    @Override
+    public List<String> listUUIDs( ) throws SQLException
+    {
+        final List<String> list = new ArrayList<>(documents.size());
+
+        for (final UUID key : documents.keySet())
+            list.add(key.toString());
+
+        return list;
+    }
+
+    /**
+     * @see DocumentDAO#get(String)
+     */
+    @Override
+    public D get(final String uuid) throws DocumentNotFoundException,
+        SQLException
+    {
+        final D document = find(uuid);
+
+        if (document == null)
+            throw new DocumentNotFoundException(uuid);
+
+        return document;
+    }
+
+    /**
+     * @see DocumentDAO#find(String)
+     */
+    @Override
+    public D find(final String uuid) throws SQLException
+    {
+        final Entry<D> entry = lookup(uuid);
+
+        return entry == null ? null : entry.document;
+    }
+
+    /**
+     * Los documentos en memoria ya contienen su contenido, por lo que
+     * es equivalente a {@link #find(String)}.
+     *
+     * @see DocumentDAO#findLazy(String)
+     */
+    @Override
+    public D findLazy(final String uuid) throws SQLException
+    {
+        return find(uuid);
+    }
+
+    /**
+     * @see DocumentDAO#getHash(String)
+     */
+    @Override
+    public String getHash(final String uuid) throws SQLException
+    {
+        final Entry<D> entry = lookup(uuid);
+
+        return entry == null ? null : entry.hash;
+    }
+
+    /**
+     * @see DocumentDAO#openContent(String)
+     */
+    @Override
+    public Reader openContent(final String uuid) throws SQLException
+    {
+        final Entry<D> entry = lookup(uuid);
+
+        return entry == null ? null : new StringReader(entry.document.getContent());
+    }
+
+    /**
+     * Los contenidos en memoria no se almacenan codificados, por lo
+     * que siempre devuelve null.
+     *
+     * @see DocumentDAO#openEncodedContent(String, String)
+     */
+    @Override
+    public InputStream openEncodedContent(final String uuid, final String encoding)
+        throws SQLException
+    {
+        return null;
+    }
+
+    /**
+     * @see DocumentDAO#create(AbstractDocument)
+     */
+    @Override
+    public void create(final D document) throws SQLException
+    {
+        final UUID key = toKey(document.getUUID());
+        if (key == null)
+            throw new SQLException("Invalid document UUID: " + document.getUUID());
+
+        if (documents.putIfAbsent(key, new Entry<>(copy(document), new Date())) != null)
+            throw new SQLException("Document " + key + " already exists");
+    }
+
+    /**
+     * @see DocumentDAO#update(AbstractDocument)
+     */
+    @Override
+    public void update(final D document)
+        throws DocumentNotFoundException, SQLException
+    {
+        final Entry<D> previous = lookup(document.getUUID());
+        if (previous == null)
+            throw new DocumentNotFoundException(document.getUUID());
+
+        // se conserva la fecha de creacion del documento original
+        final Entry<D> entry =
+            new Entry<>(copy(document), previous.document.getCreatedAt());
+
+        if (documents.replace(toKey(document.getUUID()), entry) == null)
+            throw new DocumentNotFoundException(document.getUUID());
+    }
+
+    /**
+     * @see DocumentDAO#delete(String)
+     */
+    @Override
+    public void delete(final String uuid)
+        throws DocumentNotFoundException, SQLException
+    {
+        final UUID key = toKey(uuid);
+
+        if (key == null || documents.remove(key) == null)
+            throw new DocumentNotFoundException(uuid);
+    }
+
+    /**
+     * Construye una copia del documento recibido, con su contenido ya
+     * cargado en memoria, de modo que no dependa de recursos externos
+     * (e.g. documentos "lazy" obtenidos desde otro DAO).
+     *
+     * @param document
+     *        Documento a copiar.
+     *
+     * @return Nuevo documento del tipo concreto con los mismos datos
+     *         que el recibido.
+     */
+    protected abstract D copy(final D document);
+
+    /**
+     * Busca la entrada asociada a un identificador UUID.
+     *
+     * @param uuid
+     *        String con el identificador UUID.
+     *
+     * @return Entrada del documento, o null si no existe o el
+     *         identificador no es un UUID valido.
+     */
+    private Entry<D> lookup(final String uuid)
+    {
+        final UUID key = toKey(uuid);
+
+        return key == null ? null : documents.get(key);
+    }
+
+    /**
+     * Convierte un identificador UUID en su representacion binaria,
+     * utilizada como clave de los documentos.
+     *
+     * @param uuid
+     *        String con el identificador UUID.
+     *
+     * @return {@link UUID} con el identificador, o null si el String
+     *         recibido no es un UUID valido.
+     */
+    private static UUID toKey(final String uuid)
+    {
+        try {
+            return uuid == null ? null : UUID.fromString(uuid);
+        } catch (final IllegalArgumentException iae) {
+            return null;
+        }
+    }
+
+    /**
+     * Entrada del mapa de documentos: el documento junto al hash de
+     * su contenido, calculado una unica vez al almacenarlo. Asigna
+     * ademas al documento sus metadatos.
+     */
+    private static final class Entry<D extends AbstractDocument>
+    {
+
+        private final D      document;
+        private final String hash;
+
+        private Entry(final D document, final Date createdAt)
+        {
+            final byte[ ] bytes = document.getContent().getBytes(ContentStore.CHARSET);
+
+            this.document = document;
+            this.hash     = ContentStore.hash(bytes);
+
+            document.setMetadata(bytes.length, hash, createdAt);
+        }
+
+    }
+
+}
@@ -1,14 +1,24 @@
 package es.uvigo.esei.dai.hybridserver.database.dao;
 
-import java.sql.Connection;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.UUID;
 
+import es.uvigo.esei.dai.hybridserver.Configuration;
 import es.uvigo.esei.dai.hybridserver.database.ConnectionFactory;
+import es.uvigo.esei.dai.hybridserver.database.PooledConnection;
 import es.uvigo.esei.dai.hybridserver.database.entity.AbstractDocument;
+import es.uvigo.esei.dai.hybridserver.database.entity.ContentLoader;
 import es.uvigo.esei.dai.hybridserver.exception.DocumentNotFoundException;
 
 /**
@@ -18,6 +28,16 @@ import es.uvigo.esei.dai.hybridserver.exception.DocumentNotFoundException;
  * segun sea necesario y proporcionando una implementacion a todos los
  * metodos abstractos aqui definidos.
  * 
+ * Los contenidos de los documentos no se almacenan en la tabla de
+ * cada tipo de documento, sino en un almacen comun direccionado por
+ * contenido (ver {@link ContentStore}), al que cada documento hace
+ * referencia a traves del hash de su contenido.
+ * 
+ * Los identificadores UUID se almacenan en formato binario (16 bytes)
+ * y, junto a cada documento, se almacenan como metadatos el tamaño de
+ * su contenido y su fecha de creacion (ver
+ * {@link AbstractDocument#setMetadata}).
+ * 
  * @param <D>
  *        Documento al que estara asociado el DAO de SQL concreto.
  *        Debe, obligatoriamente, heredar de {@link AbstractDocument}.
@@ -29,20 +49,123 @@ import es.uvigo.esei.dai.hybridserver.exception.DocumentNotFoundException;
 abstract class AbstractDocumentSQLDAO<D extends AbstractDocument> implements DocumentDAO<D>
 {
 
-    protected final String TABLE_NAME;   // nombre de la tabla
-    protected final String UUID_NAME;    // columna para UUID
-    protected final String CONTENT_NAME; // columna para contenido
+    protected final String TABLE_NAME; // nombre de la tabla
+    protected final String UUID_NAME;  // columna para UUID
+    protected final String HASH_NAME;  // columna para hash del contenido
+
+    // columnas de metadatos comunes a todos los documentos
+    protected final String SIZE_NAME    = "size";
+    protected final String CREATED_NAME = "created_at";
+
+    // columna de hash del esquema anterior a los UUID binarios
+    static final String LEGACY_HASH_NAME = "hash";
+
+    // tamaño en bytes de un UUID en formato binario
+    private static final int UUID_BYTES = 16;
+
+    // indice de la base de datos (shard) sobre la que trabaja el DAO
+    protected final int SHARD;
+
+    // almacen comun de contenidos
+    protected final ContentStore CONTENTS;
+
+    // sentencias SQL construidas una unica vez por tabla, de forma que
+    // coincidan siempre con las sentencias en cache de cada conexion
+    protected final String EXISTS_SQL;
+    protected final String LIST_SQL;
+    protected final String LIST_UUIDS_SQL;
+    protected final String GET_SQL;
+    protected final String FIND_LAZY_SQL;
+    protected final String HASH_SQL;
+    protected final String CONTENT_SQL;
+    protected final String ENCODED_SQL;
+    protected final String INSERT_SQL;
+    protected final String UPDATE_SQL;
+    protected final String DELETE_SQL;
 
     /**
-     * Construye una nueva instancia del DAO de SQL abstracto,
-     * obteniendo los nombres de las tablas y columnas necesarias para
-     * todo tipo de documento.
+     * Construye una nueva instancia del DAO de SQL abstracto sobre la
+     * base de datos principal (shard 0).
      */
     public AbstractDocumentSQLDAO( )
     {
-        TABLE_NAME   = getTableName();
-        UUID_NAME    = getUUIDName();
-        CONTENT_NAME = getContentName();
+        this(0);
+    }
+
+    /**
+     * Construye una nueva instancia del DAO de SQL abstracto sobre el
+     * shard recibido, obteniendo los nombres de las tablas y columnas
+     * necesarias para todo tipo de documento y construyendo a partir
+     * de ellos todas las sentencias SQL basicas.
+     * 
+     * @param shard
+     *        Indice de la base de datos (ver
+     *        {@link ConnectionFactory#getShardCount()}).
+     */
+    public AbstractDocumentSQLDAO(final int shard)
+    {
+        SHARD    = shard;
+        CONTENTS = new ContentStore(shard);
+
+        TABLE_NAME = getTableName();
+        UUID_NAME  = getUUIDName();
+        HASH_NAME  = getHashName();
+
+        // union de la tabla del documento (D) con la de contenidos (C).
+        // Es externa para que un documento cuyo contenido no se
+        // encuentre no desaparezca de las consultas (aunque siga
+        // apareciendo en los listados de UUID), sino que produzca un
+        // error al leerlo (ver ContentStore#readContentStream)
+        final String join = TABLE_NAME + " D "
+                          + "LEFT JOIN " + ContentStore.TABLE_NAME + " C "
+                          + "ON D." + HASH_NAME + " = C." + ContentStore.HASH_NAME;
+
+        final String content = "C." + ContentStore.CONTENT_NAME + ", "
+                             + "C." + ContentStore.FORMAT_NAME  + ", "
+                             + "C." + ContentStore.DATA_NAME;
+
+        EXISTS_SQL = "SELECT COUNT(*) "
+                   + "FROM " + TABLE_NAME + " "
+                   + "WHERE " + UUID_NAME + " = ?";
+
+        LIST_SQL   = "SELECT D.*, " + content + " FROM " + join;
+
+        LIST_UUIDS_SQL = "SELECT " + UUID_NAME + " FROM " + TABLE_NAME;
+
+        GET_SQL    = LIST_SQL + " WHERE D." + UUID_NAME + " = ?";
+
+        FIND_LAZY_SQL = "SELECT " + getMetadataNames() + ", "
+                      + HASH_NAME + ", " + SIZE_NAME + ", " + CREATED_NAME + " "
+                      + "FROM " + TABLE_NAME + " "
+                      + "WHERE " + UUID_NAME + " = ?";
+
+        HASH_SQL      = "SELECT " + HASH_NAME + " "
+                      + "FROM " + TABLE_NAME + " "
+                      + "WHERE " + UUID_NAME + " = ?";
+
+        // el hash se obtiene junto al contenido, evitando consultarlo
+        // por separado para utilizarlo como ETag (ver HashedContent)
+        CONTENT_SQL   = "SELECT " + content + ", D." + HASH_NAME + " "
+                      + "FROM " + join + " "
+                      + "WHERE D." + UUID_NAME + " = ?";
+
+        ENCODED_SQL   = "SELECT C." + ContentStore.FORMAT_NAME + ", "
+                      + "C." + ContentStore.DATA_NAME + ", "
+                      + "D." + HASH_NAME + " "
+                      + "FROM " + join + " "
+                      + "WHERE D." + UUID_NAME + " = ?";
+
+        INSERT_SQL = "INSERT INTO " + TABLE_NAME + " "
+                   + "(" + UUID_NAME + ", " + HASH_NAME + ", "
+                   + SIZE_NAME + ", " + CREATED_NAME + ") "
+                   + "VALUES(?, ?, ?, ?)";
+
+        UPDATE_SQL = "UPDATE " + TABLE_NAME + " "
+                   + "SET " + HASH_NAME + " = ?, " + SIZE_NAME + " = ? "
+                   + "WHERE " + UUID_NAME + " = ?";
+
+        DELETE_SQL = "DELETE FROM " + TABLE_NAME + " "
+                   + "WHERE " + UUID_NAME + " = ?";
     }
 
     /**
@@ -51,25 +174,27 @@ abstract class AbstractDocumentSQLDAO<D extends AbstractDocument> implements Doc
     @Override
     public boolean exists(final String uuid) throws SQLException
     {
-        final String select = "SELECT COUNT(*) "
-                            + "FROM " + TABLE_NAME + " "
-                            + "WHERE " + UUID_NAME + " = ?";
-
-        try (
-          final Connection database = ConnectionFactory.getConnection();
-          final PreparedStatement statement = database.prepareStatement(select)
-        ) {
+        // null si no existe, para confirmarlo en la base de datos
+        // principal si la consulta se realizo sobre una replica
+        return read(new Query<Boolean>()
+        {
+            @Override
+            public Boolean execute(final PooledConnection database)
+                throws SQLException
+            {
+                final PreparedStatement statement =
+                    database.prepareStatement(EXISTS_SQL);
 
-            statement.setString(1, uuid);
+                setUUID(statement, 1, uuid);
 
-            try (final ResultSet resultSet = statement.executeQuery()) {
-                if (!resultSet.next())
-                    throw new SQLException("Error while querying database");
+                try (final ResultSet resultSet = statement.executeQuery()) {
+                    if (!resultSet.next())
+                        throw new SQLException("Error while querying database");
 
-                return resultSet.getInt(1) != 0;
+                    return resultSet.getInt(1) != 0 ? Boolean.TRUE : null;
+                }
             }
-
-        }
+        }, true) != null;
     }
 
     /**
@@ -78,23 +203,41 @@ abstract class AbstractDocumentSQLDAO<D extends AbstractDocument> implements Doc
     @Override
     public List<D> list( ) throws SQLException
     {
-        final String select = "SELECT * FROM " + TABLE_NAME;
+        return read(new ListQuery(), false);
+    }
 
-        try (
-          final Connection database = ConnectionFactory.getConnection();
-          final PreparedStatement statement = database.prepareStatement(select)
-        ) {
+    /**
+     * @see DocumentDAO#listUUIDs()
+     */
+    @Override
+    public List<String> listUUIDs( ) throws SQLException
+    {
+        return read(new Query<List<String>>()
+        {
+            @Override
+            public List<String> execute(final PooledConnection database)
+                throws SQLException
+            {
+                final PreparedStatement statement =
+                    database.prepareStatement(LIST_UUIDS_SQL);
 
-            final List<D> list = new LinkedList<>();
+                // permite al driver ir recuperando las filas por
+                // bloques en lugar de traer el listado completo de una
+                // sola vez
+                statement.setFetchSize(
+                    Configuration.getInstance().getDatabaseFetchSize()
+                );
 
-            try (final ResultSet resultSet = statement.executeQuery()) {
-                while (resultSet.next())
-                    list.add(documentFactory(resultSet));
+                final List<String> list = new LinkedList<>();
 
-                return list;
-            }
+                try (final ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next())
+                        list.add(toUUID(resultSet.getBytes(1)));
 
-        }
+                    return list;
+                }
+            }
+        }, false);
     }
 
     /**
@@ -104,24 +247,150 @@ abstract class AbstractDocumentSQLDAO<D extends AbstractDocument> implements Doc
     public D get(final String uuid) throws DocumentNotFoundException,
         SQLException
     {
-        final String select = "SELECT * "
-                            + "FROM " + TABLE_NAME + " "
-                            + "WHERE " + UUID_NAME + " = ?";
+        final D document = find(uuid);
 
-        try (
-            final Connection database = ConnectionFactory.getConnection();
-            final PreparedStatement statement =
-                database.prepareStatement(select)) {
+        if (document == null)
+            throw new DocumentNotFoundException(uuid);
 
-            statement.setString(1, uuid);
+        return document;
+    }
 
-            try (final ResultSet resultSet = statement.executeQuery()) {
-                if (!resultSet.next())
-                    throw new DocumentNotFoundException(uuid);
+    /**
+     * @see DocumentDAO#find(String)
+     */
+    @Override
+    public D find(final String uuid) throws SQLException
+    {
+        return read(new Query<D>()
+        {
+            @Override
+            public D execute(final PooledConnection database)
+                throws SQLException
+            {
+                final PreparedStatement statement =
+                    database.prepareStatement(GET_SQL);
+
+                setUUID(statement, 1, uuid);
 
-                return documentFactory(resultSet);
+                try (final ResultSet resultSet = statement.executeQuery()) {
+                    return resultSet.next() ? withMetadata(documentFactory(resultSet), resultSet) : null;
+                }
+            }
+        }, true);
+    }
+
+    /**
+     * @see DocumentDAO#findLazy(String)
+     */
+    @Override
+    public D findLazy(final String uuid) throws SQLException
+    {
+        final ContentLoader loader = new ContentLoader()
+        {
+            @Override
+            public Reader open( ) throws IOException
+            {
+                try {
+
+                    final Reader content = openContent(uuid);
+                    if (content == null)
+                        throw new IOException("Document " + uuid + " no longer exists");
+
+                    return content;
+
+                } catch (final SQLException sqe) {
+                    throw new IOException(sqe);
+                }
+            }
+        };
+
+        return read(new Query<D>()
+        {
+            @Override
+            public D execute(final PooledConnection database)
+                throws SQLException
+            {
+                final PreparedStatement statement =
+                    database.prepareStatement(FIND_LAZY_SQL);
+
+                setUUID(statement, 1, uuid);
+
+                try (final ResultSet resultSet = statement.executeQuery()) {
+                    return resultSet.next() ? withMetadata(lazyDocumentFactory(resultSet, loader), resultSet) : null;
+                }
+            }
+        }, true);
+    }
+
+    /**
+     * @see DocumentDAO#getHash(String)
+     */
+    @Override
+    public String getHash(final String uuid) throws SQLException
+    {
+        return read(new Query<String>()
+        {
+            @Override
+            public String execute(final PooledConnection database)
+                throws SQLException
+            {
+                return findHash(database, uuid);
             }
+        }, true);
+    }
+
+    /**
+     * @see DocumentDAO#openContent(String)
+     */
+    @Override
+    public Reader openContent(final String uuid) throws SQLException
+    {
+        final PooledConnection database = ConnectionFactory.getReadConnection(SHARD);
+
+        try {
+
+            final Reader content = openContent(database, uuid);
+            if (content != null || !database.isReplica())
+                return content;
+
+        } catch (final SQLException sqe) {
+            if (!database.isReplica()) throw sqe;
+            ConnectionFactory.failed(database, sqe);
+        }
+
+        // posible retraso de la replica: se confirma en la principal
+        return openContent(ConnectionFactory.getConnection(SHARD), uuid);
+    }
+
+    /**
+     * Unicamente soporta la codificacion "deflate", y solo para
+     * aquellos documentos almacenados en formato comprimido. Si la
+     * compresion no esta activada se devuelve null directamente, sin
+     * acceder a datos.
+     * 
+     * @see DocumentDAO#openEncodedContent(String, String)
+     */
+    @Override
+    public InputStream openEncodedContent(final String uuid, final String encoding)
+        throws SQLException
+    {
+        if (!CONTENTS.isCompressed() || !"deflate".equals(encoding))
+            return null;
+
+        final PooledConnection database = ConnectionFactory.getReadConnection(SHARD);
+
+        try {
+
+            final InputStream content = openEncodedContent(database, uuid);
+            if (content != null || !database.isReplica())
+                return content;
+
+        } catch (final SQLException sqe) {
+            if (!database.isReplica()) throw sqe;
+            ConnectionFactory.failed(database, sqe);
         }
+
+        return openEncodedContent(ConnectionFactory.getConnection(SHARD), uuid);
     }
 
     /**
@@ -130,21 +399,29 @@ abstract class AbstractDocumentSQLDAO<D extends AbstractDocument> implements Doc
     @Override
     public void create(final D document) throws SQLException
     {
-        final String insert = "INSERT INTO " + TABLE_NAME
-                            + " (" + UUID_NAME + ", " + CONTENT_NAME + ")"
-                            + "VALUES(?, ?)";
-
         try (
-          final Connection database  = ConnectionFactory.getConnection();
-          final PreparedStatement statement = database.prepareStatement(insert)
+          final Reader content = document.openContent();
+          final PooledConnection database = ConnectionFactory.getConnection(SHARD)
         ) {
 
-            statement.setString(1, document.getUUID());
-            statement.setString(2, document.getContent());
+            database.begin();
 
-            if (statement.executeUpdate() != 1)
-                throw new SQLException("Error while inserting into database");
+            try {
 
+                final byte[ ] bytes = ContentStore.readBytes(content);
+                final String  hash  = CONTENTS.acquire(database, bytes);
+
+                document.setMetadata(bytes.length, hash, new Date());
+                insert(database, document, hash);
+                database.commit();
+
+            } catch (final Exception e) {
+                database.rollback();
+                throw e;
+            }
+
+        } catch (final IOException ioe) {
+            throw new SQLException("Error while reading document content", ioe);
         }
     }
 
@@ -155,21 +432,44 @@ abstract class AbstractDocumentSQLDAO<D extends AbstractDocument> implements Doc
     public void update(final D document)
         throws DocumentNotFoundException, SQLException
     {
-        final String update = "UPDATE " + TABLE_NAME + " "
-                            + "SET " + CONTENT_NAME + " = ? "
-                            + "WHERE " + UUID_NAME + " = ?";
-
         try (
-          final Connection database = ConnectionFactory.getConnection();
-          final PreparedStatement statement = database.prepareStatement(update)
+          final Reader content = document.openContent();
+          final PooledConnection database = ConnectionFactory.getConnection(SHARD)
         ) {
 
-            statement.setString(1, document.getContent());
-            statement.setString(2, document.getUUID());
+            database.begin();
+
+            try {
+
+                final String previous = findHash(database, document.getUUID());
+                if (previous == null)
+                    throw new DocumentNotFoundException(document.getUUID());
+
+                final byte[ ] bytes = ContentStore.readBytes(content);
+                final String  hash  = CONTENTS.acquire(database, bytes);
+
+                final PreparedStatement statement =
+                    database.prepareStatement(UPDATE_SQL);
 
-            if (statement.executeUpdate() != 1)
-                throw new DocumentNotFoundException(document.getUUID());
+                statement.setString(1, hash);
+                statement.setLong(2, bytes.length);
+                setUUID(statement, 3, document.getUUID());
+
+                if (statement.executeUpdate() != 1)
+                    throw new DocumentNotFoundException(document.getUUID());
+
+                CONTENTS.release(database, previous);
+                database.commit();
+
+                document.setMetadata(bytes.length, hash, document.getCreatedAt());
+
+            } catch (final Exception e) {
+                database.rollback();
+                throw e;
+            }
 
+        } catch (final IOException ioe) {
+            throw new SQLException("Error while reading document content", ioe);
         }
     }
 
@@ -180,22 +480,163 @@ abstract class AbstractDocumentSQLDAO<D extends AbstractDocument> implements Doc
     public void delete(final String uuid)
         throws DocumentNotFoundException, SQLException
     {
-        final String delete =
-                "DELETE FROM " + TABLE_NAME + " WHERE " + UUID_NAME + " = ?";
+        try (final PooledConnection database = ConnectionFactory.getConnection(SHARD)) {
 
+            database.begin();
+
+            try {
+
+                final String hash = findHash(database, uuid);
+                if (hash == null)
+                    throw new DocumentNotFoundException(uuid);
+
+                final PreparedStatement statement =
+                    database.prepareStatement(DELETE_SQL);
+
+                setUUID(statement, 1, uuid);
+
+                if (statement.executeUpdate() != 1)
+                    throw new DocumentNotFoundException(uuid);
+
+                CONTENTS.release(database, hash);
+                database.commit();
+
+            } catch (final Exception e) {
+                database.rollback();
+                throw e;
+            }
+
+        }
+    }
+
+    /**
+     * Migra al almacen de contenidos los documentos almacenados con
+     * el formato anterior, es decir, aquellos cuyo contenido aun se
+     * encuentra en las columnas "content", "format" y "data" de la
+     * propia tabla del documento y que, por tanto, no tienen hash
+     * asignado (ver {@link ContentMigration}).
+     * 
+     * Trabaja sobre el esquema anterior a los UUID binarios (columna
+     * "hash" e identificadores de 36 caracteres), por lo que debe
+     * ejecutarse antes de migrar a dicho esquema (ver
+     * {@link SchemaMigration}).
+     * 
+     * @return Numero de documentos que han sido migrados.
+     * 
+     * @throws SQLException
+     *         Si se produce algun error durante el acceso a datos.
+     */
+    public int migrateLegacyContent( ) throws SQLException
+    {
+        final String select = "SELECT " + UUID_NAME + ", "
+                            + ContentStore.CONTENT_NAME + ", "
+                            + ContentStore.FORMAT_NAME + ", "
+                            + ContentStore.DATA_NAME + " "
+                            + "FROM " + TABLE_NAME + " "
+                            + "WHERE " + LEGACY_HASH_NAME + " IS NULL";
+
+        final String update = "UPDATE " + TABLE_NAME + " "
+                            + "SET " + LEGACY_HASH_NAME + " = ?, "
+                            + ContentStore.CONTENT_NAME + " = NULL, "
+                            + ContentStore.DATA_NAME + " = NULL "
+                            + "WHERE " + UUID_NAME + " = ? "
+                            + "AND " + LEGACY_HASH_NAME + " IS NULL";
+
+        // se utiliza una conexion para recorrer los documentos y otra
+        // distinta para migrarlos, cada uno en su propia transaccion
         try (
-          final Connection database = ConnectionFactory.getConnection();
-          final PreparedStatement statement = database.prepareStatement(delete)
+          final PooledConnection source   = ConnectionFactory.getConnection(SHARD);
+          final PooledConnection database = ConnectionFactory.getConnection(SHARD)
         ) {
 
-            statement.setString(1, uuid);
+            final PreparedStatement statement = source.prepareStatement(select);
+            statement.setFetchSize(
+                Configuration.getInstance().getDatabaseFetchSize()
+            );
+
+            int count = 0;
+            try (final ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    database.begin();
+
+                    try (final Reader content = CONTENTS.readContentStream(resultSet)) {
+
+                        final PreparedStatement migrate =
+                            database.prepareStatement(update);
+
+                        migrate.setString(1, CONTENTS.acquire(database, content));
+                        migrate.setString(2, resultSet.getString(UUID_NAME));
 
-            if (statement.executeUpdate() != 1)
-                throw new DocumentNotFoundException(uuid);
+                        count += migrate.executeUpdate();
+                        database.commit();
 
+                    } catch (final Exception e) {
+                        database.rollback();
+                        throw e;
+                    }
+                }
+            } catch (final IOException ioe) {
+                throw new SQLException("Error while reading document content", ioe);
+            }
+
+            return count;
         }
     }
 
+    /**
+     * Inserta la fila de un nuevo documento en la tabla del DAO
+     * concreto, referenciando un contenido ya almacenado. Los
+     * metadatos del documento (tamaño y fecha de creacion) ya han sido
+     * asignados. Debe ser sobreescrito por aquellos DAO cuyos
+     * documentos cuenten con mas columnas que el identificador UUID y
+     * los metadatos comunes.
+     * 
+     * @param database
+     *        Conexion (con una transaccion en curso) a utilizar.
+     * @param document
+     *        Documento a insertar.
+     * @param hash
+     *        Hash del contenido del documento.
+     * 
+     * @throws SQLException
+     *         Si se produce algun error durante el acceso a datos.
+     */
+    protected void insert(final PooledConnection database, final D document, final String hash)
+        throws SQLException
+    {
+        final PreparedStatement statement =
+            database.prepareStatement(INSERT_SQL);
+
+        setUUID(statement, 1, document.getUUID());
+        statement.setString(2, hash);
+        statement.setLong(3, document.getSize());
+        statement.setTimestamp(4, new Timestamp(document.getCreatedAt().getTime()));
+
+        if (statement.executeUpdate() != 1)
+            throw new SQLException("Error while inserting into database");
+    }
+
+    /**
+     * Lee completamente el contenido de un documento de la fila
+     * actual del ResultSet recibido, descomprimiendolo si es
+     * necesario. Debe ser utilizado por los DAO concretos en lugar de
+     * leer directamente la columna de contenido.
+     * 
+     * @param resultSet
+     *        ResultSet posicionado en la fila del documento, que debe
+     *        contener las columnas del almacen de contenidos.
+     * 
+     * @return String con el contenido del documento.
+     * 
+     * @throws SQLException
+     *         Si se produce algun error durante la lectura.
+     */
+    protected String readContent(final ResultSet resultSet)
+        throws SQLException
+    {
+        return CONTENTS.readContent(resultSet);
+    }
+
     /**
      * Devuelve el nombre de la tabla con la que trabajara el DAO
      * concreto.
@@ -215,13 +656,30 @@ abstract class AbstractDocumentSQLDAO<D extends AbstractDocument> implements Doc
     protected abstract String getUUIDName( );
 
     /**
-     * Devuelve el nombre de la columna en la que se encuentran los
-     * contenidos de cada documento.
+     * Devuelve el nombre de la columna en la que se encuentra el hash
+     * del contenido de cada documento, que lo referencia dentro del
+     * almacen de contenidos.
      * 
-     * @return String con el nombre de la columna en la que se
-     *         encuentran los contenidos.
+     * @return String con el nombre de la columna de hash.
+     */
+    protected String getHashName( )
+    {
+        return "content_hash";
+    }
+
+    /**
+     * Devuelve la lista de columnas (separadas por comas) que
+     * contienen los metadatos del documento, es decir, todas las
+     * columnas necesarias para construir un documento "lazy" excepto
+     * el contenido. Por defecto unicamente el identificador UUID.
+     * Se invoca durante la construccion del DAO.
+     * 
+     * @return String con la lista de columnas de metadatos.
      */
-    protected abstract String getContentName( );
+    protected String getMetadataNames( )
+    {
+        return UUID_NAME;
+    }
 
     /**
      * Construye una nueva instancia del tipo de documento concreto,
@@ -244,4 +702,347 @@ abstract class AbstractDocumentSQLDAO<D extends AbstractDocument> implements Doc
     protected abstract D documentFactory(final ResultSet resultSet)
         throws SQLException;
 
+    /**
+     * Construye una nueva instancia "lazy" del tipo de documento
+     * concreto, dado un {@link ResultSet} desde el que obtener los
+     * metadatos del documento (ver {@link #getMetadataNames()}) y un
+     * {@link ContentLoader} desde el que obtener su contenido.
+     * 
+     * @param resultSet
+     *        ResultSet con los metadatos del documento.
+     * @param loader
+     *        ContentLoader desde el que el documento obtendra su
+     *        contenido cuando sea necesario.
+     * 
+     * @return Documento "lazy" del tipo correcto segun cada DAO de
+     *         SQL concreto.
+     * 
+     * @throws SQLException
+     *         Si se produce algun error SQL durante la recuperacion
+     *         de los datos del ResultSet.
+     */
+    protected abstract D lazyDocumentFactory(final ResultSet resultSet, final ContentLoader loader)
+        throws SQLException;
+
+    /**
+     * Ejecuta una consulta de lectura sobre una replica (ver
+     * {@link ConnectionFactory#getReadConnection()}). Si la replica
+     * falla, o si no encuentra el documento buscado y se ha solicitado
+     * confirmarlo (puesto que la replica puede ir por detras de la
+     * base de datos principal), la consulta se repite sobre la
+     * principal.
+     * 
+     * @param query
+     *        Consulta a ejecutar.
+     * @param confirmMiss
+     *        Si un resultado null debe confirmarse en la base de datos
+     *        principal.
+     * 
+     * @return Resultado de la consulta.
+     * 
+     * @throws SQLException
+     *         Si se produce algun error durante el acceso a datos.
+     */
+    protected <T> T read(final Query<T> query, final boolean confirmMiss)
+        throws SQLException
+    {
+        final PooledConnection database = ConnectionFactory.getReadConnection(SHARD);
+
+        try {
+
+            final T result = query.execute(database);
+            if (!database.isReplica() || result != null || !confirmMiss)
+                return result;
+
+        } catch (final SQLException sqe) {
+            if (!database.isReplica()) throw sqe;
+            ConnectionFactory.failed(database, sqe);
+        } finally {
+            database.close();
+        }
+
+        try (final PooledConnection primary = ConnectionFactory.getConnection(SHARD)) {
+            return query.execute(primary);
+        }
+    }
+
+    /**
+     * Abre un stream con el contenido de un documento a traves de la
+     * conexion recibida. La conexion no se cierra aqui, sino al cerrar
+     * el stream devuelto (ver ContentReader), salvo si el documento no
+     * existe o se produce algun error.
+     */
+    private Reader openContent(final PooledConnection database, final String uuid)
+        throws SQLException
+    {
+        try {
+
+            final PreparedStatement statement =
+                database.prepareStatement(CONTENT_SQL);
+
+            setUUID(statement, 1, uuid);
+
+            final ResultSet resultSet = statement.executeQuery();
+            if (!resultSet.next()) {
+                resultSet.close();
+                database.close();
+                return null;
+            }
+
+            // el hash se lee antes de abrir el stream de contenido, ya
+            // que algunos drivers (e.g. Derby) cierran el stream al
+            // acceder a cualquier otra columna de la fila
+            final String hash = resultSet.getString(HASH_NAME);
+
+            return new ContentReader(
+                CONTENTS.readContentStream(resultSet),
+                hash,
+                resultSet,
+                database
+            );
+
+        } catch (final SQLException | RuntimeException e) {
+            database.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Abre un stream con el contenido comprimido de un documento a
+     * traves de la conexion recibida, que al igual que en
+     * {@link #openContent(PooledConnection, String)} se libera al
+     * cerrar el stream devuelto.
+     */
+    private InputStream openEncodedContent(final PooledConnection database, final String uuid)
+        throws SQLException
+    {
+        try {
+
+            final PreparedStatement statement =
+                database.prepareStatement(ENCODED_SQL);
+
+            setUUID(statement, 1, uuid);
+
+            final ResultSet resultSet = statement.executeQuery();
+            if (!resultSet.next() || resultSet.getInt(1) != ContentStore.FORMAT_DEFLATE) {
+                resultSet.close();
+                database.close();
+                return null;
+            }
+
+            final String hash = resultSet.getString(3);
+
+            return new ContentInputStream(
+                resultSet.getBinaryStream(2),
+                hash,
+                resultSet,
+                database
+            );
+
+        } catch (final SQLException | RuntimeException e) {
+            database.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Obtiene el hash del contenido de un documento dado su UUID,
+     * utilizando la conexion recibida.
+     * 
+     * @param database
+     *        Conexion a utilizar.
+     * @param uuid
+     *        Identificador UUID del documento.
+     * 
+     * @return String con el hash del contenido, o null si el
+     *         documento no existe.
+     * 
+     * @throws SQLException
+     *         Si se produce algun error durante el acceso a datos.
+     */
+    private String findHash(final PooledConnection database, final String uuid)
+        throws SQLException
+    {
+        final PreparedStatement statement =
+            database.prepareStatement(HASH_SQL);
+
+        setUUID(statement, 1, uuid);
+
+        try (final ResultSet resultSet = statement.executeQuery()) {
+            return resultSet.next() ? resultSet.getString(1) : null;
+        }
+    }
+
+    /**
+     * Asigna al documento recibido los metadatos almacenados en la
+     * fila actual del ResultSet.
+     * 
+     * @param document
+     *        Documento construido a partir de la fila actual.
+     * @param resultSet
+     *        ResultSet posicionado en la fila del documento, que debe
+     *        contener las columnas de metadatos.
+     * 
+     * @return El propio documento recibido.
+     * 
+     * @throws SQLException
+     *         Si se produce algun error durante la lectura.
+     */
+    private D withMetadata(final D document, final ResultSet resultSet)
+        throws SQLException
+    {
+        document.setMetadata(
+            resultSet.getLong(SIZE_NAME),
+            resultSet.getString(HASH_NAME),
+            resultSet.getTimestamp(CREATED_NAME)
+        );
+
+        return document;
+    }
+
+    /**
+     * Asigna un identificador UUID, en formato binario, a un parametro
+     * de la sentencia recibida. Si el identificador no es un UUID
+     * valido se asigna NULL, de modo que la sentencia no encuentre
+     * ningun documento.
+     * 
+     * @param statement
+     *        Sentencia a la que asignar el parametro.
+     * @param index
+     *        Indice del parametro.
+     * @param uuid
+     *        String con el identificador UUID.
+     * 
+     * @throws SQLException
+     *         Si se produce algun error asignando el parametro.
+     */
+    protected static void setUUID(final PreparedStatement statement, final int index, final String uuid)
+        throws SQLException
+    {
+        final byte[ ] bytes = toBytes(uuid);
+
+        if (bytes == null)
+            statement.setNull(index, Types.BINARY);
+        else
+            statement.setBytes(index, bytes);
+    }
+
+    /**
+     * Lee un identificador UUID, en formato binario, de una columna
+     * de la fila actual del ResultSet recibido.
+     * 
+     * @param resultSet
+     *        ResultSet posicionado en la fila a leer.
+     * @param column
+     *        Nombre de la columna.
+     * 
+     * @return String con el identificador UUID, o null si la columna
+     *         es NULL.
+     * 
+     * @throws SQLException
+     *         Si se produce algun error durante la lectura.
+     */
+    protected static String getUUID(final ResultSet resultSet, final String column)
+        throws SQLException
+    {
+        return toUUID(resultSet.getBytes(column));
+    }
+
+    /**
+     * Convierte un identificador UUID en su representacion binaria
+     * de 16 bytes.
+     * 
+     * @param uuid
+     *        String con el identificador UUID.
+     * 
+     * @return Array con los 16 bytes del UUID, o null si el String
+     *         recibido no es un UUID valido.
+     */
+    static byte[ ] toBytes(final String uuid)
+    {
+        final UUID key;
+        try {
+            if (uuid == null) return null;
+            key = UUID.fromString(uuid);
+        } catch (final IllegalArgumentException iae) {
+            return null;
+        }
+
+        return ByteBuffer.allocate(UUID_BYTES)
+            .putLong(key.getMostSignificantBits())
+            .putLong(key.getLeastSignificantBits())
+            .array();
+    }
+
+    /**
+     * Convierte la representacion binaria de un UUID en su forma
+     * textual.
+     * 
+     * @param bytes
+     *        Array con los 16 bytes del UUID.
+     * 
+     * @return String con el identificador UUID, o null si el array
+     *         recibido es null.
+     */
+    static String toUUID(final byte[ ] bytes)
+    {
+        if (bytes == null)
+            return null;
+
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong()).toString();
+    }
+
+    /**
+     * Consulta de lectura a ejecutar mediante
+     * {@link AbstractDocumentSQLDAO#read(Query, boolean)}, sobre una
+     * replica o sobre la base de datos principal.
+     *
+     * @param <T>
+     *        Tipo del resultado de la consulta.
+     */
+    protected interface Query<T>
+    {
+
+        /**
+         * Ejecuta la consulta a traves de la conexion recibida, sin
+         * cerrarla.
+         * 
+         * @param database
+         *        Conexion sobre la que ejecutar la consulta.
+         * 
+         * @return Resultado de la consulta.
+         * 
+         * @throws SQLException
+         *         Si se produce algun error durante el acceso a datos.
+         */
+        T execute(final PooledConnection database) throws SQLException;
+
+    }
+
+    /**
+     * Consulta que lista todos los documentos de la tabla.
+     */
+    private final class ListQuery implements Query<List<D>>
+    {
+
+        @Override
+        public List<D> execute(final PooledConnection database)
+            throws SQLException
+        {
+            final PreparedStatement statement =
+                database.prepareStatement(LIST_SQL);
+
+            final List<D> list = new LinkedList<>();
+
+            try (final ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next())
+                    list.add(withMetadata(documentFactory(resultSet), resultSet));
+
+                return list;
+            }
+        }
+
+    }
+
 }
@@ -0,0 +1,564 @@
+package es.uvigo.esei.dai.hybridserver.database.dao;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import es.uvigo.esei.dai.hybridserver.database.entity.AbstractDocument;
+import es.uvigo.esei.dai.hybridserver.exception.DocumentNotFoundException;
+
+/**
+ * Clase abstracta para los DAO que anteponen un log de escritura
+ * anticipada ({@link WriteAheadLog}) a otro DAO. Las altas se
+ * confirman en cuanto quedan registradas en el log (compartiendo la
+ * sincronizacion con el disco con otras altas concurrentes), y un hilo
+ * en segundo plano las aplica por lotes sobre el DAO subyacente.
+ *
+ * Mientras un alta no ha sido aplicada el documento se mantiene en
+ * memoria, de modo que las lecturas siempre lo encuentran. Las
+ * modificaciones y borrados esperan a que el alta del documento haya
+ * sido aplicada antes de delegar en el DAO subyacente. Las altas que
+ * fallan se reintentan indefinidamente (sin bloquear al resto), y solo
+ * se notifican al log como aplicadas una vez lo han sido. Al arrancar
+ * se reproducen todas las altas que quedaran en el log, salvo las de
+ * los documentos borrados despues.
+ *
+ * Puesto que las altas pendientes residen en cada instancia, estos
+ * DAO deben ser compartidos por todos los clientes (ver DAOFactory).
+ *
+ * @param <D>
+ *        Documento al que estara asociado el DAO concreto. Debe,
+ *        obligatoriamente, heredar de {@link AbstractDocument}.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+abstract class AbstractDocumentWALDAO<D extends AbstractDocument> implements DocumentDAO<D>
+{
+
+    // numero maximo de altas aplicadas en cada lote
+    private static final int BATCH_SIZE = 256;
+
+    // espera antes de reintentar las altas fallidas de un lote
+    // (milisegundos, multiplicada por el numero de lotes consecutivos
+    // con fallos, hasta un maximo)
+    private static final long RETRY_BACKOFF = 1000;
+    private static final int  MAX_BACKOFF   = 30;
+
+    // DAO sobre el que se aplican las altas
+    private final DocumentDAO<D> delegate;
+
+    private final WriteAheadLog log;
+
+    // altas registradas en el log pero aun no aplicadas
+    private final ConcurrentMap<UUID, D> pending = new ConcurrentHashMap<>();
+    private final BlockingQueue<D>       queue   = new LinkedBlockingQueue<>();
+
+    /**
+     * Construye una nueva instancia del DAO, abriendo el log recibido,
+     * encolando las altas que contenga y arrancando el hilo que las
+     * aplicara sobre el DAO subyacente.
+     *
+     * @param file
+     *        Fichero del log de escritura anticipada.
+     * @param delegate
+     *        DAO sobre el que se aplican las altas.
+     *
+     * @throws IOException
+     *         Si se produce algun error abriendo o leyendo el log.
+     */
+    protected AbstractDocumentWALDAO(final File file, final DocumentDAO<D> delegate)
+        throws IOException
+    {
+        this.delegate = delegate;
+        this.log      = new WriteAheadLog(file);
+
+        replay();
+
+        final Thread applier = new Thread(new Runnable()
+        {
+            @Override
+            public void run( )
+            {
+                applyLoop();
+            }
+        }, "wal-applier-" + file.getName());
+
+        applier.setDaemon(true);
+        applier.start();
+    }
+
+    /**
+     * @see DocumentDAO#exists(String)
+     */
+    @Override
+    public boolean exists(final String uuid) throws SQLException
+    {
+        final UUID key = toKey(uuid);
+
+        return (key != null && pending.containsKey(key)) || delegate.exists(uuid);
+    }
+
+    /**
+     * @see DocumentDAO#list()
+     */
+    @Override
+    public List<D> list( ) throws SQLException
+    {
+        final List<D>     pendingList = new ArrayList<>(pending.values());
+        final List<D>     list        = delegate.list();
+        final Set<String> listed      = new HashSet<>(list.size());
+
+        for (final D document : list)
+            listed.add(document.getUUID());
+
+        // un alta puede aplicarse entre ambas consultas
+        for (final D document : pendingList)
+            if (!listed.contains(document.getUUID()))
+                list.add(document);
+
+        return list;
+    }
+
+    /**
+     * @see DocumentDAO#listUUIDs()
+     */
+    @Override
+    public List<String> listUUIDs( ) throws SQLException
+    {
+        final List<UUID>   pendingKeys = new ArrayList<>(pending.keySet());
+        final List<String> list        = delegate.listUUIDs();
+        final Set<String>  listed      = new HashSet<>(list);
+
+        for (final UUID key : pendingKeys)
+            if (!listed.contains(key.toString()))
+                list.add(key.toString());
+
+        return list;
+    }
+
+    /**
+     * @see DocumentDAO#get(String)
+     */
+    @Override
+    public D get(final String uuid) throws DocumentNotFoundException,
+        SQLException
+    {
+        final D document = find(uuid);
+
+        if (document == null)
+            throw new DocumentNotFoundException(uuid);
+
+        return document;
+    }
+
+    /**
+     * @see DocumentDAO#find(String)
+     */
+    @Override
+    public D find(final String uuid) throws SQLException
+    {
+        final D document = lookup(uuid);
+
+        return document != null ? document : delegate.find(uuid);
+    }
+
+    /**
+     * @see DocumentDAO#findLazy(String)
+     */
+    @Override
+    public D findLazy(final String uuid) throws SQLException
+    {
+        final D document = lookup(uuid);
+
+        return document != null ? document : delegate.findLazy(uuid);
+    }
+
+    /**
+     * @see DocumentDAO#getHash(String)
+     */
+    @Override
+    public String getHash(final String uuid) throws SQLException
+    {
+        final D document = lookup(uuid);
+        if (document == null)
+            return delegate.getHash(uuid);
+
+        return ContentStore.hash(document.getContent().getBytes(ContentStore.CHARSET));
+    }
+
+    /**
+     * @see DocumentDAO#openContent(String)
+     */
+    @Override
+    public Reader openContent(final String uuid) throws SQLException
+    {
+        final D document = lookup(uuid);
+        if (document == null)
+            return delegate.openContent(uuid);
+
+        return new StringReader(document.getContent());
+    }
+
+    /**
+     * Las altas pendientes no se almacenan codificadas, por lo que
+     * para ellas devuelve null.
+     *
+     * @see DocumentDAO#openEncodedContent(String, String)
+     */
+    @Override
+    public InputStream openEncodedContent(final String uuid, final String encoding)
+        throws SQLException
+    {
+        return lookup(uuid) != null ? null : delegate.openEncodedContent(uuid, encoding);
+    }
+
+    /**
+     * Registra el alta en el log de escritura anticipada, retornando
+     * en cuanto esta ha sido sincronizada con el disco. El alta se
+     * aplicara posteriormente sobre el DAO subyacente.
+     *
+     * @see DocumentDAO#create(AbstractDocument)
+     */
+    @Override
+    public void create(final D document) throws SQLException
+    {
+        final UUID key = toKey(document.getUUID());
+        if (key == null)
+            throw new SQLException("Invalid document UUID: " + document.getUUID());
+
+        final byte[ ] content;
+        try (final Reader reader = document.openContent()) {
+            content = ContentStore.readBytes(reader);
+        } catch (final IOException ioe) {
+            throw new SQLException("Error while reading document " + key, ioe);
+        }
+
+        final String metadata = getMetadata(document);
+        final D      copy     = documentFactory(
+            key.toString(), metadata, new String(content, ContentStore.CHARSET)
+        );
+
+        if (delegate.exists(key.toString()) || pending.putIfAbsent(key, copy) != null)
+            throw new SQLException("Document " + key + " already exists");
+
+        try {
+            log.append(key, metadata, content);
+        } catch (final IOException ioe) {
+            release(key);
+            throw new SQLException("Error while writing document " + key + " to WAL", ioe);
+        }
+
+        queue.add(copy);
+    }
+
+    /**
+     * @see DocumentDAO#update(AbstractDocument)
+     */
+    @Override
+    public void update(final D document)
+        throws DocumentNotFoundException, SQLException
+    {
+        awaitApplied(toKey(document.getUUID()));
+        delegate.update(document);
+    }
+
+    /**
+     * El borrado se registra tambien en el log si este puede contener
+     * aun el alta del documento (ya aplicada), evitando que dicha alta
+     * se reproduzca al arrancar.
+     *
+     * @see DocumentDAO#delete(String)
+     */
+    @Override
+    public void delete(final String uuid)
+        throws DocumentNotFoundException, SQLException
+    {
+        final UUID key = toKey(uuid);
+        awaitApplied(key);
+
+        boolean logged = false;
+        try {
+            logged = key != null && log.remove(key);
+        } catch (final IOException ioe) {
+            throw new SQLException("Error while writing deletion of " + key + " to WAL", ioe);
+        }
+
+        try {
+            delegate.delete(uuid);
+        } finally {
+            if (logged) applied(1);
+        }
+    }
+
+    /**
+     * Espera a que todas las altas registradas hasta el momento hayan
+     * sido aplicadas sobre el DAO subyacente.
+     *
+     * @throws SQLException
+     *         Si el hilo es interrumpido durante la espera.
+     */
+    public void flush( ) throws SQLException
+    {
+        for (final UUID key : new ArrayList<>(pending.keySet()))
+            awaitApplied(key);
+    }
+
+    /**
+     * Devuelve los metadatos del documento que deben registrarse en el
+     * log junto a su contenido, es decir, todos sus campos excepto el
+     * UUID y el contenido. Por defecto ninguno.
+     *
+     * @param document
+     *        Documento del que obtener los metadatos.
+     *
+     * @return String con los metadatos del documento.
+     */
+    protected String getMetadata(final D document)
+    {
+        return "";
+    }
+
+    /**
+     * Construye una nueva instancia del tipo de documento concreto a
+     * partir de los datos registrados en el log.
+     *
+     * @param uuid
+     *        Identificador UUID del documento.
+     * @param metadata
+     *        Metadatos del documento (ver {@link #getMetadata}).
+     * @param content
+     *        Contenido del documento.
+     *
+     * @return Documento del tipo correcto segun cada DAO concreto.
+     */
+    protected abstract D documentFactory(final String uuid, final String metadata, final String content);
+
+    /**
+     * Vuelve a encolar las altas que quedaron en el log sin aplicar.
+     * Se aplican en segundo plano como cualquier otra alta (ignorando
+     * las que si llegaron a aplicarse), de modo que las referencias
+     * entre documentos de distintos logs (e.g. XSLT a XSD) se resuelven
+     * independientemente del orden en que se abran los logs.
+     *
+     * @throws IOException
+     *         Si se produce algun error leyendo el log.
+     */
+    private void replay( ) throws IOException
+    {
+        final List<WriteAheadLog.Record> records = log.replay();
+
+        // un borrado anula las altas anteriores del mismo documento,
+        // que necesariamente ya habian sido aplicadas
+        final Map<UUID, WriteAheadLog.Record> creates = new LinkedHashMap<>();
+        for (final WriteAheadLog.Record record : records) {
+            if (record.isDelete())
+                creates.remove(record.getKey());
+            else
+                creates.put(record.getKey(), record);
+        }
+
+        for (final WriteAheadLog.Record record : creates.values()) {
+            final D document = documentFactory(
+                record.getKey().toString(), record.getMetadata(), record.getContent()
+            );
+
+            pending.put(record.getKey(), document);
+            queue.add(document);
+        }
+
+        // los borrados y las altas anuladas no tienen nada que aplicar
+        if (creates.size() < records.size())
+            log.applied(records.size() - creates.size());
+
+        if (!creates.isEmpty())
+            System.err.println("Replaying " + creates.size() + " WAL records");
+    }
+
+    /**
+     * Bucle del hilo aplicador: extrae las altas pendientes por lotes
+     * y las aplica sobre el DAO subyacente. Solo las altas aplicadas
+     * se notifican al log; las que fallan (e.g. base de datos no
+     * disponible) se vuelven a encolar, esperando cada vez mas antes
+     * de reintentarlas.
+     */
+    private void applyLoop( )
+    {
+        final List<D> batch  = new ArrayList<>(BATCH_SIZE);
+        final List<D> failed = new ArrayList<>();
+
+        // lotes consecutivos con altas fallidas
+        int failures = 0;
+
+        while (true) {
+            try {
+
+                batch.add(queue.take());
+                queue.drainTo(batch, BATCH_SIZE - 1);
+
+                for (final D document : batch) {
+                    if (apply(document))
+                        release(toKey(document.getUUID()));
+                    else
+                        failed.add(document);
+                }
+
+                queue.addAll(failed);
+                applied(batch.size() - failed.size());
+
+                if (failed.isEmpty()) {
+                    failures = 0;
+                } else {
+                    failures = Math.min(failures + 1, MAX_BACKOFF);
+                    Thread.sleep(RETRY_BACKOFF * failures);
+                }
+
+            } catch (final InterruptedException ie) {
+                return;
+            } finally {
+                batch.clear();
+                failed.clear();
+            }
+        }
+    }
+
+    /**
+     * Aplica un alta sobre el DAO subyacente.
+     *
+     * @param document
+     *        Documento a dar de alta.
+     *
+     * @return True si el alta se ha aplicado (o ya lo estaba), False
+     *         si ha fallado y debe reintentarse.
+     */
+    private boolean apply(final D document)
+    {
+        try {
+
+            delegate.create(document);
+            return true;
+
+        } catch (final SQLException sqe) {
+            try {
+                if (delegate.exists(document.getUUID()))
+                    return true;
+            } catch (final SQLException e) {
+                // se reintentara igualmente
+            }
+
+            System.err.println("Cannot apply WAL record " + document.getUUID()
+                + ", will retry: " + sqe.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Notifica al log un numero de registros aplicados, informando de
+     * cualquier error al truncarlo.
+     *
+     * @param count
+     *        Numero de registros aplicados.
+     */
+    private void applied(final int count)
+    {
+        if (count == 0)
+            return;
+
+        try {
+            log.applied(count);
+        } catch (final IOException ioe) {
+            System.err.println("Cannot truncate WAL: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Elimina un documento del conjunto de altas pendientes,
+     * despertando a los hilos que esperaban por el.
+     *
+     * @param key
+     *        Identificador del documento.
+     */
+    private void release(final UUID key)
+    {
+        synchronized (pending) {
+            pending.remove(key);
+            pending.notifyAll();
+        }
+    }
+
+    /**
+     * Espera a que el alta del documento recibido, si esta pendiente,
+     * haya sido aplicada sobre el DAO subyacente.
+     *
+     * @param key
+     *        Identificador del documento (o null).
+     *
+     * @throws SQLException
+     *         Si el hilo es interrumpido durante la espera.
+     */
+    private void awaitApplied(final UUID key) throws SQLException
+    {
+        if (key == null)
+            return;
+
+        synchronized (pending) {
+            try {
+                while (pending.containsKey(key))
+                    pending.wait();
+            } catch (final InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for WAL", ie);
+            }
+        }
+    }
+
+    /**
+     * Busca un documento entre las altas pendientes.
+     *
+     * @param uuid
+     *        String con el identificador UUID.
+     *
+     * @return Documento pendiente, o null si no existe o el
+     *         identificador no es un UUID valido.
+     */
+    private D lookup(final String uuid)
+    {
+        final UUID key = toKey(uuid);
+
+        return key == null ? null : pending.get(key);
+    }
+
+    /**
+     * Convierte un identificador UUID en su representacion binaria.
+     *
+     * @param uuid
+     *        String con el identificador UUID.
+     *
+     * @return {@link UUID} con el identificador, o null si el String
+     *         recibido no es un UUID valido.
+     */
+    private static UUID toKey(final String uuid)
+    {
+        try {
+            return uuid == null ? null : UUID.fromString(uuid);
+        } catch (final IllegalArgumentException iae) {
+            return null;
+        }
+    }
+
+}
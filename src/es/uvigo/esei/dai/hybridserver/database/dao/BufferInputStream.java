@@ -0,0 +1,65 @@
+package es.uvigo.esei.dai.hybridserver.database.dao;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Stream de bytes sobre un {@link ByteBuffer}, que permite leer el
+ * contenido de un documento directamente desde una vista sobre un
+ * fichero proyectado en memoria sin copiarlo previamente.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+class BufferInputStream extends InputStream
+{
+
+    private final ByteBuffer buffer;
+
+    /**
+     * Crea un nuevo BufferInputStream sobre el buffer recibido, desde
+     * su posicion actual hasta su limite.
+     *
+     * @param buffer
+     *        Buffer desde el que leer.
+     */
+    BufferInputStream(final ByteBuffer buffer)
+    {
+        this.buffer = buffer;
+    }
+
+    /**
+     * @see java.io.InputStream#read()
+     */
+    @Override
+    public int read( )
+    {
+        return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    /**
+     * @see java.io.InputStream#read(byte[], int, int)
+     */
+    @Override
+    public int read(final byte[ ] bytes, final int offset, final int length)
+    {
+        if (length == 0) return 0;
+        if (!buffer.hasRemaining()) return -1;
+
+        final int read = Math.min(length, buffer.remaining());
+        buffer.get(bytes, offset, read);
+
+        return read;
+    }
+
+    /**
+     * @see java.io.InputStream#available()
+     */
+    @Override
+    public int available( )
+    {
+        return buffer.remaining();
+    }
+
+}
@@ -0,0 +1,641 @@
+package es.uvigo.esei.dai.hybridserver.database.dao;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import es.uvigo.esei.dai.hybridserver.database.ConnectionFactory;
+import es.uvigo.esei.dai.hybridserver.database.entity.AbstractDocument;
+import es.uvigo.esei.dai.hybridserver.exception.DocumentNotFoundException;
+
+/**
+ * DAO que mantiene en memoria los documentos leidos con mas frecuencia
+ * delante de otro DAO ("read-through"): las lecturas de un documento
+ * en cache no acceden al DAO original, y los fallos lo leen de este y
+ * lo almacenan para las siguientes. Las altas, modificaciones y
+ * borrados se delegan en el DAO original e invalidan la entrada del
+ * documento.
+ *
+ * El tamaño de la cache se limita por el total de bytes de contenido
+ * (en UTF-8) de los documentos almacenados, y no por su numero. La
+ * cache se divide en segmentos independientes, cada uno con su propio
+ * cerrojo y su parte de la capacidad, en los que se expulsan primero
+ * los documentos usados hace mas tiempo (LRU). Los documentos mayores
+ * que la capacidad de un segmento no se almacenan.
+ *
+ * Los documentos se devuelven siempre como copias de los almacenados,
+ * de modo que los clientes no puedan modificar estos ultimos (ver
+ * {@link AbstractDocument#copy()}). Los fallos sobre documentos
+ * modificados recientemente se leen de la base de datos principal, ya
+ * que una replica retrasada podria devolver aun la version anterior,
+ * que volveria a almacenarse en la cache.
+ *
+ * @param <D>
+ *        Documento al que estara asociado el DAO. Debe,
+ *        obligatoriamente, heredar de {@link AbstractDocument}.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public class CachedDocumentDAO<D extends AbstractDocument> implements DocumentDAO<D>
+{
+
+    // numero de segmentos en los que se divide la cache
+    private static final int SEGMENTS = 16;
+
+    // tiempo durante el que los fallos sobre un documento modificado
+    // se leen de la base de datos principal (milisegundos), y numero
+    // maximo de modificaciones recordadas por segmento
+    private static final long PRIMARY_WINDOW = 60 * 1000;
+    private static final int  RECENT_WRITES  = 1024;
+
+    // DAO original, sobre el que se leen los fallos y se escribe
+    private final DocumentDAO<D> delegate;
+
+    // cache cuyos documentos dependen de los de esta (e.g. los XSLT
+    // de un XSD, borrados en cascada por el DAO original), o null
+    private final CachedDocumentDAO<?> dependent;
+
+    // segmentos de la cache, y capacidad (bytes) de cada uno
+    private final Segment<D>[ ] segments;
+    private final long          segmentCapacity;
+
+    // estadisticas de uso
+    private final AtomicLong hits      = new AtomicLong();
+    private final AtomicLong misses    = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Construye una nueva cache delante del DAO recibido.
+     *
+     * @param delegate
+     *        DAO original.
+     * @param capacity
+     *        Tamaño maximo de la cache, en bytes de contenido.
+     */
+    public CachedDocumentDAO(final DocumentDAO<D> delegate, final long capacity)
+    {
+        this(delegate, capacity, null);
+    }
+
+    /**
+     * Construye una nueva cache delante del DAO recibido, cuyos
+     * borrados invalidan ademas por completo otra cache dependiente.
+     *
+     * @param delegate
+     *        DAO original.
+     * @param capacity
+     *        Tamaño maximo de la cache, en bytes de contenido.
+     * @param dependent
+     *        Cache de los documentos que el DAO original borra en
+     *        cascada junto a los suyos, o null si no hay ninguna.
+     */
+    @SuppressWarnings("unchecked")
+    public CachedDocumentDAO(final DocumentDAO<D> delegate, final long capacity,
+        final CachedDocumentDAO<?> dependent)
+    {
+        this.delegate        = delegate;
+        this.dependent       = dependent;
+        this.segmentCapacity = capacity / SEGMENTS;
+
+        segments = (Segment<D>[ ]) new Segment<?>[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; ++i)
+            segments[i] = new Segment<>();
+    }
+
+    /**
+     * @see DocumentDAO#exists(String)
+     */
+    @Override
+    public boolean exists(final String uuid) throws SQLException
+    {
+        final String key = toKey(uuid);
+        if (key != null && lookup(key) != null)
+            return true;
+
+        return delegate.exists(uuid);
+    }
+
+    /**
+     * @see DocumentDAO#list()
+     */
+    @Override
+    public List<D> list( ) throws SQLException
+    {
+        return delegate.list();
+    }
+
+    /**
+     * @see DocumentDAO#listUUIDs()
+     */
+    @Override
+    public List<String> listUUIDs( ) throws SQLException
+    {
+        return delegate.listUUIDs();
+    }
+
+    /**
+     * @see DocumentDAO#get(String)
+     */
+    @Override
+    public D get(final String uuid) throws DocumentNotFoundException,
+        SQLException
+    {
+        final D document = find(uuid);
+
+        if (document == null)
+            throw new DocumentNotFoundException(uuid);
+
+        return document;
+    }
+
+    /**
+     * @see DocumentDAO#find(String)
+     */
+    @Override
+    public D find(final String uuid) throws SQLException
+    {
+        final String key = toKey(uuid);
+        if (key == null)
+            return delegate.find(uuid);
+
+        final Entry<D> entry = lookup(key);
+        if (entry != null) {
+            hits.incrementAndGet();
+            return copy(entry.document);
+        }
+
+        misses.incrementAndGet();
+
+        final Segment<D> segment  = segment(key);
+        final long       version  = segment.version();
+        final boolean    primary  = segment.isRecent(key);
+        final boolean    previous = primary && ConnectionFactory.setPrimaryReads(true);
+
+        try {
+
+            final D document = delegate.find(uuid);
+            if (document != null)
+                store(key, document, version);
+
+            return document;
+
+        } finally {
+            if (primary) ConnectionFactory.setPrimaryReads(previous);
+        }
+    }
+
+    /**
+     * Devuelve el documento en cache si existe (ya con su contenido)
+     * o, en caso contrario, el documento "lazy" del DAO original, sin
+     * almacenarlo.
+     *
+     * @see DocumentDAO#findLazy(String)
+     */
+    @Override
+    public D findLazy(final String uuid) throws SQLException
+    {
+        final String key = toKey(uuid);
+        if (key != null) {
+            final Entry<D> entry = lookup(key);
+            if (entry != null) {
+                hits.incrementAndGet();
+                return copy(entry.document);
+            }
+        }
+
+        return delegate.findLazy(uuid);
+    }
+
+    /**
+     * @see DocumentDAO#getHash(String)
+     */
+    @Override
+    public String getHash(final String uuid) throws SQLException
+    {
+        final String key = toKey(uuid);
+        if (key != null) {
+            final Entry<D> entry = lookup(key);
+            if (entry != null)
+                return entry.hash;
+        }
+
+        return delegate.getHash(uuid);
+    }
+
+    /**
+     * Si el documento no esta en cache, se obtienen primero sus
+     * metadatos: los documentos demasiado grandes para la cache se
+     * leen directamente del DAO original, sin cargarlos en memoria, y
+     * el resto se cargan y se almacenan.
+     *
+     * @see DocumentDAO#openContent(String)
+     */
+    @Override
+    public Reader openContent(final String uuid) throws SQLException
+    {
+        final String key = toKey(uuid);
+        if (key == null)
+            return delegate.openContent(uuid);
+
+        final Entry<D> entry = lookup(key);
+        if (entry != null) {
+            hits.incrementAndGet();
+            return new StringReader(entry.document.getContent());
+        }
+
+        misses.incrementAndGet();
+
+        final Segment<D> segment  = segment(key);
+        final long       version  = segment.version();
+        final boolean    primary  = segment.isRecent(key);
+        final boolean    previous = primary && ConnectionFactory.setPrimaryReads(true);
+
+        try {
+
+            final D lazy = delegate.findLazy(uuid);
+            if (lazy == null)
+                return null;
+
+            if (lazy.getSize() > segmentCapacity)
+                return delegate.openContent(uuid);
+
+            final String content = lazy.getContent();
+            store(key, lazy, version);
+
+            return new StringReader(content);
+
+        } catch (final IllegalStateException ise) {
+            // borrado entre la lectura de metadatos y la de contenido
+            if (ise.getCause() instanceof IOException)
+                return delegate.openContent(uuid);
+
+            throw ise;
+        } finally {
+            if (primary) ConnectionFactory.setPrimaryReads(previous);
+        }
+    }
+
+    /**
+     * El contenido codificado se lee siempre del DAO original.
+     *
+     * @see DocumentDAO#openEncodedContent(String, String)
+     */
+    @Override
+    public InputStream openEncodedContent(final String uuid, final String encoding)
+        throws SQLException
+    {
+        return delegate.openEncodedContent(uuid, encoding);
+    }
+
+    /**
+     * @see DocumentDAO#create(AbstractDocument)
+     */
+    @Override
+    public void create(final D document) throws SQLException
+    {
+        try {
+            delegate.create(document);
+        } finally {
+            invalidate(document.getUUID());
+        }
+    }
+
+    /**
+     * @see DocumentDAO#update(AbstractDocument)
+     */
+    @Override
+    public void update(final D document)
+        throws DocumentNotFoundException, SQLException
+    {
+        try {
+            delegate.update(document);
+        } finally {
+            invalidate(document.getUUID());
+        }
+    }
+
+    /**
+     * @see DocumentDAO#delete(String)
+     */
+    @Override
+    public void delete(final String uuid)
+        throws DocumentNotFoundException, SQLException
+    {
+        try {
+            delegate.delete(uuid);
+        } finally {
+            invalidate(uuid);
+            if (dependent != null)
+                dependent.invalidateAll();
+        }
+    }
+
+    /**
+     * Elimina de la cache todos los documentos.
+     */
+    public void invalidateAll( )
+    {
+        for (final Segment<D> segment : segments)
+            segment.clear();
+    }
+
+    /**
+     * Devuelve el numero de lecturas servidas desde la cache.
+     *
+     * @return Numero de aciertos.
+     */
+    public long getHits( )
+    {
+        return hits.get();
+    }
+
+    /**
+     * Devuelve el numero de lecturas que no encontraron el documento
+     * en la cache y tuvieron que acceder al DAO original.
+     *
+     * @return Numero de fallos.
+     */
+    public long getMisses( )
+    {
+        return misses.get();
+    }
+
+    /**
+     * Devuelve el numero de documentos expulsados de la cache por
+     * falta de espacio.
+     *
+     * @return Numero de expulsiones.
+     */
+    public long getEvictions( )
+    {
+        return evictions.get();
+    }
+
+    /**
+     * Devuelve el total de bytes de contenido almacenados actualmente
+     * en la cache.
+     *
+     * @return Tamaño ocupado de la cache, en bytes.
+     */
+    public long getSize( )
+    {
+        long size = 0;
+        for (final Segment<D> segment : segments)
+            size += segment.size();
+
+        return size;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString( )
+    {
+        return "hits=" + getHits() + ", misses=" + getMisses()
+            + ", evictions=" + getEvictions() + ", bytes=" + getSize();
+    }
+
+    /**
+     * Busca un documento en la cache.
+     *
+     * @param key
+     *        Identificador UUID normalizado (ver {@link #toKey}).
+     *
+     * @return Entrada del documento, o null si no esta en cache.
+     */
+    private Entry<D> lookup(final String key)
+    {
+        return segment(key).get(key);
+    }
+
+    /**
+     * Almacena en la cache un documento leido del DAO original, salvo
+     * que sea demasiado grande o que su entrada haya sido invalidada
+     * desde que se comenzo a leer.
+     *
+     * @param key
+     *        Identificador UUID normalizado.
+     * @param document
+     *        Documento leido, con su contenido.
+     * @param version
+     *        Version del segmento antes de comenzar la lectura.
+     */
+    private void store(final String key, final D document, final long version)
+    {
+        final String content = document.getContent();
+        if (content == null)
+            return;
+
+        final byte[ ] bytes = content.getBytes(ContentStore.CHARSET);
+        if (bytes.length > segmentCapacity)
+            return;
+
+        final String hash = document.getContentHash() != null
+            ? document.getContentHash()
+            : ContentStore.hash(bytes);
+
+        evictions.addAndGet(
+            segment(key).put(key, new Entry<>(copy(document), hash, bytes.length), version, segmentCapacity)
+        );
+    }
+
+    /**
+     * Copia un documento, de modo que la cache y sus clientes nunca
+     * compartan la misma instancia.
+     *
+     * @param document
+     *        Documento a copiar.
+     *
+     * @return Copia del documento.
+     */
+    @SuppressWarnings("unchecked")
+    private static <D extends AbstractDocument> D copy(final D document)
+    {
+        return (D) document.copy();
+    }
+
+    /**
+     * Elimina un documento de la cache.
+     *
+     * @param uuid
+     *        String con el identificador UUID del documento.
+     */
+    private void invalidate(final String uuid)
+    {
+        final String key = toKey(uuid);
+        if (key != null)
+            segment(key).remove(key);
+    }
+
+    /**
+     * Devuelve el segmento de la cache correspondiente a un documento.
+     */
+    private Segment<D> segment(final String key)
+    {
+        return segments[(key.hashCode() & Integer.MAX_VALUE) % SEGMENTS];
+    }
+
+    /**
+     * Normaliza un identificador UUID para utilizarlo como clave de la
+     * cache, de modo que distintas formas de escribir un mismo UUID
+     * (e.g. mayusculas) compartan entrada.
+     *
+     * @param uuid
+     *        String con el identificador UUID.
+     *
+     * @return String con el UUID normalizado, o null si no es un UUID
+     *         valido.
+     */
+    private static String toKey(final String uuid)
+    {
+        try {
+            return uuid == null ? null : UUID.fromString(uuid).toString();
+        } catch (final IllegalArgumentException iae) {
+            return null;
+        }
+    }
+
+    /**
+     * Segmento de la cache: documentos en orden de uso, protegidos por
+     * el cerrojo del propio segmento.
+     */
+    private static final class Segment<D extends AbstractDocument>
+    {
+
+        private final LinkedHashMap<String, Entry<D>> entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+        // bytes de contenido almacenados
+        private long size = 0;
+
+        // se incrementa con cada invalidacion, para descartar las
+        // lecturas que comenzaron antes de ella
+        private long version = 0;
+
+        // instante de las ultimas invalidaciones de cada documento (las
+        // mas recientes) y de la ultima invalidacion completa
+        private final LinkedHashMap<String, Long> recent =
+            new LinkedHashMap<String, Long>(16, 0.75f, true)
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, Long> eldest)
+                {
+                    return size() > RECENT_WRITES;
+                }
+            };
+        private long cleared = 0;
+
+        synchronized Entry<D> get(final String key)
+        {
+            return entries.get(key);
+        }
+
+        synchronized long version( )
+        {
+            return version;
+        }
+
+        synchronized long size( )
+        {
+            return size;
+        }
+
+        /**
+         * Comprueba si un documento ha sido invalidado recientemente,
+         * en cuyo caso debe leerse de la base de datos principal.
+         */
+        synchronized boolean isRecent(final String key)
+        {
+            final long now  = System.currentTimeMillis();
+            final Long time = recent.get(key);
+
+            return now - cleared < PRIMARY_WINDOW
+                || (time != null && now - time < PRIMARY_WINDOW);
+        }
+
+        /**
+         * Almacena una entrada, expulsando las menos usadas hasta que
+         * quepa. Devuelve el numero de entradas expulsadas.
+         */
+        synchronized int put(final String key, final Entry<D> entry, final long expected,
+            final long capacity)
+        {
+            if (version != expected)
+                return 0;
+
+            final Entry<D> previous = entries.put(key, entry);
+            if (previous != null)
+                size -= previous.bytes;
+
+            size += entry.bytes;
+
+            int evicted = 0;
+            final Iterator<Map.Entry<String, Entry<D>>> eldest = entries.entrySet().iterator();
+            while (size > capacity && eldest.hasNext()) {
+                final Map.Entry<String, Entry<D>> next = eldest.next();
+                if (next.getKey().equals(key))
+                    continue;
+
+                size -= next.getValue().bytes;
+                eldest.remove();
+                ++evicted;
+            }
+
+            return evicted;
+        }
+
+        synchronized void remove(final String key)
+        {
+            ++version;
+            recent.put(key, System.currentTimeMillis());
+
+            final Entry<D> previous = entries.remove(key);
+            if (previous != null)
+                size -= previous.bytes;
+        }
+
+        synchronized void clear( )
+        {
+            ++version;
+            cleared = System.currentTimeMillis();
+
+            entries.clear();
+            size = 0;
+        }
+
+    }
+
+    /**
+     * Entrada de la cache: el documento (con su contenido ya cargado),
+     * el hash de su contenido y su tamaño en bytes.
+     */
+    private static final class Entry<D extends AbstractDocument>
+    {
+
+        private final D      document;
+        private final String hash;
+        private final long   bytes;
+
+        private Entry(final D document, final String hash, final long bytes)
+        {
+            this.document = document;
+            this.hash     = hash;
+            this.bytes    = bytes;
+        }
+
+    }
+
+}
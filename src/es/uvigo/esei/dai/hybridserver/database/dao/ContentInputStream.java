@@ -0,0 +1,90 @@
+package es.uvigo.esei.dai.hybridserver.database.dao;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import es.uvigo.esei.dai.hybridserver.database.PooledConnection;
+
+/**
+ * Stream de bytes sobre el contenido codificado (e.g. comprimido) de
+ * un documento leido directamente de la base de datos. Al igual que
+ * {@link ContentReader}, mantiene abiertos el {@link ResultSet} y la
+ * conexion utilizada hasta que se cierra el stream.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+class ContentInputStream extends FilterInputStream implements HashedContent
+{
+
+    private final String           hash;      // hash del contenido
+    private final ResultSet        resultSet; // resultado de la consulta
+    private final PooledConnection database;  // conexion en uso
+
+    private boolean closed = false; // si el stream ya se ha cerrado
+
+    /**
+     * Crea un nuevo ContentInputStream sobre el stream de bytes
+     * obtenido de una columna del ResultSet recibido.
+     *
+     * @param content
+     *        Stream de bytes de la columna de contenido binario.
+     * @param hash
+     *        Hash del contenido, obtenido en la misma consulta.
+     * @param resultSet
+     *        ResultSet del que se ha obtenido el stream, que se
+     *        cerrara junto con este.
+     * @param database
+     *        Conexion utilizada para la consulta, que se devolvera al
+     *        pool al cerrar este stream.
+     */
+    ContentInputStream(final InputStream content, final String hash,
+        final ResultSet resultSet, final PooledConnection database)
+    {
+        super(content);
+        this.hash      = hash;
+        this.resultSet = resultSet;
+        this.database  = database;
+    }
+
+    /**
+     * @see HashedContent#getHash()
+     */
+    @Override
+    public String getHash( )
+    {
+        return hash;
+    }
+
+    /**
+     * Cierra el stream de contenido, el ResultSet asociado y devuelve
+     * la conexion al pool. Cerrar de nuevo un stream ya cerrado no
+     * tiene ningun efecto.
+     *
+     * @see java.io.FilterInputStream#close()
+     */
+    @Override
+    public void close( ) throws IOException
+    {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+        }
+
+        try {
+
+            super.close();
+            resultSet.close();
+
+        } catch (final SQLException sqe) {
+            throw new IOException(sqe);
+        } finally {
+            database.close();
+        }
+    }
+
+}
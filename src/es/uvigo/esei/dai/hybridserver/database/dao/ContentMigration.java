@@ -0,0 +1,97 @@
+package es.uvigo.esei.dai.hybridserver.database.dao;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.xml.sax.SAXException;
+
+import es.uvigo.esei.dai.hybridserver.Configuration;
+import es.uvigo.esei.dai.hybridserver.database.ConnectionFactory;
+
+/**
+ * Herramienta de linea de comandos para la migracion de los
+ * contenidos ya existentes en la base de datos. En primer lugar,
+ * traslada al almacen de contenidos (tabla CONTENTS) los documentos
+ * que aun conserven su contenido en la propia tabla del documento
+ * (ver scripts de migracion en el directorio sql/). A continuacion,
+ * si la compresion esta activada en el fichero de configuracion,
+ * comprime todos los contenidos almacenados como texto plano. Puede
+ * ejecutarse con el servidor en marcha, puesto que los documentos se
+ * migran uno a uno y ambos formatos conviven.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public class ContentMigration
+{
+
+    /**
+     * Punto de entrada de la herramienta.
+     *
+     * @param args
+     *        La herramienta debe recibir como argumento unico el
+     *        fichero XML de configuracion del sistema.
+     */
+    public static void main(final String[ ] args)
+    {
+        if (args.length != 1) {
+            System.err.println("USAGE: java es.uvigo.esei.dai.hybridserver.database.dao.ContentMigration configuration.xml");
+            System.exit(-1);
+        }
+
+        try {
+
+            Configuration.getInstance().readFromFile(args[0]);
+
+        } catch (final IOException | ParserConfigurationException | SAXException e) {
+            System.err.println("Invalid configuration file: " + e.getMessage());
+            System.exit(-2);
+        }
+
+        try {
+
+            for (int shard = 0; shard < ConnectionFactory.getShardCount(); ++shard)
+                migrate(shard);
+
+        } catch (final SQLException sqe) {
+            System.err.println("Database error: " + sqe.getMessage());
+            System.exit(-3);
+        }
+    }
+
+    /**
+     * Migra los contenidos de uno de los shards configurados.
+     *
+     * @param shard
+     *        Indice de la base de datos a migrar.
+     *
+     * @throws SQLException
+     *         Si se produce algun error durante el acceso a datos.
+     */
+    private static void migrate(final int shard) throws SQLException
+    {
+        final Map<String, AbstractDocumentSQLDAO<?>> daos = new LinkedHashMap<>();
+        daos.put("HTML", new HTMLDocumentSQLDAO(shard));
+        daos.put("XML" , new XMLDocumentSQLDAO(shard));
+        daos.put("XSD" , new XSDDocumentSQLDAO(shard));
+        daos.put("XSLT", new XSLTDocumentSQLDAO(shard));
+
+        for (final Entry<String, AbstractDocumentSQLDAO<?>> dao : daos.entrySet()) {
+            final int count = dao.getValue().migrateLegacyContent();
+            System.out.println("[shard " + shard + "] " + dao.getKey() + ": " + count + " documents migrated");
+        }
+
+        final ContentStore contents = new ContentStore(shard);
+        if (contents.isCompressed()) {
+            final int count = contents.compressAll();
+            System.out.println("[shard " + shard + "] " + count + " contents compressed");
+        }
+    }
+
+}
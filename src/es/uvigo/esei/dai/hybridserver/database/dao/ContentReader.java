@@ -0,0 +1,91 @@
+package es.uvigo.esei.dai.hybridserver.database.dao;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import es.uvigo.esei.dai.hybridserver.database.PooledConnection;
+
+/**
+ * Stream de caracteres sobre el contenido de un documento leido
+ * directamente de la base de datos. Mantiene abiertos tanto el
+ * {@link ResultSet} del que procede como la conexion utilizada, y los
+ * libera (devolviendo la conexion al pool) al cerrarse el stream.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+class ContentReader extends FilterReader implements HashedContent
+{
+
+    private final String           hash;      // hash del contenido
+    private final ResultSet        resultSet; // resultado de la consulta
+    private final PooledConnection database;  // conexion en uso
+
+    private boolean closed = false; // si el stream ya se ha cerrado
+
+    /**
+     * Crea un nuevo ContentReader sobre el stream de caracteres
+     * obtenido de una columna del ResultSet recibido.
+     *
+     * @param content
+     *        Stream de caracteres de la columna de contenido.
+     * @param hash
+     *        Hash del contenido, obtenido en la misma consulta.
+     * @param resultSet
+     *        ResultSet del que se ha obtenido el stream, que se
+     *        cerrara junto con este.
+     * @param database
+     *        Conexion utilizada para la consulta, que se devolvera al
+     *        pool al cerrar este stream.
+     */
+    ContentReader(final Reader content, final String hash,
+        final ResultSet resultSet, final PooledConnection database)
+    {
+        super(content);
+        this.hash      = hash;
+        this.resultSet = resultSet;
+        this.database  = database;
+    }
+
+    /**
+     * @see HashedContent#getHash()
+     */
+    @Override
+    public String getHash( )
+    {
+        return hash;
+    }
+
+    /**
+     * Cierra el stream de contenido, el ResultSet asociado y devuelve
+     * la conexion al pool. Cerrar de nuevo un stream ya cerrado (como
+     * hacen algunos parsers y transformadores del JDK antes que el
+     * propio cliente) no tiene ningun efecto.
+     *
+     * @see java.io.FilterReader#close()
+     */
+    @Override
+    public void close( ) throws IOException
+    {
+        synchronized (lock) {
+            if (closed) return;
+            closed = true;
+        }
+
+        try {
+
+            super.close();
+            resultSet.close();
+
+        } catch (final SQLException sqe) {
+            throw new IOException(sqe);
+        } finally {
+            database.close();
+        }
+    }
+
+}
@@ -0,0 +1,479 @@
+package es.uvigo.esei.dai.hybridserver.database.dao;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import es.uvigo.esei.dai.hybridserver.Configuration;
+import es.uvigo.esei.dai.hybridserver.database.ConnectionFactory;
+import es.uvigo.esei.dai.hybridserver.database.PooledConnection;
+
+/**
+ * Almacen de contenidos direccionado por contenido. Cada contenido
+ * distinto se almacena una unica vez en la tabla CONTENTS,
+ * identificado por el hash SHA-256 (en hexadecimal) de su texto
+ * codificado en UTF-8, y las tablas de cada tipo de documento lo
+ * referencian a traves de dicho hash. Cada contenido mantiene un
+ * contador de referencias, de modo que se elimina cuando deja de
+ * estar referenciado por ningun documento.
+ *
+ * Todas las operaciones que modifican contadores de referencias
+ * deben realizarse dentro de una transaccion, junto a la
+ * modificacion de la tabla del documento correspondiente.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+class ContentStore
+{
+
+    // formatos de almacenamiento del contenido (columna de formato)
+    static final int FORMAT_PLAIN   = 0; // texto en CONTENT_NAME
+    static final int FORMAT_DEFLATE = 1; // deflate en DATA_NAME
+
+    // codificacion del texto antes de calcular el hash o comprimirlo
+    static final Charset CHARSET = Charset.forName("UTF-8");
+
+    // tabla y columnas del almacen de contenidos
+    static final String TABLE_NAME   = "CONTENTS";
+    static final String HASH_NAME    = "hash";
+    static final String REFS_NAME    = "refs";
+    static final String CONTENT_NAME = "content";
+    static final String FORMAT_NAME  = "format";
+    static final String DATA_NAME    = "data";
+
+    private static final String REF_SQL =
+        "UPDATE " + TABLE_NAME + " "
+      + "SET " + REFS_NAME + " = " + REFS_NAME + " + 1 "
+      + "WHERE " + HASH_NAME + " = ?";
+
+    private static final String UNREF_SQL =
+        "UPDATE " + TABLE_NAME + " "
+      + "SET " + REFS_NAME + " = " + REFS_NAME + " - 1 "
+      + "WHERE " + HASH_NAME + " = ?";
+
+    private static final String INSERT_SQL =
+        "INSERT INTO " + TABLE_NAME + " "
+      + "(" + HASH_NAME + ", " + REFS_NAME + ", " + CONTENT_NAME + ", "
+      + FORMAT_NAME + ", " + DATA_NAME + ") "
+      + "VALUES(?, 1, ?, ?, ?)";
+
+    private static final String PURGE_SQL =
+        "DELETE FROM " + TABLE_NAME + " "
+      + "WHERE " + HASH_NAME + " = ? AND " + REFS_NAME + " <= 0";
+
+    private static final String PLAIN_SQL =
+        "SELECT " + HASH_NAME + " FROM " + TABLE_NAME + " "
+      + "WHERE " + FORMAT_NAME + " = " + FORMAT_PLAIN;
+
+    private static final String READ_SQL =
+        "SELECT " + CONTENT_NAME + ", " + FORMAT_NAME + ", " + DATA_NAME + " "
+      + "FROM " + TABLE_NAME + " "
+      + "WHERE " + HASH_NAME + " = ?";
+
+    private static final String COMPRESS_SQL =
+        "UPDATE " + TABLE_NAME + " "
+      + "SET " + CONTENT_NAME + " = NULL, "
+      + FORMAT_NAME + " = " + FORMAT_DEFLATE + ", "
+      + DATA_NAME + " = ? "
+      + "WHERE " + HASH_NAME + " = ? AND " + FORMAT_NAME + " = " + FORMAT_PLAIN;
+
+    // indice de la base de datos (shard) del almacen
+    private final int shard;
+
+    // si los nuevos contenidos se almacenan comprimidos o no
+    private final boolean compress;
+
+    /**
+     * Construye una nueva instancia del almacen de contenidos del
+     * shard recibido (cada shard cuenta con su propia tabla de
+     * contenidos), que comprimira o no los nuevos contenidos segun la
+     * configuracion.
+     *
+     * @param shard
+     *        Indice de la base de datos del almacen.
+     */
+    ContentStore(final int shard)
+    {
+        this.shard = shard;
+
+        compress = "deflate".equals(
+            Configuration.getInstance().getDatabaseCompression()
+        );
+    }
+
+    /**
+     * Indica si los nuevos contenidos se almacenan comprimidos.
+     *
+     * @return True si la compresion esta activada, False en caso
+     *         contrario.
+     */
+    boolean isCompressed( )
+    {
+        return compress;
+    }
+
+    /**
+     * Obtiene una referencia al contenido recibido, almacenandolo si
+     * no existia previamente o incrementando su contador de
+     * referencias en caso contrario.
+     *
+     * @param database
+     *        Conexion (con una transaccion en curso) a utilizar.
+     * @param content
+     *        Stream de caracteres con el contenido a almacenar.
+     *
+     * @return String con el hash que identifica al contenido.
+     *
+     * @throws SQLException
+     *         Si se produce algun error durante el acceso a datos.
+     * @throws IOException
+     *         Si se produce algun error leyendo el contenido.
+     */
+    String acquire(final PooledConnection database, final Reader content)
+        throws SQLException, IOException
+    {
+        return acquire(database, readBytes(content));
+    }
+
+    /**
+     * Obtiene una referencia al contenido recibido, ya codificado en
+     * UTF-8, del mismo modo que {@link #acquire(PooledConnection, Reader)}.
+     *
+     * @param database
+     *        Conexion (con una transaccion en curso) a utilizar.
+     * @param bytes
+     *        Contenido a almacenar, codificado en UTF-8.
+     *
+     * @return String con el hash que identifica al contenido.
+     *
+     * @throws SQLException
+     *         Si se produce algun error durante el acceso a datos.
+     * @throws IOException
+     *         Si se produce algun error comprimiendo el contenido.
+     */
+    String acquire(final PooledConnection database, final byte[ ] bytes)
+        throws SQLException, IOException
+    {
+        final String hash = hash(bytes);
+
+        if (reference(database, hash))
+            return hash;
+
+        final PreparedStatement statement =
+            database.prepareStatement(INSERT_SQL);
+
+        statement.setString(1, hash);
+
+        if (compress) {
+            statement.setNull(2, Types.LONGVARCHAR);
+            statement.setInt(3, FORMAT_DEFLATE);
+            statement.setBytes(4, deflate(bytes));
+        } else {
+            statement.setString(2, new String(bytes, CHARSET));
+            statement.setInt(3, FORMAT_PLAIN);
+            statement.setNull(4, Types.BLOB);
+        }
+
+        try {
+
+            statement.executeUpdate();
+
+        } catch (final SQLException sqe) {
+            // otra transaccion ha insertado el mismo contenido de
+            // forma concurrente, basta entonces con referenciarlo
+            if (!isDuplicateKey(sqe) || !reference(database, hash))
+                throw sqe;
+        }
+
+        return hash;
+    }
+
+    /**
+     * Libera una referencia al contenido identificado por el hash
+     * recibido, eliminandolo si ya no esta referenciado por ningun
+     * documento.
+     *
+     * @param database
+     *        Conexion (con una transaccion en curso) a utilizar.
+     * @param hash
+     *        Hash del contenido a liberar.
+     *
+     * @throws SQLException
+     *         Si se produce algun error durante el acceso a datos.
+     */
+    void release(final PooledConnection database, final String hash)
+        throws SQLException
+    {
+        final PreparedStatement unref = database.prepareStatement(UNREF_SQL);
+        unref.setString(1, hash);
+        unref.executeUpdate();
+
+        final PreparedStatement purge = database.prepareStatement(PURGE_SQL);
+        purge.setString(1, hash);
+        purge.executeUpdate();
+    }
+
+    /**
+     * Comprime todos los contenidos almacenados como texto plano.
+     * Puesto que el hash se calcula sobre el texto, los contenidos
+     * comprimidos mantienen su identificador y no es necesario
+     * modificar ninguna referencia.
+     *
+     * @return Numero de contenidos que han sido comprimidos.
+     *
+     * @throws SQLException
+     *         Si se produce algun error durante el acceso a datos, o
+     *         la compresion no esta activada en la configuracion.
+     */
+    int compressAll( ) throws SQLException
+    {
+        if (!compress)
+            throw new SQLException("Content compression is not enabled");
+
+        try (final PooledConnection database = ConnectionFactory.getConnection(shard)) {
+
+            final List<String> hashes = new LinkedList<>();
+
+            final PreparedStatement select = database.prepareStatement(PLAIN_SQL);
+            select.setFetchSize(
+                Configuration.getInstance().getDatabaseFetchSize()
+            );
+
+            try (final ResultSet resultSet = select.executeQuery()) {
+                while (resultSet.next())
+                    hashes.add(resultSet.getString(1));
+            }
+
+            int count = 0;
+            for (final String hash : hashes) {
+                final PreparedStatement read = database.prepareStatement(READ_SQL);
+                read.setString(1, hash);
+
+                final byte[ ] data;
+                try (final ResultSet resultSet = read.executeQuery()) {
+                    // eliminado durante la migracion, se ignora
+                    if (!resultSet.next()) continue;
+                    data = deflate(readBytes(readContentStream(resultSet)));
+                } catch (final IOException ioe) {
+                    throw new SQLException("Error while compressing content", ioe);
+                }
+
+                final PreparedStatement update = database.prepareStatement(COMPRESS_SQL);
+                update.setBytes(1, data);
+                update.setString(2, hash);
+
+                count += update.executeUpdate();
+            }
+
+            return count;
+        }
+    }
+
+    /**
+     * Lee completamente el contenido de la fila actual del ResultSet
+     * recibido, descomprimiendolo si es necesario.
+     *
+     * @param resultSet
+     *        ResultSet posicionado en la fila del contenido, que debe
+     *        contener las columnas de contenido, formato y contenido
+     *        binario.
+     *
+     * @return String con el contenido.
+     *
+     * @throws SQLException
+     *         Si se produce algun error durante la lectura.
+     */
+    String readContent(final ResultSet resultSet) throws SQLException
+    {
+        checkFound(resultSet);
+
+        if (resultSet.getInt(FORMAT_NAME) != FORMAT_DEFLATE)
+            return resultSet.getString(CONTENT_NAME);
+
+        try (final Reader reader = readContentStream(resultSet)) {
+
+            final StringWriter writer = new StringWriter();
+            final char[ ] buffer = new char[8192];
+
+            int read;
+            while ((read = reader.read(buffer)) != -1)
+                writer.write(buffer, 0, read);
+
+            return writer.toString();
+
+        } catch (final IOException ioe) {
+            throw new SQLException("Error while decompressing content", ioe);
+        }
+    }
+
+    /**
+     * Abre un stream de caracteres sobre el contenido de la fila
+     * actual del ResultSet recibido, descomprimiendolo al vuelo si es
+     * necesario.
+     *
+     * @param resultSet
+     *        ResultSet posicionado en la fila del contenido, que debe
+     *        contener las columnas de contenido, formato y contenido
+     *        binario.
+     *
+     * @return Reader sobre el contenido.
+     *
+     * @throws SQLException
+     *         Si se produce algun error durante la lectura.
+     */
+    Reader readContentStream(final ResultSet resultSet) throws SQLException
+    {
+        checkFound(resultSet);
+
+        if (resultSet.getInt(FORMAT_NAME) == FORMAT_DEFLATE) {
+            final InputStream data = resultSet.getBinaryStream(DATA_NAME);
+
+            return new InputStreamReader(new InflaterInputStream(data), CHARSET);
+        }
+
+        final Reader content = resultSet.getCharacterStream(CONTENT_NAME);
+        return content == null ? new StringReader("") : content;
+    }
+
+    /**
+     * Comprueba que la fila actual del ResultSet recibido, resultado
+     * de una union externa con la tabla de contenidos, cuenta con
+     * contenido (la columna de formato nunca es nula en la tabla).
+     *
+     * @param resultSet
+     *        ResultSet posicionado en la fila del contenido.
+     *
+     * @throws SQLException
+     *         Si el contenido referenciado no se encuentra en la
+     *         tabla de contenidos.
+     */
+    private static void checkFound(final ResultSet resultSet) throws SQLException
+    {
+        if (resultSet.getObject(FORMAT_NAME) == null)
+            throw new SQLException("Document content not found in " + TABLE_NAME);
+    }
+
+    /**
+     * Incrementa el contador de referencias de un contenido.
+     *
+     * @param database
+     *        Conexion a utilizar.
+     * @param hash
+     *        Hash del contenido a referenciar.
+     *
+     * @return True si el contenido existia, False en caso contrario.
+     *
+     * @throws SQLException
+     *         Si se produce algun error durante el acceso a datos.
+     */
+    private boolean reference(final PooledConnection database, final String hash)
+        throws SQLException
+    {
+        final PreparedStatement statement = database.prepareStatement(REF_SQL);
+        statement.setString(1, hash);
+
+        return statement.executeUpdate() == 1;
+    }
+
+    /**
+     * Comprueba si una excepcion SQL se debe a la violacion de una
+     * restriccion de clave (SQLState de la clase 23).
+     *
+     * @param sqe
+     *        Excepcion a comprobar.
+     *
+     * @return True si se trata de una violacion de clave.
+     */
+    static boolean isDuplicateKey(final SQLException sqe)
+    {
+        return sqe.getSQLState() != null && sqe.getSQLState().startsWith("23");
+    }
+
+    /**
+     * Lee completamente el contenido recibido, codificandolo en UTF-8.
+     *
+     * @param content
+     *        Stream de caracteres con el contenido.
+     *
+     * @return Array de bytes con el contenido codificado.
+     *
+     * @throws IOException
+     *         Si se produce algun error durante la lectura.
+     */
+    static byte[ ] readBytes(final Reader content) throws IOException
+    {
+        final StringBuilder text = new StringBuilder();
+        final char[ ] buffer = new char[8192];
+
+        int read;
+        while ((read = content.read(buffer)) != -1)
+            text.append(buffer, 0, read);
+
+        return text.toString().getBytes(CHARSET);
+    }
+
+    /**
+     * Calcula el hash SHA-256, en hexadecimal, de los bytes recibidos.
+     *
+     * @param bytes
+     *        Contenido codificado del que calcular el hash.
+     *
+     * @return String de 64 caracteres con el hash.
+     */
+    static String hash(final byte[ ] bytes)
+    {
+        try {
+
+            final StringBuilder hex = new StringBuilder(64);
+            for (final byte b : MessageDigest.getInstance("SHA-256").digest(bytes))
+                hex.append(String.format("%02x", b & 0xff));
+
+            return hex.toString();
+
+        } catch (final NoSuchAlgorithmException nsae) {
+            // todas las implementaciones de Java deben soportar SHA-256
+            throw new RuntimeException(nsae);
+        }
+    }
+
+    /**
+     * Comprime con deflate los bytes recibidos.
+     *
+     * @param bytes
+     *        Contenido codificado a comprimir.
+     *
+     * @return Array de bytes con el contenido comprimido.
+     *
+     * @throws IOException
+     *         Si se produce algun error durante la compresion.
+     */
+    private static byte[ ] deflate(final byte[ ] bytes) throws IOException
+    {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+        try (final OutputStream output = new DeflaterOutputStream(data)) {
+            output.write(bytes);
+        }
+
+        return data.toByteArray();
+    }
+
+}
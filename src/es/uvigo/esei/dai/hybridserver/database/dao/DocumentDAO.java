@@ -1,5 +1,7 @@
 package es.uvigo.esei.dai.hybridserver.database.dao;
 
+import java.io.InputStream;
+import java.io.Reader;
 import java.sql.SQLException;
 import java.util.List;
 
@@ -56,6 +58,19 @@ public interface DocumentDAO<D extends AbstractDocument>
      */
     public List<D> list( ) throws SQLException;
 
+    /**
+     * Devuelve un listado con los identificadores UUID de todos los
+     * documentos del tipo del DAO concreto existentes en el sistema,
+     * sin recuperar el contenido de los mismos.
+     * 
+     * @return List de String con los identificadores UUID de todos
+     *         los documentos del tipo del DAO concreto.
+     * 
+     * @throws SQLException
+     *         Si se produce algun error durante el acceso a datos.
+     */
+    public List<String> listUUIDs( ) throws SQLException;
+
     /**
      * Recupera de datos un documento del tipo del DAO concreto, dado
      * su identificador UUID.
@@ -75,6 +90,106 @@ public interface DocumentDAO<D extends AbstractDocument>
      */
     public D get(final String uuid) throws DocumentNotFoundException, SQLException;
 
+    /**
+     * Recupera de datos un documento del tipo del DAO concreto, dado
+     * su identificador UUID, o null si no existe. A diferencia de
+     * realizar {@link #exists(String)} seguido de {@link #get(String)},
+     * requiere un unico acceso a datos.
+     * 
+     * @param uuid
+     *        Identificador UUID del documento que se desea recuperar
+     *        de los datos.
+     * 
+     * @return Documento del tipo del DAO concreto con todos los datos
+     *         recuperados, o null si no existe ningun documento con
+     *         el identificador proporcionado.
+     * 
+     * @throws SQLException
+     *         Si se produce algun error durante el acceso a datos.
+     */
+    public D find(final String uuid) throws SQLException;
+
+    /**
+     * Recupera de datos un documento "lazy" del tipo del DAO
+     * concreto, dado su identificador UUID, o null si no existe. El
+     * documento devuelto no contiene su contenido en memoria, sino
+     * que lo obtendra a traves de {@link #openContent(String)} cada
+     * vez que sea necesario.
+     * 
+     * @param uuid
+     *        Identificador UUID del documento que se desea recuperar
+     *        de los datos.
+     * 
+     * @return Documento "lazy" del tipo del DAO concreto, o null si
+     *         no existe ningun documento con el identificador
+     *         proporcionado.
+     * 
+     * @throws SQLException
+     *         Si se produce algun error durante el acceso a datos.
+     */
+    public D findLazy(final String uuid) throws SQLException;
+
+    /**
+     * Devuelve el hash que identifica el contenido de un documento
+     * del tipo del DAO concreto, dado su identificador UUID. Dos
+     * documentos con identico contenido comparten el mismo hash, por
+     * lo que puede utilizarse como clave de cache o como "ETag".
+     * 
+     * @param uuid
+     *        Identificador UUID del documento.
+     * 
+     * @return String con el hash del contenido del documento, o null
+     *         si no existe ningun documento con el identificador
+     *         proporcionado.
+     * 
+     * @throws SQLException
+     *         Si se produce algun error durante el acceso a datos.
+     */
+    public String getHash(final String uuid) throws SQLException;
+
+    /**
+     * Abre un stream de caracteres directamente sobre el contenido de
+     * un documento del tipo del DAO concreto, dado su identificador
+     * UUID, sin cargarlo completo en memoria. El stream mantiene
+     * reservados los recursos de acceso a datos hasta que se cierre,
+     * por lo que debe cerrarse siempre una vez se termine de leer.
+     * 
+     * @param uuid
+     *        Identificador UUID del documento cuyo contenido se desea
+     *        leer.
+     * 
+     * @return {@link Reader} sobre el contenido del documento, o null
+     *         si no existe ningun documento con el identificador
+     *         proporcionado.
+     * 
+     * @throws SQLException
+     *         Si se produce algun error durante el acceso a datos.
+     */
+    public Reader openContent(final String uuid) throws SQLException;
+
+    /**
+     * Abre un stream de bytes sobre el contenido de un documento tal
+     * y como se encuentra almacenado, siempre que lo este en la
+     * codificacion solicitada (e.g. "deflate"). Permite enviar el
+     * contenido almacenado sin necesidad de decodificarlo. Al igual
+     * que {@link #openContent(String)}, debe cerrarse siempre.
+     * 
+     * @param uuid
+     *        Identificador UUID del documento cuyo contenido se desea
+     *        leer.
+     * @param encoding
+     *        Codificacion en la que se desea obtener el contenido.
+     * 
+     * @return {@link InputStream} sobre el contenido codificado del
+     *         documento, o null si no existe el documento o no se
+     *         encuentra almacenado en la codificacion solicitada.
+     * 
+     * @throws SQLException
+     *         Si se produce algun error durante el acceso a datos.
+     */
+    public InputStream openEncodedContent(final String uuid, final String encoding)
+        throws SQLException;
+
     /**
      * Inserta un nuevo documento del tipo del DAO concreto en los
      * datos del sistema.
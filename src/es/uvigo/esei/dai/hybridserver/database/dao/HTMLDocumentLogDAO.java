@@ -0,0 +1,53 @@
+package es.uvigo.esei.dai.hybridserver.database.dao;
+
+import java.io.File;
+import java.io.IOException;
+
+import es.uvigo.esei.dai.hybridserver.database.entity.ContentLoader;
+import es.uvigo.esei.dai.hybridserver.database.entity.HTMLDocument;
+
+/**
+ * DAO concreto para documentos HTML almacenados en un log de segmentos.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public class HTMLDocumentLogDAO extends AbstractDocumentLogDAO<HTMLDocument> implements DocumentDAO<HTMLDocument>
+{
+
+    /**
+     * Construye una nueva instancia del DAO para documentos HTML,
+     * abriendo su log en el subdirectorio "html" del directorio
+     * recibido.
+     *
+     * @param directory
+     *        Directorio base de los logs de documentos.
+     *
+     * @throws IOException
+     *         Si se produce algun error abriendo el log.
+     */
+    public HTMLDocumentLogDAO(final File directory) throws IOException
+    {
+        super(new File(directory, "html"));
+    }
+
+    /**
+     * @see AbstractDocumentLogDAO#documentFactory(String, String, String)
+     */
+    @Override
+    protected HTMLDocument documentFactory(final String uuid, final String metadata, final String content)
+    {
+        return new HTMLDocument(uuid, content);
+    }
+
+    /**
+     * @see AbstractDocumentLogDAO#lazyDocumentFactory(String, String, ContentLoader)
+     */
+    @Override
+    protected HTMLDocument lazyDocumentFactory(final String uuid, final String metadata, final ContentLoader loader)
+    {
+        return new HTMLDocument(uuid, loader);
+    }
+
+}
@@ -0,0 +1,24 @@
+package es.uvigo.esei.dai.hybridserver.database.dao;
+
+import es.uvigo.esei.dai.hybridserver.database.entity.HTMLDocument;
+
+/**
+ * DAO en memoria concreto para documentos HTML.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public class HTMLDocumentMemoryDAO extends AbstractDocumentMemoryDAO<HTMLDocument> implements DocumentDAO<HTMLDocument>
+{
+
+    /**
+     * @see AbstractDocumentMemoryDAO#copy(AbstractDocument)
+     */
+    @Override
+    protected HTMLDocument copy(final HTMLDocument document)
+    {
+        return new HTMLDocument(document.getUUID(), document.getContent());
+    }
+
+}
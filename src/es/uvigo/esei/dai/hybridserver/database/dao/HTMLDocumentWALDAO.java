@@ -0,0 +1,44 @@
+package es.uvigo.esei.dai.hybridserver.database.dao;
+
+import java.io.File;
+import java.io.IOException;
+
+import es.uvigo.esei.dai.hybridserver.database.entity.HTMLDocument;
+
+/**
+ * DAO concreto para documentos HTML con log de escritura anticipada.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public class HTMLDocumentWALDAO extends AbstractDocumentWALDAO<HTMLDocument> implements DocumentDAO<HTMLDocument>
+{
+
+    /**
+     * Construye una nueva instancia del DAO para documentos HTML,
+     * abriendo su log ("html.wal") en el directorio recibido.
+     *
+     * @param directory
+     *        Directorio de los logs de escritura anticipada.
+     * @param delegate
+     *        DAO sobre el que se aplican las altas.
+     *
+     * @throws IOException
+     *         Si se produce algun error abriendo o leyendo el log.
+     */
+    public HTMLDocumentWALDAO(final File directory, final DocumentDAO<HTMLDocument> delegate) throws IOException
+    {
+        super(new File(directory, "html.wal"), delegate);
+    }
+
+    /**
+     * @see AbstractDocumentWALDAO#documentFactory(String, String, String)
+     */
+    @Override
+    protected HTMLDocument documentFactory(final String uuid, final String metadata, final String content)
+    {
+        return new HTMLDocument(uuid, content);
+    }
+
+}
@@ -0,0 +1,23 @@
+package es.uvigo.esei.dai.hybridserver.database.dao;
+
+/**
+ * Interfaz de los streams de contenido de un documento que conocen,
+ * por haberlo obtenido en la misma consulta que el propio contenido,
+ * el hash que lo identifica. Permite utilizar dicho hash (e.g. como
+ * "ETag") sin tener que consultarlo de nuevo.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public interface HashedContent
+{
+
+    /**
+     * Devuelve el hash del contenido del documento.
+     *
+     * @return String con el hash del contenido.
+     */
+    public String getHash( );
+
+}
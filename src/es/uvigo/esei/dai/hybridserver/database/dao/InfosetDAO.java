@@ -0,0 +1,58 @@
+package es.uvigo.esei.dai.hybridserver.database.dao;
+
+import java.sql.SQLException;
+
+/**
+ * Interfaz que todo DAO para las representaciones binarias (ya
+ * analizadas) de los documentos XML debe cumplir. Se trata de una
+ * representacion secundaria, almacenada junto al texto del documento,
+ * que puede eliminarse o regenerarse en cualquier momento.
+ * 
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public interface InfosetDAO
+{
+
+    /**
+     * Busca la representacion binaria de un documento XML.
+     * 
+     * @param uuid
+     *        String con el identificador UUID del documento XML.
+     * 
+     * @return Array con la representacion binaria, o null si no
+     *         existe.
+     * 
+     * @throws SQLException
+     *         Si se produce algun error durante el acceso a datos.
+     */
+    public byte[ ] find(final String uuid) throws SQLException;
+
+    /**
+     * Almacena la representacion binaria de un documento XML,
+     * reemplazando la anterior si existe.
+     * 
+     * @param uuid
+     *        String con el identificador UUID del documento XML.
+     * @param infoset
+     *        Array con la representacion binaria.
+     * 
+     * @throws SQLException
+     *         Si se produce algun error durante el acceso a datos.
+     */
+    public void save(final String uuid, final byte[ ] infoset) throws SQLException;
+
+    /**
+     * Elimina la representacion binaria de un documento XML, si
+     * existe.
+     * 
+     * @param uuid
+     *        String con el identificador UUID del documento XML.
+     * 
+     * @throws SQLException
+     *         Si se produce algun error durante el acceso a datos.
+     */
+    public void delete(final String uuid) throws SQLException;
+
+}
@@ -0,0 +1,53 @@
+package es.uvigo.esei.dai.hybridserver.database.dao;
+
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * DAO en memoria para las representaciones binarias de documentos
+ * XML, almacenadas en un {@link ConcurrentHashMap} indexado por el
+ * UUID del documento. Se pierden al detener el servidor, tras lo cual
+ * se vuelven a generar a medida que se necesitan.
+ *
+ * Puesto que los datos residen en la instancia, debe ser compartida
+ * por todos los clientes (ver DAOFactory).
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public class InfosetMemoryDAO implements InfosetDAO
+{
+
+    // representaciones binarias, por UUID del documento
+    private final ConcurrentMap<String, byte[ ]> infosets = new ConcurrentHashMap<>();
+
+    /**
+     * @see InfosetDAO#find(String)
+     */
+    @Override
+    public byte[ ] find(final String uuid) throws SQLException
+    {
+        return infosets.get(uuid.toLowerCase());
+    }
+
+    /**
+     * @see InfosetDAO#save(String, byte[ ])
+     */
+    @Override
+    public void save(final String uuid, final byte[ ] infoset) throws SQLException
+    {
+        infosets.put(uuid.toLowerCase(), infoset);
+    }
+
+    /**
+     * @see InfosetDAO#delete(String)
+     */
+    @Override
+    public void delete(final String uuid) throws SQLException
+    {
+        infosets.remove(uuid.toLowerCase());
+    }
+
+}
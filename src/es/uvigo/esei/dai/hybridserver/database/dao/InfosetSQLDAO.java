@@ -0,0 +1,109 @@
+package es.uvigo.esei.dai.hybridserver.database.dao;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import es.uvigo.esei.dai.hybridserver.database.ConnectionFactory;
+import es.uvigo.esei.dai.hybridserver.database.PooledConnection;
+
+/**
+ * DAO de SQL para las representaciones binarias de documentos XML,
+ * almacenadas en la tabla "XML_INFOSET" de la base de datos principal
+ * (shard 0), junto al UUID binario del documento.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public class InfosetSQLDAO implements InfosetDAO
+{
+
+    private static final String FIND_SQL   =
+        "SELECT data FROM XML_INFOSET WHERE uuid = ?";
+
+    private static final String UPDATE_SQL =
+        "UPDATE XML_INFOSET SET data = ? WHERE uuid = ?";
+
+    private static final String INSERT_SQL =
+        "INSERT INTO XML_INFOSET (uuid, data) VALUES (?, ?)";
+
+    private static final String DELETE_SQL =
+        "DELETE FROM XML_INFOSET WHERE uuid = ?";
+
+    /**
+     * @see InfosetDAO#find(String)
+     */
+    @Override
+    public byte[ ] find(final String uuid) throws SQLException
+    {
+        try (final PooledConnection database = ConnectionFactory.getConnection()) {
+
+            final PreparedStatement statement =
+                database.prepareStatement(FIND_SQL);
+
+            AbstractDocumentSQLDAO.setUUID(statement, 1, uuid);
+
+            try (final ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getBytes(1) : null;
+            }
+
+        }
+    }
+
+    /**
+     * Actualiza la representacion si ya existe, o la inserta en caso
+     * contrario.
+     * 
+     * @see InfosetDAO#save(String, byte[ ])
+     */
+    @Override
+    public void save(final String uuid, final byte[ ] infoset) throws SQLException
+    {
+        try (final PooledConnection database = ConnectionFactory.getConnection()) {
+
+            final PreparedStatement update =
+                database.prepareStatement(UPDATE_SQL);
+
+            update.setBytes(1, infoset);
+            AbstractDocumentSQLDAO.setUUID(update, 2, uuid);
+
+            if (update.executeUpdate() > 0)
+                return;
+
+            final PreparedStatement insert =
+                database.prepareStatement(INSERT_SQL);
+
+            AbstractDocumentSQLDAO.setUUID(insert, 1, uuid);
+            insert.setBytes(2, infoset);
+
+            try {
+                insert.executeUpdate();
+            } catch (final SQLException sqe) {
+                // insertada a la vez por otro cliente, a partir del
+                // mismo documento
+                if (!ContentStore.isDuplicateKey(sqe))
+                    throw sqe;
+            }
+
+        }
+    }
+
+    /**
+     * @see InfosetDAO#delete(String)
+     */
+    @Override
+    public void delete(final String uuid) throws SQLException
+    {
+        try (final PooledConnection database = ConnectionFactory.getConnection()) {
+
+            final PreparedStatement statement =
+                database.prepareStatement(DELETE_SQL);
+
+            AbstractDocumentSQLDAO.setUUID(statement, 1, uuid);
+            statement.executeUpdate();
+
+        }
+    }
+
+}
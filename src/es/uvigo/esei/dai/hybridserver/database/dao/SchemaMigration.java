@@ -0,0 +1,424 @@
+package es.uvigo.esei.dai.hybridserver.database.dao;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.xml.sax.SAXException;
+
+import es.uvigo.esei.dai.hybridserver.Configuration;
+import es.uvigo.esei.dai.hybridserver.database.ConnectionFactory;
+import es.uvigo.esei.dai.hybridserver.database.PooledConnection;
+
+/**
+ * Herramienta de linea de comandos para la migracion "en caliente" de
+ * las tablas de documentos al esquema con UUID binarios y metadatos
+ * (tamaño y fecha de creacion). Las nuevas tablas (sufijo "_V2") deben
+ * haberse creado previamente mediante los scripts migrate_schema_v2.*
+ * del directorio sql/.
+ *
+ * La herramienta copia los documentos de cada tabla a su nueva version
+ * por bloques, recorriendolos en orden de UUID, mientras el servidor
+ * sigue en marcha con el esquema anterior. A continuacion repite
+ * pasadas de sincronizacion (altas, cambios de contenido y borrados
+ * producidos durante la copia) hasta que una de ellas no encuentra
+ * ningun cambio. Con la opcion "--swap", tras una ultima pasada
+ * (con los servidores ya detenidos) sustituye las tablas antiguas por
+ * las nuevas, que pasan a llamarse igual que las originales; las
+ * antiguas se conservan con el sufijo "_V1". Las tablas solo se
+ * sustituyen si la ultima pasada de todas ellas no encuentra ningun
+ * cambio.
+ *
+ * El almacen de contenidos (tabla CONTENTS) es comun a ambos esquemas
+ * y no se modifica.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public class SchemaMigration
+{
+
+    // numero de documentos leidos en cada bloque
+    private static final int BATCH_SIZE = 500;
+
+    // numero maximo de pasadas de sincronizacion por tabla
+    private static final int MAX_PASSES = 10;
+
+    // sufijos de las tablas nuevas y de las antiguas tras el cambio
+    private static final String NEW_SUFFIX = "_V2";
+    private static final String OLD_SUFFIX = "_V1";
+
+    private final int          shard;
+    private final ContentStore contents;
+
+    /**
+     * Punto de entrada de la herramienta.
+     *
+     * @param args
+     *        La herramienta debe recibir como primer argumento el
+     *        fichero XML de configuracion del sistema y,
+     *        opcionalmente, "--swap" para sustituir las tablas una vez
+     *        copiadas.
+     */
+    public static void main(final String[ ] args)
+    {
+        if (args.length < 1 || args.length > 2
+            || (args.length == 2 && !args[1].equals("--swap"))) {
+            System.err.println("USAGE: java es.uvigo.esei.dai.hybridserver.database.dao.SchemaMigration configuration.xml [--swap]");
+            System.exit(-1);
+        }
+
+        try {
+
+            Configuration.getInstance().readFromFile(args[0]);
+
+        } catch (final IOException | ParserConfigurationException | SAXException e) {
+            System.err.println("Invalid configuration file: " + e.getMessage());
+            System.exit(-2);
+        }
+
+        final boolean swap = args.length == 2;
+
+        try {
+
+            for (int shard = 0; shard < ConnectionFactory.getShardCount(); ++shard) {
+                if (!new SchemaMigration(shard).migrate(swap)) {
+                    System.err.println("[shard " + shard + "] documents still changing after "
+                        + MAX_PASSES + " passes, tables not swapped (stop the servers and retry)");
+                    System.exit(-4);
+                }
+            }
+
+        } catch (final SQLException sqe) {
+            System.err.println("Database error: " + sqe.getMessage());
+            System.exit(-3);
+        }
+    }
+
+    /**
+     * Construye una nueva instancia de la herramienta para uno de los
+     * shards configurados.
+     *
+     * @param shard
+     *        Indice de la base de datos a migrar.
+     */
+    private SchemaMigration(final int shard)
+    {
+        this.shard    = shard;
+        this.contents = new ContentStore(shard);
+    }
+
+    /**
+     * Migra todas las tablas de documentos del shard.
+     *
+     * @param swap
+     *        Si deben sustituirse las tablas antiguas por las nuevas
+     *        una vez sincronizadas.
+     *
+     * @return False si se solicito sustituir las tablas pero no se han
+     *         sustituido porque la ultima pasada de alguna de ellas aun
+     *         encontro cambios, True en caso contrario.
+     *
+     * @throws SQLException
+     *         Si se produce algun error durante el acceso a datos.
+     */
+    private boolean migrate(final boolean swap) throws SQLException
+    {
+        // tabla -> si cuenta con referencia a un XSD
+        final Map<String, Boolean> tables = new LinkedHashMap<>();
+        tables.put("HTML", false);
+        tables.put("XMLT", false);
+        tables.put("XSD" , false);
+        tables.put("XSLT", true);
+
+        // si la ultima pasada de todas las tablas no encontro cambios
+        boolean synced = true;
+
+        for (final Entry<String, Boolean> table : tables.entrySet()) {
+            int pass    = 0;
+            int changes;
+
+            do {
+                changes = copy(table.getKey(), table.getValue())
+                        + purge(table.getKey());
+
+                System.out.println("[shard " + shard + "] " + table.getKey()
+                    + ": pass " + (++pass) + ", " + changes + " documents synchronized");
+            } while (changes > 0 && pass < MAX_PASSES);
+
+            if (changes > 0) synced = false;
+        }
+
+        if (!swap)
+            return true;
+
+        if (!synced)
+            return false;
+
+        swap(tables.keySet().toArray(new String[tables.size()]));
+        System.out.println("[shard " + shard + "] tables swapped");
+
+        return true;
+    }
+
+    /**
+     * Recorre por bloques la tabla antigua, insertando en la nueva los
+     * documentos que no existan en ella y actualizando aquellos cuyo
+     * contenido haya cambiado.
+     *
+     * @param table
+     *        Nombre de la tabla antigua.
+     * @param xsd
+     *        Si la tabla cuenta con referencia a un XSD.
+     *
+     * @return Numero de documentos insertados o actualizados.
+     *
+     * @throws SQLException
+     *         Si se produce algun error durante el acceso a datos.
+     */
+    private int copy(final String table, final boolean xsd) throws SQLException
+    {
+        final String target = table + NEW_SUFFIX;
+
+        final String scan   = "SELECT uuid, " + AbstractDocumentSQLDAO.LEGACY_HASH_NAME
+                            + (xsd ? ", xsd" : "") + " "
+                            + "FROM " + table + " "
+                            + "WHERE uuid > ? ORDER BY uuid";
+
+        final String find   = "SELECT content_hash FROM " + target + " WHERE uuid = ?";
+
+        final String insert = "INSERT INTO " + target + " "
+                            + "(uuid, content_hash, size, created_at" + (xsd ? ", xsd" : "") + ") "
+                            + "VALUES(?, ?, ?, ?" + (xsd ? ", ?" : "") + ")";
+
+        final String update = "UPDATE " + target + " "
+                            + "SET content_hash = ?, size = ? "
+                            + "WHERE uuid = ?";
+
+        try (final PooledConnection database = ConnectionFactory.getConnection(shard)) {
+
+            int    count = 0;
+            String last  = "";
+
+            while (true) {
+                final PreparedStatement statement = database.prepareStatement(scan);
+                statement.setMaxRows(BATCH_SIZE);
+                statement.setString(1, last);
+
+                int rows = 0;
+                try (final ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        ++rows;
+                        last = resultSet.getString(1);
+
+                        final byte[ ] uuid = AbstractDocumentSQLDAO.toBytes(last.trim());
+                        final String  hash = resultSet.getString(2);
+
+                        if (uuid == null || hash == null) {
+                            System.err.println("[shard " + shard + "] " + table
+                                + ": skipping document " + last);
+                            continue;
+                        }
+
+                        final String current = findHash(database, find, uuid);
+                        if (hash.equals(current))
+                            continue;
+
+                        // el contenido puede haber sido reemplazado desde
+                        // que se leyo el documento: se copiara en la
+                        // siguiente pasada
+                        final long size = size(database, hash);
+                        if (size < 0)
+                            continue;
+
+                        final PreparedStatement write;
+                        if (current == null) {
+                            write = database.prepareStatement(insert);
+                            write.setBytes(1, uuid);
+                            write.setString(2, hash);
+                            write.setLong(3, size);
+                            write.setTimestamp(4, new Timestamp(System.currentTimeMillis()));
+                            if (xsd) write.setBytes(5, AbstractDocumentSQLDAO.toBytes(resultSet.getString(3).trim()));
+                        } else {
+                            write = database.prepareStatement(update);
+                            write.setString(1, hash);
+                            write.setLong(2, size);
+                            write.setBytes(3, uuid);
+                        }
+
+                        count += write.executeUpdate();
+                    }
+                }
+
+                if (rows < BATCH_SIZE)
+                    return count;
+            }
+        }
+    }
+
+    /**
+     * Elimina de la tabla nueva los documentos que ya no existen en la
+     * antigua (borrados durante la copia).
+     *
+     * @param table
+     *        Nombre de la tabla antigua.
+     *
+     * @return Numero de documentos eliminados.
+     *
+     * @throws SQLException
+     *         Si se produce algun error durante el acceso a datos.
+     */
+    private int purge(final String table) throws SQLException
+    {
+        final String target = table + NEW_SUFFIX;
+
+        final String scan   = "SELECT uuid FROM " + target + " "
+                            + "WHERE uuid > ? ORDER BY uuid";
+
+        final String exists = "SELECT COUNT(*) FROM " + table + " WHERE uuid = ?";
+
+        final String delete = "DELETE FROM " + target + " WHERE uuid = ?";
+
+        try (final PooledConnection database = ConnectionFactory.getConnection(shard)) {
+
+            int     count = 0;
+            byte[ ] last  = new byte[16]; // menor UUID posible
+
+            while (true) {
+                final PreparedStatement statement = database.prepareStatement(scan);
+                statement.setMaxRows(BATCH_SIZE);
+                statement.setBytes(1, last);
+
+                int rows = 0;
+                try (final ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        ++rows;
+                        last = resultSet.getBytes(1);
+
+                        final PreparedStatement check = database.prepareStatement(exists);
+                        check.setString(1, AbstractDocumentSQLDAO.toUUID(last));
+
+                        try (final ResultSet found = check.executeQuery()) {
+                            if (found.next() && found.getInt(1) != 0)
+                                continue;
+                        }
+
+                        final PreparedStatement remove = database.prepareStatement(delete);
+                        remove.setBytes(1, last);
+                        count += remove.executeUpdate();
+                    }
+                }
+
+                if (rows < BATCH_SIZE)
+                    return count;
+            }
+        }
+    }
+
+    /**
+     * Sustituye las tablas antiguas por las nuevas, renombrando las
+     * primeras con el sufijo "_V1" y las segundas con el nombre
+     * original. En MySQL se realiza mediante una unica sentencia
+     * atomica; en el resto de bases de datos, dentro de una
+     * transaccion.
+     *
+     * @param tables
+     *        Nombres de las tablas antiguas.
+     *
+     * @throws SQLException
+     *         Si se produce algun error durante el acceso a datos.
+     */
+    private void swap(final String[ ] tables) throws SQLException
+    {
+        try (final PooledConnection database = ConnectionFactory.getConnection(shard)) {
+
+            final String product =
+                database.getConnection().getMetaData().getDatabaseProductName();
+
+            try (final Statement statement = database.getConnection().createStatement()) {
+
+                if (product.toLowerCase().contains("mysql")) {
+                    final StringBuilder rename = new StringBuilder("RENAME TABLE ");
+                    for (int i = 0; i < tables.length; ++i) {
+                        if (i > 0) rename.append(", ");
+                        rename.append(tables[i]).append(" TO ").append(tables[i]).append(OLD_SUFFIX)
+                              .append(", ")
+                              .append(tables[i]).append(NEW_SUFFIX).append(" TO ").append(tables[i]);
+                    }
+
+                    statement.executeUpdate(rename.toString());
+                    return;
+                }
+
+                database.begin();
+
+                try {
+
+                    for (final String table : tables) {
+                        statement.executeUpdate("RENAME TABLE " + table + " TO " + table + OLD_SUFFIX);
+                        statement.executeUpdate("RENAME TABLE " + table + NEW_SUFFIX + " TO " + table);
+                    }
+
+                    database.commit();
+
+                } catch (final SQLException sqe) {
+                    database.rollback();
+                    throw sqe;
+                }
+            }
+        }
+    }
+
+    /**
+     * Obtiene el hash del contenido de un documento en la tabla nueva.
+     */
+    private static String findHash(final PooledConnection database, final String sql, final byte[ ] uuid)
+        throws SQLException
+    {
+        final PreparedStatement statement = database.prepareStatement(sql);
+        statement.setBytes(1, uuid);
+
+        try (final ResultSet resultSet = statement.executeQuery()) {
+            return resultSet.next() ? resultSet.getString(1) : null;
+        }
+    }
+
+    /**
+     * Calcula el tamaño en bytes (en UTF-8) de un contenido del
+     * almacen de contenidos, o -1 si ya no existe.
+     */
+    private long size(final PooledConnection database, final String hash)
+        throws SQLException
+    {
+        final PreparedStatement statement = database.prepareStatement(
+            "SELECT " + ContentStore.CONTENT_NAME + ", "
+            + ContentStore.FORMAT_NAME + ", " + ContentStore.DATA_NAME + " "
+            + "FROM " + ContentStore.TABLE_NAME + " "
+            + "WHERE " + ContentStore.HASH_NAME + " = ?"
+        );
+
+        statement.setString(1, hash);
+
+        try (final ResultSet resultSet = statement.executeQuery()) {
+            if (!resultSet.next())
+                return -1;
+
+            try (final Reader content = contents.readContentStream(resultSet)) {
+                return ContentStore.readBytes(content).length;
+            }
+        } catch (final IOException ioe) {
+            throw new SQLException("Error while reading content " + hash, ioe);
+        }
+    }
+
+}
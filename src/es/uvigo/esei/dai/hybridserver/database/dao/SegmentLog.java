@@ -0,0 +1,791 @@
+package es.uvigo.esei.dai.hybridserver.database.dao;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Motor de almacenamiento estructurado en log para los documentos de
+ * un tipo concreto. Los documentos se escriben siempre al final de un
+ * fichero de segmento ("append-only"), y un indice en memoria asocia
+ * cada UUID con la posicion (segmento, desplazamiento y longitud) de
+ * su ultima version. Los borrados se registran como "tombstones".
+ *
+ * Cuando un segmento alcanza su tamaño maximo se sella y se proyecta
+ * en memoria ({@link MappedByteBuffer}), de modo que las lecturas se
+ * realizan directamente sobre vistas de dicha proyeccion. Un hilo en
+ * segundo plano compacta los segmentos sellados con mas de la mitad
+ * de su contenido obsoleto, copiando al segmento activo los registros
+ * aun vigentes y eliminando el fichero.
+ *
+ * Formato de cada registro: tipo (1 byte), UUID (2 long), longitud de
+ * los metadatos (int), longitud del contenido (int), metadatos
+ * (UTF-8), hash SHA-256 del contenido (32 bytes, solo en inserciones),
+ * contenido (UTF-8) y CRC32 de todo lo anterior (int). Al arrancar se
+ * reconstruye el indice recorriendo todos los segmentos en orden, y
+ * se descarta cualquier registro incompleto al final del segmento
+ * activo (escritura interrumpida). Un registro incorrecto en un
+ * segmento sellado supone una corrupcion del log, y se aborta la
+ * carga sin modificarlo.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+class SegmentLog implements Closeable
+{
+
+    // tipos de registro
+    private static final byte PUT    = 1;
+    private static final byte DELETE = 2;
+
+    // tamaños fijos dentro de cada registro
+    private static final int HEADER_SIZE = 1 + 8 + 8 + 4 + 4;
+    private static final int HASH_SIZE   = 32;
+    private static final int CRC_SIZE    = 4;
+
+    // tamaño a partir del cual se sella el segmento activo
+    private static final long SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    // proporcion de datos vigentes por debajo de la cual se compacta
+    // un segmento sellado, y periodo de comprobacion (segundos)
+    private static final double COMPACTION_THRESHOLD = 0.5;
+    private static final long   COMPACTION_PERIOD    = 30;
+
+    // hilo (unico para todos los logs) que realiza la compactacion
+    private static final ScheduledExecutorService COMPACTOR =
+        Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(final Runnable runnable)
+            {
+                final Thread thread = new Thread(runnable, "segment-log-compactor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+    private final File directory;
+
+    // indice: ultima version vigente de cada documento
+    private final ConcurrentMap<UUID, Location> index =
+        new ConcurrentHashMap<>();
+
+    // segmentos existentes, ordenados por identificador
+    private final ConcurrentNavigableMap<Long, Segment> segments =
+        new ConcurrentSkipListMap<>();
+
+    // serializa las escrituras y las actualizaciones del indice, de
+    // modo que este refleje siempre el orden del log
+    private final Object writeLock = new Object();
+
+    private volatile Segment active;
+    private volatile boolean closed = false;
+
+    // compactacion periodica del log, cancelada al cerrarlo
+    private final ScheduledFuture<?> compaction;
+
+    /**
+     * Abre (creandolo si no existe) el log almacenado en el
+     * directorio recibido, reconstruyendo el indice a partir de los
+     * segmentos existentes y programando su compactacion periodica.
+     *
+     * @param directory
+     *        Directorio donde se almacenan los segmentos del log.
+     *
+     * @throws IOException
+     *         Si se produce algun error accediendo a los segmentos.
+     */
+    SegmentLog(final File directory) throws IOException
+    {
+        this.directory = directory;
+
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create log directory " + directory);
+
+        try {
+            recover();
+        } catch (final IOException | RuntimeException e) {
+            closeSegments();
+            throw e;
+        }
+
+        compaction = COMPACTOR.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run( )
+            {
+                try {
+                    compact();
+                } catch (final IOException ioe) {
+                    System.err.println("Log compaction failed: " + ioe.getMessage());
+                }
+            }
+        }, COMPACTION_PERIOD, COMPACTION_PERIOD, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Devuelve la ultima version vigente de un documento.
+     *
+     * @param key
+     *        Identificador del documento.
+     *
+     * @return {@link Location} del documento, o null si no existe.
+     */
+    Location get(final UUID key)
+    {
+        return index.get(key);
+    }
+
+    /**
+     * Devuelve el conjunto de identificadores de todos los documentos
+     * vigentes. Es una vista del indice, que puede cambiar mientras
+     * se recorre.
+     *
+     * @return Set con los identificadores de los documentos.
+     */
+    Set<UUID> keys( )
+    {
+        return index.keySet();
+    }
+
+    /**
+     * Añade un nuevo documento al log, siempre que no exista ya.
+     *
+     * @param key
+     *        Identificador del documento.
+     * @param metadata
+     *        Metadatos del documento (e.g. referencia a un XSD).
+     * @param content
+     *        Contenido del documento, codificado en UTF-8.
+     *
+     * @return True si se ha añadido, False si ya existia.
+     *
+     * @throws IOException
+     *         Si se produce algun error durante la escritura.
+     */
+    boolean insert(final UUID key, final String metadata, final byte[ ] content)
+        throws IOException
+    {
+        final ByteBuffer record = encode(PUT, key, metadata, content);
+
+        synchronized (writeLock) {
+            if (index.containsKey(key))
+                return false;
+
+            index.put(key, append(record));
+            return true;
+        }
+    }
+
+    /**
+     * Añade una nueva version de un documento existente al log.
+     *
+     * @param key
+     *        Identificador del documento.
+     * @param metadata
+     *        Metadatos del documento (e.g. referencia a un XSD).
+     * @param content
+     *        Contenido del documento, codificado en UTF-8.
+     *
+     * @return True si se ha añadido, False si el documento no existe.
+     *
+     * @throws IOException
+     *         Si se produce algun error durante la escritura.
+     */
+    boolean replace(final UUID key, final String metadata, final byte[ ] content)
+        throws IOException
+    {
+        final ByteBuffer record = encode(PUT, key, metadata, content);
+
+        synchronized (writeLock) {
+            if (!index.containsKey(key))
+                return false;
+
+            supersede(index.put(key, append(record)));
+            return true;
+        }
+    }
+
+    /**
+     * Elimina un documento, añadiendo un "tombstone" al log.
+     *
+     * @param key
+     *        Identificador del documento.
+     *
+     * @return True si se ha eliminado, False si el documento no
+     *         existe.
+     *
+     * @throws IOException
+     *         Si se produce algun error durante la escritura.
+     */
+    boolean remove(final UUID key) throws IOException
+    {
+        final ByteBuffer record = encode(DELETE, key, "", null);
+
+        synchronized (writeLock) {
+            if (!index.containsKey(key))
+                return false;
+
+            // los tombstones no son datos vigentes
+            append(record).release();
+            supersede(index.remove(key));
+            return true;
+        }
+    }
+
+    /**
+     * Compacta todos los segmentos sellados cuya proporcion de datos
+     * vigentes sea inferior al umbral, copiando sus registros vigentes
+     * al segmento activo y eliminando despues el fichero.
+     *
+     * @throws IOException
+     *         Si se produce algun error durante la compactacion.
+     */
+    void compact( ) throws IOException
+    {
+        for (final Segment segment : segments.values()) {
+            if (closed) return;
+
+            if (segment == active || segment.live.get() >= segment.size * COMPACTION_THRESHOLD)
+                continue;
+
+            // los tombstones del segmento mas antiguo ya no ocultan a
+            // ningun registro anterior, por lo que pueden descartarse
+            relocate(segment, segment == segments.firstEntry().getValue());
+
+            segments.remove(segment.id);
+            segment.channel.close();
+
+            // la proyeccion en memoria sigue siendo valida para las
+            // lecturas en curso aunque se elimine el fichero
+            if (!segment.file.delete())
+                segment.file.deleteOnExit();
+        }
+    }
+
+    /**
+     * Cierra el log, cancelando su compactacion periodica y cerrando
+     * los ficheros de todos sus segmentos. Cualquier escritura
+     * posterior fallara.
+     *
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close( )
+    {
+        compaction.cancel(false);
+
+        synchronized (writeLock) {
+            closed = true;
+            closeSegments();
+        }
+    }
+
+    /**
+     * Cierra los ficheros de todos los segmentos abiertos, ignorando
+     * los errores que se produzcan durante el cierre.
+     */
+    private void closeSegments( )
+    {
+        for (final Segment segment : segments.values()) {
+            try {
+                segment.channel.close();
+            } catch (final IOException ioe) {
+                System.err.println("Error closing segment " + segment.file
+                    + ": " + ioe.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Escribe un registro al final del segmento activo, sellandolo y
+     * abriendo uno nuevo si se supera el tamaño maximo. Debe
+     * invocarse con el cerrojo de escritura adquirido.
+     *
+     * @param record
+     *        Registro completo a escribir.
+     *
+     * @return {@link Location} del registro escrito.
+     *
+     * @throws IOException
+     *         Si se produce algun error durante la escritura.
+     */
+    private Location append(final ByteBuffer record) throws IOException
+    {
+        if (active.size > 0 && active.size + record.remaining() > SEGMENT_SIZE)
+            roll();
+
+        final Segment segment = active;
+        final long    offset  = segment.append(record);
+
+        record.rewind();
+        final Location location = parse(segment, record, offset);
+        segment.live.addAndGet(location.length);
+
+        return location;
+    }
+
+    /**
+     * Descuenta de los datos vigentes de su segmento una version de
+     * un documento que ha dejado de estarlo.
+     *
+     * @param previous
+     *        Version anterior del documento, o null.
+     */
+    private static void supersede(final Location previous)
+    {
+        if (previous != null) previous.release();
+    }
+
+    /**
+     * Sella el segmento activo y abre uno nuevo.
+     *
+     * @throws IOException
+     *         Si se produce algun error creando el nuevo segmento.
+     */
+    private void roll( ) throws IOException
+    {
+        active.seal();
+
+        final Segment next = new Segment(active.id + 1, directory);
+        segments.put(next.id, next);
+        active = next;
+    }
+
+    /**
+     * Copia al segmento activo los registros vigentes de un segmento
+     * sellado, actualizando el indice.
+     *
+     * @param segment
+     *        Segmento a compactar.
+     * @param oldest
+     *        Si se trata del segmento mas antiguo del log, en cuyo
+     *        caso sus tombstones se descartan.
+     *
+     * @throws IOException
+     *         Si se produce algun error durante la copia.
+     */
+    private void relocate(final Segment segment, final boolean oldest)
+        throws IOException
+    {
+        final ByteBuffer data = segment.read(0, (int) segment.size);
+
+        while (data.hasRemaining()) {
+            final Location record = parse(segment, data, data.position());
+            if (record == null) break;
+
+            final ByteBuffer raw = segment.read(record.offset, record.length);
+
+            synchronized (writeLock) {
+                final Location current = index.get(record.key);
+
+                if (record.isDelete()) {
+                    // un tombstone solo es necesario si un segmento
+                    // anterior puede contener una version del documento
+                    if (!oldest && current == null)
+                        append(raw).release();
+                } else if (current != null && current.segment == segment && current.offset == record.offset) {
+                    supersede(index.put(record.key, append(raw)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reconstruye el indice a partir de todos los segmentos
+     * existentes, en orden, y abre el segmento activo.
+     *
+     * @throws IOException
+     *         Si se produce algun error leyendo los segmentos.
+     */
+    private void recover( ) throws IOException
+    {
+        final File[ ] files = directory.listFiles(new FileFilter()
+        {
+            @Override
+            public boolean accept(final File file)
+            {
+                return file.getName().matches("\\d+\\.log");
+            }
+        });
+
+        Arrays.sort(files);
+
+        for (int i = 0; i < files.length; ++i) {
+            final long id = Long.parseLong(files[i].getName().replace(".log", ""));
+            final Segment segment = new Segment(id, directory);
+
+            segments.put(id, segment);
+            load(segment, i == files.length - 1);
+        }
+
+        if (segments.isEmpty()) {
+            active = new Segment(1, directory);
+            segments.put(active.id, active);
+        } else {
+            active = segments.lastEntry().getValue();
+
+            for (final Segment segment : segments.headMap(active.id).values())
+                segment.seal();
+        }
+    }
+
+    /**
+     * Recorre todos los registros de un segmento, aplicandolos al
+     * indice. Si se trata del segmento activo (el ultimo), lo trunca
+     * tras el ultimo registro completo; un segmento sellado nunca se
+     * trunca, ya que solo pudo sellarse tras escribirse por completo.
+     *
+     * @param segment
+     *        Segmento a cargar.
+     * @param last
+     *        Si se trata del ultimo segmento del log.
+     *
+     * @throws IOException
+     *         Si se produce algun error leyendo el segmento, o si un
+     *         segmento sellado contiene registros incorrectos.
+     */
+    private void load(final Segment segment, final boolean last) throws IOException
+    {
+        final ByteBuffer data = segment.channel.map(
+            MapMode.READ_ONLY, 0, segment.channel.size()
+        );
+
+        long valid = 0;
+        while (data.hasRemaining()) {
+            final Location record = parse(segment, data, data.position());
+            if (record == null) break;
+
+            valid = data.position();
+
+            if (record.isDelete()) {
+                supersede(index.remove(record.key));
+            } else {
+                segment.live.addAndGet(record.length);
+                supersede(index.put(record.key, record));
+            }
+        }
+
+        // registro incorrecto en un segmento sellado: el fichero se
+        // conserva intacto para poder examinarlo o recuperarlo
+        if (valid < segment.channel.size() && !last)
+            throw new IOException("Corrupt record at offset " + valid
+                + " of sealed segment " + segment.file);
+
+        // registro incompleto o corrupto al final del segmento activo
+        // (e.g. escritura interrumpida), se descarta
+        if (valid < segment.channel.size()) {
+            System.err.println("Discarding " + (segment.channel.size() - valid)
+                + " trailing bytes from " + segment.file);
+            segment.channel.truncate(valid);
+        }
+
+        segment.size = valid;
+    }
+
+    /**
+     * Interpreta el registro que comienza en la posicion actual del
+     * buffer recibido, avanzando dicha posicion hasta el final del
+     * mismo.
+     *
+     * @param segment
+     *        Segmento al que pertenece el registro.
+     * @param data
+     *        Buffer posicionado al inicio del registro.
+     * @param offset
+     *        Desplazamiento del registro dentro del segmento.
+     *
+     * @return {@link Location} del registro, o null si el registro
+     *         esta incompleto o su CRC no es correcto.
+     */
+    private static Location parse(final Segment segment, final ByteBuffer data, final long offset)
+    {
+        final int start = data.position();
+        if (data.remaining() < HEADER_SIZE + CRC_SIZE)
+            return null;
+
+        final byte type          = data.get();
+        final UUID key           = new UUID(data.getLong(), data.getLong());
+        final int  metaLength    = data.getInt();
+        final int  contentLength = data.getInt();
+
+        if ((type != PUT && type != DELETE) || metaLength < 0 || contentLength < 0)
+            return null;
+
+        final int hashLength = type == PUT ? HASH_SIZE : 0;
+        if ((long) data.remaining() < (long) metaLength + hashLength + contentLength + CRC_SIZE)
+            return null;
+
+        final byte[ ] meta = new byte[metaLength];
+        data.get(meta);
+
+        final byte[ ] hash = new byte[hashLength];
+        data.get(hash);
+
+        final int contentOffset = data.position() - start;
+        data.position(data.position() + contentLength);
+
+        final CRC32 crc = new CRC32();
+        update(crc, data, start, data.position());
+        if ((int) crc.getValue() != data.getInt())
+            return null;
+
+        return new Location(
+            segment, key, type, offset, data.position() - start,
+            contentOffset, contentLength,
+            new String(meta, ContentStore.CHARSET),
+            type == PUT ? toHex(hash) : null
+        );
+    }
+
+    /**
+     * Construye un registro completo, incluyendo su CRC.
+     *
+     * @param type
+     *        Tipo de registro (PUT o DELETE).
+     * @param key
+     *        Identificador del documento.
+     * @param metadata
+     *        Metadatos del documento.
+     * @param content
+     *        Contenido del documento (null para DELETE).
+     *
+     * @return {@link ByteBuffer} con el registro, listo para escribir.
+     */
+    private static ByteBuffer encode(final byte type, final UUID key, final String metadata, final byte[ ] content)
+    {
+        final byte[ ] meta = metadata.getBytes(ContentStore.CHARSET);
+        final byte[ ] body = content == null ? new byte[0] : content;
+        final byte[ ] hash = type == PUT ? fromHex(ContentStore.hash(body)) : new byte[0];
+
+        final ByteBuffer record = ByteBuffer.allocate(
+            HEADER_SIZE + meta.length + hash.length + body.length + CRC_SIZE
+        );
+
+        record.put(type);
+        record.putLong(key.getMostSignificantBits());
+        record.putLong(key.getLeastSignificantBits());
+        record.putInt(meta.length);
+        record.putInt(body.length);
+        record.put(meta);
+        record.put(hash);
+        record.put(body);
+
+        final CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, record.position());
+        record.putInt((int) crc.getValue());
+
+        record.flip();
+        return record;
+    }
+
+    /**
+     * Actualiza un CRC32 con un rango de bytes de un buffer, sin
+     * modificar la posicion del mismo.
+     */
+    private static void update(final CRC32 crc, final ByteBuffer data, final int from, final int to)
+    {
+        final ByteBuffer range = data.duplicate();
+        range.limit(to);
+        range.position(from);
+
+        final byte[ ] buffer = new byte[8192];
+        while (range.hasRemaining()) {
+            final int length = Math.min(buffer.length, range.remaining());
+            range.get(buffer, 0, length);
+            crc.update(buffer, 0, length);
+        }
+    }
+
+    private static String toHex(final byte[ ] bytes)
+    {
+        final StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (final byte b : bytes)
+            hex.append(String.format("%02x", b & 0xff));
+
+        return hex.toString();
+    }
+
+    private static byte[ ] fromHex(final String hex)
+    {
+        final byte[ ] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; ++i)
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+
+        return bytes;
+    }
+
+    /**
+     * Posicion de un registro dentro del log, junto a los datos de su
+     * cabecera necesarios sin leer el contenido.
+     */
+    static final class Location
+    {
+
+        private final Segment segment;
+        private final UUID    key;
+        private final byte    type;
+        private final long    offset;        // inicio del registro
+        private final int     length;        // longitud del registro
+        private final int     contentOffset; // relativo al registro
+        private final int     contentLength;
+        private final String  metadata;
+        private final String  hash;
+
+        private Location(
+            final Segment segment, final UUID key, final byte type,
+            final long offset, final int length,
+            final int contentOffset, final int contentLength,
+            final String metadata, final String hash
+        ) {
+            this.segment       = segment;
+            this.key           = key;
+            this.type          = type;
+            this.offset        = offset;
+            this.length        = length;
+            this.contentOffset = contentOffset;
+            this.contentLength = contentLength;
+            this.metadata      = metadata;
+            this.hash          = hash;
+        }
+
+        /**
+         * Devuelve los metadatos del documento.
+         *
+         * @return String con los metadatos (vacio si no tiene).
+         */
+        String getMetadata( )
+        {
+            return metadata;
+        }
+
+        /**
+         * Devuelve el hash SHA-256 del contenido del documento.
+         *
+         * @return String con el hash en hexadecimal.
+         */
+        String getHash( )
+        {
+            return hash;
+        }
+
+        /**
+         * Devuelve una vista de solo lectura sobre el contenido del
+         * documento (codificado en UTF-8). Para segmentos sellados es
+         * una vista directa sobre su proyeccion en memoria.
+         *
+         * @return {@link ByteBuffer} con el contenido.
+         *
+         * @throws IOException
+         *         Si se produce algun error durante la lectura.
+         */
+        ByteBuffer readContent( ) throws IOException
+        {
+            return segment.read(offset + contentOffset, contentLength);
+        }
+
+        private boolean isDelete( )
+        {
+            return type == DELETE;
+        }
+
+        private void release( )
+        {
+            segment.live.addAndGet(-length);
+        }
+
+    }
+
+    /**
+     * Fichero de segmento del log.
+     */
+    private static final class Segment
+    {
+
+        private final long        id;
+        private final File        file;
+        private final FileChannel channel;
+
+        // bytes de registros vigentes dentro del segmento
+        private final AtomicLong live = new AtomicLong();
+
+        private volatile long             size;
+        private volatile MappedByteBuffer mapped; // solo si esta sellado
+
+        @SuppressWarnings("resource")
+        private Segment(final long id, final File directory) throws IOException
+        {
+            this.id      = id;
+            this.file    = new File(directory, String.format("%012d.log", id));
+            this.channel = new RandomAccessFile(file, "rw").getChannel();
+            this.size    = channel.size();
+        }
+
+        private long append(final ByteBuffer record) throws IOException
+        {
+            final long offset = size;
+
+            long position = offset;
+            while (record.hasRemaining())
+                position += channel.write(record, position);
+
+            channel.force(false);
+            size = position;
+
+            return offset;
+        }
+
+        private void seal( ) throws IOException
+        {
+            mapped = channel.map(MapMode.READ_ONLY, 0, size);
+        }
+
+        private ByteBuffer read(final long offset, final int length)
+            throws IOException
+        {
+            final MappedByteBuffer map = mapped;
+
+            if (map != null) {
+                final ByteBuffer view = map.duplicate();
+                view.limit((int) offset + length);
+                view.position((int) offset);
+
+                return view.slice();
+            }
+
+            // segmento activo, aun creciendo: lectura posicional
+            final ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0)
+                    throw new EOFException("Unexpected end of segment " + file);
+            }
+
+            buffer.flip();
+            return buffer.asReadOnlyBuffer();
+        }
+
+    }
+
+}
@@ -0,0 +1,297 @@
+package es.uvigo.esei.dai.hybridserver.database.dao;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import es.uvigo.esei.dai.hybridserver.database.entity.AbstractDocument;
+import es.uvigo.esei.dai.hybridserver.exception.DocumentNotFoundException;
+
+/**
+ * DAO que reparte los documentos de un tipo entre varios DAO (uno por
+ * shard), eligiendo el shard de cada documento a partir del hash de su
+ * UUID. Las operaciones sobre un documento concreto se delegan
+ * unicamente en el DAO de su shard, mientras que los listados se
+ * solicitan en paralelo a todos los shards y se unen.
+ *
+ * Puesto que la ubicacion de un documento depende unicamente de su
+ * UUID, cualquier referencia entre documentos (e.g. el XSD de un XSLT)
+ * se resuelve a traves del DAO correspondiente sin necesidad de saber
+ * en que shard se encuentra.
+ *
+ * El shard de cada documento se calcula como el hash de su UUID modulo
+ * el numero de shards, por lo que el numero (y orden) de shards queda
+ * fijado en cuanto existen documentos: si varia, los documentos
+ * existentes pasan a buscarse en un shard distinto del que los
+ * contiene y dejan de encontrarse. Cambiarlo requiere redistribuir
+ * antes los documentos de todos los shards segun la nueva
+ * configuracion.
+ *
+ * @param <D>
+ *        Documento al que estara asociado el DAO. Debe,
+ *        obligatoriamente, heredar de {@link AbstractDocument}.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public class ShardedDocumentDAO<D extends AbstractDocument> implements DocumentDAO<D>
+{
+
+    // hilos (compartidos por todos los DAO) para consultar los shards
+    // en paralelo
+    private static final ExecutorService FAN_OUT =
+        Executors.newCachedThreadPool(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(final Runnable runnable)
+            {
+                final Thread thread = new Thread(runnable, "shard-fan-out");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+    // DAO de cada shard, por indice
+    private final List<DocumentDAO<D>> shards;
+
+    /**
+     * Construye una nueva instancia del DAO, dados los DAO de cada uno
+     * de los shards.
+     *
+     * @param shards
+     *        Lista con el DAO de cada shard. Su numero y orden
+     *        determinan la ubicacion de los documentos, por lo que no
+     *        deben variar una vez existen documentos.
+     */
+    public ShardedDocumentDAO(final List<DocumentDAO<D>> shards)
+    {
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+    }
+
+    /**
+     * @see DocumentDAO#exists(String)
+     */
+    @Override
+    public boolean exists(final String uuid) throws SQLException
+    {
+        return shard(uuid).exists(uuid);
+    }
+
+    /**
+     * Solicita en paralelo el listado de cada shard y los une.
+     *
+     * @see DocumentDAO#list()
+     */
+    @Override
+    public List<D> list( ) throws SQLException
+    {
+        final List<Callable<List<D>>> tasks = new ArrayList<>(shards.size());
+
+        for (final DocumentDAO<D> shard : shards) {
+            tasks.add(new Callable<List<D>>()
+            {
+                @Override
+                public List<D> call( ) throws SQLException
+                {
+                    return shard.list();
+                }
+            });
+        }
+
+        return fanOut(tasks);
+    }
+
+    /**
+     * Solicita en paralelo el listado de UUID de cada shard y los une.
+     *
+     * @see DocumentDAO#listUUIDs()
+     */
+    @Override
+    public List<String> listUUIDs( ) throws SQLException
+    {
+        final List<Callable<List<String>>> tasks = new ArrayList<>(shards.size());
+
+        for (final DocumentDAO<D> shard : shards) {
+            tasks.add(new Callable<List<String>>()
+            {
+                @Override
+                public List<String> call( ) throws SQLException
+                {
+                    return shard.listUUIDs();
+                }
+            });
+        }
+
+        return fanOut(tasks);
+    }
+
+    /**
+     * @see DocumentDAO#get(String)
+     */
+    @Override
+    public D get(final String uuid) throws DocumentNotFoundException,
+        SQLException
+    {
+        return shard(uuid).get(uuid);
+    }
+
+    /**
+     * @see DocumentDAO#find(String)
+     */
+    @Override
+    public D find(final String uuid) throws SQLException
+    {
+        return shard(uuid).find(uuid);
+    }
+
+    /**
+     * @see DocumentDAO#findLazy(String)
+     */
+    @Override
+    public D findLazy(final String uuid) throws SQLException
+    {
+        return shard(uuid).findLazy(uuid);
+    }
+
+    /**
+     * @see DocumentDAO#getHash(String)
+     */
+    @Override
+    public String getHash(final String uuid) throws SQLException
+    {
+        return shard(uuid).getHash(uuid);
+    }
+
+    /**
+     * @see DocumentDAO#openContent(String)
+     */
+    @Override
+    public Reader openContent(final String uuid) throws SQLException
+    {
+        return shard(uuid).openContent(uuid);
+    }
+
+    /**
+     * @see DocumentDAO#openEncodedContent(String, String)
+     */
+    @Override
+    public InputStream openEncodedContent(final String uuid, final String encoding)
+        throws SQLException
+    {
+        return shard(uuid).openEncodedContent(uuid, encoding);
+    }
+
+    /**
+     * @see DocumentDAO#create(AbstractDocument)
+     */
+    @Override
+    public void create(final D document) throws SQLException
+    {
+        shard(document.getUUID()).create(document);
+    }
+
+    /**
+     * @see DocumentDAO#update(AbstractDocument)
+     */
+    @Override
+    public void update(final D document)
+        throws DocumentNotFoundException, SQLException
+    {
+        shard(document.getUUID()).update(document);
+    }
+
+    /**
+     * @see DocumentDAO#delete(String)
+     */
+    @Override
+    public void delete(final String uuid)
+        throws DocumentNotFoundException, SQLException
+    {
+        shard(uuid).delete(uuid);
+    }
+
+    /**
+     * Devuelve el indice del shard en el que se ubica un documento,
+     * dado su UUID y el numero de shards existentes.
+     *
+     * @param uuid
+     *        String con el identificador UUID del documento.
+     * @param count
+     *        Numero de shards.
+     *
+     * @return Indice del shard, entre 0 y count (excluido).
+     */
+    static int getShard(final String uuid, final int count)
+    {
+        int hash;
+        try {
+            hash = UUID.fromString(uuid).hashCode();
+        } catch (final IllegalArgumentException | NullPointerException e) {
+            // no es un UUID valido, no existira en ningun shard pero
+            // se le asigna uno igualmente
+            hash = uuid == null ? 0 : uuid.hashCode();
+        }
+
+        return (hash & Integer.MAX_VALUE) % count;
+    }
+
+    /**
+     * Devuelve el DAO del shard en el que se ubica un documento.
+     *
+     * @param uuid
+     *        String con el identificador UUID del documento.
+     *
+     * @return DAO del shard del documento.
+     */
+    private DocumentDAO<D> shard(final String uuid)
+    {
+        return shards.get(getShard(uuid, shards.size()));
+    }
+
+    /**
+     * Ejecuta en paralelo las tareas recibidas (una por shard) y une
+     * sus resultados, en el orden de los shards.
+     *
+     * @param tasks
+     *        Tareas a ejecutar.
+     *
+     * @return Lista con la union de los resultados de todas las
+     *         tareas.
+     *
+     * @throws SQLException
+     *         Si alguna de las tareas falla.
+     */
+    private static <T> List<T> fanOut(final List<Callable<List<T>>> tasks)
+        throws SQLException
+    {
+        try {
+
+            final List<T> merged = new ArrayList<>();
+            for (final Future<List<T>> result : FAN_OUT.invokeAll(tasks))
+                merged.addAll(result.get());
+
+            return merged;
+
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while querying shards", ie);
+        } catch (final ExecutionException ee) {
+            if (ee.getCause() instanceof SQLException)
+                throw (SQLException) ee.getCause();
+
+            throw new SQLException("Error while querying shards", ee.getCause());
+        }
+    }
+
+}
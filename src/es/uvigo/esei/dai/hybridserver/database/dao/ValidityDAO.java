@@ -0,0 +1,73 @@
+package es.uvigo.esei.dai.hybridserver.database.dao;
+
+import java.sql.SQLException;
+
+/**
+ * Interfaz que todo DAO para los resultados de validacion de
+ * documentos XML con documentos XSD debe cumplir. Puesto que los
+ * documentos no se modifican una vez almacenados, el resultado de
+ * validar un par (XML, XSD) no cambia mientras ambos existan.
+ * 
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public interface ValidityDAO
+{
+
+    /**
+     * Busca el resultado de validar un documento XML con un XSD.
+     * 
+     * @param xml
+     *        String con el identificador UUID del documento XML.
+     * @param xsd
+     *        String con el identificador UUID del documento XSD.
+     * 
+     * @return True si el XML es valido, False si no lo es, o null si
+     *         no se conoce el resultado.
+     * 
+     * @throws SQLException
+     *         Si se produce algun error durante el acceso a datos.
+     */
+    public Boolean find(final String xml, final String xsd) throws SQLException;
+
+    /**
+     * Almacena el resultado de validar un documento XML con un XSD,
+     * reemplazando el anterior si existe.
+     * 
+     * @param xml
+     *        String con el identificador UUID del documento XML.
+     * @param xsd
+     *        String con el identificador UUID del documento XSD.
+     * @param valid
+     *        Si el XML es valido o no.
+     * 
+     * @throws SQLException
+     *         Si se produce algun error durante el acceso a datos.
+     */
+    public void save(final String xml, final String xsd, final boolean valid)
+        throws SQLException;
+
+    /**
+     * Elimina todos los resultados de un documento XML.
+     * 
+     * @param xml
+     *        String con el identificador UUID del documento XML.
+     * 
+     * @throws SQLException
+     *         Si se produce algun error durante el acceso a datos.
+     */
+    public void deleteXML(final String xml) throws SQLException;
+
+    /**
+     * Elimina todos los resultados de un documento XSD.
+     * 
+     * @param xsd
+     *        String con el identificador UUID del documento XSD.
+     * 
+     * @throws SQLException
+     *         Si se produce algun error durante el acceso a datos.
+     */
+    public void deleteXSD(final String xsd) throws SQLException;
+
+}
@@ -0,0 +1,84 @@
+package es.uvigo.esei.dai.hybridserver.database.dao;
+
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * DAO en memoria para los resultados de validacion. Los resultados se
+ * almacenan en un {@link ConcurrentHashMap} indexado por el par (XML,
+ * XSD) y se pierden al detener el servidor, tras lo cual se vuelven a
+ * calcular a medida que se necesitan.
+ *
+ * Puesto que los datos residen en la instancia, debe ser compartida
+ * por todos los clientes (ver DAOFactory).
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public class ValidityMemoryDAO implements ValidityDAO
+{
+
+    // separador entre los UUID de XML y XSD en las claves
+    private static final char SEPARATOR = '/';
+
+    // resultados de validacion, indexados por "xml/xsd"
+    private final ConcurrentMap<String, Boolean> results = new ConcurrentHashMap<>();
+
+    /**
+     * @see ValidityDAO#find(String, String)
+     */
+    @Override
+    public Boolean find(final String xml, final String xsd) throws SQLException
+    {
+        return results.get(toKey(xml, xsd));
+    }
+
+    /**
+     * @see ValidityDAO#save(String, String, boolean)
+     */
+    @Override
+    public void save(final String xml, final String xsd, final boolean valid)
+        throws SQLException
+    {
+        results.put(toKey(xml, xsd), valid);
+    }
+
+    /**
+     * @see ValidityDAO#deleteXML(String)
+     */
+    @Override
+    public void deleteXML(final String xml) throws SQLException
+    {
+        final String prefix = xml.toLowerCase() + SEPARATOR;
+
+        final Iterator<String> keys = results.keySet().iterator();
+        while (keys.hasNext()) {
+            if (keys.next().startsWith(prefix))
+                keys.remove();
+        }
+    }
+
+    /**
+     * @see ValidityDAO#deleteXSD(String)
+     */
+    @Override
+    public void deleteXSD(final String xsd) throws SQLException
+    {
+        final String suffix = SEPARATOR + xsd.toLowerCase();
+
+        final Iterator<String> keys = results.keySet().iterator();
+        while (keys.hasNext()) {
+            if (keys.next().endsWith(suffix))
+                keys.remove();
+        }
+    }
+
+    private static String toKey(final String xml, final String xsd)
+    {
+        return xml.toLowerCase() + SEPARATOR + xsd.toLowerCase();
+    }
+
+}
@@ -0,0 +1,130 @@
+package es.uvigo.esei.dai.hybridserver.database.dao;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import es.uvigo.esei.dai.hybridserver.database.ConnectionFactory;
+import es.uvigo.esei.dai.hybridserver.database.PooledConnection;
+
+/**
+ * DAO de SQL para los resultados de validacion, almacenados en la
+ * tabla "VALIDITY" de la base de datos principal (shard 0) con los
+ * UUID de ambos documentos en binario.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public class ValiditySQLDAO implements ValidityDAO
+{
+
+    private static final String FIND_SQL   =
+        "SELECT valid FROM VALIDITY WHERE xml_uuid = ? AND xsd_uuid = ?";
+
+    private static final String UPDATE_SQL =
+        "UPDATE VALIDITY SET valid = ?, checked_at = CURRENT_TIMESTAMP WHERE xml_uuid = ? AND xsd_uuid = ?";
+
+    private static final String INSERT_SQL =
+        "INSERT INTO VALIDITY (xml_uuid, xsd_uuid, valid) VALUES (?, ?, ?)";
+
+    private static final String DELETE_XML_SQL =
+        "DELETE FROM VALIDITY WHERE xml_uuid = ?";
+
+    private static final String DELETE_XSD_SQL =
+        "DELETE FROM VALIDITY WHERE xsd_uuid = ?";
+
+    /**
+     * @see ValidityDAO#find(String, String)
+     */
+    @Override
+    public Boolean find(final String xml, final String xsd) throws SQLException
+    {
+        try (final PooledConnection database = ConnectionFactory.getConnection()) {
+
+            final PreparedStatement statement =
+                database.prepareStatement(FIND_SQL);
+
+            AbstractDocumentSQLDAO.setUUID(statement, 1, xml);
+            AbstractDocumentSQLDAO.setUUID(statement, 2, xsd);
+
+            try (final ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getInt(1) != 0 : null;
+            }
+
+        }
+    }
+
+    /**
+     * Actualiza el resultado si ya existe, o lo inserta en caso
+     * contrario.
+     * 
+     * @see ValidityDAO#save(String, String, boolean)
+     */
+    @Override
+    public void save(final String xml, final String xsd, final boolean valid)
+        throws SQLException
+    {
+        try (final PooledConnection database = ConnectionFactory.getConnection()) {
+
+            final PreparedStatement update =
+                database.prepareStatement(UPDATE_SQL);
+
+            update.setInt(1, valid ? 1 : 0);
+            AbstractDocumentSQLDAO.setUUID(update, 2, xml);
+            AbstractDocumentSQLDAO.setUUID(update, 3, xsd);
+
+            if (update.executeUpdate() > 0)
+                return;
+
+            final PreparedStatement insert =
+                database.prepareStatement(INSERT_SQL);
+
+            AbstractDocumentSQLDAO.setUUID(insert, 1, xml);
+            AbstractDocumentSQLDAO.setUUID(insert, 2, xsd);
+            insert.setInt(3, valid ? 1 : 0);
+
+            try {
+                insert.executeUpdate();
+            } catch (final SQLException sqe) {
+                // insertado a la vez por otro cliente: ambos resultados
+                // son el mismo, puesto que los documentos no cambian
+                if (!ContentStore.isDuplicateKey(sqe))
+                    throw sqe;
+            }
+
+        }
+    }
+
+    /**
+     * @see ValidityDAO#deleteXML(String)
+     */
+    @Override
+    public void deleteXML(final String xml) throws SQLException
+    {
+        delete(DELETE_XML_SQL, xml);
+    }
+
+    /**
+     * @see ValidityDAO#deleteXSD(String)
+     */
+    @Override
+    public void deleteXSD(final String xsd) throws SQLException
+    {
+        delete(DELETE_XSD_SQL, xsd);
+    }
+
+    private static void delete(final String sql, final String uuid) throws SQLException
+    {
+        try (final PooledConnection database = ConnectionFactory.getConnection()) {
+
+            final PreparedStatement statement =
+                database.prepareStatement(sql);
+
+            AbstractDocumentSQLDAO.setUUID(statement, 1, uuid);
+            statement.executeUpdate();
+
+        }
+    }
+
+}
@@ -0,0 +1,483 @@
+package es.uvigo.esei.dai.hybridserver.database.dao;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Log de escritura anticipada ("write-ahead log") para las altas de
+ * documentos. Cada alta se añade al final del fichero y no se
+ * confirma hasta que ha sido sincronizada con el disco, pero las
+ * sincronizaciones se agrupan ("group commit"): el primer hilo que
+ * necesita sincronizar lo hace para todos los registros escritos
+ * hasta ese momento, y el resto de hilos que esperaban encuentran sus
+ * registros ya sincronizados, de modo que muchas altas concurrentes
+ * comparten un unico fsync.
+ *
+ * Cuando todos los registros escritos han sido aplicados al
+ * almacenamiento definitivo (ver {@link #applied(int)}) el fichero se
+ * trunca. Al arrancar, los registros que contenga el fichero son los
+ * escritos desde la ultima vez que se trunco, y las altas que no
+ * hayan sido borradas despues deben reproducirse (ver
+ * {@link #replay()}). Los borrados de documentos cuya alta pueda
+ * seguir en el fichero se registran tambien (ver
+ * {@link #remove(UUID)}), de modo que sus altas no se reproduzcan.
+ *
+ * Formato de cada registro: UUID (2 long), longitud de los metadatos
+ * (int), longitud del contenido (int), metadatos (UTF-8), contenido
+ * (UTF-8) y CRC32 de todo lo anterior (int). Los borrados se indican
+ * con una longitud de metadatos de -1 y sin contenido.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+class WriteAheadLog
+{
+
+    // tamaños fijos dentro de cada registro
+    private static final int HEADER_SIZE = 8 + 8 + 4 + 4;
+    private static final int CRC_SIZE    = 4;
+
+    // longitud de metadatos que identifica un registro de borrado
+    private static final int DELETE = -1;
+
+    private final File        file;
+    private final FileChannel channel;
+
+    // serializa las escrituras en el fichero
+    private final Object writeLock = new Object();
+
+    // serializa las sincronizaciones con el disco
+    private final Object syncLock = new Object();
+
+    // registros escritos y aplicados desde la ultima vez que se trunco
+    // el fichero (protegidos por writeLock)
+    private long written = 0;
+    private long applied = 0;
+
+    // numero de registros escritos ya sincronizados con el disco
+    private volatile long synced = 0;
+
+    /**
+     * Abre (creandolo si no existe) el log almacenado en el fichero
+     * recibido.
+     *
+     * @param file
+     *        Fichero del log.
+     *
+     * @throws IOException
+     *         Si se produce algun error abriendo el fichero.
+     */
+    WriteAheadLog(final File file) throws IOException
+    {
+        this.file = file;
+
+        final File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create WAL directory " + directory);
+
+        channel = new RandomAccessFile(file, "rw").getChannel();
+    }
+
+    /**
+     * Lee todos los registros completos del log, es decir, las altas
+     * (y borrados) registrados desde la ultima vez que se trunco el
+     * fichero, y descarta cualquier registro incompleto al final del
+     * mismo. Los registros devueltos cuentan como escritos, por lo que
+     * deben notificarse igualmente como aplicados.
+     *
+     * @return Lista de registros, en el orden en que fueron escritos.
+     *
+     * @throws IOException
+     *         Si se produce algun error leyendo el fichero.
+     */
+    List<Record> replay( ) throws IOException
+    {
+        synchronized (writeLock) {
+
+            final List<Record> records = new ArrayList<>();
+            final long         size    = channel.size();
+
+            if (size == 0)
+                return records;
+
+            // se lee en memoria (y no proyectado) para poder truncar el
+            // fichero despues; solo contiene las altas no aplicadas
+            final ByteBuffer data = ByteBuffer.allocate((int) size);
+            while (data.hasRemaining() && channel.read(data, data.position()) >= 0);
+            data.flip();
+
+            long valid = 0;
+            while (data.hasRemaining()) {
+                final Record record = parse(data);
+                if (record == null) break;
+
+                records.add(record);
+                valid = data.position();
+            }
+
+            if (valid < size) {
+                System.err.println("Discarding " + (size - valid)
+                    + " trailing bytes from " + file);
+                channel.truncate(valid);
+            }
+
+            channel.position(valid);
+
+            written = records.size();
+            synced  = written;
+
+            return records;
+        }
+    }
+
+    /**
+     * Añade un registro al log, retornando unicamente cuando este ha
+     * sido sincronizado con el disco (posiblemente junto a los de
+     * otros hilos concurrentes).
+     *
+     * @param key
+     *        Identificador del documento.
+     * @param metadata
+     *        Metadatos del documento.
+     * @param content
+     *        Contenido del documento, codificado en UTF-8.
+     *
+     * @throws IOException
+     *         Si se produce algun error escribiendo el registro.
+     */
+    void append(final UUID key, final String metadata, final byte[ ] content)
+        throws IOException
+    {
+        final ByteBuffer record = encode(key, metadata.getBytes(ContentStore.CHARSET), content);
+
+        final long start, end, sequence;
+        synchronized (writeLock) {
+            start    = write(record);
+            end      = channel.position();
+            sequence = ++written;
+        }
+
+        try {
+            sync(sequence);
+        } catch (final IOException ioe) {
+            discard(key, start, end, sequence, false);
+            throw ioe;
+        }
+    }
+
+    /**
+     * Registra el borrado de un documento, siempre que el fichero
+     * contenga algun registro (y, por tanto, pueda contener su alta),
+     * retornando unicamente cuando ha sido sincronizado con el disco.
+     * El borrado cuenta como escrito, por lo que, si se ha registrado,
+     * debe notificarse como aplicado una vez realizado (o fallido) el
+     * borrado en el almacenamiento definitivo. Si su sincronizacion
+     * falla se anula, y no debe notificarse.
+     *
+     * @param key
+     *        Identificador del documento.
+     *
+     * @return True si se ha registrado el borrado, False si no era
+     *         necesario.
+     *
+     * @throws IOException
+     *         Si se produce algun error escribiendo el registro.
+     */
+    boolean remove(final UUID key) throws IOException
+    {
+        final ByteBuffer record = encode(key, null, new byte[0]);
+
+        final long start, end, sequence;
+        synchronized (writeLock) {
+            if (written == 0) return false;
+
+            start    = write(record);
+            end      = channel.position();
+            sequence = ++written;
+        }
+
+        try {
+            sync(sequence);
+        } catch (final IOException ioe) {
+            discard(key, start, end, sequence, true);
+            throw ioe;
+        }
+
+        return true;
+    }
+
+    /**
+     * Escribe un registro al final del fichero. Si la escritura falla,
+     * el fichero se trunca de nuevo al inicio del registro, de modo que
+     * un registro incompleto no oculte a los escritos despues. Debe
+     * invocarse con writeLock adquirido.
+     *
+     * @param record
+     *        Registro a escribir.
+     *
+     * @return Posicion del fichero en la que comienza el registro.
+     *
+     * @throws IOException
+     *         Si se produce algun error escribiendo el registro.
+     */
+    private long write(final ByteBuffer record) throws IOException
+    {
+        final long start = channel.position();
+
+        try {
+            while (record.hasRemaining())
+                channel.write(record);
+        } catch (final IOException ioe) {
+            channel.truncate(start);
+            channel.position(start);
+            throw ioe;
+        }
+
+        return start;
+    }
+
+    /**
+     * Anula un registro ya escrito cuya sincronizacion con el disco ha
+     * fallado (el cliente recibira un error, por lo que no debe
+     * reproducirse al arrancar). Si ningun otro registro se ha escrito
+     * despues, el fichero se trunca al inicio del registro; en caso
+     * contrario, si es un alta se registra su borrado, y si es un
+     * borrado se da por aplicado (no puede anularse, pero tampoco se
+     * notificara). En todos los casos los contadores de registros
+     * escritos y aplicados quedan equilibrados.
+     *
+     * @param key
+     *        Identificador del documento.
+     * @param start
+     *        Posicion del fichero en la que comienza el registro.
+     * @param end
+     *        Posicion del fichero en la que termina el registro.
+     * @param sequence
+     *        Numero de secuencia del registro.
+     * @param delete
+     *        Si el registro es un borrado.
+     */
+    private void discard(final UUID key, final long start, final long end, final long sequence,
+                         final boolean delete)
+    {
+        synchronized (writeLock) {
+            try {
+
+                if (written == sequence && channel.position() == end) {
+                    channel.truncate(start);
+                    channel.position(start);
+
+                    written = sequence - 1;
+                    if (synced > written) synced = written;
+                } else if (delete) {
+                    applied += 1;
+                } else {
+                    write(encode(key, null, new byte[0]));
+
+                    written += 1;
+                    applied += 2;
+                }
+
+            } catch (final IOException ioe) {
+                System.err.println("Cannot discard WAL record " + key + ": " + ioe.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Notifica que un numero de registros escritos han sido aplicados
+     * al almacenamiento definitivo. Si ya no queda ningun registro
+     * pendiente de aplicar, el fichero se trunca.
+     *
+     * @param count
+     *        Numero de registros aplicados.
+     *
+     * @throws IOException
+     *         Si se produce algun error truncando el fichero.
+     */
+    void applied(final int count) throws IOException
+    {
+        synchronized (writeLock) {
+            applied += count;
+
+            // todo lo escrito ha sido ya aplicado: no es necesario
+            // sincronizar el truncado, en el peor caso se reproducen
+            // de nuevo altas ya existentes
+            if (applied >= written) {
+                channel.truncate(0);
+                written = applied = 0;
+                synced  = 0;
+            }
+        }
+    }
+
+    /**
+     * Garantiza que el registro con el numero de secuencia recibido
+     * ha sido sincronizado con el disco. Si no es asi, sincroniza
+     * todos los registros escritos hasta el momento.
+     *
+     * @param sequence
+     *        Numero de secuencia del registro.
+     *
+     * @throws IOException
+     *         Si se produce algun error sincronizando el fichero.
+     */
+    private void sync(final long sequence) throws IOException
+    {
+        synchronized (syncLock) {
+            // otro hilo ya sincronizo este registro mientras se
+            // esperaba (o el log se trunco tras aplicarlo)
+            if (synced >= sequence)
+                return;
+
+            final long target;
+            synchronized (writeLock) {
+                if (written < sequence) return;
+                target = written;
+            }
+
+            channel.force(false);
+
+            synchronized (writeLock) {
+                if (written >= target) synced = target;
+            }
+        }
+    }
+
+    /**
+     * Interpreta el registro que comienza en la posicion actual del
+     * buffer recibido, avanzando dicha posicion hasta el final del
+     * mismo.
+     *
+     * @param data
+     *        Buffer posicionado al inicio del registro.
+     *
+     * @return {@link Record} leido, o null si el registro esta
+     *         incompleto o su CRC no es correcto.
+     */
+    private static Record parse(final ByteBuffer data)
+    {
+        final int start = data.position();
+        if (data.remaining() < HEADER_SIZE + CRC_SIZE)
+            return null;
+
+        final UUID    key           = new UUID(data.getLong(), data.getLong());
+        final int     metaLength    = data.getInt();
+        final int     contentLength = data.getInt();
+        final boolean delete        = metaLength == DELETE && contentLength == 0;
+
+        if (delete) {
+            final CRC32 crc = new CRC32();
+            crc.update(data.array(), data.arrayOffset() + start, HEADER_SIZE);
+
+            return (int) crc.getValue() == data.getInt() ? new Record(key, null, null) : null;
+        }
+
+        if (metaLength < 0 || contentLength < 0
+            || (long) data.remaining() < (long) metaLength + contentLength + CRC_SIZE)
+            return null;
+
+        final byte[ ] meta = new byte[metaLength];
+        data.get(meta);
+
+        final byte[ ] content = new byte[contentLength];
+        data.get(content);
+
+        final byte[ ] record = new byte[data.position() - start];
+        final ByteBuffer range = data.duplicate();
+        range.position(start);
+        range.get(record);
+
+        final CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length);
+        if ((int) crc.getValue() != data.getInt())
+            return null;
+
+        return new Record(key, new String(meta, ContentStore.CHARSET), content);
+    }
+
+    /**
+     * Construye un registro completo, incluyendo su CRC.
+     *
+     * @param key
+     *        Identificador del documento.
+     * @param meta
+     *        Metadatos del documento, codificados en UTF-8, o null si
+     *        se trata de un borrado.
+     * @param content
+     *        Contenido del documento.
+     *
+     * @return {@link ByteBuffer} con el registro, listo para escribir.
+     */
+    private static ByteBuffer encode(final UUID key, final byte[ ] meta, final byte[ ] content)
+    {
+        final int metaLength = meta == null ? 0 : meta.length;
+
+        final ByteBuffer record = ByteBuffer.allocate(
+            HEADER_SIZE + metaLength + content.length + CRC_SIZE
+        );
+
+        record.putLong(key.getMostSignificantBits());
+        record.putLong(key.getLeastSignificantBits());
+        record.putInt(meta == null ? DELETE : metaLength);
+        record.putInt(content.length);
+        if (meta != null) record.put(meta);
+        record.put(content);
+
+        final CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, record.position());
+        record.putInt((int) crc.getValue());
+
+        record.flip();
+        return record;
+    }
+
+    /**
+     * Registro leido desde el log: un alta de documento pendiente de
+     * aplicar o el borrado de un documento.
+     */
+    static final class Record
+    {
+
+        private final UUID    key;
+        private final String  metadata;
+        private final byte[ ] content;
+
+        private Record(final UUID key, final String metadata, final byte[ ] content)
+        {
+            this.key      = key;
+            this.metadata = metadata;
+            this.content  = content;
+        }
+
+        UUID getKey( )
+        {
+            return key;
+        }
+
+        boolean isDelete( )
+        {
+            return content == null;
+        }
+
+        String getMetadata( )
+        {
+            return metadata;
+        }
+
+        String getContent( )
+        {
+            return new String(content, ContentStore.CHARSET);
+        }
+
+    }
+
+}
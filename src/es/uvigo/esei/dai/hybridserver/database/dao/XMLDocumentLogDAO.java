@@ -0,0 +1,53 @@
+package es.uvigo.esei.dai.hybridserver.database.dao;
+
+import java.io.File;
+import java.io.IOException;
+
+import es.uvigo.esei.dai.hybridserver.database.entity.ContentLoader;
+import es.uvigo.esei.dai.hybridserver.database.entity.XMLDocument;
+
+/**
+ * DAO concreto para documentos XML almacenados en un log de segmentos.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public class XMLDocumentLogDAO extends AbstractDocumentLogDAO<XMLDocument> implements DocumentDAO<XMLDocument>
+{
+
+    /**
+     * Construye una nueva instancia del DAO para documentos XML,
+     * abriendo su log en el subdirectorio "xml" del directorio
+     * recibido.
+     *
+     * @param directory
+     *        Directorio base de los logs de documentos.
+     *
+     * @throws IOException
+     *         Si se produce algun error abriendo el log.
+     */
+    public XMLDocumentLogDAO(final File directory) throws IOException
+    {
+        super(new File(directory, "xml"));
+    }
+
+    /**
+     * @see AbstractDocumentLogDAO#documentFactory(String, String, String)
+     */
+    @Override
+    protected XMLDocument documentFactory(final String uuid, final String metadata, final String content)
+    {
+        return new XMLDocument(uuid, content);
+    }
+
+    /**
+     * @see AbstractDocumentLogDAO#lazyDocumentFactory(String, String, ContentLoader)
+     */
+    @Override
+    protected XMLDocument lazyDocumentFactory(final String uuid, final String metadata, final ContentLoader loader)
+    {
+        return new XMLDocument(uuid, loader);
+    }
+
+}
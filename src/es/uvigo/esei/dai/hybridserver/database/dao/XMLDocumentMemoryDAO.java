@@ -0,0 +1,24 @@
+package es.uvigo.esei.dai.hybridserver.database.dao;
+
+import es.uvigo.esei.dai.hybridserver.database.entity.XMLDocument;
+
+/**
+ * DAO en memoria concreto para documentos XML.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public class XMLDocumentMemoryDAO extends AbstractDocumentMemoryDAO<XMLDocument> implements DocumentDAO<XMLDocument>
+{
+
+    /**
+     * @see AbstractDocumentMemoryDAO#copy(AbstractDocument)
+     */
+    @Override
+    protected XMLDocument copy(final XMLDocument document)
+    {
+        return new XMLDocument(document.getUUID(), document.getContent());
+    }
+
+}
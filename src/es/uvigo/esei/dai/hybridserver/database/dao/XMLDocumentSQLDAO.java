@@ -3,6 +3,7 @@ package es.uvigo.esei.dai.hybridserver.database.dao;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 
+import es.uvigo.esei.dai.hybridserver.database.entity.ContentLoader;
 import es.uvigo.esei.dai.hybridserver.database.entity.XMLDocument;
 
 /**
@@ -15,6 +16,27 @@ import es.uvigo.esei.dai.hybridserver.database.entity.XMLDocument;
 public class XMLDocumentSQLDAO extends AbstractDocumentSQLDAO<XMLDocument> implements DocumentDAO<XMLDocument>
 {
 
+    /**
+     * Construye una nueva instancia del DAO de SQL para documentos
+     * XML sobre la base de datos principal.
+     */
+    public XMLDocumentSQLDAO( )
+    {
+        super();
+    }
+
+    /**
+     * Construye una nueva instancia del DAO de SQL para documentos
+     * XML sobre el shard recibido.
+     * 
+     * @param shard
+     *        Indice de la base de datos del DAO.
+     */
+    public XMLDocumentSQLDAO(final int shard)
+    {
+        super(shard);
+    }
+
     /**
      * @see AbstractDocumentSQLDAO#documentFactory(ResultSet)
      */
@@ -22,19 +44,20 @@ public class XMLDocumentSQLDAO extends AbstractDocumentSQLDAO<XMLDocument> imple
     protected XMLDocument documentFactory(final ResultSet resultSet)
         throws SQLException
     {
-        final String uuid    = resultSet.getString(UUID_NAME);
-        final String content = resultSet.getString(CONTENT_NAME);
+        final String uuid    = getUUID(resultSet, UUID_NAME);
+        final String content = readContent(resultSet);
 
         return new XMLDocument(uuid, content);
     }
 
     /**
-     * @see AbstractDocumentSQLDAO#getContentName()
+     * @see AbstractDocumentSQLDAO#lazyDocumentFactory(ResultSet, ContentLoader)
      */
     @Override
-    protected String getContentName( )
+    protected XMLDocument lazyDocumentFactory(final ResultSet resultSet, final ContentLoader loader)
+        throws SQLException
     {
-        return "content";
+        return new XMLDocument(getUUID(resultSet, UUID_NAME), loader);
     }
 
     /**
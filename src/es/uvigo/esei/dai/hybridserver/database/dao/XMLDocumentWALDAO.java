@@ -0,0 +1,44 @@
+package es.uvigo.esei.dai.hybridserver.database.dao;
+
+import java.io.File;
+import java.io.IOException;
+
+import es.uvigo.esei.dai.hybridserver.database.entity.XMLDocument;
+
+/**
+ * DAO concreto para documentos XML con log de escritura anticipada.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public class XMLDocumentWALDAO extends AbstractDocumentWALDAO<XMLDocument> implements DocumentDAO<XMLDocument>
+{
+
+    /**
+     * Construye una nueva instancia del DAO para documentos XML,
+     * abriendo su log ("xml.wal") en el directorio recibido.
+     *
+     * @param directory
+     *        Directorio de los logs de escritura anticipada.
+     * @param delegate
+     *        DAO sobre el que se aplican las altas.
+     *
+     * @throws IOException
+     *         Si se produce algun error abriendo o leyendo el log.
+     */
+    public XMLDocumentWALDAO(final File directory, final DocumentDAO<XMLDocument> delegate) throws IOException
+    {
+        super(new File(directory, "xml.wal"), delegate);
+    }
+
+    /**
+     * @see AbstractDocumentWALDAO#documentFactory(String, String, String)
+     */
+    @Override
+    protected XMLDocument documentFactory(final String uuid, final String metadata, final String content)
+    {
+        return new XMLDocument(uuid, content);
+    }
+
+}
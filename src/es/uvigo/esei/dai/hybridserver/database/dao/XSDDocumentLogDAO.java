@@ -0,0 +1,93 @@
+package es.uvigo.esei.dai.hybridserver.database.dao;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.UUID;
+
+import es.uvigo.esei.dai.hybridserver.database.entity.ContentLoader;
+import es.uvigo.esei.dai.hybridserver.database.entity.XSDDocument;
+import es.uvigo.esei.dai.hybridserver.database.entity.XSLTDocument;
+import es.uvigo.esei.dai.hybridserver.exception.DocumentNotFoundException;
+
+/**
+ * DAO concreto para documentos XSD almacenados en un log de segmentos.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public class XSDDocumentLogDAO extends AbstractDocumentLogDAO<XSDDocument> implements DocumentDAO<XSDDocument>
+{
+
+    // DAO de los XSLT asociados, para el borrado en cascada
+    private final DocumentDAO<XSLTDocument> xsltDAO;
+
+    /**
+     * Construye una nueva instancia del DAO para documentos XSD,
+     * abriendo su log en el subdirectorio "xsd" del directorio
+     * recibido, dado el DAO de documentos XSLT del que eliminar en
+     * cascada los XSLT asociados a cada XSD.
+     *
+     * @param directory
+     *        Directorio base de los logs de documentos.
+     * @param xsltDAO
+     *        DAO de documentos XSLT.
+     *
+     * @throws IOException
+     *         Si se produce algun error abriendo el log.
+     */
+    public XSDDocumentLogDAO(final File directory, final DocumentDAO<XSLTDocument> xsltDAO) throws IOException
+    {
+        super(new File(directory, "xsd"));
+        this.xsltDAO = xsltDAO;
+    }
+
+    /**
+     * Sobreescribe la implementacion base del DAO abstracto para
+     * realizar el borrado en cascada de todos los XSLT asociados al
+     * XSD que se esta eliminando.
+     *
+     * @see AbstractDocumentLogDAO#delete(String)
+     */
+    @Override
+    public void delete(final String uuid)
+        throws DocumentNotFoundException, SQLException
+    {
+        super.delete(uuid);
+
+        // se comparan los UUID ya interpretados, puesto que el XSD puede
+        // haberse referenciado con otras mayusculas y minusculas, y se
+        // leen unicamente los metadatos de cada XSLT, no su contenido
+        final UUID key = UUID.fromString(uuid);
+        for (final String xsltUUID : xsltDAO.listUUIDs()) {
+            final XSLTDocument xslt = xsltDAO.findLazy(xsltUUID);
+            if (xslt != null && key.equals(UUID.fromString(xslt.getXSD()))) {
+                try {
+                    xsltDAO.delete(xsltUUID);
+                } catch (final DocumentNotFoundException dnfe) {
+                    // eliminado de forma concurrente, se ignora
+                }
+            }
+        }
+    }
+
+    /**
+     * @see AbstractDocumentLogDAO#documentFactory(String, String, String)
+     */
+    @Override
+    protected XSDDocument documentFactory(final String uuid, final String metadata, final String content)
+    {
+        return new XSDDocument(uuid, content);
+    }
+
+    /**
+     * @see AbstractDocumentLogDAO#lazyDocumentFactory(String, String, ContentLoader)
+     */
+    @Override
+    protected XSDDocument lazyDocumentFactory(final String uuid, final String metadata, final ContentLoader loader)
+    {
+        return new XSDDocument(uuid, loader);
+    }
+
+}
@@ -0,0 +1,72 @@
+package es.uvigo.esei.dai.hybridserver.database.dao;
+
+import java.sql.SQLException;
+import java.util.UUID;
+
+import es.uvigo.esei.dai.hybridserver.database.entity.XSDDocument;
+import es.uvigo.esei.dai.hybridserver.database.entity.XSLTDocument;
+import es.uvigo.esei.dai.hybridserver.exception.DocumentNotFoundException;
+
+/**
+ * DAO en memoria concreto para documentos XSD.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public class XSDDocumentMemoryDAO extends AbstractDocumentMemoryDAO<XSDDocument> implements DocumentDAO<XSDDocument>
+{
+
+    // DAO de los XSLT asociados, para el borrado en cascada
+    private final DocumentDAO<XSLTDocument> xsltDAO;
+
+    /**
+     * Construye una nueva instancia del DAO en memoria para
+     * documentos XSD, dado el DAO en memoria de documentos XSLT del
+     * que eliminar en cascada los XSLT asociados a cada XSD.
+     *
+     * @param xsltDAO
+     *        DAO en memoria de documentos XSLT.
+     */
+    public XSDDocumentMemoryDAO(final DocumentDAO<XSLTDocument> xsltDAO)
+    {
+        this.xsltDAO = xsltDAO;
+    }
+
+    /**
+     * Sobreescribe la implementacion base del DAO abstracto para
+     * realizar el borrado en cascada de todos los XSLT asociados al
+     * XSD que se esta eliminando.
+     *
+     * @see AbstractDocumentMemoryDAO#delete(String)
+     */
+    @Override
+    public void delete(final String uuid)
+        throws DocumentNotFoundException, SQLException
+    {
+        super.delete(uuid);
+
+        // se comparan los UUID ya interpretados, puesto que el XSD puede
+        // haberse referenciado con otras mayusculas y minusculas
+        final UUID key = UUID.fromString(uuid);
+        for (final XSLTDocument xslt : xsltDAO.list()) {
+            if (key.equals(UUID.fromString(xslt.getXSD()))) {
+                try {
+                    xsltDAO.delete(xslt.getUUID());
+                } catch (final DocumentNotFoundException dnfe) {
+                    // eliminado de forma concurrente, se ignora
+                }
+            }
+        }
+    }
+
+    /**
+     * @see AbstractDocumentMemoryDAO#copy(AbstractDocument)
+     */
+    @Override
+    protected XSDDocument copy(final XSDDocument document)
+    {
+        return new XSDDocument(document.getUUID(), document.getContent());
+    }
+
+}
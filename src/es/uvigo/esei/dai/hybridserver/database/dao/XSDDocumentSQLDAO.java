@@ -2,10 +2,10 @@ package es.uvigo.esei.dai.hybridserver.database.dao;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.List;
 
+import es.uvigo.esei.dai.hybridserver.database.ConnectionFactory;
+import es.uvigo.esei.dai.hybridserver.database.entity.ContentLoader;
 import es.uvigo.esei.dai.hybridserver.database.entity.XSDDocument;
-import es.uvigo.esei.dai.hybridserver.database.entity.XSLTDocument;
 import es.uvigo.esei.dai.hybridserver.exception.DocumentNotFoundException;
 
 /**
@@ -18,6 +18,27 @@ import es.uvigo.esei.dai.hybridserver.exception.DocumentNotFoundException;
 public class XSDDocumentSQLDAO extends AbstractDocumentSQLDAO<XSDDocument> implements DocumentDAO<XSDDocument>
 {
 
+    /**
+     * Construye una nueva instancia del DAO de SQL para documentos
+     * XSD sobre la base de datos principal.
+     */
+    public XSDDocumentSQLDAO( )
+    {
+        super();
+    }
+
+    /**
+     * Construye una nueva instancia del DAO de SQL para documentos
+     * XSD sobre el shard recibido.
+     * 
+     * @param shard
+     *        Indice de la base de datos del DAO.
+     */
+    public XSDDocumentSQLDAO(final int shard)
+    {
+        super(shard);
+    }
+
     /**
      * Sobreescribe la implementacion base del DAO abstracto para
      * realizar el borrado en cascada de todos los XSLT asociados al
@@ -32,15 +53,21 @@ public class XSDDocumentSQLDAO extends AbstractDocumentSQLDAO<XSDDocument> imple
         // primero elimina el XSD
         super.delete(uuid);
 
-        // y despues elimina todos los XSLT asociados a dicho XSD
+        // y despues elimina todos los XSLT asociados a dicho XSD, que
+        // pueden encontrarse en cualquier shard; se buscan por su UUID
+        // binario, por lo que no se distinguen mayusculas y minusculas
         // TODO: discutir esta solucion de invocar al DAO de XSLT,
         // porque se esta creando un acoplamiento entre ellos y quizas
         // no sea la forma adecuada
-        final DocumentDAO<XSLTDocument> xsltDAO = new XSLTDocumentSQLDAO();
-        final List<XSLTDocument> list = xsltDAO.list();
-        for (XSLTDocument xslt : list) {
-            if (xslt.getXSD().equals(uuid))
-                xsltDAO.delete(xslt.getUUID());
+        for (int shard = 0; shard < ConnectionFactory.getShardCount(); ++shard) {
+            final XSLTDocumentSQLDAO xsltDAO = new XSLTDocumentSQLDAO(shard);
+            for (final String xslt : xsltDAO.listUUIDsByXSD(uuid)) {
+                try {
+                    xsltDAO.delete(xslt);
+                } catch (final DocumentNotFoundException dnfe) {
+                    // eliminado de forma concurrente, se ignora
+                }
+            }
         }
     }
 
@@ -51,19 +78,20 @@ public class XSDDocumentSQLDAO extends AbstractDocumentSQLDAO<XSDDocument> imple
     protected XSDDocument documentFactory(final ResultSet resultSet)
         throws SQLException
     {
-        final String uuid = resultSet.getString(UUID_NAME);
-        final String content = resultSet.getString(CONTENT_NAME);
+        final String uuid = getUUID(resultSet, UUID_NAME);
+        final String content = readContent(resultSet);
 
         return new XSDDocument(uuid, content);
     }
 
     /**
-     * @see AbstractDocumentSQLDAO#getContentName()
+     * @see AbstractDocumentSQLDAO#lazyDocumentFactory(ResultSet, ContentLoader)
      */
     @Override
-    protected String getContentName( )
+    protected XSDDocument lazyDocumentFactory(final ResultSet resultSet, final ContentLoader loader)
+        throws SQLException
     {
-        return "content";
+        return new XSDDocument(getUUID(resultSet, UUID_NAME), loader);
     }
 
     /**
@@ -0,0 +1,70 @@
+package es.uvigo.esei.dai.hybridserver.database.dao;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+
+import es.uvigo.esei.dai.hybridserver.database.entity.XSDDocument;
+import es.uvigo.esei.dai.hybridserver.exception.DocumentNotFoundException;
+
+/**
+ * DAO concreto para documentos XSD con log de escritura anticipada.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public class XSDDocumentWALDAO extends AbstractDocumentWALDAO<XSDDocument> implements DocumentDAO<XSDDocument>
+{
+
+    // DAO de los XSLT asociados, cuyas altas deben aplicarse antes de
+    // que el borrado en cascada del DAO subyacente las busque
+    private final XSLTDocumentWALDAO xsltDAO;
+
+    /**
+     * Construye una nueva instancia del DAO para documentos XSD,
+     * abriendo su log ("xsd.wal") en el directorio recibido.
+     *
+     * @param directory
+     *        Directorio de los logs de escritura anticipada.
+     * @param delegate
+     *        DAO sobre el que se aplican las altas.
+     * @param xsltDAO
+     *        DAO de documentos XSLT, cuyas altas pendientes deben
+     *        aplicarse antes de eliminar un XSD.
+     *
+     * @throws IOException
+     *         Si se produce algun error abriendo o leyendo el log.
+     */
+    public XSDDocumentWALDAO(final File directory, final DocumentDAO<XSDDocument> delegate,
+        final XSLTDocumentWALDAO xsltDAO) throws IOException
+    {
+        super(new File(directory, "xsd.wal"), delegate);
+        this.xsltDAO = xsltDAO;
+    }
+
+    /**
+     * Aplica las altas de XSLT pendientes antes de eliminar el XSD,
+     * de modo que el borrado en cascada del DAO subyacente las
+     * encuentre.
+     *
+     * @see AbstractDocumentWALDAO#delete(String)
+     */
+    @Override
+    public void delete(final String uuid)
+        throws DocumentNotFoundException, SQLException
+    {
+        xsltDAO.flush();
+        super.delete(uuid);
+    }
+
+    /**
+     * @see AbstractDocumentWALDAO#documentFactory(String, String, String)
+     */
+    @Override
+    protected XSDDocument documentFactory(final String uuid, final String metadata, final String content)
+    {
+        return new XSDDocument(uuid, content);
+    }
+
+}
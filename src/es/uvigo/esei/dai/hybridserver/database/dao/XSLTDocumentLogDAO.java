@@ -0,0 +1,64 @@
+package es.uvigo.esei.dai.hybridserver.database.dao;
+
+import java.io.File;
+import java.io.IOException;
+
+import es.uvigo.esei.dai.hybridserver.database.entity.ContentLoader;
+import es.uvigo.esei.dai.hybridserver.database.entity.XSLTDocument;
+
+/**
+ * DAO concreto para documentos XSLT almacenados en un log de segmentos.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public class XSLTDocumentLogDAO extends AbstractDocumentLogDAO<XSLTDocument> implements DocumentDAO<XSLTDocument>
+{
+
+    /**
+     * Construye una nueva instancia del DAO para documentos XSLT,
+     * abriendo su log en el subdirectorio "xslt" del directorio
+     * recibido.
+     *
+     * @param directory
+     *        Directorio base de los logs de documentos.
+     *
+     * @throws IOException
+     *         Si se produce algun error abriendo el log.
+     */
+    public XSLTDocumentLogDAO(final File directory) throws IOException
+    {
+        super(new File(directory, "xslt"));
+    }
+
+    /**
+     * Almacena como metadatos la referencia al documento XSD.
+     *
+     * @see AbstractDocumentLogDAO#getMetadata(AbstractDocument)
+     */
+    @Override
+    protected String getMetadata(final XSLTDocument document)
+    {
+        return document.getXSD();
+    }
+
+    /**
+     * @see AbstractDocumentLogDAO#documentFactory(String, String, String)
+     */
+    @Override
+    protected XSLTDocument documentFactory(final String uuid, final String metadata, final String content)
+    {
+        return new XSLTDocument(uuid, metadata, content);
+    }
+
+    /**
+     * @see AbstractDocumentLogDAO#lazyDocumentFactory(String, String, ContentLoader)
+     */
+    @Override
+    protected XSLTDocument lazyDocumentFactory(final String uuid, final String metadata, final ContentLoader loader)
+    {
+        return new XSLTDocument(uuid, metadata, loader);
+    }
+
+}
@@ -0,0 +1,28 @@
+package es.uvigo.esei.dai.hybridserver.database.dao;
+
+import es.uvigo.esei.dai.hybridserver.database.entity.XSLTDocument;
+
+/**
+ * DAO en memoria concreto para documentos XSLT.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public class XSLTDocumentMemoryDAO extends AbstractDocumentMemoryDAO<XSLTDocument> implements DocumentDAO<XSLTDocument>
+{
+
+    /**
+     * @see AbstractDocumentMemoryDAO#copy(AbstractDocument)
+     */
+    @Override
+    protected XSLTDocument copy(final XSLTDocument document)
+    {
+        return new XSLTDocument(
+            document.getUUID(),
+            document.getXSD(),
+            document.getContent()
+        );
+    }
+
+}
@@ -1,11 +1,15 @@
 package es.uvigo.esei.dai.hybridserver.database.dao;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.LinkedList;
+import java.util.List;
 
 import es.uvigo.esei.dai.hybridserver.database.ConnectionFactory;
+import es.uvigo.esei.dai.hybridserver.database.PooledConnection;
+import es.uvigo.esei.dai.hybridserver.database.entity.ContentLoader;
 import es.uvigo.esei.dai.hybridserver.database.entity.XSLTDocument;
 
 /**
@@ -21,35 +25,101 @@ public class XSLTDocumentSQLDAO extends AbstractDocumentSQLDAO<XSLTDocument> imp
     // columna que almacena la referencia al documento XSD
     private final String XSD_NAME = "xsd";
 
+    // sentencia de insercion propia, incluyendo la referencia al XSD
+    private final String INSERT_XSLT_SQL;
+
+    // sentencia que lista los XSLT asociados a un XSD (indice XSLT_XSD)
+    private final String LIST_BY_XSD_SQL;
+
+    /**
+     * Construye una nueva instancia del DAO de SQL para documentos
+     * XSLT sobre la base de datos principal.
+     */
+    public XSLTDocumentSQLDAO( )
+    {
+        this(0);
+    }
+
+    /**
+     * Construye una nueva instancia del DAO de SQL para documentos
+     * XSLT sobre el shard recibido, construyendo ademas la sentencia
+     * de insercion propia de este tipo de documentos.
+     * 
+     * @param shard
+     *        Indice de la base de datos del DAO.
+     */
+    public XSLTDocumentSQLDAO(final int shard)
+    {
+        super(shard);
+
+        INSERT_XSLT_SQL = "INSERT INTO " + TABLE_NAME + " "
+                        + "(" + UUID_NAME + ", " + HASH_NAME + ", " + SIZE_NAME + ", "
+                        + CREATED_NAME + ", " + XSD_NAME + ") "
+                        + "VALUES(?, ?, ?, ?, ?)";
+
+        LIST_BY_XSD_SQL = "SELECT " + UUID_NAME + " FROM " + TABLE_NAME + " "
+                        + "WHERE " + XSD_NAME + " = ?";
+    }
+
+    /**
+     * Lista los identificadores UUID de los XSLT asociados a un XSD,
+     * consultando siempre la base de datos principal, puesto que el
+     * listado se utiliza para realizar los borrados en cascada y no
+     * puede ir por detras de ella.
+     * 
+     * @param xsd
+     *        String con el identificador UUID del XSD (sin distinguir
+     *        mayusculas y minusculas).
+     * 
+     * @return Lista con los identificadores UUID de los XSLT.
+     * 
+     * @throws SQLException
+     *         Si se produce algun error durante el acceso a datos.
+     */
+    List<String> listUUIDsByXSD(final String xsd) throws SQLException
+    {
+        try (final PooledConnection database = ConnectionFactory.getConnection(SHARD)) {
+
+            final PreparedStatement statement =
+                database.prepareStatement(LIST_BY_XSD_SQL);
+
+            setUUID(statement, 1, xsd);
+
+            final List<String> list = new LinkedList<>();
+
+            try (final ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next())
+                    list.add(toUUID(resultSet.getBytes(1)));
+
+                return list;
+            }
+
+        }
+    }
+
     /**
      * Sobreescribe la implementacion base del dao abstracto para
      * insertar correctamente los documentos XSLT, puesto que ademas
      * de UUID y contenido cuentan tambien con una referencia a un
      * documento XSD.
      * 
-     * @see AbstractDocumentSQLDAO#create(AbstractDocument)
+     * @see AbstractDocumentSQLDAO#insert(PooledConnection, AbstractDocument, String)
      */
     @Override
-    public void create(final XSLTDocument document) throws SQLException
+    protected void insert(final PooledConnection database, final XSLTDocument document, final String hash)
+        throws SQLException
     {
-        final String insert = "INSERT INTO " + TABLE_NAME + " "
-                            + "(" + UUID_NAME + ", " + CONTENT_NAME + ", " + XSD_NAME + ") "
-                            + "VALUES(?, ?, ?)";
-
-        try (
-            final Connection database = ConnectionFactory.getConnection();
-            final PreparedStatement statement =
-                database.prepareStatement(insert)
-        ) {
+        final PreparedStatement statement =
+            database.prepareStatement(INSERT_XSLT_SQL);
 
-            statement.setString(1, document.getUUID());
-            statement.setString(2, document.getContent());
-            statement.setString(3, document.getXSD());
+        setUUID(statement, 1, document.getUUID());
+        statement.setString(2, hash);
+        statement.setLong(3, document.getSize());
+        statement.setTimestamp(4, new Timestamp(document.getCreatedAt().getTime()));
+        setUUID(statement, 5, document.getXSD());
 
-            if (statement.executeUpdate() != 1)
-                throw new SQLException("Error while inserting into database");
-
-        }
+        if (statement.executeUpdate() != 1)
+            throw new SQLException("Error while inserting into database");
     }
 
     /**
@@ -59,20 +129,38 @@ public class XSLTDocumentSQLDAO extends AbstractDocumentSQLDAO<XSLTDocument> imp
     protected XSLTDocument documentFactory(final ResultSet resultSet)
         throws SQLException
     {
-        final String uuid    = resultSet.getString(UUID_NAME);
-        final String xsd     = resultSet.getString(XSD_NAME);
-        final String content = resultSet.getString(CONTENT_NAME);
+        final String uuid    = getUUID(resultSet, UUID_NAME);
+        final String xsd     = getUUID(resultSet, XSD_NAME);
+        final String content = readContent(resultSet);
 
         return new XSLTDocument(uuid, xsd, content);
     }
 
     /**
-     * @see AbstractDocumentSQLDAO#getContentName()
+     * @see AbstractDocumentSQLDAO#lazyDocumentFactory(ResultSet, ContentLoader)
+     */
+    @Override
+    protected XSLTDocument lazyDocumentFactory(final ResultSet resultSet, final ContentLoader loader)
+        throws SQLException
+    {
+        final String uuid = getUUID(resultSet, UUID_NAME);
+        final String xsd  = getUUID(resultSet, XSD_NAME);
+
+        return new XSLTDocument(uuid, xsd, loader);
+    }
+
+    /**
+     * Incluye, ademas del identificador UUID, la referencia al
+     * documento XSD asociado.
+     * 
+     * @see AbstractDocumentSQLDAO#getMetadataNames()
      */
     @Override
-    protected String getContentName( )
+    protected String getMetadataNames( )
     {
-        return "content";
+        // XSD_NAME es constante, por lo que ya esta disponible
+        // durante la construccion de la clase padre
+        return UUID_NAME + ", " + XSD_NAME;
     }
 
     /**
@@ -0,0 +1,55 @@
+package es.uvigo.esei.dai.hybridserver.database.dao;
+
+import java.io.File;
+import java.io.IOException;
+
+import es.uvigo.esei.dai.hybridserver.database.entity.XSLTDocument;
+
+/**
+ * DAO concreto para documentos XSLT con log de escritura anticipada.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public class XSLTDocumentWALDAO extends AbstractDocumentWALDAO<XSLTDocument> implements DocumentDAO<XSLTDocument>
+{
+
+    /**
+     * Construye una nueva instancia del DAO para documentos XSLT,
+     * abriendo su log ("xslt.wal") en el directorio recibido.
+     *
+     * @param directory
+     *        Directorio de los logs de escritura anticipada.
+     * @param delegate
+     *        DAO sobre el que se aplican las altas.
+     *
+     * @throws IOException
+     *         Si se produce algun error abriendo o leyendo el log.
+     */
+    public XSLTDocumentWALDAO(final File directory, final DocumentDAO<XSLTDocument> delegate) throws IOException
+    {
+        super(new File(directory, "xslt.wal"), delegate);
+    }
+
+    /**
+     * Registra como metadatos la referencia al documento XSD.
+     *
+     * @see AbstractDocumentWALDAO#getMetadata(AbstractDocument)
+     */
+    @Override
+    protected String getMetadata(final XSLTDocument document)
+    {
+        return document.getXSD();
+    }
+
+    /**
+     * @see AbstractDocumentWALDAO#documentFactory(String, String, String)
+     */
+    @Override
+    protected XSLTDocument documentFactory(final String uuid, final String metadata, final String content)
+    {
+        return new XSLTDocument(uuid, metadata, content);
+    }
+
+}
@@ -1,5 +1,10 @@
 package es.uvigo.esei.dai.hybridserver.database.entity;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Date;
 import java.util.UUID;
 
 /**
@@ -14,8 +19,14 @@ import java.util.UUID;
 public abstract class AbstractDocument
 {
 
-    protected final UUID   uuid;    // identificador del documento
-    protected final String content; // contenido del documento
+    protected final UUID          uuid;    // identificador del documento
+    protected String              content; // contenido del documento
+    protected final ContentLoader loader;  // carga diferida del contenido
+
+    // metadatos asignados por el almacenamiento (ver setMetadata)
+    protected long   size        = -1;   // tamaño del contenido (bytes)
+    protected String contentHash = null; // hash del contenido
+    protected Date   createdAt   = null; // fecha de creacion
 
     /**
      * Construye una nueva instancia de esta clase abstracta (un nuevo
@@ -29,6 +40,7 @@ public abstract class AbstractDocument
     {
         uuid = UUID.randomUUID();
         this.content = content;
+        this.loader  = null;
     }
 
     /**
@@ -46,6 +58,27 @@ public abstract class AbstractDocument
     {
         this.uuid    = UUID.fromString(uuid);
         this.content = content;
+        this.loader  = null;
+    }
+
+    /**
+     * Construye una nueva instancia de esta clase abstracta (un nuevo
+     * documento "lazy") dado un identificador UUID y un
+     * {@link ContentLoader} desde el que obtener el contenido del
+     * documento unicamente cuando sea necesario.
+     * 
+     * @param uuid
+     *        String representando el identificador UUID del documento
+     *        a crear.
+     * @param loader
+     *        ContentLoader desde el que se obtendra el contenido del
+     *        documento.
+     */
+    public AbstractDocument(final String uuid, final ContentLoader loader)
+    {
+        this.uuid    = UUID.fromString(uuid);
+        this.content = null;
+        this.loader  = loader;
     }
 
     /**
@@ -66,9 +99,122 @@ public abstract class AbstractDocument
      */
     public String getContent( )
     {
+        if (content == null && loader != null) {
+            try (final Reader reader = loader.open()) {
+
+                final StringWriter writer = new StringWriter();
+                final char[ ] buffer = new char[8192];
+
+                int read;
+                while ((read = reader.read(buffer)) != -1)
+                    writer.write(buffer, 0, read);
+
+                content = writer.toString();
+
+            } catch (final IOException ioe) {
+                throw new IllegalStateException("Cannot load document content", ioe);
+            }
+        }
+
         return content;
     }
 
+    /**
+     * Abre un stream de caracteres sobre el contenido del documento.
+     * Para los documentos "lazy" el contenido no se carga en memoria,
+     * sino que se lee directamente de su origen. El stream devuelto
+     * debe cerrarse una vez se termine de trabajar con el.
+     * 
+     * @return {@link Reader} sobre el contenido del documento.
+     * 
+     * @throws IOException
+     *         Si se produce algun error durante la apertura del
+     *         stream.
+     */
+    public Reader openContent( ) throws IOException
+    {
+        if (content == null && loader != null)
+            return loader.open();
+
+        return new StringReader(content == null ? "" : content);
+    }
+
+    /**
+     * Devuelve el tamaño en bytes (codificado en UTF-8) del contenido
+     * del documento, tal y como fue registrado por el almacenamiento.
+     * 
+     * @return Tamaño del contenido, o -1 si es desconocido.
+     */
+    public long getSize( )
+    {
+        return size;
+    }
+
+    /**
+     * Devuelve el hash del contenido del documento, tal y como fue
+     * registrado por el almacenamiento.
+     * 
+     * @return String con el hash del contenido, o null si es
+     *         desconocido.
+     */
+    public String getContentHash( )
+    {
+        return contentHash;
+    }
+
+    /**
+     * Devuelve la fecha de creacion del documento.
+     * 
+     * @return Fecha de creacion, o null si es desconocida.
+     */
+    public Date getCreatedAt( )
+    {
+        return createdAt == null ? null : new Date(createdAt.getTime());
+    }
+
+    /**
+     * Asigna los metadatos del documento. Unicamente debe ser
+     * invocado por los DAO, al almacenar el documento o al
+     * recuperarlo.
+     * 
+     * @param size
+     *        Tamaño en bytes del contenido, o -1 si es desconocido.
+     * @param contentHash
+     *        Hash del contenido, o null si es desconocido.
+     * @param createdAt
+     *        Fecha de creacion, o null si es desconocida.
+     */
+    public void setMetadata(final long size, final String contentHash, final Date createdAt)
+    {
+        this.size        = size;
+        this.contentHash = contentHash;
+        this.createdAt   = createdAt == null ? null : new Date(createdAt.getTime());
+    }
+
+    /**
+     * Crea una copia del documento con su mismo identificador,
+     * contenido (cargandolo si es necesario) y metadatos, de modo que
+     * los cambios en los metadatos de la copia no afecten al original.
+     * 
+     * @return Copia del documento, del mismo tipo concreto.
+     */
+    public abstract AbstractDocument copy( );
+
+    /**
+     * Asigna a la copia recibida los metadatos de este documento.
+     * Utilizado por las implementaciones de {@link #copy()}.
+     * 
+     * @param copy
+     *        Copia del documento.
+     * 
+     * @return La propia copia recibida.
+     */
+    protected <T extends AbstractDocument> T withMetadata(final T copy)
+    {
+        copy.setMetadata(size, contentHash, createdAt);
+        return copy;
+    }
+
     /**
      * @see java.lang.Object#hashCode()
      */
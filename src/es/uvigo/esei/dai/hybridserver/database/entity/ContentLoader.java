@@ -0,0 +1,33 @@
+package es.uvigo.esei.dai.hybridserver.database.entity;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Interfaz para la carga diferida del contenido de un documento. Es
+ * utilizada por los documentos "lazy", que no almacenan su contenido
+ * en memoria sino que lo obtienen como un stream de caracteres cada
+ * vez que es necesario.
+ *
+ * @author Jesus Garcia Limon (jglimon@esei.uvigo.es)
+ * @author Alberto Gutierrez Jacome (agjacome@esei.uvigo.es)
+ * @author Pablo Vazquez Fernandez (pvfernandez@esei.uvigo.es)
+ */
+public interface ContentLoader
+{
+
+    /**
+     * Abre un nuevo stream de caracteres sobre el contenido del
+     * documento. El stream devuelto debe cerrarse una vez se termine
+     * de trabajar con el, puesto que puede mantener recursos (e.g.
+     * una conexion a la base de datos) reservados mientras tanto.
+     *
+     * @return {@link Reader} sobre el contenido del documento.
+     *
+     * @throws IOException
+     *         Si se produce algun error durante la apertura del
+     *         stream o el contenido ya no existe.
+     */
+    public Reader open( ) throws IOException;
+
+}
@@ -37,4 +37,29 @@ public class HTMLDocument extends AbstractDocument
         super(uuid, content);
     }
 
+    /**
+     * Crea un nuevo documento HTML "lazy" dado su identificador UUID
+     * y el {@link ContentLoader} desde el que obtener su contenido.
+     * 
+     * @param uuid
+     *        String representando el identificador UUID del
+     *        documento.
+     * @param loader
+     *        ContentLoader desde el que obtener el contenido del
+     *        documento HTML.
+     */
+    public HTMLDocument(final String uuid, final ContentLoader loader)
+    {
+        super(uuid, loader);
+    }
+
+    /**
+     * @see AbstractDocument#copy()
+     */
+    @Override
+    public HTMLDocument copy( )
+    {
+        return withMetadata(new HTMLDocument(getUUID(), getContent()));
+    }
+
 }
@@ -37,4 +37,29 @@ public class XMLDocument extends AbstractDocument
         super(uuid, content);
     }
 
+    /**
+     * Crea un nuevo documento XML "lazy" dado su identificador UUID
+     * y el {@link ContentLoader} desde el que obtener su contenido.
+     * 
+     * @param uuid
+     *        String representando el identificador UUID del
+     *        documento.
+     * @param loader
+     *        ContentLoader desde el que obtener el contenido del
+     *        documento XML.
+     */
+    public XMLDocument(final String uuid, final ContentLoader loader)
+    {
+        super(uuid, loader);
+    }
+
+    /**
+     * @see AbstractDocument#copy()
+     */
+    @Override
+    public XMLDocument copy( )
+    {
+        return withMetadata(new XMLDocument(getUUID(), getContent()));
+    }
+
 }
@@ -37,4 +37,29 @@ public class XSDDocument extends AbstractDocument
         super(uuid, content);
     }
 
+    /**
+     * Crea un nuevo documento XSD "lazy" dado su identificador UUID
+     * y el {@link ContentLoader} desde el que obtener su contenido.
+     * 
+     * @param uuid
+     *        String representando el identificador UUID del
+     *        documento.
+     * @param loader
+     *        ContentLoader desde el que obtener el contenido del
+     *        documento XSD.
+     */
+    public XSDDocument(final String uuid, final ContentLoader loader)
+    {
+        super(uuid, loader);
+    }
+
+    /**
+     * @see AbstractDocument#copy()
+     */
+    @Override
+    public XSDDocument copy( )
+    {
+        return withMetadata(new XSDDocument(getUUID(), getContent()));
+    }
+
 }
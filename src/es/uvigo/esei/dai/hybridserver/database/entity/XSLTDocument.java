@@ -50,6 +50,27 @@ public class XSLTDocument extends AbstractDocument
         this.xsd = UUID.fromString(xsd);
     }
 
+    /**
+     * Crea un nuevo documento XSLT "lazy" dado su identificador UUID,
+     * la referencia al documento XSD asociado y el
+     * {@link ContentLoader} desde el que obtener su contenido.
+     * 
+     * @param uuid
+     *        String representando el identificador UUID del documento
+     *        XSLT a crear.
+     * @param xsd
+     *        String representando el identificador UUID del documento
+     *        XSD al que este documento XSLT esta asociado.
+     * @param loader
+     *        ContentLoader desde el que obtener el contenido del
+     *        documento XSLT.
+     */
+    public XSLTDocument(final String uuid, final String xsd, final ContentLoader loader)
+    {
+        super(uuid, loader);
+        this.xsd = UUID.fromString(xsd);
+    }
+
     /**
      * Devuelve el identificador UUID del documento XSD al que este
      * documento XSLT esta asociado.
@@ -62,4 +83,13 @@ public class XSLTDocument extends AbstractDocument
         return xsd.toString();
     }
 
+    /**
+     * @see AbstractDocument#copy()
+     */
+    @Override
+    public XSLTDocument copy( )
+    {
+        return withMetadata(new XSLTDocument(getUUID(), getXSD(), getContent()));
+    }
+
 }
@@ -1,13 +1,27 @@
 package es.uvigo.esei.dai.hybridserver.server;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
+import es.uvigo.esei.dai.hybridserver.controller.BatchTransformController;
+import es.uvigo.esei.dai.hybridserver.controller.BatchTransformation;
 import es.uvigo.esei.dai.hybridserver.controller.ControllerFactory;
 import es.uvigo.esei.dai.hybridserver.controller.DocumentController;
+import es.uvigo.esei.dai.hybridserver.controller.SearchIndexer;
+import es.uvigo.esei.dai.hybridserver.controller.XPathController;
+import es.uvigo.esei.dai.hybridserver.controller.utils.TemplatesCache;
+import es.uvigo.esei.dai.hybridserver.controller.utils.TransformCache;
+import es.uvigo.esei.dai.hybridserver.controller.utils.XPathQuery;
+import es.uvigo.esei.dai.hybridserver.database.DAOFactory;
 import es.uvigo.esei.dai.hybridserver.exception.BadRequestException;
 import es.uvigo.esei.dai.hybridserver.exception.ControllerNotFoundException;
 import es.uvigo.esei.dai.hybridserver.exception.DocumentNotFoundException;
@@ -58,6 +72,11 @@ class HTTPServerResponseBuilder
     {
         try {
 
+            if ("/search".equals(request.getResource()))
+                return handleSearchRequest();
+            if ("/stats".equals(request.getResource()))
+                return handleStatsRequest();
+
             final DocumentController controller =
                 ControllerFactory.getController(
                     request.getResource().substring(1)
@@ -125,15 +144,63 @@ class HTTPServerResponseBuilder
     {
         HTTPResponse response;
 
-        if (request.hasParam("uuid")) {
+        if (request.hasParam("xpath")) {
 
-            final String content = controller.get(
-                request.getParamValue("uuid"),
-                request.getParamValue("xslt")
-            );
+            return handleXPathRequest(controller);
+
+        } else if (request.hasParam("batch")) {
+
+            return handleBatchRequest(controller);
+
+        } else if (request.hasParam("uuid")) {
+
+            final String uuid = request.getParamValue("uuid");
+            final String xslt = request.getParamValue("xslt");
+
+            // si el cliente acepta contenido comprimido y el documento
+            // se encuentra almacenado comprimido, se envia tal cual,
+            // sin necesidad de descomprimirlo
+            final InputStream encoded =
+                xslt == null && acceptsEncoding("deflate")
+                ? controller.getEncoded(uuid, "deflate")
+                : null;
+            final Reader content = encoded == null ? controller.get(uuid, xslt) : null;
+            final Closeable body = encoded != null ? encoded : content;
+
+            // el hash del contenido de los documentos locales (sin
+            // transformar) se utiliza como ETag, evitando reenviar el
+            // contenido si el cliente ya dispone de el. Es una ETag
+            // debil puesto que el contenido puede enviarse comprimido
+            final String hash;
+            try {
+                hash = xslt == null ? controller.getHash(uuid, body) : null;
+            } catch (final ServerErrorException see) {
+                closeQuietly(body);
+                throw see;
+            }
+
+            final String etag = hash == null ? null : "W/\"" + hash + "\"";
+
+            if (etag != null && matchesETag(hash)) {
+                closeQuietly(body);
+
+                response = new HTTPResponse(HTTPStatus.NOT_MODIFIED, "");
+                response.addHeader("ETag", etag);
+                return response;
+            }
+
+            if (encoded != null) {
+                response = new HTTPResponse(HTTPStatus.OK, encoded);
+                response.addHeader("Content-Encoding", "deflate");
+            } else {
+                response = new HTTPResponse(HTTPStatus.OK, content);
+            }
 
-            response = new HTTPResponse(HTTPStatus.OK, content);
             response.addHeader("Content-Type", controller.getMIMEType());
+            if (etag != null) {
+                response.addHeader("ETag", etag);
+                response.addHeader("Vary", "Accept-Encoding");
+            }
 
         } else {
 
@@ -146,6 +213,270 @@ class HTTPServerResponseBuilder
         return response;
     }
 
+    /**
+     * Metodo privado para el tratamiento de peticiones GET de
+     * transformacion por lotes, con el UUID del XSLT en el parametro
+     * "xslt" y los UUID de los documentos, separados por comas, en el
+     * parametro "batch" ("*" para transformar todos los documentos
+     * locales). Los resultados se envian a medida que finalizan.
+     * 
+     * @param controller
+     *        Controlador asociado a la peticion segun la ruta que se
+     *        haya solicitado.
+     * 
+     * @return Objeto HTTPResponse encapsulando la respuesta correcta
+     *         a la peticion GET.
+     * 
+     * @throws DocumentNotFoundException
+     *         Si no existe el XSLT solicitado.
+     * @throws BadRequestException
+     *         Si el controlador no admite transformaciones por lotes,
+     *         o no se ha indicado el XSLT.
+     * @throws ServerErrorException
+     *         Si se produce un error durante el procesamiento de la
+     *         peticion por parte del servidor (eg: error de la BD).
+     */
+    private HTTPResponse handleBatchRequest(final DocumentController controller)
+        throws DocumentNotFoundException, BadRequestException, ServerErrorException
+    {
+        if (!(controller instanceof BatchTransformController))
+            throw new BadRequestException("Batch transformation not supported");
+
+        final String xslt  = request.getParamValue("xslt");
+        final String batch = decodeParam("batch");
+
+        if (xslt == null)
+            throw new BadRequestException("Missing xslt parameter");
+
+        final BatchTransformation results =
+            ((BatchTransformController) controller).transformAll(xslt, parseBatch(batch));
+
+        final HTTPResponse response = new HTTPResponse(HTTPStatus.OK, results);
+        response.addHeader("Content-Type", results.getMIMEType());
+
+        return response;
+    }
+
+    /**
+     * Metodo privado para el tratamiento de peticiones GET de consulta
+     * XPath, con la expresion en el parametro "xpath" y el UUID del
+     * documento en el parametro "uuid", o los de varios documentos en
+     * el parametro "batch" (igual que en las transformaciones por
+     * lotes). El parametro opcional "limit" indica el numero maximo de
+     * nodos a devolver por documento.
+     * 
+     * @param controller
+     *        Controlador asociado a la peticion segun la ruta que se
+     *        haya solicitado.
+     * 
+     * @return Objeto HTTPResponse encapsulando la respuesta correcta
+     *         a la peticion GET.
+     * 
+     * @throws DocumentNotFoundException
+     *         Si no existe el documento solicitado.
+     * @throws BadRequestException
+     *         Si el controlador no admite consultas XPath, o la
+     *         expresion, el limite o el documento no son validos.
+     * @throws ServerErrorException
+     *         Si se produce un error durante el procesamiento de la
+     *         peticion por parte del servidor (eg: error de la BD).
+     */
+    private HTTPResponse handleXPathRequest(final DocumentController controller)
+        throws DocumentNotFoundException, BadRequestException, ServerErrorException
+    {
+        if (!(controller instanceof XPathController))
+            throw new BadRequestException("XPath queries not supported");
+
+        final XPathController queries = (XPathController) controller;
+        final String xpath = decodeParam("xpath");
+
+        final int limit = parseLimit();
+
+        final HTTPResponse response;
+
+        if (request.hasParam("batch")) {
+            final BatchTransformation results =
+                queries.queryAll(xpath, parseBatch(decodeParam("batch")), limit);
+
+            response = new HTTPResponse(HTTPStatus.OK, results);
+            response.addHeader("Content-Type", results.getMIMEType());
+        } else if (request.hasParam("uuid")) {
+            response = new HTTPResponse(
+                HTTPStatus.OK,
+                queries.query(request.getParamValue("uuid"), xpath, limit)
+            );
+            response.addHeader("Content-Type", controller.getMIMEType());
+        } else {
+            throw new BadRequestException("Missing uuid or batch parameter");
+        }
+
+        return response;
+    }
+
+    /**
+     * Metodo privado para el tratamiento de peticiones de busqueda de
+     * documentos HTML y XML por su texto, en la ruta "/search", con el
+     * texto en el parametro "q". El parametro opcional "limit" indica
+     * el numero maximo de documentos, y si el parametro "remote" es
+     * "true" se busca tambien en los servidores remotos. Devuelve un
+     * listado de documentos por servidor, de mayor a menor relevancia.
+     * 
+     * @return Objeto HTTPResponse encapsulando la respuesta correcta
+     *         a la peticion de busqueda.
+     * 
+     * @throws BadRequestException
+     *         Si no se ha indicado el texto, o el limite no es valido.
+     */
+    private HTTPResponse handleSearchRequest( ) throws BadRequestException
+    {
+        switch (request.getMethod()) {
+            case GET:
+                break;
+            default:
+                return new HTTPResponse(
+                    HTTPStatus.NOT_ALLOWED,
+                    "Method not allowed: " + request.getMethod()
+                );
+        }
+
+        final String query = decodeParam("q");
+        if (query == null || query.trim().isEmpty())
+            throw new BadRequestException("Missing q parameter");
+
+        final int limit = parseLimit();
+
+        final Map<String, List<String>> results;
+        if ("true".equals(request.getParamValue("remote"))) {
+            results = SearchIndexer.searchAll(query, limit);
+        } else {
+            results = new LinkedHashMap<>();
+            results.put(SearchIndexer.LOCAL_SERVER, SearchIndexer.search(query, limit));
+        }
+
+        final HTTPResponse response = new HTTPResponse(
+            HTTPStatus.OK,
+            createSearchListing(results)
+        );
+        response.addHeader("Content-Type", "text/html;charset=UTF-8");
+
+        return response;
+    }
+
+    /**
+     * Metodo privado para el tratamiento de peticiones de las
+     * estadisticas de uso de las caches, en la ruta "/stats". Devuelve
+     * una linea de texto por cache, con su nombre y sus contadores; las
+     * caches desactivadas no se incluyen.
+     * 
+     * @return Objeto HTTPResponse encapsulando la respuesta correcta
+     *         a la peticion de estadisticas.
+     * 
+     * @throws ServerErrorException
+     *         Si se produce algun error obteniendo las estadisticas.
+     */
+    private HTTPResponse handleStatsRequest( ) throws ServerErrorException
+    {
+        switch (request.getMethod()) {
+            case GET:
+                break;
+            default:
+                return new HTTPResponse(
+                    HTTPStatus.NOT_ALLOWED,
+                    "Method not allowed: " + request.getMethod()
+                );
+        }
+
+        final StringBuilder statistics = new StringBuilder();
+
+        for (final Entry<String, String> cache : DAOFactory.getCacheStatistics().entrySet())
+            statistics.append("documents.").append(cache.getKey()).append(": ")
+                      .append(cache.getValue()).append("\n");
+
+        statistics.append("templates: ").append(TemplatesCache.getStatistics()).append("\n");
+
+        final TransformCache transforms = TransformCache.getInstance();
+        if (transforms != null)
+            statistics.append("transforms: ").append(transforms).append("\n");
+
+        statistics.append("xpath: ").append(XPathQuery.getStatistics()).append("\n");
+
+        final HTTPResponse response = new HTTPResponse(
+            HTTPStatus.OK,
+            statistics.toString()
+        );
+        response.addHeader("Content-Type", "text/plain;charset=UTF-8");
+
+        return response;
+    }
+
+    /**
+     * Metodo privado que obtiene el valor del parametro opcional
+     * "limit" de la peticion.
+     * 
+     * @return El valor del parametro, o 0 si no se ha indicado.
+     * 
+     * @throws BadRequestException
+     *         Si el valor del parametro no es un numero.
+     */
+    private int parseLimit( ) throws BadRequestException
+    {
+        if (!request.hasParam("limit"))
+            return 0;
+
+        try {
+            return Integer.parseInt(request.getParamValue("limit"));
+        } catch (final NumberFormatException nfe) {
+            throw new BadRequestException("Invalid limit: " + request.getParamValue("limit"));
+        }
+    }
+
+    /**
+     * Metodo privado que obtiene el listado de UUID de una peticion
+     * por lotes, separados por comas, o null si se solicitan todos los
+     * documentos locales ("*").
+     * 
+     * @param batch
+     *        Valor (ya decodificado) del parametro "batch".
+     * 
+     * @return Listado de UUID, o null para todos los documentos.
+     */
+    private List<String> parseBatch(final String batch)
+    {
+        if ("*".equals(batch))
+            return null;
+
+        final List<String> uuids = new ArrayList<>();
+        for (final String uuid : batch.split(","))
+            if (!uuid.trim().isEmpty())
+                uuids.add(uuid.trim());
+
+        return uuids;
+    }
+
+    /**
+     * Metodo privado que devuelve el valor decodificado de un
+     * parametro de la peticion (e.g. una expresion XPath, con
+     * caracteres reservados codificados).
+     * 
+     * @param key
+     *        Nombre del parametro.
+     * 
+     * @return String con el valor decodificado, o null si el
+     *         parametro no existe.
+     */
+    private String decodeParam(final String key)
+    {
+        final String value = request.getParamValue(key);
+        if (value == null)
+            return null;
+
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (final UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Metodo privado para el tratamiento de peticiones POST al
      * servidor.
@@ -231,6 +562,75 @@ class HTTPServerResponseBuilder
         return response;
     }
 
+    /**
+     * Metodo privado que comprueba si alguna de las "ETag" recibidas
+     * en la cabecera "If-None-Match" de la peticion se corresponde
+     * con el hash de contenido recibido (comparacion debil).
+     * 
+     * @param hash
+     *        Hash del contenido del documento solicitado.
+     * 
+     * @return True si el cliente ya dispone del documento, False en
+     *         caso contrario.
+     */
+    private boolean matchesETag(final String hash)
+    {
+        final String tags = request.getHeaderValue("If-None-Match");
+        if (tags == null) return false;
+
+        for (final String tag : tags.split(",")) {
+            final String opaque = tag.trim().replaceFirst("^W/", "");
+
+            if (opaque.equals("*") || opaque.equals("\"" + hash + "\""))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Metodo privado que cierra el contenido de un documento que
+     * finalmente no se envia, ignorando cualquier error que se
+     * produzca durante el cierre.
+     * 
+     * @param content
+     *        Stream con el contenido a cerrar.
+     */
+    private static void closeQuietly(final Closeable content)
+    {
+        try {
+            content.close();
+        } catch (final IOException ioe) {
+            System.err.println("Error closing content: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Metodo privado que comprueba si el cliente acepta una
+     * codificacion de contenido concreta, segun la cabecera
+     * "Accept-Encoding" de la peticion.
+     * 
+     * @param encoding
+     *        Nombre de la codificacion (e.g. "deflate").
+     * 
+     * @return True si la codificacion es aceptada por el cliente,
+     *         False en caso contrario.
+     */
+    private boolean acceptsEncoding(final String encoding)
+    {
+        final String accepted = request.getHeaderValue("Accept-Encoding");
+        if (accepted == null) return false;
+
+        for (final String coding : accepted.split(",")) {
+            final String[ ] parts = coding.trim().split("\\s*;\\s*");
+
+            if (parts[0].equalsIgnoreCase(encoding))
+                return parts.length == 1 || !parts[1].matches("q=0(\\.0*)?");
+        }
+
+        return false;
+    }
+
     /**
      * Metodo privado para la creacion de un listado en HTML con todos
      * los UUID recibidos como parametro, a traves de un Map. Genera
@@ -265,4 +665,43 @@ class HTTPServerResponseBuilder
         return sb.toString();
     }
 
+    /**
+     * Metodo privado para la creacion de un listado en HTML con los
+     * resultados de una busqueda, igual que {@link #createListing}
+     * pero con listados ordenados "ol", y enlazando cada documento
+     * (recibidos como "tipo/uuid") en la ruta de su tipo. Los
+     * documentos con otro formato se ignoran.
+     * 
+     * @param results
+     *        Map de documentos encontrados en cada servidor.
+     * 
+     * @return String con todo el contenido HTML de respuesta.
+     */
+    private String createSearchListing(final Map<String, List<String>> results)
+    {
+        final StringBuilder sb = new StringBuilder();
+
+        sb.append("<html><head><title>Search Results</title></head><body>");
+
+        for (final Entry<String, List<String>> entry : results.entrySet()) {
+            sb.append("<h2>").append(entry.getKey()).append("</h2>");
+            sb.append("<ol>");
+            for (final String result : entry.getValue()) {
+                // los resultados remotos se descartan si no son validos
+                if (!result.matches("(html|xml)/[0-9a-fA-F-]+")) continue;
+
+                final int    slash = result.indexOf('/');
+                final String type  = result.substring(0, slash);
+                final String uuid = result.substring(slash + 1);
+                sb.append("<li><a href='/").append(type).append("?uuid=").append(uuid).append("'>");
+                sb.append(uuid).append("</a> (").append(type).append(")</li>");
+            }
+            sb.append("</ol>");
+        }
+
+        sb.append("</body></html>");
+
+        return sb.toString();
+    }
+
 }
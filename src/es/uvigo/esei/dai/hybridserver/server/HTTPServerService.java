@@ -2,9 +2,8 @@ package es.uvigo.esei.dai.hybridserver.server;
 
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 import java.io.Reader;
-import java.io.Writer;
 import java.net.ProtocolException;
 import java.net.Socket;
 
@@ -58,9 +57,7 @@ class HTTPServerService implements Runnable
             final Reader reader = new InputStreamReader(
                 clientSocket.getInputStream()
             );
-            final Writer writer = new OutputStreamWriter(
-                clientSocket.getOutputStream()
-            );
+            final OutputStream output = clientSocket.getOutputStream();
 
             HTTPResponse response = null;
 
@@ -78,7 +75,7 @@ class HTTPServerService implements Runnable
                 );
             }
 
-            response.print(writer);
+            response.print(output);
 
         } catch (final IOException ioe) {
             System.err.println("Server Service error: " + ioe.getMessage());
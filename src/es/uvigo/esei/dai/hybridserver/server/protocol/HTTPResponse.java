@@ -2,7 +2,13 @@ package es.uvigo.esei.dai.hybridserver.server.protocol;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
 import java.io.Writer;
+import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -26,7 +32,8 @@ public class HTTPResponse
 
     private static final String       VERSION = "HTTP/1.1";
 
-    private final String              content;
+    private final Reader              content;
+    private final InputStream         binary;
     private final HTTPStatus          status;
     private final Map<String, String> headers = new HashMap<>();
 
@@ -47,9 +54,72 @@ public class HTTPResponse
     public HTTPResponse(final HTTPStatus status, final String content)
     {
         this.status  = status;
-        this.content = content;
+        this.content = new StringReader(content);
+        this.binary  = null;
 
-        headers.put("Content-Length", Integer.toString(content.length()));
+        headers.put("Content-Length", contentLength(content));
+    }
+
+    /**
+     * Crea una instancia de HTTPResponse dados un estado HTTP para la
+     * respuesta y un stream de caracteres con el contenido de la
+     * misma. El contenido no se carga en memoria, sino que se copia
+     * directamente desde el stream durante el envio, por lo que no se
+     * incluye la cabecera "Content-Length" y el fin del cuerpo de la
+     * respuesta se marca con el cierre de la conexion. La excepcion
+     * son los {@link StringReader}, cuyo contenido ya se encuentra en
+     * memoria y se envia como si se hubiese recibido como String.
+     * 
+     * @param status
+     *        El codigo de estado de la respuesta, como un
+     *        {@link HTTPStatus}.
+     * 
+     * @param content
+     *        El contenido del cuerpo de la respuesta, dado como un
+     *        {@link Reader}. Se cerrara tras el envio de la
+     *        respuesta.
+     */
+    public HTTPResponse(final HTTPStatus status, final Reader content)
+    {
+        this.status = status;
+        this.binary = null;
+
+        if (content instanceof StringReader) {
+            final String buffered = drain(content);
+
+            this.content = new StringReader(buffered);
+            headers.put("Content-Length", contentLength(buffered));
+        } else {
+            this.content = content;
+            headers.put("Connection", "close");
+        }
+    }
+
+    /**
+     * Crea una instancia de HTTPResponse dados un estado HTTP para la
+     * respuesta y un stream de bytes con el contenido de la misma, que
+     * se enviara sin ningun tipo de transformacion (e.g. contenido ya
+     * comprimido, cuya codificacion debe indicarse a traves de la
+     * cabecera "Content-Encoding"). Al igual que con el contenido a
+     * traves de un {@link Reader}, el fin del cuerpo de la respuesta
+     * se marca con el cierre de la conexion.
+     * 
+     * @param status
+     *        El codigo de estado de la respuesta, como un
+     *        {@link HTTPStatus}.
+     * 
+     * @param binary
+     *        El contenido del cuerpo de la respuesta, dado como un
+     *        {@link InputStream}. Se cerrara tras el envio de la
+     *        respuesta.
+     */
+    public HTTPResponse(final HTTPStatus status, final InputStream binary)
+    {
+        this.status  = status;
+        this.content = null;
+        this.binary  = binary;
+
+        headers.put("Connection", "close");
     }
 
     /**
@@ -71,21 +141,24 @@ public class HTTPResponse
     }
 
     /**
-     * Envia a traves de un {@link Writer} proporcionado todo el
+     * Envia a traves de un {@link OutputStream} proporcionado todo el
      * contenido de la respuesta HTTP de la instancia que lo invoca,
      * formateada acordemente con el estandar.
      * 
-     * @param writer
-     *        El {@link Writer} por el que escribir la respuesta.
+     * @param stream
+     *        El {@link OutputStream} por el que escribir la
+     *        respuesta.
      * 
      * @throws IOException
      *         Si se produce algun error de entrada/salida durante el
      *         envio de
      *         la respuesta.
      */
-    public void print(final Writer writer) throws IOException
+    public void print(final OutputStream stream) throws IOException
     {
-        final BufferedWriter output = new BufferedWriter(writer);
+        final BufferedWriter output = new BufferedWriter(
+            new OutputStreamWriter(stream)
+        );
 
         output.write(VERSION + " " + status);
         output.newLine();
@@ -96,9 +169,75 @@ public class HTTPResponse
         }
 
         output.newLine();
-        output.write(content);
+
+        if (binary != null) {
+            output.flush();
+
+            try (final InputStream input = binary) {
+                final byte[ ] buffer = new byte[8192];
+
+                int read;
+                while ((read = input.read(buffer)) != -1)
+                    stream.write(buffer, 0, read);
+            }
+
+            stream.flush();
+            return;
+        }
+
+        try (final Reader input = content) {
+            final char[ ] buffer = new char[8192];
+
+            int read;
+            while ((read = input.read(buffer)) != -1)
+                output.write(buffer, 0, read);
+        }
 
         output.flush();
     }
 
+    /**
+     * Calcula el valor de la cabecera "Content-Length" de un cuerpo de
+     * respuesta, como su longitud en bytes en la codificacion con la
+     * que se envia (la codificacion por defecto de la plataforma).
+     * 
+     * @param content
+     *        El contenido del cuerpo de la respuesta.
+     * 
+     * @return La longitud en bytes del contenido, como String.
+     */
+    private static String contentLength(final String content)
+    {
+        return Integer.toString(
+            content.getBytes(Charset.defaultCharset()).length
+        );
+    }
+
+    /**
+     * Lee por completo el contenido de un {@link StringReader},
+     * cerrandolo a continuacion.
+     * 
+     * @param reader
+     *        El StringReader a leer.
+     * 
+     * @return Un String con el contenido (restante) del reader.
+     */
+    private static String drain(final Reader reader)
+    {
+        final StringBuilder builder = new StringBuilder();
+
+        try (final Reader input = reader) {
+            final char[ ] buffer = new char[8192];
+
+            int read;
+            while ((read = input.read(buffer)) != -1)
+                builder.append(buffer, 0, read);
+        } catch (final IOException ioe) {
+            // un StringReader abierto nunca produce errores de lectura
+            throw new IllegalStateException(ioe);
+        }
+
+        return builder.toString();
+    }
+
 }
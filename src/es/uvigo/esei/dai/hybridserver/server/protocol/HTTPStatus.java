@@ -14,6 +14,9 @@ public enum HTTPStatus
     // satisfactorios
     OK(200, "OK"), CREATED(201, "Created"),
 
+    // redirecciones
+    NOT_MODIFIED(304, "Not Modified"),
+
     // errores de cliente
     BAD_REQ(400, "Bad Request"), NOT_FOUND(404, "Not Found"),
     NOT_ALLOWED(405, "Method Not Allowed"),